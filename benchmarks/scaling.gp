@@ -0,0 +1,31 @@
+# Plots the output of ScalingSuite: gnuplot -e "csv='scaling.csv'" scaling.gp
+if (!exists("csv")) csv = 'scaling.csv'
+set datafile separator ','
+set key autotitle columnhead left top
+set terminal pngcairo size 1200,500
+set output 'scaling.png'
+set multiplot layout 1,3
+set logscale xy
+set xlabel 'transitions'
+set grid
+
+set title 'Time'
+set ylabel 'ms'
+plot csv using 1:3 with linespoints title 'build', \
+     '' using 1:8 with linespoints title 'load JFST', \
+     '' using 1:7 with linespoints title 'write JFST', \
+     '' using 1:9 with linespoints title 'parse AT&T'
+
+set title 'Lookup latency'
+set ylabel 'µs'
+plot csv using 1:10 with linespoints title 'mean', \
+     '' using 1:11 with linespoints title 'p99'
+
+set title 'Memory per transition'
+set ylabel 'bytes'
+unset logscale y
+plot csv using 1:($4/$1) with linespoints title 'heap', \
+     '' using 1:($5/$1) with linespoints title 'storage', \
+     '' using 1:($6/$1) with linespoints title 'JFST file'
+
+unset multiplot
@@ -0,0 +1,28 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, which reports the allocation rate and the bytes
+ * allocated per operation next to throughput and latency.
+ *
+ * Usage: java -jar benchmarks.jar [regex of benchmarks] [result file]
+ *
+ * For the full JMH command line, use java -cp benchmarks.jar org.openjdk.jmh.Main instead.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include((args.length > 0) ? args[0] : "de\\.tuebingen\\.sfs\\.jfst\\.bench\\..*")
+                .addProfiler(GCProfiler.class);
+        if (args.length > 1)
+            options.result(args[1]).resultFormat(ResultFormatType.JSON);
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,83 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.MutableFST;
+import de.tuebingen.sfs.jfst.io.FSTProducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction of and lookups in an FST with a single state of high fanout.
+ *
+ * The start state has the given number of arcs over the given number of symbols to accepting
+ * states, so every symbol has arcs/symbols arcs with different targets.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanoutBenchmark {
+
+    // First character of the symbols
+    private static final char FIRST_SYMBOL = '一';
+
+    @Param({"1000", "20000", "200000"})
+    public int arcs;
+
+    @Param({"3000"})
+    public int symbols;
+
+    private int nSymbols;
+    private byte[] att;
+    private CompactFST hub;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        nSymbols = Math.min(symbols, arcs);
+        StringBuilder s = new StringBuilder();
+        for (int t = 0; t < arcs; t++) {
+            char c = (char) (FIRST_SYMBOL + t % nSymbols);
+            s.append(0).append('\t').append(1 + t / nSymbols).append('\t')
+                    .append(c).append('\t').append(c).append('\n');
+        }
+        for (int t = 0; t < (arcs + nSymbols - 1) / nSymbols; t++)
+            s.append(1 + t).append('\n');
+        att = s.toString().getBytes(StandardCharsets.UTF_8);
+        hub = CompactFST.readFromATT(new ByteArrayInputStream(att), FSTProducer.HFST);
+    }
+
+    @Benchmark
+    public CompactFST compactFromATT() {
+        return CompactFST.readFromATT(new ByteArrayInputStream(att), FSTProducer.HFST);
+    }
+
+    @Benchmark
+    public MutableFST mutableFromATT() {
+        return MutableFST.readFromATT(new ByteArrayInputStream(att), FSTProducer.HFST);
+    }
+
+    @Benchmark
+    public Set<String> apply() {
+        char c = (char) (FIRST_SYMBOL + next);
+        next = (next + 1) % nSymbols;
+        return hub.apply(String.valueOf(c));
+    }
+}
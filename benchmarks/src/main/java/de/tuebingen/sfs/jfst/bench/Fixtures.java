@@ -0,0 +1,189 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.FST;
+import de.tuebingen.sfs.jfst.fst.MutableFST;
+import de.tuebingen.sfs.jfst.io.FSTProducer;
+import de.tuebingen.sfs.jfst.io.HFSTOLReader;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The FSTs and input corpora the benchmarks run on.
+ *
+ * The FSTs are the test resources of jfst: mal-orth2asciiprnc and mal-small transliterate
+ * Malayalam script and come as AT&amp;T, HFST and HFST optimized-lookup files, eus transcribes
+ * Basque and only comes as an HFST file. JFST files are written from the HFST files when needed.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param fst Name of an FST
+     * @return The HFST resource of the FST
+     */
+    static String hfst(String fst) {
+        return "/" + fst + ".hfst";
+    }
+
+    /**
+     * The optimized-lookup file of mal-small is weighted; weights are dropped on loading.
+     * @param fst Name of an FST
+     * @return The HFST optimized-lookup resource of the FST
+     */
+    static String hfstol(String fst) {
+        if (fst.equals("eus"))
+            throw new IllegalArgumentException("No optimized-lookup file of " + fst);
+        return "/" + fst + ((fst.equals("mal-small")) ? "-weighted" : "") + ".hfstol";
+    }
+
+    /**
+     * @param fst Name of an FST
+     * @return The AT&amp;T resource of the FST
+     */
+    static String att(String fst) {
+        return "/" + fst + ".att";
+    }
+
+    /**
+     * @param fst Name of an FST
+     * @return The words of the corpus in the input language of the FST
+     */
+    static String[] corpus(String fst) throws IOException {
+        String name = (fst.startsWith("mal")) ? "/corpus/mal.txt" : "/corpus/eus.txt";
+        List<String> words = new ArrayList<>();
+        try (BufferedReader read = new BufferedReader(new InputStreamReader(open(name), StandardCharsets.UTF_8))) {
+            for (String line = read.readLine(); line != null; line = read.readLine()) {
+                line = line.trim();
+                if (!line.isEmpty())
+                    words.add(line);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * @param words Words of a corpus
+     * @param length Maximum length of the prefixes
+     * @return The prefixes of the words
+     */
+    static String[] prefixes(String[] words, int length) {
+        String[] prefixes = new String[words.length];
+        for (int i = 0; i < words.length; i++)
+            prefixes[i] = words[i].substring(0, Math.min(length, words[i].length()));
+        return prefixes;
+    }
+
+    /**
+     * @param resource A resource of the benchmarks
+     * @return The content of the resource
+     */
+    static byte[] bytes(String resource) throws IOException {
+        try (InputStream in = open(resource)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf))
+                out.write(buf, 0, n);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * @param fst Name of an FST
+     * @return The FST in JFST format
+     */
+    static byte[] jfst(String fst) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compact(fst).writeToBinary(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param fst Name of an FST
+     * @return The FST as a CompactFST
+     */
+    static CompactFST compact(String fst) throws IOException {
+        return compact(fst, "hfst");
+    }
+
+    /**
+     * @param fst Name of an FST
+     * @param format "hfst" or "hfstol"
+     * @return The FST as a CompactFST, read from a file of the given format
+     */
+    static CompactFST compact(String fst, String format) throws IOException {
+        switch (format) {
+            case "hfst":
+                return CompactFST.readFromBinary(new ByteArrayInputStream(bytes(hfst(fst))), FSTProducer.HFST, false);
+            case "hfstol":
+                return HFSTOLReader.read(new ByteArrayInputStream(bytes(hfstol(fst))));
+            default:
+                throw new IllegalArgumentException("Unknown file format: " + format);
+        }
+    }
+
+    /**
+     * MutableFSTs cannot be read from HFST files, so the FST is converted to JFST first.
+     * @param fst Name of an FST
+     * @return The FST as a MutableFST
+     */
+    static MutableFST mutable(String fst) throws IOException {
+        return MutableFST.readFromBinary(new ByteArrayInputStream(jfst(fst)));
+    }
+
+    /**
+     * @param fst Name of an FST
+     * @param impl "compact" or "mutable"
+     * @param format The format to read a CompactFST from, "hfst" or "hfstol"
+     * @return The FST in the given implementation
+     */
+    static FST load(String fst, String impl, String format) throws IOException {
+        switch (impl) {
+            case "compact":
+                return compact(fst, format);
+            case "mutable":
+                if (!format.equals("hfst"))
+                    throw new IllegalArgumentException("MutableFSTs are only read from HFST files");
+                return mutable(fst);
+            default:
+                throw new IllegalArgumentException("Unknown FST implementation: " + impl);
+        }
+    }
+
+    private static InputStream open(String resource) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream(resource);
+        if (in == null)
+            throw new FileNotFoundException("Resource not found: " + resource);
+        return in;
+    }
+
+    /**
+     * An output stream that only counts the bytes written to it.
+     */
+    static final class CountingOutputStream extends OutputStream {
+
+        long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
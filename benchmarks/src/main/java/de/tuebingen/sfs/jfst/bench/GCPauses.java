@@ -0,0 +1,72 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the durations of garbage collections while it is open, from the notifications the
+ * garbage collector beans send after every collection.
+ *
+ * The durations are those reported by the JVM: stop-the-world pauses for the serial, parallel
+ * and G1 young and mixed collections, but whole cycles for the beans of concurrent collectors.
+ */
+final class GCPauses implements NotificationListener, AutoCloseable {
+
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private long count = 0;
+    private long totalMillis = 0;
+    private long maxMillis = 0;
+
+    GCPauses() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(this, null, null);
+                emitters.add((NotificationEmitter) gc);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void handleNotification(Notification notification, Object handback) {
+        if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+            return;
+        GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        long millis = info.getGcInfo().getDuration();
+        count++;
+        totalMillis += millis;
+        maxMillis = Math.max(maxMillis, millis);
+    }
+
+    synchronized long count() {
+        return count;
+    }
+
+    synchronized long totalMillis() {
+        return totalMillis;
+    }
+
+    synchronized long maxMillis() {
+        return maxMillis;
+    }
+
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException e) {
+                // Already removed
+            }
+        }
+    }
+}
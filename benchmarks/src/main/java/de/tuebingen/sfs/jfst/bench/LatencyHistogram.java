@@ -0,0 +1,92 @@
+package de.tuebingen.sfs.jfst.bench;
+
+/**
+ * A histogram of latencies in nanoseconds with a relative error below 1%.
+ *
+ * Values below 2^SUB_BITS are counted exactly. Every larger power of two is divided into
+ * 2^SUB_BITS buckets of equal width, so recording is a few bit operations and an array
+ * increment. Histograms are not thread-safe; every thread records into its own histogram and
+ * the histograms are merged afterwards.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS + 1) << SUB_BITS];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    /**
+     * @param nanos A latency
+     */
+    void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts[index(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos > max)
+            max = nanos;
+    }
+
+    /**
+     * Add all latencies of another histogram to this one.
+     * @param other The other histogram
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    long count() {
+        return count;
+    }
+
+    long max() {
+        return max;
+    }
+
+    double mean() {
+        return (count == 0) ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * @param q A quantile between 0 and 1
+     * @return The smallest latency such that a ratio of q of all latencies is at most as large,
+     *         rounded up to the upper bound of its bucket
+     */
+    long quantile(double q) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        int exp = 63 - Long.numberOfLeadingZeros(value | 1);
+        if (exp < SUB_BITS)
+            return (int) value;
+        int shift = exp - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_COUNT);
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_COUNT)
+            return index;
+        int shift = (index >>> SUB_BITS) - 1;
+        long sub = index & (SUB_COUNT - 1);
+        long bound = ((SUB_COUNT + sub + 1) << shift) - 1;
+        return (bound < 0) ? Long.MAX_VALUE : bound;
+    }
+}
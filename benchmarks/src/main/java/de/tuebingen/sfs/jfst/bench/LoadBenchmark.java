@@ -0,0 +1,128 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.MutableFST;
+import de.tuebingen.sfs.jfst.io.FSTProducer;
+import de.tuebingen.sfs.jfst.io.HFSTOLReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading FSTs from JFST, JFST container, HFST, HFST optimized-lookup and AT&amp;T files.
+ *
+ * Apart from the container benchmark, the files are read from memory, so the benchmarks measure
+ * parsing and construction, not the file system.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Binary {
+
+        @Param({"mal-orth2asciiprnc", "mal-small", "eus"})
+        public String fst;
+
+        byte[] hfst;
+        byte[] jfst;
+        Path container;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            hfst = Fixtures.bytes(Fixtures.hfst(fst));
+            jfst = Fixtures.jfst(fst);
+            container = Files.createTempFile(fst, ".jfst");
+            Fixtures.compact(fst).writeToContainer(container, false);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(container);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ATT {
+
+        // Only these FSTs come as AT&T files
+        @Param({"mal-orth2asciiprnc", "mal-small"})
+        public String fst;
+
+        byte[] att;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            att = Fixtures.bytes(Fixtures.att(fst));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class HFSTOL {
+
+        // Only these FSTs come as optimized-lookup files
+        @Param({"mal-orth2asciiprnc", "mal-small"})
+        public String fst;
+
+        byte[] hfstol;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            hfstol = Fixtures.bytes(Fixtures.hfstol(fst));
+        }
+    }
+
+    @Benchmark
+    public CompactFST compactFromJFST(Binary file) throws IOException {
+        return CompactFST.readFromBinary(new ByteArrayInputStream(file.jfst), FSTProducer.JFST, false);
+    }
+
+    @Benchmark
+    public CompactFST compactFromContainer(Binary file) throws IOException {
+        return CompactFST.readFromBinary(file.container);
+    }
+
+    @Benchmark
+    public CompactFST compactFromHFST(Binary file) throws IOException {
+        return CompactFST.readFromBinary(new ByteArrayInputStream(file.hfst), FSTProducer.HFST, false);
+    }
+
+    @Benchmark
+    public CompactFST compactFromHFSTOL(HFSTOL file) throws IOException {
+        return HFSTOLReader.read(new ByteArrayInputStream(file.hfstol));
+    }
+
+    @Benchmark
+    public CompactFST compactFromATT(ATT file) {
+        return CompactFST.readFromATT(new ByteArrayInputStream(file.att), FSTProducer.HFST);
+    }
+
+    @Benchmark
+    public MutableFST mutableFromJFST(Binary file) throws IOException {
+        return MutableFST.readFromBinary(new ByteArrayInputStream(file.jfst));
+    }
+
+    @Benchmark
+    public MutableFST mutableFromATT(ATT file) {
+        return MutableFST.readFromATT(new ByteArrayInputStream(file.att), FSTProducer.HFST);
+    }
+}
@@ -0,0 +1,442 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import de.tuebingen.sfs.jfst.fst.CachedFST;
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.CompiledFST;
+import de.tuebingen.sfs.jfst.fst.FST;
+import de.tuebingen.sfs.jfst.fst.MutableFST;
+import de.tuebingen.sfs.jfst.io.FSTProducer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a corpus of tokens against FSTs with several threads and reports latency
+ * percentiles, throughput and garbage collection as JSON.
+ *
+ * Usage: LoadTest [option=value ...] fst-file corpus-file
+ *
+ * The FST file may be a JFST file or container (.jfst), an HFST file (.hfst, .hfstol) or an
+ * AT&amp;T file (.att). The corpus is split into tokens at whitespace. Options:
+ * <ul>
+ *     <li>engines: comma-separated list of mutable, compact, cached, compressed, offheap, mapped,
+ *     paged and compiled (default all)</li>
+ *     <li>threads: number of threads (default 1)</li>
+ *     <li>mode: closed (every thread looks up the next token as soon as the last one is done),
+ *     fixed (lookups arrive at a constant rate) or poisson (lookups arrive at exponentially
+ *     distributed intervals); default closed</li>
+ *     <li>rate: lookups per second of all threads together, for fixed and poisson</li>
+ *     <li>duration, warmup: seconds of measurement and of warm-up per engine (default 10 and 3)</li>
+ *     <li>cache: capacity of the cached engine (default 65536)</li>
+ *     <li>pageCache: bytes of transitions the paged engine keeps in memory (default 16 MB)</li>
+ *     <li>producer: producer of an AT&amp;T file, hfst or sfst (default hfst)</li>
+ *     <li>out: JSON file (default: standard output only)</li>
+ * </ul>
+ *
+ * With an arrival rate, the latency of a lookup is measured from the time it was scheduled to
+ * arrive, not from the time it started, so lookups that queue up behind slow ones count as slow.
+ * Lookups still queued at the end of the measurement are reported as dropped.
+ */
+public class LoadTest {
+
+    private static final String ALL_ENGINES = "mutable,compact,cached,compressed,offheap,mapped,paged,compiled";
+    // Waits shorter than this are spun instead of parked
+    private static final long SPIN_NANOS = 50000;
+
+    private final Path fstFile;
+    private final FSTProducer producer;
+    private final String[] tokens;
+    private final int nThreads;
+    private final String mode;
+    private final double rate;
+    private final long durationNanos;
+    private final long warmupNanos;
+    private final int cacheCapacity;
+    private final long pageCacheBytes;
+
+    private LoadTest(Path fstFile, FSTProducer producer, String[] tokens, Map<String, String> options) {
+        this.fstFile = fstFile;
+        this.producer = producer;
+        this.tokens = tokens;
+        this.nThreads = Integer.parseInt(options.getOrDefault("threads", "1"));
+        this.mode = options.getOrDefault("mode", "closed");
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.durationNanos = (long) (1e9 * Double.parseDouble(options.getOrDefault("duration", "10")));
+        this.warmupNanos = (long) (1e9 * Double.parseDouble(options.getOrDefault("warmup", "3")));
+        this.cacheCapacity = Integer.parseInt(options.getOrDefault("cache", "65536"));
+        this.pageCacheBytes = Long.parseLong(options.getOrDefault("pageCache", Long.toString(16L << 20)));
+        if (!mode.equals("closed") && !mode.equals("fixed") && !mode.equals("poisson"))
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        if (!mode.equals("closed") && rate <= 0)
+            throw new IllegalArgumentException("Mode " + mode + " needs a positive rate");
+        if (nThreads < 1 || tokens.length == 0)
+            throw new IllegalArgumentException("Need at least one thread and one token");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LoadTest [option=value ...] fst-file corpus-file");
+            System.exit(1);
+        }
+        Map<String, String> options = SyntheticFST.options(Arrays.copyOf(args, args.length - 2));
+        Path fstFile = Paths.get(args[args.length - 2]);
+        Path corpus = Paths.get(args[args.length - 1]);
+        FSTProducer producer = FSTProducer.valueOf(options.getOrDefault("producer", "hfst").toUpperCase());
+        String[] engines = options.getOrDefault("engines", ALL_ENGINES).split(",");
+        String out = options.get("out");
+
+        LoadTest test = new LoadTest(fstFile, producer, tokens(corpus), options);
+        List<Result> results = new ArrayList<>();
+        for (String engine : engines) {
+            Result result = test.run(engine.trim());
+            System.err.println(result.summary());
+            results.add(result);
+        }
+
+        StringBuilder json = new StringBuilder();
+        test.writeJSON(json, corpus, results);
+        System.out.println(json);
+        if (out != null) {
+            try (Writer w = Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8)) {
+                w.append(json).append('\n');
+            }
+        }
+    }
+
+    // Split a corpus into tokens at whitespace
+    private static String[] tokens(Path corpus) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        for (String line : Files.readAllLines(corpus, StandardCharsets.UTF_8)) {
+            for (String token : line.trim().split("\\s+")) {
+                if (!token.isEmpty())
+                    tokens.add(token);
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    /**
+     * Load the FST as the given engine, warm it up and measure it.
+     */
+    private Result run(String engine) throws Exception {
+        List<Path> tempFiles = new ArrayList<>();
+        try {
+            long t = System.nanoTime();
+            FST fst = open(engine, tempFiles);
+            long loadNanos = System.nanoTime() - t;
+            boolean fallback = engine.equals("compiled") && !(fst instanceof CompiledFST);
+
+            replay(fst, warmupNanos);
+            Worker[] workers;
+            long elapsed;
+            GCPauses gc = new GCPauses();
+            try {
+                t = System.nanoTime();
+                workers = replay(fst, durationNanos);
+                elapsed = System.nanoTime() - t;
+                // Notifications of the last collections may still be on their way
+                Thread.sleep(100);
+            } finally {
+                gc.close();
+            }
+
+            LatencyHistogram latencies = new LatencyHistogram();
+            long found = 0;
+            long dropped = 0;
+            for (Worker worker : workers) {
+                latencies.add(worker.latencies);
+                found += worker.found;
+                dropped += worker.dropped;
+            }
+            if (fst instanceof Closeable)
+                ((Closeable) fst).close();
+            return new Result(engine, fallback, loadNanos, elapsed, latencies, found, dropped, gc);
+        } finally {
+            for (Path file : tempFiles)
+                Files.deleteIfExists(file);
+        }
+    }
+
+    private FST open(String engine, List<Path> tempFiles) throws IOException {
+        switch (engine) {
+            case "mutable":
+                if (isATT()) {
+                    try (InputStream in = Files.newInputStream(fstFile)) {
+                        return MutableFST.readFromATT(in, producer);
+                    }
+                }
+                // MutableFSTs only read JFST version 1 files, so convert the FST
+                ByteArrayOutputStream jfst = new ByteArrayOutputStream();
+                compact().writeToBinary(jfst);
+                return MutableFST.readFromBinary(new ByteArrayInputStream(jfst.toByteArray()));
+            case "compact":
+                return compact();
+            case "cached":
+                return new CachedFST(compact(), cacheCapacity, nThreads);
+            case "compressed":
+                return compact().compress();
+            case "offheap":
+                return compact().offHeap();
+            case "mapped":
+                Path mapped = tempFile(tempFiles);
+                compact().writeToMapped(mapped);
+                return CompactFST.readFromMapped(mapped);
+            case "paged":
+                Path container = tempFile(tempFiles);
+                compact().writeToContainer(container, false);
+                return CompactFST.readFromPaged(container, false, pageCacheBytes);
+            case "compiled":
+                return CompiledFST.compile(compact());
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    private CompactFST compact() throws IOException {
+        if (isATT()) {
+            try (InputStream in = Files.newInputStream(fstFile)) {
+                return CompactFST.readFromATT(in, producer);
+            }
+        }
+        return CompactFST.readFromBinary(fstFile);
+    }
+
+    private boolean isATT() {
+        return fstFile.toString().endsWith(".att");
+    }
+
+    private static Path tempFile(List<Path> tempFiles) throws IOException {
+        Path file = Files.createTempFile("loadtest", ".jfst");
+        tempFiles.add(file);
+        return file;
+    }
+
+    /**
+     * Replay the corpus with all threads for the given time.
+     */
+    private Worker[] replay(FST fst, long nanos) throws InterruptedException {
+        Worker[] workers = new Worker[nThreads];
+        Thread[] threads = new Thread[nThreads];
+        CountDownLatch ready = new CountDownLatch(nThreads);
+        CountDownLatch go = new CountDownLatch(1);
+        for (int i = 0; i < nThreads; i++) {
+            workers[i] = new Worker(fst, i, ready, go);
+            threads[i] = new Thread(workers[i], "loadtest-" + i);
+            threads[i].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        for (Worker worker : workers) {
+            worker.start = start;
+            worker.end = start + nanos;
+        }
+        go.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        for (Worker worker : workers) {
+            if (worker.error != null)
+                throw new IllegalStateException("Lookup failed", worker.error);
+        }
+        return workers;
+    }
+
+    private void writeJSON(StringBuilder json, Path corpus, List<Result> results) {
+        json.append("{\n");
+        json.append("  \"fst\": ").append(quote(fstFile.toString())).append(",\n");
+        json.append("  \"corpus\": ").append(quote(corpus.toString())).append(",\n");
+        json.append("  \"tokens\": ").append(tokens.length).append(",\n");
+        json.append("  \"threads\": ").append(nThreads).append(",\n");
+        json.append("  \"mode\": ").append(quote(mode)).append(",\n");
+        json.append("  \"rate\": ").append(format(rate)).append(",\n");
+        json.append("  \"durationSeconds\": ").append(format(durationNanos / 1e9)).append(",\n");
+        json.append("  \"warmupSeconds\": ").append(format(warmupNanos / 1e9)).append(",\n");
+        json.append("  \"java\": ").append(quote(System.getProperty("java.version"))).append(",\n");
+        json.append("  \"vm\": ").append(quote(System.getProperty("java.vm.name"))).append(",\n");
+        json.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"engines\": [");
+        for (int i = 0; i < results.size(); i++) {
+            json.append((i == 0) ? "\n" : ",\n");
+            results.get(i).writeJSON(json);
+        }
+        json.append("\n  ]\n}");
+    }
+
+    private static String quote(String s) {
+        StringBuilder q = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\')
+                q.append('\\').append(c);
+            else if (c < 0x20)
+                q.append(String.format("\\u%04x", (int) c));
+            else
+                q.append(c);
+        }
+        return q.append('"').toString();
+    }
+
+    private static String format(double d) {
+        return String.format(Locale.ROOT, "%.3f", d);
+    }
+
+    /**
+     * A thread that looks up tokens of the corpus, starting at its share of the corpus.
+     */
+    private final class Worker implements Runnable {
+
+        private final FST fst;
+        private final int id;
+        private final CountDownLatch ready;
+        private final CountDownLatch go;
+        final LatencyHistogram latencies = new LatencyHistogram();
+        long found = 0;
+        // Arrivals that were scheduled before the end but not served
+        long dropped = 0;
+        volatile long start;
+        volatile long end;
+        volatile Throwable error;
+
+        Worker(FST fst, int id, CountDownLatch ready, CountDownLatch go) {
+            this.fst = fst;
+            this.id = id;
+            this.ready = ready;
+            this.go = go;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ready.countDown();
+                go.await();
+                int next = (int) ((long) id * tokens.length / nThreads);
+                if (mode.equals("closed"))
+                    closed(next);
+                else
+                    paced(next);
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        private void closed(int next) {
+            long end = this.end;
+            for (long t = System.nanoTime(); t < end; ) {
+                if (!fst.apply(tokens[next]).isEmpty())
+                    found++;
+                long done = System.nanoTime();
+                latencies.record(done - t);
+                t = done;
+                if (++next == tokens.length)
+                    next = 0;
+            }
+        }
+
+        private void paced(int next) {
+            long end = this.end;
+            // Mean interval between two arrivals at this thread
+            double interval = 1e9 * nThreads / rate;
+            boolean fixed = mode.equals("fixed");
+            SplittableRandom rnd = new SplittableRandom(id);
+            // Stagger the first arrivals of the threads
+            double arrival = start + interval * id / nThreads;
+            for (; arrival < end; arrival += (fixed) ? interval : -interval * Math.log(1.0 - rnd.nextDouble())) {
+                long scheduled = (long) arrival;
+                long wait;
+                while ((wait = scheduled - System.nanoTime()) > 0) {
+                    if (wait > SPIN_NANOS)
+                        LockSupport.parkNanos(wait - SPIN_NANOS);
+                }
+                // Do not work off a backlog after the end, but count it
+                if (System.nanoTime() >= end) {
+                    dropped++;
+                    continue;
+                }
+                if (!fst.apply(tokens[next]).isEmpty())
+                    found++;
+                latencies.record(System.nanoTime() - scheduled);
+                if (++next == tokens.length)
+                    next = 0;
+            }
+        }
+    }
+
+    /**
+     * The measurements of one engine.
+     */
+    private static final class Result {
+
+        final String engine;
+        final boolean fallback;
+        final long loadNanos;
+        final long elapsedNanos;
+        final LatencyHistogram latencies;
+        final long found;
+        final long dropped;
+        final long gcCount;
+        final long gcMillis;
+        final long gcMaxMillis;
+
+        Result(String engine, boolean fallback, long loadNanos, long elapsedNanos, LatencyHistogram latencies,
+               long found, long dropped, GCPauses gc) {
+            this.engine = engine;
+            this.fallback = fallback;
+            this.loadNanos = loadNanos;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.found = found;
+            this.dropped = dropped;
+            this.gcCount = gc.count();
+            this.gcMillis = gc.totalMillis();
+            this.gcMaxMillis = gc.maxMillis();
+        }
+
+        double throughput() {
+            return latencies.count() / (elapsedNanos / 1e9);
+        }
+
+        String summary() {
+            return String.format(Locale.ROOT, "%-10s %10.0f ops/s  p50 %8.1f us  p99 %8.1f us  p999 %8.1f us  "
+                            + "gc %d in %d ms (max %d ms)%s%s", engine, throughput(), latencies.quantile(0.5) / 1e3,
+                    latencies.quantile(0.99) / 1e3, latencies.quantile(0.999) / 1e3, gcCount, gcMillis, gcMaxMillis,
+                    (dropped > 0) ? "  dropped " + dropped : "", (fallback) ? "  (not compiled)" : "");
+        }
+
+        void writeJSON(StringBuilder json) {
+            json.append("    {\n");
+            json.append("      \"engine\": ").append(quote(engine)).append(",\n");
+            if (fallback)
+                json.append("      \"fallback\": \"compact\",\n");
+            json.append("      \"loadMillis\": ").append(format(loadNanos / 1e6)).append(",\n");
+            json.append("      \"lookups\": ").append(latencies.count()).append(",\n");
+            json.append("      \"found\": ").append(found).append(",\n");
+            json.append("      \"dropped\": ").append(dropped).append(",\n");
+            json.append("      \"throughput\": ").append(format(throughput())).append(",\n");
+            json.append("      \"latencyMicros\": {");
+            json.append("\"mean\": ").append(format(latencies.mean() / 1e3));
+            json.append(", \"p50\": ").append(format(latencies.quantile(0.5) / 1e3));
+            json.append(", \"p90\": ").append(format(latencies.quantile(0.9) / 1e3));
+            json.append(", \"p99\": ").append(format(latencies.quantile(0.99) / 1e3));
+            json.append(", \"p999\": ").append(format(latencies.quantile(0.999) / 1e3));
+            json.append(", \"max\": ").append(format(latencies.max() / 1e3)).append("},\n");
+            json.append("      \"gc\": {\"collections\": ").append(gcCount)
+                    .append(", \"millis\": ").append(gcMillis)
+                    .append(", \"maxMillis\": ").append(gcMaxMillis).append("}\n");
+            json.append("    }");
+        }
+    }
+}
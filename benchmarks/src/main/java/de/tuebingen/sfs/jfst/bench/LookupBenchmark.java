@@ -0,0 +1,84 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import de.tuebingen.sfs.jfst.fst.FST;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups and prefix searches of the words of a corpus, one word per call.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    @Param({"mal-orth2asciiprnc", "mal-small", "eus"})
+    public String fst;
+
+    @Param({"compact", "mutable"})
+    public String impl;
+
+    // The file a CompactFST is read from; "hfstol" only exists for mal-orth2asciiprnc and mal-small
+    @Param({"hfst"})
+    public String format;
+
+    // The number of completions grows exponentially with the suffix length
+    @Param({"1"})
+    public int maxSuffix;
+
+    @Param({"2"})
+    public int prefixLength;
+
+    private FST lookup;
+    private String[] words;
+    private String[] prefixes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        lookup = Fixtures.load(fst, impl, format);
+        words = Fixtures.corpus(fst);
+        prefixes = Fixtures.prefixes(words, prefixLength);
+    }
+
+    @Benchmark
+    public Set<String> apply(Cursor cursor) {
+        return lookup.apply(words[cursor.next(words.length)]);
+    }
+
+    @Benchmark
+    public Set<String> prefixSearch(Cursor cursor) {
+        return lookup.prefixSearch(prefixes[cursor.next(prefixes.length)], maxSuffix);
+    }
+
+    /**
+     * The position of a thread in the corpus.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int i = 0;
+
+        int next(int length) {
+            if (i >= length)
+                i = 0;
+            return i++;
+        }
+    }
+}
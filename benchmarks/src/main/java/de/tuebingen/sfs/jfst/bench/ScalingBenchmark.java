@@ -0,0 +1,101 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Construction, loading and lookups of synthetic FSTs of growing size.
+ *
+ * Larger sizes need a larger heap, e.g. -p arcs=100000000 -jvmArgs -Xmx8g. For memory use and
+ * plots, see ScalingSuite.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ScalingBenchmark {
+
+    @Param({"1000000", "4000000", "16000000"})
+    public long arcs;
+
+    @Param({"UNIFORM"})
+    public SyntheticFST.Fanout fanout;
+
+    @Param({"4"})
+    public int mean;
+
+    @Param({"256"})
+    public int symbols;
+
+    @Param({"0.0"})
+    public double multichar;
+
+    @Param({"0.0"})
+    public double epsilon;
+
+    @Param({"0.0"})
+    public double cycles;
+
+    private SyntheticFST generator;
+    private CompactFST fst;
+    private Path jfst;
+    private String[] inputs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        generator = new SyntheticFST(0).states((int) Math.max(1, arcs / mean)).fanout(fanout, mean)
+                .symbols(symbols).multicharRatio(multichar).epsilonDensity(epsilon).cycleRatio(cycles);
+        fst = generator.build();
+        jfst = Files.createTempFile("synthetic", ".jfst");
+        fst.writeToContainer(jfst, false);
+        inputs = generator.sampleInputs(10000, 30, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(jfst);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public CompactFST build() {
+        return generator.build();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public CompactFST load() throws IOException {
+        return CompactFST.readFromBinary(jfst);
+    }
+
+    @Benchmark
+    public Set<String> apply(LookupBenchmark.Cursor cursor) {
+        return fst.apply(inputs[cursor.next(inputs.length)]);
+    }
+}
@@ -0,0 +1,136 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.io.ATTReader;
+import de.tuebingen.sfs.jfst.io.FSTProducer;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures time and memory of synthetic FSTs of growing size and writes them to a CSV file,
+ * which scaling.gp plots against the number of transitions.
+ *
+ * Usage: ScalingSuite [option=value ...]
+ *
+ * Options: sizes (comma-separated numbers of transitions, default 1M,2M,4M,8M,16M), out (the
+ * CSV file, default scaling.csv), att (true to also measure AT&amp;T parsing, default false),
+ * threads (AT&amp;T parsing threads, default 1), inputs (number of lookups, default 10000), and
+ * the options of SyntheticFST.configure() except for states, which follows from the size.
+ *
+ * Every size is measured in the same JVM one after the other, so the heap has to hold the
+ * largest FST about twice. Times are single measurements after one warm-up run of the smallest
+ * size; use ScalingBenchmark for more precise times.
+ */
+public class ScalingSuite {
+
+    private static final String HEADER = "arcs,states,build_ms,heap_bytes,storage_bytes,jfst_bytes,write_ms,"
+            + "load_ms,att_ms,lookup_mean_us,lookup_p99_us";
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = SyntheticFST.options(args);
+        long[] sizes = Arrays.stream(options.getOrDefault("sizes", "1M,2M,4M,8M,16M").split(","))
+                .mapToLong(ScalingSuite::parseSize).toArray();
+        Path out = Paths.get(options.getOrDefault("out", "scaling.csv"));
+        boolean att = Boolean.parseBoolean(options.getOrDefault("att", "false"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+        int nInputs = Integer.parseInt(options.getOrDefault("inputs", "10000"));
+        for (String key : new String[]{"sizes", "out", "att", "threads", "inputs", "states"})
+            options.remove(key);
+        SyntheticFST gen = SyntheticFST.configure(options);
+        if (!options.isEmpty())
+            throw new IllegalArgumentException("Unknown options: " + options.keySet());
+        int mean = gen.getMeanFanout();
+
+        // Warm up with the smallest size
+        measure(gen.states((int) Math.max(1, sizes[0] / mean)), att, threads, nInputs);
+        try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8))) {
+            csv.println(HEADER);
+            System.out.println(HEADER);
+            for (long size : sizes) {
+                String row = measure(gen.states((int) Math.max(1, size / mean)), att, threads, nInputs);
+                csv.println(row);
+                csv.flush();
+                System.out.println(row);
+            }
+        }
+    }
+
+    private static String measure(SyntheticFST gen, boolean att, int threads, int nInputs) throws IOException {
+        long heap = usedHeap();
+        long t = System.nanoTime();
+        CompactFST fst = gen.build();
+        long buildNanos = System.nanoTime() - t;
+        long heapBytes = usedHeap() - heap;
+        long storageBytes = fst.storageSize();
+
+        Path jfst = Files.createTempFile("synthetic", ".jfst");
+        Path attFile = null;
+        try {
+            t = System.nanoTime();
+            fst.writeToContainer(jfst, false);
+            long writeNanos = System.nanoTime() - t;
+            long jfstBytes = Files.size(jfst);
+            long nArcs = fst.nOfTransitionsLong();
+            fst = null;
+            usedHeap();
+            t = System.nanoTime();
+            fst = CompactFST.readFromBinary(jfst);
+            long loadNanos = System.nanoTime() - t;
+
+            long attNanos = -1;
+            if (att) {
+                attFile = Files.createTempFile("synthetic", ".att");
+                gen.writeATT(attFile);
+                usedHeap();
+                t = System.nanoTime();
+                ATTReader.read(attFile, FSTProducer.HFST, false, threads);
+                attNanos = System.nanoTime() - t;
+            }
+
+            String[] inputs = gen.sampleInputs(nInputs, 30, 1);
+            long[] nanos = new long[inputs.length];
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < inputs.length; i++) {
+                    t = System.nanoTime();
+                    fst.apply(inputs[i]);
+                    nanos[i] = System.nanoTime() - t;
+                }
+            }
+            Arrays.sort(nanos);
+            double mean = Arrays.stream(nanos).average().orElse(0) / 1e3;
+            double p99 = nanos[Math.min(nanos.length - 1, (int) (0.99 * nanos.length))] / 1e3;
+
+            return String.format(Locale.ROOT, "%d,%d,%.1f,%d,%d,%d,%.1f,%.1f,%.1f,%.2f,%.2f", nArcs,
+                    fst.nOfStates(), buildNanos / 1e6, heapBytes, storageBytes, jfstBytes, writeNanos / 1e6,
+                    loadNanos / 1e6, (attNanos < 0) ? Double.NaN : attNanos / 1e6, mean, p99);
+        } finally {
+            Files.deleteIfExists(jfst);
+            if (attFile != null)
+                Files.deleteIfExists(attFile);
+        }
+    }
+
+    // The used heap after garbage collection
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    // A number with an optional suffix k, M or G
+    private static long parseSize(String size) {
+        size = size.trim();
+        char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+        long factor = (unit == 'K') ? 1000L : (unit == 'M') ? 1000000L : (unit == 'G') ? 1000000000L : 1L;
+        return (factor == 1) ? Long.parseLong(size) : factor * Long.parseLong(size.substring(0, size.length() - 1));
+    }
+}
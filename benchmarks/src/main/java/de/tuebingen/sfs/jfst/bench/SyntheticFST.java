@@ -0,0 +1,463 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.alphabet.Symbol;
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.CompactFSTBuilder;
+import de.tuebingen.sfs.jfst.io.FSTProducer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * A generator of large random FSTs for scaling benchmarks.
+ *
+ * The generator is deterministic: the transitions of a state only depend on the seed, the
+ * configuration and the id of the state. The same configuration therefore always yields the
+ * same FST, whether it is built in memory or written to an AT&amp;T file, and the states are
+ * generated one after the other without keeping the FST in memory.
+ *
+ * State 0 is the start state. The first transition of every other state but the last one leads
+ * to the next state, so all states are reachable. The last state is accepting, all others with
+ * a given probability. Epsilon transitions always lead forward, so there are no epsilon cycles;
+ * a given ratio of the other transitions leads back to an earlier state or the state itself.
+ *
+ * The symbols are single characters (a-z, then CJK ideographs) and, for a given ratio of the
+ * symbols, multi-character symbols of the form &lt;m0&gt;, &lt;m1&gt;, ... Epsilon is symbol 0.
+ */
+public class SyntheticFST {
+
+    /**
+     * The distribution of the number of transitions per state.
+     */
+    public enum Fanout {
+        /**
+         * Every state has the mean number of transitions.
+         */
+        CONSTANT,
+        /**
+         * Uniformly distributed between 1 and twice the mean.
+         */
+        UNIFORM,
+        /**
+         * Pareto distributed with shape 1.5: most states have few transitions, a few states
+         * have very many (up to the maximum fanout). The mean is only approximate.
+         */
+        PARETO
+    }
+
+    // Number of single-character symbols available
+    private static final int MAX_CHAR_SYMBOLS = 26 + 20000;
+    private static final double PARETO_SHAPE = 1.5;
+
+    private final long seed;
+    private int nStates = 1000;
+    private Fanout fanout = Fanout.UNIFORM;
+    private int meanFanout = 4;
+    private int maxFanout = 100000;
+    private int maxJump = 16;
+    private int nSymbols = 64;
+    private double multicharRatio = 0.0;
+    private double epsilonDensity = 0.0;
+    private double cycleRatio = 0.0;
+    private double acceptingRatio = 0.1;
+
+    /**
+     * @param seed The seed all transitions are derived from
+     */
+    public SyntheticFST(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param nStates The number of states (default 1000)
+     * @return This generator
+     */
+    public SyntheticFST states(int nStates) {
+        if (nStates < 1)
+            throw new IllegalArgumentException("An FST needs at least one state");
+        this.nStates = nStates;
+        return this;
+    }
+
+    /**
+     * @param fanout The distribution of the number of transitions per state (default UNIFORM)
+     * @param mean The mean number of transitions per state (default 4)
+     * @return This generator
+     */
+    public SyntheticFST fanout(Fanout fanout, int mean) {
+        if (mean < 1)
+            throw new IllegalArgumentException("The mean fanout has to be at least 1");
+        this.fanout = fanout;
+        this.meanFanout = mean;
+        return this;
+    }
+
+    /**
+     * @param maxFanout The maximum number of transitions per state (default 100000)
+     * @return This generator
+     */
+    public SyntheticFST maxFanout(int maxFanout) {
+        this.maxFanout = Math.max(1, maxFanout);
+        return this;
+    }
+
+    /**
+     * @param maxJump The maximum distance between a state and the target of a forward
+     *                transition (default 16); larger distances make for shorter paths
+     * @return This generator
+     */
+    public SyntheticFST maxJump(int maxJump) {
+        this.maxJump = Math.max(1, maxJump);
+        return this;
+    }
+
+    /**
+     * @param nSymbols The number of symbols apart from epsilon (default 64)
+     * @return This generator
+     */
+    public SyntheticFST symbols(int nSymbols) {
+        if (nSymbols < 1)
+            throw new IllegalArgumentException("An FST needs at least one symbol");
+        this.nSymbols = nSymbols;
+        return this;
+    }
+
+    /**
+     * @param ratio The ratio of multi-character symbols among all symbols (default 0)
+     * @return This generator
+     */
+    public SyntheticFST multicharRatio(double ratio) {
+        this.multicharRatio = ratio;
+        return this;
+    }
+
+    /**
+     * @param density The ratio of forward transitions with epsilon input, and of transitions
+     *                with epsilon output (default 0)
+     * @return This generator
+     */
+    public SyntheticFST epsilonDensity(double density) {
+        this.epsilonDensity = density;
+        return this;
+    }
+
+    /**
+     * @param ratio The ratio of transitions that lead back to an earlier state or to the
+     *              state itself (default 0, i.e. the FST is acyclic)
+     * @return This generator
+     */
+    public SyntheticFST cycleRatio(double ratio) {
+        this.cycleRatio = ratio;
+        return this;
+    }
+
+    /**
+     * @param ratio The ratio of accepting states (default 0.1)
+     * @return This generator
+     */
+    public SyntheticFST acceptingRatio(double ratio) {
+        this.acceptingRatio = ratio;
+        return this;
+    }
+
+    /**
+     * @param seed Another seed
+     * @return A generator with the same configuration and another seed
+     */
+    public SyntheticFST withSeed(long seed) {
+        return new SyntheticFST(seed).states(nStates).fanout(fanout, meanFanout).maxFanout(maxFanout)
+                .maxJump(maxJump).symbols(nSymbols).multicharRatio(multicharRatio).epsilonDensity(epsilonDensity)
+                .cycleRatio(cycleRatio).acceptingRatio(acceptingRatio);
+    }
+
+    /**
+     * @return The number of states of the FST
+     */
+    public int nOfStates() {
+        return nStates;
+    }
+
+    /**
+     * @return The mean number of transitions per state
+     */
+    public int getMeanFanout() {
+        return meanFanout;
+    }
+
+    /**
+     * @return The symbols of the FST, ordered by id, with the epsilon symbol first
+     */
+    public String[] getSymbols() {
+        int nMultichar = (int) Math.round(nSymbols * multicharRatio);
+        int nChars = nSymbols - nMultichar;
+        if (nChars > MAX_CHAR_SYMBOLS)
+            throw new IllegalArgumentException("At most " + MAX_CHAR_SYMBOLS + " single-character symbols");
+        String[] symbols = new String[nSymbols + 1];
+        symbols[0] = Symbol.EPSILON_STRING;
+        for (int i = 0; i < nChars; i++)
+            symbols[1 + i] = String.valueOf((i < 26) ? (char) ('a' + i) : (char) ('\u4e00' + i - 26));
+        for (int i = 0; i < nMultichar; i++)
+            symbols[1 + nChars + i] = "<m" + i + ">";
+        return symbols;
+    }
+
+    /**
+     * @return The FST as a CompactFST
+     */
+    public CompactFST build() {
+        Alphabet alphabet = new Alphabet(getSymbols());
+        long expected = Math.min((long) nStates * meanFanout, Integer.MAX_VALUE - 8);
+        CompactFSTBuilder builder = new CompactFSTBuilder(alphabet, alphabet.size(), nStates, (int) expected);
+        Arcs arcs = new Arcs();
+        for (int s = 0; s < nStates; s++) {
+            boolean accepting = generate(s, arcs);
+            builder.addState(accepting);
+            for (int t = 0; t < arcs.size; t++)
+                builder.addTransition(arcs.in[t], arcs.out[t], arcs.to[t]);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Write the FST in AT&amp;T format, with HFST's epsilon symbol.
+     * @param out The writer
+     */
+    public void writeATT(Writer out) throws IOException {
+        String[] symbols = getSymbols();
+        symbols[0] = FSTProducer.HFST.epsilon();
+        Arcs arcs = new Arcs();
+        StringBuilder line = new StringBuilder();
+        for (int s = 0; s < nStates; s++) {
+            boolean accepting = generate(s, arcs);
+            for (int t = 0; t < arcs.size; t++) {
+                line.setLength(0);
+                line.append(s).append('\t').append(arcs.to[t]).append('\t')
+                        .append(symbols[arcs.in[t]]).append('\t').append(symbols[arcs.out[t]]).append('\n');
+                out.append(line);
+            }
+            if (accepting)
+                out.append(Integer.toString(s)).append('\n');
+        }
+    }
+
+    /**
+     * Write the FST in AT&amp;T format, with HFST's epsilon symbol.
+     * @param file The AT&amp;T file
+     */
+    public void writeATT(Path file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file),
+                StandardCharsets.UTF_8), 1 << 16)) {
+            writeATT(out);
+        }
+    }
+
+    /**
+     * Write the FST in JFST format.
+     * @param file The JFST file
+     * @param container True to write a JFST container, false for a version 1 file
+     */
+    public void writeJFST(Path file, boolean container) throws IOException {
+        CompactFST fst = build();
+        if (container)
+            fst.writeToContainer(file, false);
+        else
+            fst.writeToBinary(file);
+    }
+
+    /**
+     * Generate inputs by random walks from the start state. A walk ends in an accepting state
+     * with probability 1/2, in a state without transitions or after maxLength transitions, so
+     * most but not all inputs are accepted.
+     * @param n The number of inputs
+     * @param maxLength The maximum number of transitions of a walk
+     * @param seed The seed of the walks
+     * @return The input symbols along the walks
+     */
+    public String[] sampleInputs(int n, int maxLength, long seed) {
+        String[] symbols = getSymbols();
+        symbols[0] = "";
+        SplittableRandom rnd = new SplittableRandom(seed);
+        Arcs arcs = new Arcs();
+        String[] inputs = new String[n];
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            in.setLength(0);
+            int s = 0;
+            for (int len = 0; len < maxLength; len++) {
+                boolean accepting = generate(s, arcs);
+                if (arcs.size == 0 || (accepting && rnd.nextBoolean()))
+                    break;
+                int t = rnd.nextInt(arcs.size);
+                in.append(symbols[arcs.in[t]]);
+                s = arcs.to[t];
+            }
+            inputs[i] = in.toString();
+        }
+        return inputs;
+    }
+
+    /*
+    Generate the transitions of state s into arcs and return whether s is accepting.
+     */
+    private boolean generate(int s, Arcs arcs) {
+        SplittableRandom rnd = new SplittableRandom(mix(seed, s));
+        boolean last = s == nStates - 1;
+        boolean accepting = last || rnd.nextDouble() < acceptingRatio;
+        int k = fanout(rnd);
+        arcs.clear();
+        for (int t = 0; t < k; t++) {
+            int in;
+            int to;
+            if (t == 0 && !last) {
+                in = 1 + rnd.nextInt(nSymbols);
+                to = s + 1;
+            }
+            else if (rnd.nextDouble() < cycleRatio) {
+                in = 1 + rnd.nextInt(nSymbols);
+                to = rnd.nextInt(s + 1);
+            }
+            else if (last)
+                continue;
+            else {
+                in = (rnd.nextDouble() < epsilonDensity) ? 0 : 1 + rnd.nextInt(nSymbols);
+                to = (int) Math.min((long) s + 1 + rnd.nextInt(maxJump), nStates - 1);
+            }
+            int out = (rnd.nextDouble() < epsilonDensity) ? 0 : 1 + rnd.nextInt(nSymbols);
+            arcs.add(in, out, to);
+        }
+        return accepting;
+    }
+
+    private int fanout(SplittableRandom rnd) {
+        switch (fanout) {
+            case CONSTANT:
+                return Math.min(meanFanout, maxFanout);
+            case UNIFORM:
+                return Math.min(1 + rnd.nextInt(2 * meanFanout - 1), maxFanout);
+            default:
+                // Inverse transform sampling, scaled so that the untruncated mean is meanFanout
+                double scale = meanFanout * (PARETO_SHAPE - 1) / PARETO_SHAPE;
+                double k = scale / Math.pow(1.0 - rnd.nextDouble(), 1.0 / PARETO_SHAPE);
+                return (int) Math.max(1, Math.min(Math.round(k), maxFanout));
+        }
+    }
+
+    // Seed of the transitions of a state
+    private static long mix(long seed, int state) {
+        long z = seed + 0x9e3779b97f4a7c15L * (state + 1L);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * The transitions of a state, as input and output symbol ids and target state ids.
+     */
+    private static final class Arcs {
+
+        int size = 0;
+        int[] in = new int[16];
+        int[] out = new int[16];
+        int[] to = new int[16];
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(int inSym, int outSym, int toState) {
+            if (size == in.length) {
+                in = Arrays.copyOf(in, 2 * size);
+                out = Arrays.copyOf(out, 2 * size);
+                to = Arrays.copyOf(to, 2 * size);
+            }
+            in[size] = inSym;
+            out[size] = outSym;
+            to[size] = toState;
+            size++;
+        }
+    }
+
+    /**
+     * Configure a generator from command line options. The options of the generator are removed
+     * from the map: seed, states, fanout (constant, uniform or pareto), mean, maxFanout, maxJump,
+     * symbols, multichar, epsilon, cycles and accepting.
+     * @param options Options by name
+     * @return The generator
+     */
+    static SyntheticFST configure(Map<String, String> options) {
+        String seed = options.remove("seed");
+        SyntheticFST gen = new SyntheticFST((seed == null) ? 0 : Long.parseLong(seed));
+        String fanout = options.remove("fanout");
+        String mean = options.remove("mean");
+        gen.fanout((fanout == null) ? Fanout.UNIFORM : Fanout.valueOf(fanout.toUpperCase()),
+                (mean == null) ? 4 : Integer.parseInt(mean));
+        for (Iterator<Map.Entry<String, String>> it = options.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, String> opt = it.next();
+            String value = opt.getValue();
+            switch (opt.getKey()) {
+                case "states": gen.states(Integer.parseInt(value)); break;
+                case "maxFanout": gen.maxFanout(Integer.parseInt(value)); break;
+                case "maxJump": gen.maxJump(Integer.parseInt(value)); break;
+                case "symbols": gen.symbols(Integer.parseInt(value)); break;
+                case "multichar": gen.multicharRatio(Double.parseDouble(value)); break;
+                case "epsilon": gen.epsilonDensity(Double.parseDouble(value)); break;
+                case "cycles": gen.cycleRatio(Double.parseDouble(value)); break;
+                case "accepting": gen.acceptingRatio(Double.parseDouble(value)); break;
+                default: continue;
+            }
+            it.remove();
+        }
+        return gen;
+    }
+
+    /**
+     * @param args Command line arguments of the form name=value
+     * @return The options by name
+     */
+    static Map<String, String> options(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            String[] opt = arg.split("=", 2);
+            if (opt.length != 2)
+                throw new IllegalArgumentException("Not an option: " + arg);
+            options.put(opt[0], opt[1]);
+        }
+        return options;
+    }
+
+    /**
+     * Write a synthetic FST to a file.
+     *
+     * Usage: SyntheticFST [option=value ...] file.(att|jfst)
+     *
+     * Options: see configure(), and container (true or false) for JFST files.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: SyntheticFST [option=value ...] file.(att|jfst)");
+            System.exit(1);
+        }
+        Map<String, String> options = options(Arrays.copyOf(args, args.length - 1));
+        String container = options.remove("container");
+        SyntheticFST gen = configure(options);
+        if (!options.isEmpty())
+            throw new IllegalArgumentException("Unknown options: " + options.keySet());
+        Path file = Paths.get(args[args.length - 1]);
+        if (file.toString().endsWith(".att"))
+            gen.writeATT(file);
+        else
+            gen.writeJFST(file, container == null || Boolean.parseBoolean(container));
+    }
+}
@@ -0,0 +1,51 @@
+package de.tuebingen.sfs.jfst.bench;
+
+import de.tuebingen.sfs.jfst.fst.FST;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing FSTs in JFST format to a stream that discards the bytes, so the benchmarks measure
+ * serialization only.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WriteBenchmark {
+
+    @Param({"mal-orth2asciiprnc", "mal-small", "eus"})
+    public String fst;
+
+    @Param({"compact", "mutable"})
+    public String impl;
+
+    private FST written;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        written = Fixtures.load(fst, impl, "hfst");
+    }
+
+    @Benchmark
+    public long writeToBinary() throws IOException {
+        Fixtures.CountingOutputStream out = new Fixtures.CountingOutputStream();
+        written.writeToBinary(out);
+        return out.count;
+    }
+}
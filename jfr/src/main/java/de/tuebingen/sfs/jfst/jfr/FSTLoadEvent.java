@@ -0,0 +1,43 @@
+package de.tuebingen.sfs.jfst.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An FST loaded by one of the jfst readers or built by CompactFST from a state iterator. The
+ * duration of the event is the time spent on reading and building the FST.
+ */
+@Name("de.tuebingen.sfs.jfst.Load")
+@Label("FST Load")
+@Category({"jfst"})
+@Description("Reading a transducer file and building the FST")
+@StackTrace(false)
+class FSTLoadEvent extends Event {
+
+    @Label("Source")
+    @Description("The reader or class that loaded the FST")
+    String source;
+
+    @Label("Format")
+    @Description("The producer of the file, if known")
+    String format;
+
+    @Label("States")
+    int states;
+
+    @Label("Transitions")
+    long transitions;
+
+    @Label("Symbols")
+    int symbols;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytes;
+
+}
@@ -0,0 +1,44 @@
+package de.tuebingen.sfs.jfst.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A file parsed by a JFST or HFST state iterator or by the AT&amp;T reader. The duration of the
+ * event is the time spent on reading the states and transitions, which lies within or overlaps
+ * the load of the FST.
+ */
+@Name("de.tuebingen.sfs.jfst.Parse")
+@Label("FST Parse")
+@Category({"jfst"})
+@Description("Reading the states and transitions of a transducer file")
+@StackTrace(false)
+class FSTParseEvent extends Event {
+
+    @Label("Source")
+    @Description("The state iterator or reader that parsed the file")
+    String source;
+
+    @Label("Format")
+    @Description("The producer of the file, if known")
+    String format;
+
+    @Label("States")
+    int states;
+
+    @Label("Transitions")
+    long transitions;
+
+    @Label("Symbols")
+    int symbols;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytes;
+
+}
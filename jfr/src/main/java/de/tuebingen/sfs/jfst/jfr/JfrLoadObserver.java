@@ -0,0 +1,83 @@
+package de.tuebingen.sfs.jfst.jfr;
+
+import de.tuebingen.sfs.jfst.io.LoadObserver;
+import de.tuebingen.sfs.jfst.io.LoadStatistics;
+
+/**
+ * Records every FST load as a de.tuebingen.sfs.jfst.Load event and every file parsed by a state
+ * iterator or the AT&amp;T reader as a de.tuebingen.sfs.jfst.Parse event. Loads cost no more
+ * than a check of the event settings while no recording has the events enabled.
+ */
+public class JfrLoadObserver implements LoadObserver {
+
+    /**
+     * Record all FSTs loaded from now on.
+     */
+    public static void install() {
+        LoadStatistics.setObserver(new JfrLoadObserver());
+    }
+
+    /**
+     * Stop recording loads if they are recorded by a JfrLoadObserver.
+     */
+    public static void uninstall() {
+        if (LoadStatistics.getObserver() instanceof JfrLoadObserver)
+            LoadStatistics.setObserver(null);
+    }
+
+    @Override
+    public Object loadStarted(String source) {
+        FSTLoadEvent event = new FSTLoadEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void loadFinished(Object context, LoadStatistics stats) {
+        if (!(context instanceof FSTLoadEvent))
+            return;
+        FSTLoadEvent event = (FSTLoadEvent) context;
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = stats.getSource();
+            event.format = format(stats);
+            event.states = stats.nOfStates();
+            event.transitions = stats.nOfTransitions();
+            event.symbols = stats.nOfSymbols();
+            event.bytes = stats.getBytes();
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object parseStarted(String source) {
+        FSTParseEvent event = new FSTParseEvent();
+        if (!event.isEnabled())
+            return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void parseFinished(Object context, LoadStatistics stats) {
+        if (!(context instanceof FSTParseEvent))
+            return;
+        FSTParseEvent event = (FSTParseEvent) context;
+        event.end();
+        if (event.shouldCommit()) {
+            event.source = stats.getSource();
+            event.format = format(stats);
+            event.states = stats.nOfStates();
+            event.transitions = stats.nOfTransitions();
+            event.symbols = stats.nOfSymbols();
+            event.bytes = stats.getBytes();
+            event.commit();
+        }
+    }
+
+    private static String format(LoadStatistics stats) {
+        return (stats.getFormat() == null) ? null : stats.getFormat().name();
+    }
+}
@@ -0,0 +1,90 @@
+package de.tuebingen.sfs.jfst.jfr;
+
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.LookupObserver;
+import de.tuebingen.sfs.jfst.fst.LookupTrace;
+
+import java.time.Duration;
+
+/**
+ * Records lookups that take at least a given time as de.tuebingen.sfs.jfst.SlowLookup events,
+ * together with the counters of their traversal. Only instrumented FSTs report their lookups:
+ *
+ * <pre>
+ * CompactFST fst = JfrLookupObserver.instrument(CompactFST.readFromBinary(file), Duration.ofMillis(1));
+ * </pre>
+ *
+ * The threshold defaults to the value of the system property jfst.jfr.slowLookupMicros, or to
+ * 1000 microseconds. Lookups below the threshold cost one comparison on top of the counting of
+ * the instrumented FST.
+ */
+public class JfrLookupObserver implements LookupObserver {
+
+    private static final long DEFAULT_THRESHOLD_MICROS = Long.getLong("jfst.jfr.slowLookupMicros", 1000L);
+
+    private final long thresholdNanos;
+    // Receives every lookup after this observer, or null
+    private final LookupObserver next;
+
+    /**
+     * Record lookups that take at least the default threshold.
+     */
+    public JfrLookupObserver() {
+        this(Duration.ofNanos(DEFAULT_THRESHOLD_MICROS * 1000L));
+    }
+
+    /**
+     * @param threshold The minimum time of a lookup to be recorded
+     */
+    public JfrLookupObserver(Duration threshold) {
+        this(threshold, null);
+    }
+
+    /**
+     * @param threshold The minimum time of a lookup to be recorded
+     * @param next An observer that is passed every lookup afterwards, e.g. a LookupMetrics, or null
+     */
+    public JfrLookupObserver(Duration threshold, LookupObserver next) {
+        if (threshold.isNegative())
+            throw new IllegalArgumentException("Negative threshold: " + threshold);
+        this.thresholdNanos = threshold.toNanos();
+        this.next = next;
+    }
+
+    /**
+     * @param fst An FST
+     * @param threshold The minimum time of a lookup to be recorded
+     * @return A view of the FST that records its slow lookups
+     */
+    public static CompactFST instrument(CompactFST fst, Duration threshold) {
+        return fst.instrumented(new JfrLookupObserver(threshold, fst.getObserver()));
+    }
+
+    /**
+     * @return The minimum time of a lookup to be recorded
+     */
+    public Duration getThreshold() {
+        return Duration.ofNanos(thresholdNanos);
+    }
+
+    @Override
+    public void lookupFinished(LookupTrace trace) {
+        if (trace.getElapsedNanos() >= thresholdNanos) {
+            SlowLookupEvent event = new SlowLookupEvent();
+            if (event.shouldCommit()) {
+                event.kind = trace.getKind().name();
+                event.elapsed = trace.getElapsedNanos();
+                event.inputLength = trace.getInputLength();
+                event.states = trace.nOfStatesVisited();
+                event.arcs = trace.nOfArcsScanned();
+                event.binarySearches = trace.nOfBinarySearches();
+                event.epsilons = trace.nOfEpsilonExpansions();
+                event.maxDepth = trace.getMaxDepth();
+                event.results = trace.nOfResults();
+                event.commit();
+            }
+        }
+        if (next != null)
+            next.lookupFinished(trace);
+    }
+}
@@ -0,0 +1,49 @@
+package de.tuebingen.sfs.jfst.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A lookup in an instrumented CompactFST that took at least as long as the threshold of its
+ * JfrLookupObserver. The event is committed after the lookup, so its own duration is zero; the
+ * time of the lookup is in the elapsed field.
+ */
+@Name("de.tuebingen.sfs.jfst.SlowLookup")
+@Label("Slow FST Lookup")
+@Category({"jfst"})
+@Description("A lookup that exceeded the configured latency threshold")
+class SlowLookupEvent extends Event {
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Elapsed")
+    @Timespan(Timespan.NANOSECONDS)
+    long elapsed;
+
+    @Label("Input Length")
+    int inputLength;
+
+    @Label("States Visited")
+    int states;
+
+    @Label("Arcs Scanned")
+    long arcs;
+
+    @Label("Binary Searches")
+    int binarySearches;
+
+    @Label("Epsilon Expansions")
+    int epsilons;
+
+    @Label("Maximum Depth")
+    int maxDepth;
+
+    @Label("Results")
+    int results;
+
+}
@@ -0,0 +1,109 @@
+package de.tuebingen.sfs.jfst.jfr;
+
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.io.ATTReader;
+import de.tuebingen.sfs.jfst.io.FSTProducer;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JfrTest extends TestCase {
+
+    private static final String LOAD = "de.tuebingen.sfs.jfst.Load";
+    private static final String PARSE = "de.tuebingen.sfs.jfst.Parse";
+    private static final String SLOW_LOOKUP = "de.tuebingen.sfs.jfst.SlowLookup";
+
+    private static final String ATT = "0\t1\ta\tb\n0\t2\tc\tc\n1\t2\tb\t@0@\n2\n";
+
+    public void testLoadEvents() throws IOException {
+        Path att = Files.createTempFile("test", ".att");
+        Path jfr = Files.createTempFile("test", ".jfr");
+        try {
+            Files.write(att, ATT.getBytes(StandardCharsets.UTF_8));
+            // Not recorded without the observer
+            try (Recording recording = new Recording()) {
+                recording.enable(LOAD);
+                recording.enable(PARSE);
+                recording.start();
+                ATTReader.read(att, FSTProducer.HFST);
+                JfrLoadObserver.install();
+                try {
+                    ATTReader.read(att, FSTProducer.HFST);
+                } finally {
+                    JfrLoadObserver.uninstall();
+                }
+                ATTReader.read(att, FSTProducer.HFST);
+                recording.stop();
+                recording.dump(jfr);
+            }
+
+            List<RecordedEvent> loads = read(jfr, LOAD);
+            List<RecordedEvent> parses = read(jfr, PARSE);
+            assertEquals(1, loads.size());
+            assertEquals(1, parses.size());
+            for (RecordedEvent event : new RecordedEvent[]{loads.get(0), parses.get(0)}) {
+                assertEquals("ATTReader", event.getString("source"));
+                assertEquals("HFST", event.getString("format"));
+                assertEquals(3, event.getInt("states"));
+                assertEquals(3, event.getLong("transitions"));
+                assertEquals(Files.size(att), event.getLong("bytes"));
+            }
+            // The parse lies within the load
+            RecordedEvent load = loads.get(0);
+            RecordedEvent parse = parses.get(0);
+            assertFalse(parse.getStartTime().isBefore(load.getStartTime()));
+            assertFalse(parse.getEndTime().isAfter(load.getEndTime()));
+        } finally {
+            Files.delete(att);
+            Files.delete(jfr);
+        }
+    }
+
+    public void testSlowLookupEvents() throws IOException {
+        Path att = Files.createTempFile("test", ".att");
+        Path jfr = Files.createTempFile("test", ".jfr");
+        try {
+            Files.write(att, ATT.getBytes(StandardCharsets.UTF_8));
+            CompactFST fst = ATTReader.read(att, FSTProducer.HFST);
+            CompactFST slow = JfrLookupObserver.instrument(fst, Duration.ZERO);
+            CompactFST fast = JfrLookupObserver.instrument(fst, Duration.ofDays(1));
+            try (Recording recording = new Recording()) {
+                recording.enable(SLOW_LOOKUP);
+                recording.start();
+                assertEquals(1, slow.apply("ab").size());
+                assertEquals(1, fast.apply("ab").size());
+                fst.apply("ab");
+                recording.stop();
+                recording.dump(jfr);
+            }
+
+            List<RecordedEvent> lookups = read(jfr, SLOW_LOOKUP);
+            assertEquals(1, lookups.size());
+            RecordedEvent event = lookups.get(0);
+            assertEquals(2, event.getInt("inputLength"));
+            assertEquals(1, event.getInt("results"));
+            assertTrue(event.getInt("states") > 0);
+        } finally {
+            Files.delete(att);
+            Files.delete(jfr);
+        }
+    }
+
+    private static List<RecordedEvent> read(Path jfr, String name) throws IOException {
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(jfr)) {
+            if (event.getEventType().getName().equals(name))
+                events.add(event);
+        }
+        return events;
+    }
+}
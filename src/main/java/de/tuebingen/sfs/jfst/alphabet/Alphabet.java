@@ -9,13 +9,23 @@ import java.util.*;
  * in an FST. The FST can retrieve references to these wrapper objects for its transitions
  * and reuse them wherever the symbol occurs to save space. (I.e. each unique string or
  * char is stored only once instead of each time when it occurs in a transition.)
+ *
+ * Symbols that only occur on the output side of transitions, such as the whole outputs that a
+ * LexiconFSTBuilder puts on its transitions, can be added with getOutputSymbol(). They get ids
+ * like all other symbols, but they are kept out of the sorted list that input strings are
+ * matched against, so that getPrefixes() stays fast however many outputs an FST has. Inverse
+ * lookups match them with getOutputPrefixes().
  */
 public class Alphabet {
 
-    // Symbols in alphabetic order
+    // Symbols that can occur in inputs, in alphabetic order
     private final List<Symbol> alphabet;
     // Symbols in the order of their ids
     private final List<Symbol> id2sym;
+    // Symbols that only occur as outputs, by their string
+    private final Map<String, Symbol> outputs;
+    // Length of the longest symbol in outputs
+    private int maxOutputLength;
 
     /**
      * Create an empty Alphabet.
@@ -23,6 +33,17 @@ public class Alphabet {
     public Alphabet() {
         alphabet = new ArrayList<>();
         id2sym = new ArrayList<>();
+        outputs = new HashMap<>();
+    }
+
+    /**
+     * Create a copy of an Alphabet, with the same ids and output-only symbols.
+     */
+    public Alphabet(Alphabet other) {
+        alphabet = new ArrayList<>(other.alphabet);
+        id2sym = new ArrayList<>(other.id2sym);
+        outputs = new HashMap<>(other.outputs);
+        maxOutputLength = other.maxOutputLength;
     }
 
     /**
@@ -42,26 +63,27 @@ public class Alphabet {
     }
 
     /**
-     * Checks whether this Alphabet contains a symbol.
+     * Checks whether this Alphabet contains a symbol that can occur in inputs.
      * @param symbol A char symbol
      * @return True if this Alphabet already contains the symbol
      */
     public boolean contains(char symbol) {
-        return Collections.binarySearch(alphabet, symbol) >= 0;
+        return Collections.binarySearch(alphabet, String.valueOf(symbol)) >= 0;
     }
 
     /**
-     * Checks whether this Alphabet contains a symbol.
+     * Checks whether this Alphabet contains a symbol, including output-only symbols.
      * @param symbol A string symbol
      * @return True if this Alphabet already contains the symbol
      */
     public boolean contains(String symbol) {
-        return Collections.binarySearch(alphabet, symbol) >= 0;
+        return Collections.binarySearch(alphabet, symbol) >= 0 || outputs.containsKey(symbol);
     }
 
     /**
      * Get the Symbol object associated with this string. If the Alphabet does not
-     * contain the symbol yet, it will be added.
+     * contain the symbol yet, it will be added. An output-only symbol keeps its id,
+     * but can occur in inputs from now on.
      * @param symbol A string symbol
      * @return The Symbol object associated with this string
      */
@@ -69,12 +91,37 @@ public class Alphabet {
         int i = Collections.binarySearch(alphabet, symbol);
         if (i < 0) {
             i = -(i+1);
-            return addSymbol(symbol, i);
+            Symbol out = outputs.remove(symbol);
+            if (out == null)
+                return addSymbol(symbol, i);
+            alphabet.add(i, out);
+            return out;
         }
         else
             return alphabet.get(i);
     }
 
+    /**
+     * Get the Symbol object associated with this string for use on the output side of
+     * transitions only. If the Alphabet does not contain the symbol yet, it is added as an
+     * output-only symbol, which takes constant time and does not slow down getPrefixes().
+     * @param symbol A string symbol
+     * @return The Symbol object associated with this string
+     */
+    public Symbol getOutputSymbol(String symbol) {
+        int i = Collections.binarySearch(alphabet, symbol);
+        if (i >= 0)
+            return alphabet.get(i);
+        Symbol out = outputs.get(symbol);
+        if (out == null) {
+            out = createSymbol(symbol, id2sym.size());
+            id2sym.add(out);
+            outputs.put(symbol, out);
+            maxOutputLength = Math.max(maxOutputLength, symbol.length());
+        }
+        return out;
+    }
+
     /**
      * Get the symbol with this id.
      * @param id An id
@@ -99,24 +146,73 @@ public class Alphabet {
         }
     }
 
+    /**
+     * Find all symbols that can occur in inputs and that s continues with at start. The
+     * range of symbols that share the first k chars with s is narrowed down char by char
+     * with binary searches, which takes O(l log n) time for the longest match l.
+     * @param s A string
+     * @param start A position in s
+     * @return The matching symbols, from the shortest to the longest
+     */
     public List<Symbol> getPrefixes(String s, int start) {
         List<Symbol> prefixes = new ArrayList<>();
-        char c = s.charAt(start);
-//        int i = Collections.binarySearch(alphabet, c);
-//        if (i < 0)
-//            i = -i - 1;
-        int i = 0;
-        while (i < alphabet.size() && !alphabet.get(i).startsWith(c)) {
-            i++;
+        // All symbols in [lo, hi) start with the k chars of s from start on
+        int lo = 0;
+        int hi = alphabet.size();
+        for (int k = 0; start + k < s.length() && lo < hi; k++) {
+            char c = s.charAt(start + k);
+            lo = searchChar(lo, hi, k, c);
+            hi = searchChar(lo, hi, k, c + 1);
+            // Of the remaining symbols, the one that ends after char k sorts first
+            if (lo < hi && length(alphabet.get(lo)) == k + 1)
+                prefixes.add(alphabet.get(lo++));
         }
-            for (int j = i; j < alphabet.size() && alphabet.get(j).startsWith(c); j++) {
-                Symbol sym = alphabet.get(j);
-                if (sym.prefixOf(s, start))
-                    prefixes.add(sym);
-            }
         return prefixes;
     }
 
+    /**
+     * Like getPrefixes(), but also find output-only symbols, for matching strings against
+     * the output side of transitions.
+     * @param s A string
+     * @param start A position in s
+     * @return The matching symbols
+     */
+    public List<Symbol> getOutputPrefixes(String s, int start) {
+        List<Symbol> prefixes = getPrefixes(s, start);
+        int end = Math.min(s.length(), start + maxOutputLength);
+        for (int i = start + 1; i <= end && !outputs.isEmpty(); i++) {
+            Symbol out = outputs.get(s.substring(start, i));
+            if (out != null)
+                prefixes.add(out);
+        }
+        return prefixes;
+    }
+
+    // First index in [lo, hi) whose symbol has a char >= c at position k, if all symbols share the first k chars
+    private int searchChar(int lo, int hi, int k, int c) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (charAt(alphabet.get(mid), k) < c)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // Char of a symbol at position k, or -1 if the symbol is shorter
+    private static int charAt(Symbol sym, int k) {
+        if (sym instanceof CharSymbol)
+            return (k == 0) ? ((CharSymbol) sym).asChar() : -1;
+        String str = sym.asString();
+        return (k < str.length()) ? str.charAt(k) : -1;
+    }
+
+    // Number of chars of a symbol, counting epsilon as one char
+    private static int length(Symbol sym) {
+        return (sym instanceof CharSymbol) ? 1 : sym.asString().length();
+    }
+
     /**
      * Add a symbol to the alphabet. Calls getSymbol() internally.
      * @param symbol A symbol
@@ -126,29 +222,47 @@ public class Alphabet {
     }
 
     /**
-     * Add multiple symbols to the alphabet. Calls getSymbol() internally.
+     * Add multiple symbols to the alphabet, with ids in their order. The symbols are sorted
+     * once at the end instead of being inserted one by one.
      * @param symbols An array of symbols
      */
     public void addSymbols(String[] symbols) {
+        List<String> syms = new ArrayList<>(symbols.length);
         int i = 0;
-        for (String sym : symbols) {
-            if (sym == null)
-                addSymbol("NULL"+(i++));
-            else
-                addSymbol(sym);
-        }
+        for (String sym : symbols)
+            syms.add((sym == null) ? "NULL" + (i++) : sym);
+        addAll(syms);
     }
 
     /**
-     * Add multiple symbols to the alphabet. Calls getSymbol() internally.
+     * Add multiple symbols to the alphabet, with ids in their order. The symbols are sorted
+     * once at the end instead of being inserted one by one.
      * @param symbols A list of symbols
      */
     public void addSymbols(Iterable<String> symbols) {
+        List<String> syms = new ArrayList<>();
+        for (String sym : symbols)
+            syms.add((sym == null) ? "NULL" : sym);
+        addAll(syms);
+    }
+
+    // Add symbols like getSymbol() would, but sort them all at once
+    private void addAll(List<String> symbols) {
+        Set<String> seen = new HashSet<>();
+        List<Symbol> added = new ArrayList<>();
         for (String sym : symbols) {
-            if (sym == null)
-                addSymbol("NULL");
-            else
-                addSymbol(sym);
+            if (!seen.add(sym) || Collections.binarySearch(alphabet, sym) >= 0)
+                continue;
+            Symbol s = outputs.remove(sym);
+            if (s == null) {
+                s = createSymbol(sym, id2sym.size());
+                id2sym.add(s);
+            }
+            added.add(s);
+        }
+        if (!added.isEmpty()) {
+            alphabet.addAll(added);
+            alphabet.sort(Comparator.comparing(Symbol::asString));
         }
     }
 
@@ -184,14 +298,26 @@ public class Alphabet {
      * @return The id of the symbol in this alphabet, or -1 if it is not contained
      */
     public int idOf(String symbol) {
-        return (contains(symbol)) ? getSymbol(symbol).getId() : -1;
+        int i = Collections.binarySearch(alphabet, symbol);
+        if (i >= 0)
+            return alphabet.get(i).getId();
+        Symbol out = outputs.get(symbol);
+        return (out == null) ? -1 : out.getId();
     }
 
     /**
-     * Get the total number of symbols in this alphabet.
+     * Get the total number of symbols in this alphabet, including output-only symbols.
      * @return The size of this alphabet
      */
     public int size() {
+        return id2sym.size();
+    }
+
+    /**
+     * Get the number of symbols in this alphabet that can occur in inputs.
+     * @return The size of this alphabet without output-only symbols
+     */
+    public int nOfInputSymbols() {
         return alphabet.size();
     }
 
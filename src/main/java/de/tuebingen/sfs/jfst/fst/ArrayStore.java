@@ -0,0 +1,286 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import java.util.Arrays;
+
+/**
+ * Stores transitions in arrays on the heap.
+ *
+ * Each transition is packed into as few bits as the FST needs: The input and output symbols
+ * take as many bits as the largest symbol id and the to-state as many bits as the largest state
+ * id. The fields are ordered input, output, to-state from the most to the least significant
+ * bit, so that packed transitions sort like their transitions. Transitions that fit into 31 bits
+ * are stored in an int array, all others in a long array.
+ */
+abstract class ArrayStore extends TransitionStore {
+
+    // Number of bits of a symbol id
+    final int symBits;
+    // Number of bits of a state id
+    final int stateBits;
+    // Position of the input symbol within a packed transition
+    final int inShift;
+    // Masks to get a symbol or a state out of a shifted transition
+    final int symMask;
+    final int stateMask;
+
+    // The starting index of a state's transitions (index = state id), plus the total number of transitions
+    final int[] stateOffsets;
+    // Whether a state with id index is accepting or not, as a bitset
+    private final long[] accepting;
+
+    private ArrayStore(int nStates, int nSymbols) {
+        this.symBits = bitsFor(nSymbols);
+        this.stateBits = bitsFor(nStates);
+        this.inShift = symBits + stateBits;
+        this.symMask = (int) ((1L << symBits) - 1);
+        this.stateMask = (int) ((1L << stateBits) - 1);
+        this.stateOffsets = new int[nStates + 1];
+        this.accepting = new long[(nStates + 63) / 64];
+    }
+
+    /**
+     * Store the states and transitions of an FST.
+     * @param iter An iterator over states and transitions
+     * @param nSymbols The number of symbols in the alphabet, including the identity symbol
+     * @param idIdx Id of the identity symbol
+     * @return The stored transitions
+     */
+    static ArrayStore fromIterator(FSTStateIterator iter, int nSymbols, int idIdx) {
+        ArrayStore store = create(iter.nOfStates(), nSymbols, iter.nOfTransitions());
+        int s = 0; // Id of current state
+        int t = 0; // Index of state's current transition
+        while (iter.hasNextState()) {
+            iter.nextState();
+            store.stateOffsets[s] = t;
+            if (iter.accepting())
+                store.accepting[s >>> 6] |= 1L << s;
+            while (iter.hasNextTransition()) {
+                iter.nextTransition();
+                if (iter.identity())
+                    store.set(t, store.pack(idIdx, idIdx, iter.toId()));
+                else
+                    store.set(t, store.pack(iter.inId(), iter.outId(), iter.toId()));
+                t++;
+            }
+            // Sort transitions for current state
+            store.sort(store.stateOffsets[s], t);
+            s++;
+        }
+        store.stateOffsets[s] = t;
+        return store;
+    }
+
+    /**
+     * Store states and transitions that are given as arrays.
+     * @param nStates The number of states
+     * @param stateOffsets The index of the first transition of each state
+     * @param accepting Accepting states as a bitset
+     * @param nTrans The number of transitions
+     * @param inSyms The input symbol of each transition
+     * @param outSyms The output symbol of each transition
+     * @param toStates The to-state of each transition
+     * @param nSymbols The number of symbols in the alphabet, including the identity symbol
+     * @return The stored transitions
+     */
+    static ArrayStore fromArrays(int nStates, int[] stateOffsets, long[] accepting, int nTrans,
+                                 int[] inSyms, int[] outSyms, int[] toStates, int nSymbols) {
+        ArrayStore store = create(nStates, nSymbols, nTrans);
+        System.arraycopy(stateOffsets, 0, store.stateOffsets, 0, nStates);
+        store.stateOffsets[nStates] = nTrans;
+        System.arraycopy(accepting, 0, store.accepting, 0, store.accepting.length);
+        for (int s = 0; s < nStates; s++) {
+            int first = store.stateOffsets[s];
+            int end = store.stateOffsets[s + 1];
+            boolean sorted = true;
+            long prev = -1;
+            for (int t = first; t < end; t++) {
+                long trans = store.pack(inSyms[t], outSyms[t], toStates[t]);
+                store.set(t, trans);
+                sorted &= prev <= trans;
+                prev = trans;
+            }
+            // Sort transitions for current state
+            if (!sorted)
+                store.sort(first, end);
+        }
+        return store;
+    }
+
+    // Create an empty store with the smallest array type that fits the transitions
+    private static ArrayStore create(int nStates, int nSymbols, int nTrans) {
+        int nBits = 2 * bitsFor(nSymbols) + bitsFor(nStates);
+        if (nBits <= 31)
+            return new IntArrayStore(nStates, nSymbols, nTrans);
+        else if (nBits <= 63)
+            return new LongArrayStore(nStates, nSymbols, nTrans);
+        else
+            throw new IllegalArgumentException("Cannot pack transitions of an FST with " + nStates
+                    + " states and " + nSymbols + " symbols into 64 bits");
+    }
+
+    // Number of bits needed to store the ids 0 to n-1
+    static int bitsFor(int n) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(0, n - 1)));
+    }
+
+    private long pack(int inSym, int outSym, int toId) {
+        if ((inSym & ~symMask) != 0 || (outSym & ~symMask) != 0 || (toId & ~stateMask) != 0)
+            throw new IllegalArgumentException("Transition " + inSym + ":" + outSym + " -> " + toId
+                    + " is out of the range of the alphabet or the states");
+        return ((long) inSym << inShift) | ((long) outSym << stateBits) | toId;
+    }
+
+    abstract void set(int t, long transition);
+
+    abstract void sort(int from, int to);
+
+    @Override
+    int nOfStates() {
+        return stateOffsets.length - 1;
+    }
+
+    @Override
+    boolean accepting(int state) {
+        return (accepting[state >>> 6] & (1L << state)) != 0;
+    }
+
+    @Override
+    long firstTransition(int state) {
+        return stateOffsets[state];
+    }
+
+
+    // Transitions packed into ints
+    private static final class IntArrayStore extends ArrayStore {
+
+        private final int[] transitions;
+
+        IntArrayStore(int nStates, int nSymbols, int nTrans) {
+            super(nStates, nSymbols);
+            this.transitions = new int[nTrans];
+        }
+
+        @Override
+        void set(int t, long transition) {
+            transitions[t] = (int) transition;
+        }
+
+        @Override
+        void sort(int from, int to) {
+            Arrays.sort(transitions, from, to);
+        }
+
+        @Override
+        long nOfTransitions() {
+            return transitions.length;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 4L * transitions.length + 4L * stateOffsets.length + 8L * ((nOfStates() + 63) / 64);
+        }
+
+        @Override
+        Arcs arcs(int state) {
+            return new IntArcs(stateOffsets[state], stateOffsets[state + 1]);
+        }
+
+        private final class IntArcs extends Arcs {
+
+            private final int first;
+            private final int size;
+
+            IntArcs(int first, int end) {
+                this.first = first;
+                this.size = end - first;
+            }
+
+            @Override
+            int size() {
+                return size;
+            }
+
+            @Override
+            int inId(int k) {
+                return transitions[first + k] >>> inShift;
+            }
+
+            @Override
+            int outId(int k) {
+                return (transitions[first + k] >>> stateBits) & symMask;
+            }
+
+            @Override
+            int toId(int k) {
+                return transitions[first + k] & stateMask;
+            }
+        }
+    }
+
+    // Transitions packed into longs
+    private static final class LongArrayStore extends ArrayStore {
+
+        private final long[] transitions;
+
+        LongArrayStore(int nStates, int nSymbols, int nTrans) {
+            super(nStates, nSymbols);
+            this.transitions = new long[nTrans];
+        }
+
+        @Override
+        void set(int t, long transition) {
+            transitions[t] = transition;
+        }
+
+        @Override
+        void sort(int from, int to) {
+            Arrays.sort(transitions, from, to);
+        }
+
+        @Override
+        long nOfTransitions() {
+            return transitions.length;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 8L * transitions.length + 4L * stateOffsets.length + 8L * ((nOfStates() + 63) / 64);
+        }
+
+        @Override
+        Arcs arcs(int state) {
+            return new LongArcs(stateOffsets[state], stateOffsets[state + 1]);
+        }
+
+        private final class LongArcs extends Arcs {
+
+            private final int first;
+            private final int size;
+
+            LongArcs(int first, int end) {
+                this.first = first;
+                this.size = end - first;
+            }
+
+            @Override
+            int size() {
+                return size;
+            }
+
+            @Override
+            int inId(int k) {
+                return (int) (transitions[first + k] >>> inShift);
+            }
+
+            @Override
+            int outId(int k) {
+                return (int) (transitions[first + k] >>> stateBits) & symMask;
+            }
+
+            @Override
+            int toId(int k) {
+                return (int) transitions[first + k] & stateMask;
+            }
+        }
+    }
+}
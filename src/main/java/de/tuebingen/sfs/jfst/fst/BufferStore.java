@@ -0,0 +1,249 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Stores transitions outside of the Java heap, in direct or memory-mapped buffers.
+ *
+ * Transitions and state offsets are split into chunks of at most 2^27 longs (1 GB) each and
+ * addressed with 64-bit indices, so that the number of transitions is not limited by the
+ * maximum size of an array or a buffer.
+ *
+ * Like in an ArrayStore, each transition is packed into a long with the input symbol, the
+ * output symbol and the to-state from the most to the least significant bit, each taking as
+ * many bits as the largest id needs. The only limit on the alphabet is thus that two symbol ids
+ * and a state id have to fit into 63 bits together, e.g. 2^16 symbols with 2^31 states or
+ * 2^20 symbols with 2^23 states.
+ */
+class BufferStore extends TransitionStore {
+
+    // Number of bits of an index within a chunk
+    static final int CHUNK_BITS = 27;
+    // Maximum number of longs per chunk
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int nStates;
+    private final long nTrans;
+    // Number of bits of a symbol id
+    final int symBits;
+    // Number of bits of a state id
+    final int stateBits;
+    // Masks to get a symbol or a state out of a shifted transition
+    private final long symMask;
+    private final long stateMask;
+    // Transitions, packed by pack() and ordered for each state
+    private final LongBuffer[] transitions;
+    // The starting index of a state's transitions (index = state id), plus the total number of transitions
+    private final LongBuffer[] stateOffsets;
+    // Whether a state with id index is accepting or not, as a bitset
+    private final LongBuffer accepting;
+
+    BufferStore(int nStates, long nTrans, int symBits, int stateBits, LongBuffer[] transitions,
+                LongBuffer[] stateOffsets, LongBuffer accepting) {
+        this.nStates = nStates;
+        this.nTrans = nTrans;
+        this.symBits = symBits;
+        this.stateBits = stateBits;
+        this.symMask = (1L << symBits) - 1;
+        this.stateMask = (1L << stateBits) - 1;
+        this.transitions = transitions;
+        this.stateOffsets = stateOffsets;
+        this.accepting = accepting;
+    }
+
+    /**
+     * Store the states and transitions of an FST in direct buffers.
+     * @param iter An iterator over states and transitions
+     * @param nSymbols The number of symbols in the alphabet, including the identity symbol
+     * @param idIdx Id of the identity symbol
+     * @return The stored transitions
+     * @throws IllegalArgumentException If a transition does not fit into 63 bits
+     */
+    static BufferStore fromIterator(FSTStateIterator iter, int nSymbols, int idIdx) {
+        int nStates = iter.nOfStates();
+        long nTrans = iter.nOfTransitionsLong();
+        BufferStore store = create(nStates, nTrans, nSymbols);
+        LongBuffer[] transitions = store.transitions;
+        LongBuffer[] stateOffsets = store.stateOffsets;
+        LongBuffer accepting = store.accepting;
+
+        long[] stateTrans = new long[16]; // Transitions of current state
+        int s = 0; // Id of current state
+        long t = 0; // Index of state's first transition
+        while (iter.hasNextState()) {
+            iter.nextState();
+            set(stateOffsets, s, t);
+            if (iter.accepting())
+                accepting.put(s >>> 6, accepting.get(s >>> 6) | (1L << s));
+            int n = 0;
+            while (iter.hasNextTransition()) {
+                iter.nextTransition();
+                if (n == stateTrans.length)
+                    stateTrans = Arrays.copyOf(stateTrans, 2 * n);
+                if (iter.identity())
+                    stateTrans[n++] = store.pack(idIdx, idIdx, iter.toId());
+                else
+                    stateTrans[n++] = store.pack(iter.inId(), iter.outId(), iter.toId());
+            }
+            // Sort transitions for current state
+            Arrays.sort(stateTrans, 0, n);
+            for (int k = 0; k < n; k++)
+                set(transitions, t + k, stateTrans[k]);
+            t += n;
+            s++;
+        }
+        if (t != nTrans)
+            throw new IllegalArgumentException("Iterator announced " + nTrans + " transitions, but returned " + t);
+        set(stateOffsets, s, t);
+        return store;
+    }
+
+    /**
+     * Copy any store into direct buffers.
+     * @param store A store
+     * @param nSymbols The number of symbols in the alphabet, including the identity symbol
+     * @return The copy
+     * @throws IllegalArgumentException If a transition does not fit into 63 bits
+     */
+    static BufferStore copyOf(TransitionStore store, int nSymbols) {
+        int nStates = store.nOfStates();
+        BufferStore copy = create(nStates, store.nOfTransitions(), nSymbols);
+        LongBuffer[] transitions = copy.transitions;
+        LongBuffer[] stateOffsets = copy.stateOffsets;
+        LongBuffer accepting = copy.accepting;
+        long t = 0;
+        for (int s = 0; s < nStates; s++) {
+            set(stateOffsets, s, t);
+            if (store.accepting(s))
+                accepting.put(s >>> 6, accepting.get(s >>> 6) | (1L << s));
+            Arcs arcs = store.arcs(s);
+            for (int k = 0; k < arcs.size(); k++)
+                set(transitions, t++, copy.pack(arcs.inId(k), arcs.outId(k), arcs.toId(k)));
+        }
+        set(stateOffsets, nStates, t);
+        return copy;
+    }
+
+    // Create an empty store in direct buffers
+    private static BufferStore create(int nStates, long nTrans, int nSymbols) {
+        int symBits = ArrayStore.bitsFor(nSymbols);
+        int stateBits = ArrayStore.bitsFor(nStates);
+        checkBits(symBits, stateBits);
+        return new BufferStore(nStates, nTrans, symBits, stateBits, allocate(nTrans), allocate(nStates + 1L),
+                allocate((nStates + 63L) / 64)[0]);
+    }
+
+    /**
+     * Check that transitions with symbol and state ids of the given sizes fit into 63 bits,
+     * so that packed transitions are positive and sort like their transitions.
+     * @throws IllegalArgumentException If they do not fit
+     */
+    static void checkBits(int symBits, int stateBits) {
+        if (symBits < 1 || stateBits < 1 || 2 * symBits + stateBits > 63)
+            throw new IllegalArgumentException("Cannot pack transitions with " + symBits + " bit symbol ids and "
+                    + stateBits + " bit state ids into 63 bits");
+    }
+
+    // Pack a transition into a long
+    long pack(int inSym, int outSym, int toId) {
+        return pack(inSym, outSym, toId, symBits, stateBits);
+    }
+
+    /**
+     * Pack a transition into a long with the input symbol, the output symbol and the to-state
+     * from the most to the least significant bit.
+     * @throws IllegalArgumentException If an id does not fit into its number of bits
+     */
+    static long pack(int inSym, int outSym, int toId, int symBits, int stateBits) {
+        if ((inSym >>> symBits) != 0 || (outSym >>> symBits) != 0 || (toId >>> stateBits) != 0)
+            throw new IllegalArgumentException("Transition " + inSym + ":" + outSym + " -> " + toId
+                    + " is out of the range of the alphabet or the states");
+        return ((long) inSym << (symBits + stateBits)) | ((long) outSym << stateBits) | toId;
+    }
+
+    // Allocate chunked direct buffers for n longs
+    private static LongBuffer[] allocate(long n) {
+        int nChunks = (int) Math.max(1, (n + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+        LongBuffer[] chunks = new LongBuffer[nChunks];
+        for (int i = 0; i < nChunks; i++) {
+            int size = (int) Math.min(CHUNK_SIZE, n - ((long) i << CHUNK_BITS));
+            chunks[i] = ByteBuffer.allocateDirect(8 * size).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        return chunks;
+    }
+
+    private static long get(LongBuffer[] chunks, long i) {
+        return chunks[(int) (i >>> CHUNK_BITS)].get((int) (i & CHUNK_MASK));
+    }
+
+    private static void set(LongBuffer[] chunks, long i, long value) {
+        chunks[(int) (i >>> CHUNK_BITS)].put((int) (i & CHUNK_MASK), value);
+    }
+
+    @Override
+    int nOfStates() {
+        return nStates;
+    }
+
+    @Override
+    long nOfTransitions() {
+        return nTrans;
+    }
+
+    @Override
+    long sizeInBytes() {
+        return 8 * nTrans + 8 * (nStates + 1L) + 8L * accepting.capacity();
+    }
+
+    @Override
+    boolean accepting(int state) {
+        return (accepting.get(state >>> 6) & (1L << state)) != 0;
+    }
+
+    @Override
+    long firstTransition(int state) {
+        return get(stateOffsets, state);
+    }
+
+    @Override
+    Arcs arcs(int state) {
+        long first = get(stateOffsets, state);
+        return new BufferArcs(first, get(stateOffsets, state + 1));
+    }
+
+
+    private class BufferArcs extends Arcs {
+
+        private final long first;
+        private final int size;
+
+        BufferArcs(long first, long end) {
+            this.first = first;
+            this.size = (int) (end - first);
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        int inId(int k) {
+            return (int) (get(transitions, first + k) >>> (symBits + stateBits));
+        }
+
+        @Override
+        int outId(int k) {
+            return (int) ((get(transitions, first + k) >>> stateBits) & symMask);
+        }
+
+        @Override
+        int toId(int k) {
+            return (int) (get(transitions, first + k) & stateMask);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) checksums, as used by the JFST container format.
+ *
+ * On Java 9 and later, the checksums are computed by java.util.zip.CRC32C, which uses hardware
+ * instructions where available; on Java 8, by the table-driven implementation in this class.
+ */
+final class CRC32C implements Checksum {
+
+    // Reversed Castagnoli polynomial
+    private static final int POLYNOMIAL = 0x82f63b78;
+    private static final int[] TABLE = new int[256];
+    // Constructor of java.util.zip.CRC32C, or null if it is not available
+    private static final java.lang.reflect.Constructor<?> JDK_CRC32C;
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i;
+            for (int k = 0; k < 8; k++)
+                c = ((c & 1) != 0) ? (c >>> 1) ^ POLYNOMIAL : c >>> 1;
+            TABLE[i] = c;
+        }
+        java.lang.reflect.Constructor<?> jdk;
+        try {
+            jdk = Class.forName("java.util.zip.CRC32C").getConstructor();
+        } catch (ReflectiveOperationException e) {
+            jdk = null;
+        }
+        JDK_CRC32C = jdk;
+    }
+
+    private int crc = 0xffffffff;
+
+    private CRC32C() {
+    }
+
+    /**
+     * @return A new CRC-32C checksum, preferably the one of the JDK
+     */
+    static Checksum create() {
+        if (JDK_CRC32C != null) {
+            try {
+                return (Checksum) JDK_CRC32C.newInstance();
+            } catch (ReflectiveOperationException e) {
+                // Fall back to own implementation
+            }
+        }
+        return new CRC32C();
+    }
+
+    /**
+     * @return The CRC-32C checksum of a range of bytes
+     */
+    static int of(byte[] b, int off, int len) {
+        Checksum crc = create();
+        crc.update(b, off, len);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        for (int i = off; i < off + len; i++)
+            c = (c >>> 8) ^ TABLE[(c ^ b[i]) & 0xff];
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffffffff;
+    }
+}
@@ -0,0 +1,332 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An FST that caches the results of another FST.
+ *
+ * Results are stored as immutable sets in a bounded concurrent cache keyed by input string and
+ * lookup options. Lookups of cached inputs do not take any lock. Insertions are striped over a
+ * number of segments, each of which evicts with a frequency-aware clock policy: Every hit raises
+ * the counter of an entry (up to a maximum), the clock hand lowers the counters of the entries it
+ * passes and evicts the first entry whose counter is zero. Frequent inputs therefore survive
+ * bursts of rare ones.
+ */
+public class CachedFST implements FST {
+
+    private static final int MAX_SUFFIX = 100;
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    // Maximum value of the frequency counter of an entry
+    private static final int MAX_FREQUENCY = 3;
+
+    // Kinds of lookups
+    private static final int APPLY = 0;
+    private static final int PREFIX_SEARCH = 1;
+
+    // The underlying FST
+    private final FST fst;
+    // All cached entries
+    private final ConcurrentHashMap<Key, Entry> cache;
+    // Eviction segments
+    private final Segment[] segments;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    /**
+     * Cache the results of an FST in a cache with default capacity.
+     * @param fst The FST
+     */
+    public CachedFST(FST fst) {
+        this(fst, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Cache the results of an FST.
+     * @param fst The FST
+     * @param capacity The maximum number of cached results
+     */
+    public CachedFST(FST fst, int capacity) {
+        this(fst, capacity, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Cache the results of an FST.
+     * @param fst The FST
+     * @param capacity The maximum number of cached results
+     * @param concurrency The expected number of threads inserting into the cache at the same time
+     */
+    public CachedFST(FST fst, int capacity, int concurrency) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+        this.fst = fst;
+        // Number of segments: Power of two, at most one segment per entry
+        int nSegments = Integer.highestOneBit(Math.max(1, Math.min(concurrency, capacity)));
+        this.segments = new Segment[nSegments];
+        for (int i = 0; i < nSegments; i++) {
+            int segCapacity = capacity / nSegments + ((i < capacity % nSegments) ? 1 : 0);
+            segments[i] = new Segment(segCapacity);
+        }
+        this.cache = new ConcurrentHashMap<>(capacity, 0.75f, nSegments);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * @return The FST whose results are cached
+     */
+    public FST getFST() {
+        return fst;
+    }
+
+    /**
+     * @return The number of lookups answered from the cache
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups that had to be passed on to the underlying FST
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of results evicted from the cache
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The number of results currently in the cache
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Remove all results from the cache. The counters are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    @Override
+    public void writeToBinary(OutputStream out) throws IOException {
+        fst.writeToBinary(out);
+    }
+
+    @Override
+    public int nOfStates() {
+        return fst.nOfStates();
+    }
+
+    @Override
+    public int nOfTransitions() {
+        return fst.nOfTransitions();
+    }
+
+    @Override
+    public String[] getSymbols() {
+        return fst.getSymbols();
+    }
+
+    @Override
+    public FSTStateIterator iter() {
+        return fst.iter();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The returned set is immutable.
+     */
+    @Override
+    public Set<String> apply(String in) {
+        return apply(in, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The returned set is immutable.
+     */
+    @Override
+    public Set<String> apply(String in, Iterable<String> ignoreInInput) {
+        Key key = new Key(APPLY, in, 0, ignoreInInput);
+        Entry e = cache.get(key);
+        if (e != null)
+            return hit(e);
+        misses.increment();
+        return admit(key, fst.apply(in, ignoreInInput));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The returned set is immutable.
+     */
+    @Override
+    public Set<String> prefixSearch(String prefix) {
+        return prefixSearch(prefix, MAX_SUFFIX, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The returned set is immutable.
+     */
+    @Override
+    public Set<String> prefixSearch(String prefix, int maxSuffix) {
+        return prefixSearch(prefix, maxSuffix, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The returned set is immutable.
+     */
+    @Override
+    public Set<String> prefixSearch(String prefix, Iterable<String> ignoreInInput) {
+        return prefixSearch(prefix, MAX_SUFFIX, ignoreInInput);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The returned set is immutable.
+     */
+    @Override
+    public Set<String> prefixSearch(String prefix, int maxSuffix, Iterable<String> ignoreInInput) {
+        Key key = new Key(PREFIX_SEARCH, prefix, maxSuffix, ignoreInInput);
+        Entry e = cache.get(key);
+        if (e != null)
+            return hit(e);
+        misses.increment();
+        return admit(key, fst.prefixSearch(prefix, maxSuffix, ignoreInInput));
+    }
+
+    private Set<String> hit(Entry e) {
+        hits.increment();
+        // Racy increment, a lost update only costs a little accuracy
+        if (e.frequency < MAX_FREQUENCY)
+            e.frequency++;
+        return e.value;
+    }
+
+    private Set<String> admit(Key key, Set<String> result) {
+        Entry e = new Entry(key, Collections.unmodifiableSet(result));
+        return segments[key.hash & (segments.length - 1)].admit(e);
+    }
+
+
+    // A segment of the cache, responsible for eviction of its share of the entries
+    private class Segment {
+
+        // Clock of entries
+        private final Entry[] clock;
+        // Number of entries in the clock
+        private int size;
+        // Position of the clock hand
+        private int hand;
+
+        Segment(int capacity) {
+            clock = new Entry[capacity];
+            size = 0;
+            hand = 0;
+        }
+
+        synchronized Set<String> admit(Entry e) {
+            Entry present = cache.putIfAbsent(e.key, e);
+            // Computed concurrently by another thread
+            if (present != null)
+                return present.value;
+            if (size < clock.length) {
+                clock[size++] = e;
+                return e.value;
+            }
+            // Advance hand until an entry without recent hits is found
+            while (true) {
+                Entry old = clock[hand];
+                if (old.frequency <= 0) {
+                    cache.remove(old.key, old);
+                    evictions.increment();
+                    clock[hand] = e;
+                    hand = (hand + 1) % clock.length;
+                    return e.value;
+                }
+                old.frequency--;
+                hand = (hand + 1) % clock.length;
+            }
+        }
+
+        synchronized void clear() {
+            for (int i = 0; i < size; i++) {
+                cache.remove(clock[i].key, clock[i]);
+                clock[i] = null;
+            }
+            size = 0;
+            hand = 0;
+        }
+    }
+
+    // A cached result
+    private static class Entry {
+
+        final Key key;
+        final Set<String> value;
+        volatile int frequency;
+
+        Entry(Key key, Set<String> value) {
+            this.key = key;
+            this.value = value;
+            this.frequency = 0;
+        }
+    }
+
+    // Input string and options of a lookup
+    private static class Key {
+
+        final int kind;
+        final String in;
+        final int maxSuffix;
+        final List<String> ignoreInInput;
+        final int hash;
+
+        Key(int kind, String in, int maxSuffix, Iterable<String> ignoreInInput) {
+            this.kind = kind;
+            this.in = in;
+            this.maxSuffix = maxSuffix;
+            if (ignoreInInput == null)
+                this.ignoreInInput = null;
+            else {
+                List<String> ign = new ArrayList<>();
+                for (String s : ignoreInInput)
+                    ign.add(s);
+                this.ignoreInInput = ign;
+            }
+            int h = 31 * (31 * (31 * kind + in.hashCode()) + maxSuffix) + Objects.hashCode(this.ignoreInInput);
+            // Spread bits so that the lower bits can select a segment
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+                return false;
+            Key o = (Key) other;
+            return hash == o.hash && kind == o.kind && maxSuffix == o.maxSuffix && in.equals(o.in)
+                    && Objects.equals(ignoreInInput, o.ignoreInInput);
+        }
+    }
+}
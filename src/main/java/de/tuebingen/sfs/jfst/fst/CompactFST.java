@@ -4,50 +4,67 @@ import de.tuebingen.sfs.jfst.alphabet.Alphabet;
 import de.tuebingen.sfs.jfst.alphabet.Symbol;
 import de.tuebingen.sfs.jfst.io.*;
 
+import java.io.Closeable;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
  * A compact, memory-efficient FST.
+ *
+ * A CompactFST is immutable after construction and keeps no per-call state, so a single
+ * instance can safely be shared between any number of threads. This includes FSTs opened by
+ * readFromPaged(), whose block cache is thread-safe.
  */
-public class CompactFST implements FST {
+public class CompactFST implements FST, Closeable {
 
     private static final int MAX_SUFFIX = 100;
     private static final int MAX_INSERTIONS = 15;
 
-    // Mask to get the input symbol out of a transition
-    private static final long getInSym = 0xffff000000000000L;
-    // Mask to get the output symbol out of a transition
-    private static final long getOutSym = 0x0000ffff00000000L;
-    // Mask to get the to-state out of a transition
-    private static final long getToState = 0x00000000ffffffffL;
-
     // Literal symbols used by the transliterator
-    private Alphabet alphabet;
+    private final Alphabet alphabet;
     // Id of the identity (copy) symbol
     private final int idIdx;
 
-    /*
-    The transitions of the transliterator. In each long, the first 16 bit encode the input symbol,
-    the next 16 bit the output symbol and the final 32 bit the id of the to-state. For each state,
-    the transitions are ordered.
-     */
-    private long[] transitions;
+    // The states and transitions of the transliterator
+    private final TransitionStore store;
 
     // The start state
-    private int start = 0;
-    // The starting index of a state's transitions in the transitions list (index = state id).
-    private int[] stateOffsets;
-    // Whether a state with id index is accepting or not.
-    private boolean[] accepting;
+    private final int start;
+    /*
+    Optional secondary index for lookups in inverse direction: For each state, the indices of its
+    transitions among all transitions of the state, ordered by output symbol. Loaded from JFST containers that
+    store it, else built on first use; if several threads race to build it, they compute identical arrays and
+    the volatile write publishes one of them.
+     */
+    private volatile int[] outputIndex;
+    // Receives the counters of every lookup, or null if the FST is not instrumented
+    private final LookupObserver observer;
 
     /**
      * Create a compact FST from a set of states with transitions and an alphabet.
      * @param iter An iterator over states and transitions
      */
     public CompactFST(FSTStateIterator iter) {
+        this(iter, false);
+    }
+
+    /**
+     * Create a compact FST from a set of states with transitions and an alphabet.
+     * @param iter An iterator over states and transitions
+     * @param offHeap If true, store the transitions in direct buffers outside of the Java heap
+     */
+    public CompactFST(FSTStateIterator iter, boolean offHeap) {
+        LoadObserver loadObserver = LoadStatistics.getObserver();
+        Object context = (loadObserver == null) ? null : loadObserver.loadStarted("CompactFST");
+        long t0 = System.nanoTime();
+        this.observer = null;
         // Set start state
         this.start = iter.getStartState();
         // Copy alphabet
@@ -56,35 +73,41 @@ public class CompactFST implements FST {
         this.idIdx = iter.getIdentityId();
         if (idIdx == alphabet.size())
             this.alphabet.addSymbol(Symbol.IDENTITY_STRING);
-
-        // Initialize state and transition lists
-        this.stateOffsets = new int[iter.nOfStates()];
-        this.accepting = new boolean[iter.nOfStates()];
-        this.transitions = new long[iter.nOfTransitions()];
-        int s = 0; // Id of current state
-        int t = 0; // Index of state's current transition
         // Store states and transitions
-        while (iter.hasNextState()) {
-            iter.nextState();
-            stateOffsets[s] = t;
-            accepting[s] = iter.accepting();
-            while (iter.hasNextTransition()) {
-                iter.nextTransition();
-                if (iter.identity())
-                    transitions[t] = makeTransition(idIdx, idIdx, iter.toId());
-                else
-                    transitions[t] = makeTransition(iter.inId(), iter.outId(), iter.toId());
-                t++;
-            }
-            // Sort transitions for current state
-            Arrays.sort(transitions, stateOffsets[s], t);
-            s++;
-        }
+        this.store = (offHeap)
+                ? BufferStore.fromIterator(iter, alphabet.size(), idIdx)
+                : ArrayStore.fromIterator(iter, alphabet.size(), idIdx);
+        if (loadObserver != null)
+            loadObserver.loadFinished(context, new LoadStatistics("CompactFST", null, nOfStates(),
+                    nOfTransitionsLong(), alphabet.size(), 0, System.nanoTime() - t0));
+    }
+
+    // Create a compact FST from already stored states and transitions, e.g. from a mapped file
+    CompactFST(Alphabet alphabet, int idIdx, int start, TransitionStore store) {
+        this(alphabet, idIdx, start, store, null);
+    }
+
+    /**
+     * Create a compact FST with a precomputed output index, e.g. one stored in a JFST container.
+     * The index has to match the transitions of the store; if it is null, it is built on first use.
+     */
+    CompactFST(Alphabet alphabet, int idIdx, int start, TransitionStore store, int[] outputIndex) {
+        this(alphabet, idIdx, start, store, outputIndex, null);
+    }
+
+    private CompactFST(Alphabet alphabet, int idIdx, int start, TransitionStore store, int[] outputIndex,
+                       LookupObserver observer) {
+        this.alphabet = alphabet;
+        this.idIdx = idIdx;
+        this.start = start;
+        this.store = store;
+        this.outputIndex = outputIndex;
+        this.observer = observer;
     }
 
     /**
      * Parse a file in AT&amp;T format into a CompactFST.
-     * Calls MutableFST.readFromATT(in, producer).makeCompact() internally.
+     * Uses an ATTReader internally, which does not build a MutableFST first.
      * @param in AT&amp;T file
      * @param producer Original producer of the file
      * @return The FST specified by the file
@@ -95,14 +118,18 @@ public class CompactFST implements FST {
 
     /**
      * Parse a file in AT&amp;T format into a CompactFST.
-     * Calls MutableFST.readFromATT(in, producer, reverse).makeCompact() internally.
+     * Uses an ATTReader internally, which does not build a MutableFST first.
      * @param in AT&amp;T file
      * @param producer Original producer of the file
      * @param reverse False: Input symbol comes before output symbol; True: Output symbol comes before input symbol
      * @return The FST specified by the file
      */
     public static CompactFST readFromATT(InputStream in, FSTProducer producer, boolean reverse) {
-        return MutableFST.readFromATT(in, producer, reverse).makeCompact();
+        try {
+            return ATTReader.read(in, producer, reverse);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
@@ -131,7 +158,7 @@ public class CompactFST implements FST {
      * @return The FST specified by the file
      */
     public static CompactFST readFromBinary(String fileName, boolean inverse) {
-        FSTProducer producer = (fileName.endsWith(".hfst")) ? FSTProducer.HFST : FSTProducer.JFST;
+        FSTProducer producer = isHFSTFile(fileName) ? FSTProducer.HFST : FSTProducer.JFST;
         return readFromBinary(fileName, producer, inverse);
     }
 
@@ -143,16 +170,170 @@ public class CompactFST implements FST {
      * @return The FST specified by the file
      */
     public static CompactFST readFromBinary(String fileName, FSTProducer producer, boolean inverse) {
-        if (producer.equals(FSTProducer.SFST)) {
-            System.err.println("Cannot read SFST binary files (yet).");
-            return null;
+        try (InputStream in = CompactFST.class.getResourceAsStream(fileName)) {
+            if (in == null)
+                throw new FileNotFoundException("Resource not found: " + fileName);
+            return readFromBinary(in, producer, inverse);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        FSTFileStateIterator iter = (producer.equals(FSTProducer.JFST))
-                ? new JFSTFileStateIterator(fileName, inverse)
-                : new HFSTFileStateIterator(fileName, inverse);
-        CompactFST fst = new CompactFST(iter);
-        iter.close();
-        return fst;
+    }
+
+    /**
+     * Load a Compact FST from a binary FST file in the file system. Files ending in .hfst or
+     * .hfstol are read as HFST files, all others as JFST files.
+     * @param file The path to the FST file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST readFromBinary(Path file) throws IOException {
+        return readFromBinary(file, false);
+    }
+
+    /**
+     * Load a Compact FST from a binary FST file in the file system. Files ending in .hfst or
+     * .hfstol are read as HFST files, all others as JFST files.
+     * @param file The path to the FST file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST readFromBinary(Path file, boolean inverse) throws IOException {
+        FSTProducer producer = isHFSTFile(file.toString()) ? FSTProducer.HFST : FSTProducer.JFST;
+        return readFromBinary(file, producer, inverse);
+    }
+
+    private static boolean isHFSTFile(String fileName) {
+        return fileName.endsWith(".hfst") || fileName.endsWith(".hfstol");
+    }
+
+    /**
+     * Load a Compact FST from a binary FST file in the file system.
+     * @param file The path to the FST file
+     * @param producer Original producer of the file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST readFromBinary(Path file, FSTProducer producer, boolean inverse) throws IOException {
+        switch (producer) {
+            case JFST:
+                return readFromContainer(file, inverse, 1);
+            case HFST:
+                return HFSTReader.read(file, inverse);
+            case SFST:
+                try (InputStream in = Files.newInputStream(file)) {
+                    return new CompactFST(new SFSTFileStateIterator(in, inverse));
+                }
+            default:
+                throw new IOException("Cannot read " + producer + " binary files (yet).");
+        }
+    }
+
+    /**
+     * Load a Compact FST from a binary JFST stream. The stream is not closed.
+     * @param in The JFST stream
+     * @return The FST specified by the stream
+     * @throws IOException
+     */
+    public static CompactFST readFromBinary(InputStream in) throws IOException {
+        return readFromBinary(in, FSTProducer.JFST, false);
+    }
+
+    /**
+     * Load a Compact FST from a binary JFST stream. The stream is not closed.
+     * @param in The JFST stream
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the stream
+     * @throws IOException
+     */
+    public static CompactFST readFromBinary(InputStream in, boolean inverse) throws IOException {
+        return readFromBinary(in, FSTProducer.JFST, inverse);
+    }
+
+    /**
+     * Load a Compact FST from a binary FST stream. The stream is not closed.
+     * @param in The FST stream
+     * @param producer Original producer of the stream
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the stream
+     * @throws IOException
+     */
+    public static CompactFST readFromBinary(InputStream in, FSTProducer producer, boolean inverse) throws IOException {
+        switch (producer) {
+            case JFST:
+                // Tell JFST containers from version 1 files by their first bytes
+                PushbackInputStream pin = new PushbackInputStream(in, ContainerFSTFile.magicLength());
+                byte[] head = new byte[ContainerFSTFile.magicLength()];
+                int n = 0;
+                while (n < head.length) {
+                    int k = pin.read(head, n, head.length - n);
+                    if (k < 0)
+                        break;
+                    n += k;
+                }
+                pin.unread(head, 0, n);
+                if (n == head.length && ContainerFSTFile.isContainer(head))
+                    return ContainerFSTFile.read(pin, inverse);
+                return JFSTReader.read(pin, inverse);
+            case HFST:
+                return HFSTReader.read(in, inverse);
+            case SFST:
+                return new CompactFST(new SFSTFileStateIterator(in, inverse));
+            default:
+                throw new IOException("Cannot read " + producer + " binary files (yet).");
+        }
+    }
+
+    /**
+     * Load a Compact FST from a binary JFST file, decoding its sections with several threads if
+     * it is a JFST container. Version 1 files are read sequentially.
+     * @param file The path to the JFST file
+     * @param inverse If true, invert input and output symbols
+     * @param nThreads The number of threads to use
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST readFromContainer(Path file, boolean inverse, int nThreads) throws IOException {
+        byte[] head = new byte[ContainerFSTFile.magicLength()];
+        int n;
+        try (InputStream in = Files.newInputStream(file)) {
+            n = in.read(head);
+        }
+        if (n == head.length && ContainerFSTFile.isContainer(head))
+            return ContainerFSTFile.read(file, inverse, nThreads);
+        return JFSTReader.read(file, inverse);
+    }
+
+    /**
+     * Open a Compact FST from a file in JFST container format without reading its transitions.
+     * The transitions are loaded in blocks when they are first needed and kept in a cache of
+     * the given size, which evicts the least recently used blocks. This allows lookups in FSTs
+     * that are too large for the heap, at the cost of slower lookups whenever a block has to be
+     * read. The file has to be written by writeToContainer() without compression, and it stays
+     * open until the FST is closed. applyInverse() orders each block by output symbols when
+     * it is first visited in inverse direction, which takes 4 more bytes per transition of the
+     * block; if inverse lookups are the norm, inverse = true avoids that.
+     * @param file The path to the JFST container
+     * @param inverse If true, invert input and output symbols
+     * @param cacheBytes The maximum number of bytes of transitions to keep in memory
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST readFromPaged(Path file, boolean inverse, long cacheBytes) throws IOException {
+        return ContainerFSTFile.readPaged(file, inverse, cacheBytes);
+    }
+
+    /**
+     * Open a Compact FST from a file in JFST mapped format. The file is mapped into memory
+     * instead of being read, so opening is almost instant and the operating system can share
+     * the pages between all processes that open the same file.
+     * @param file The path to the mapped file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST readFromMapped(Path file) throws IOException {
+        return MappedFSTFile.read(file);
     }
 
     @Override
@@ -160,34 +341,172 @@ public class CompactFST implements FST {
         BinaryFSTWriter.writeFST(out, this);
     }
 
-    private long makeTransition(long inSym, long outSym, long toId) {
-        return (((inSym << 16) | outSym) << 32) | toId;
+    /**
+     * Write the FST to a file in binary JFST format. An existing file is overwritten.
+     * @param file The output file
+     * @throws IOException If writing fails or the FST has more than Integer.MAX_VALUE
+     *                     transitions, which only writeToMapped() supports
+     */
+    public void writeToBinary(Path file) throws IOException {
+        BinaryFSTWriter.writeFST(file, this);
+    }
+
+    /**
+     * Write the FST to a file in JFST container format, version 2 of the binary JFST format. It
+     * can be read with readFromBinary() and readFromContainer().
+     * @param file The output file
+     * @param compress If true, compress the sections of the file
+     * @throws IOException
+     */
+    public void writeToContainer(Path file, boolean compress) throws IOException {
+        writeToContainer(file, compress, false);
+    }
+
+    /**
+     * Write the FST to a file in JFST container format, version 2 of the binary JFST format. It
+     * can be read with readFromBinary() and readFromContainer().
+     * @param file The output file
+     * @param compress If true, compress the sections of the file
+     * @param withIndex If true, also store the index for lookups in inverse direction, so that
+     *                  it does not have to be built again after loading
+     * @throws IOException
+     */
+    public void writeToContainer(Path file, boolean compress, boolean withIndex) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            writeToContainer(out, compress, withIndex);
+        }
+    }
+
+    /**
+     * Write the FST in JFST container format, version 2 of the binary JFST format. The stream
+     * is not closed.
+     * @param out The output stream
+     * @param compress If true, compress the sections of the file
+     * @throws IOException
+     */
+    public void writeToContainer(OutputStream out, boolean compress) throws IOException {
+        writeToContainer(out, compress, false);
+    }
+
+    /**
+     * Write the FST in JFST container format, version 2 of the binary JFST format. The stream
+     * is not closed.
+     * @param out The output stream
+     * @param compress If true, compress the sections of the file
+     * @param withIndex If true, also store the index for lookups in inverse direction, so that
+     *                  it does not have to be built again after loading
+     * @throws IOException
+     */
+    public void writeToContainer(OutputStream out, boolean compress, boolean withIndex) throws IOException {
+        ContainerFSTFile.write(out, this, compress, withIndex);
+    }
+
+    /**
+     * Write the FST to a file in JFST mapped format, which can be opened with readFromMapped().
+     * This is the only format that can hold more than Integer.MAX_VALUE transitions.
+     * @param file The output file
+     * @throws IOException
+     */
+    public void writeToMapped(Path file) throws IOException {
+        MappedFSTFile.write(file, this);
+    }
+
+    Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    int getIdentityId() {
+        return idIdx;
+    }
+
+    int getStartState() {
+        return start;
+    }
+
+    TransitionStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return Statistics of the block cache if the FST was opened by readFromPaged(), else null
+     */
+    public PageCacheStatistics pageCacheStatistics() {
+        return (store instanceof PagedStore) ? ((PagedStore) store).statistics() : null;
     }
 
-    private int inIdFromTransition(long transition) {
-        return (int) ((transition & getInSym) >> 48);
+    /**
+     * Close the file of an FST opened by readFromPaged(). Other FSTs do not hold any resources
+     * and need not be closed.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        store.close();
     }
 
-    private int outIdFromTransition(long transition) {
-        return (int) ((transition & getOutSym) >> 32);
+    /**
+     * Copy this FST into direct buffers outside of the Java heap.
+     * @return The copy
+     */
+    public CompactFST offHeap() {
+        return new CompactFST(alphabet, idIdx, start, BufferStore.copyOf(store, alphabet.size()), null, observer);
     }
 
-    private int toIdFromTransition(long transition) {
-        return (int) (transition & getToState);
+    /**
+     * Copy this FST into a compressed representation. The transitions of a state are decoded
+     * whenever the state is visited, so the copy needs considerably less memory, but lookups
+     * are slower.
+     * @return The compressed copy
+     */
+    public CompactFST compress() {
+        return new CompactFST(alphabet, idIdx, start, VarintStore.copyOf(store), null, observer);
     }
 
-    private boolean isIdentityTransition(long transition) {
-        return inIdFromTransition(transition) == idIdx;
+    /**
+     * Get a view of this FST that counts the states, transitions, binary searches and epsilon
+     * transitions of every lookup and passes them to an observer, e.g. LookupMetrics. The view
+     * shares the transitions with this FST; lookups in this FST itself stay uninstrumented and
+     * do not pay for the counting.
+     * @param observer The observer of all lookups, or null for an uninstrumented view
+     * @return The instrumented view
+     */
+    public CompactFST instrumented(LookupObserver observer) {
+        return new CompactFST(alphabet, idIdx, start, store, outputIndex, observer);
+    }
+
+    /**
+     * @return The observer of the lookups if this FST is instrumented, else null
+     */
+    public LookupObserver getObserver() {
+        return observer;
+    }
+
+    /**
+     * @return The approximate number of bytes used to store states and transitions
+     */
+    public long storageSize() {
+        return store.sizeInBytes();
     }
 
     @Override
     public int nOfStates() {
-        return stateOffsets.length;
+        return store.nOfStates();
     }
 
+    /**
+     * @return The number of transitions in this transducer
+     * @throws ArithmeticException if there are more than Integer.MAX_VALUE transitions, see nOfTransitionsLong()
+     */
     @Override
     public int nOfTransitions() {
-        return transitions.length;
+        return Math.toIntExact(store.nOfTransitions());
+    }
+
+    /**
+     * @return The number of transitions in this transducer
+     */
+    public long nOfTransitionsLong() {
+        return store.nOfTransitions();
     }
 
     @Override
@@ -199,7 +518,6 @@ public class CompactFST implements FST {
     public CompactFSTStateIterator iter() {
         return new CompactFSTStateIterator(this);
     }
-    public String depth;
     @Override
     public Set<String> apply(String in) {
         return apply(in, null);
@@ -215,12 +533,57 @@ public class CompactFST implements FST {
     }
 
     public Set<String> apply(String in, int maxInsertions, Iterable<String> ignoreInInput) {
-        depth = "";
-        return apply(in, 0, start, 0, maxInsertions, ignoreInInput);
+        if (observer == null)
+            return apply(in, 0, start, 0, maxInsertions, ignoreInInput, false, null);
+        LookupTrace trace = new LookupTrace(LookupTrace.Kind.APPLY, in.length());
+        return finish(trace, apply(in, 0, start, 0, maxInsertions, ignoreInInput, false, trace));
+    }
+
+    /**
+     * Apply this transducer in inverse direction (i.e. from output to input side) to a string.
+     * Uses a secondary index of the transitions ordered by output symbol, which is built on the
+     * first call and takes 4 extra bytes per transition. FSTs opened with readFromPaged() keep
+     * this order per block instead, so that only the visited blocks are loaded.
+     * @param in The string on the output side
+     * @return The input strings matched to the string by this transducer
+     */
+    public Set<String> applyInverse(String in) {
+        return applyInverse(in, null);
+    }
+
+    public Set<String> applyInverse(String in, int maxInsertions) {
+        return applyInverse(in, maxInsertions, null);
     }
 
-    private Set<String> apply(String s, int strIdx, int statIdx, int ins, int maxIns, Iterable<String> ignoreInInput) {
-        depth += "\t";
+    /**
+     * Apply this transducer in inverse direction (i.e. from output to input side) to a string.
+     * @param in The string on the output side
+     * @param ignoreInInput Also take transitions with these output symbols even if they do not occur in the string
+     * @return The input strings matched to the string by this transducer
+     */
+    public Set<String> applyInverse(String in, Iterable<String> ignoreInInput) {
+        return applyInverse(in, MAX_INSERTIONS, ignoreInInput);
+    }
+
+    public Set<String> applyInverse(String in, int maxInsertions, Iterable<String> ignoreInInput) {
+        if (observer == null)
+            return apply(in, 0, start, 0, maxInsertions, ignoreInInput, true, null);
+        LookupTrace trace = new LookupTrace(LookupTrace.Kind.APPLY_INVERSE, in.length());
+        return finish(trace, apply(in, 0, start, 0, maxInsertions, ignoreInInput, true, trace));
+    }
+
+    // Pass the counters of a lookup to the observer
+    private Set<String> finish(LookupTrace trace, Set<String> res) {
+        trace.finish(res.size());
+        observer.lookupFinished(trace);
+        return res;
+    }
+
+    private Set<String> apply(String s, int strIdx, int statIdx, int ins, int maxIns, Iterable<String> ignoreInInput,
+                              boolean inverse, LookupTrace trace) {
+        if (trace != null)
+            trace.enter();
+
         // String has been consumed?
         boolean sFin = strIdx >= s.length();
 
@@ -228,18 +591,16 @@ public class CompactFST implements FST {
         Set<String> res = new HashSet<>();
 
         // Return empty string if accepting
-        if (sFin && accepting[statIdx])
+        if (sFin && store.accepting(statIdx))
             res.add("");
 
-        int x = res.size();
-
         // Apply ignore transitions
         if (ignoreInInput != null) {
             for (String ign : ignoreInInput) {
-                TransitionIterator ignIter = new TransitionIterator(ign, statIdx);
+                TransitionIterator ignIter = new TransitionIterator(ign, statIdx, inverse, trace);
                 while (ignIter.hasNext()) {
                     Transition trans = ignIter.next();
-                    Set<String> prev = apply(s, strIdx, trans.toState, ins, maxIns, ignoreInInput);
+                    Set<String> prev = apply(s, strIdx, trans.toState, ins, maxIns, ignoreInInput, inverse, trace);
                     if (isEpsilon(trans.outSym))
                         res.addAll(prev);
                     else {
@@ -253,10 +614,12 @@ public class CompactFST implements FST {
         // Apply epsilon transitions
         // Apply at most maxIns epsilons
         if (ins < maxIns) {
-            TransitionIterator epsIter = new TransitionIterator(Symbol.EPSILON_STRING, statIdx);
+            TransitionIterator epsIter = new TransitionIterator(Symbol.EPSILON_STRING, statIdx, inverse, trace);
             while (epsIter.hasNext()) {
                 Transition trans = epsIter.next();
-                Set<String> prev = apply(s, strIdx, trans.toState, ins + 1, maxIns, ignoreInInput);
+                if (trace != null)
+                    trace.epsilons++;
+                Set<String> prev = apply(s, strIdx, trans.toState, ins + 1, maxIns, ignoreInInput, inverse, trace);
                 if (isEpsilon(trans.outSym))
                     res.addAll(prev);
                 else {
@@ -269,11 +632,13 @@ public class CompactFST implements FST {
         // If there is a char left in the string...
         if (!sFin) {
             // ...apply matching literal transitions
-            for (Symbol pref : alphabet.getPrefixes(s, strIdx)) {
-                TransitionIterator litIter = new TransitionIterator(pref.asString(), statIdx);
+            List<Symbol> prefixes = (inverse) ? alphabet.getOutputPrefixes(s, strIdx) : alphabet.getPrefixes(s, strIdx);
+            for (Symbol pref : prefixes) {
+                TransitionIterator litIter = new TransitionIterator(pref.asString(), statIdx, inverse, trace);
                 while (litIter.hasNext()) {
                     Transition trans = litIter.next();
-                    Set<String> prev = apply(s, strIdx + pref.length(), trans.toState, 0, maxIns, ignoreInInput);
+                    Set<String> prev = apply(s, strIdx + pref.length(), trans.toState, 0, maxIns, ignoreInInput, inverse,
+                            trace);
                     if (isEpsilon(trans.outSym))
                         res.addAll(prev);
                     else {
@@ -286,10 +651,10 @@ public class CompactFST implements FST {
             // ...and identity transitions
             char c = s.charAt(strIdx);
             if (!alphabet.contains(c)) {
-                TransitionIterator idIter = new TransitionIterator(Symbol.IDENTITY_STRING, statIdx);
+                TransitionIterator idIter = new TransitionIterator(Symbol.IDENTITY_STRING, statIdx, inverse, trace);
                 while (idIter.hasNext()) {
                     Transition trans = idIter.next();
-                    Set<String> prev = apply(s, strIdx + 1, trans.toState, 0, maxIns, ignoreInInput);
+                    Set<String> prev = apply(s, strIdx + 1, trans.toState, 0, maxIns, ignoreInInput, inverse, trace);
                     for (String r : prev)
                         res.add(c + r);
                     if (!prev.isEmpty())
@@ -298,6 +663,8 @@ public class CompactFST implements FST {
             }
         }
 
+        if (trace != null)
+            trace.leave();
         return res;
     }
 
@@ -318,10 +685,17 @@ public class CompactFST implements FST {
 
     @Override
     public Set<String> prefixSearch(String prefix, int maxSuffix, Iterable<String> ignoreInInput) {
-        return prefixSearch(prefix, 0, 0, maxSuffix, ignoreInInput);
+        if (observer == null)
+            return prefixSearch(prefix, 0, 0, maxSuffix, ignoreInInput, null);
+        LookupTrace trace = new LookupTrace(LookupTrace.Kind.PREFIX_SEARCH, prefix.length());
+        return finish(trace, prefixSearch(prefix, 0, 0, maxSuffix, ignoreInInput, trace));
     }
 
-    private Set<String> prefixSearch(String s, int strIdx, int statIdx, int maxSuffix, Iterable<String> ignoreInInput) {
+    private Set<String> prefixSearch(String s, int strIdx, int statIdx, int maxSuffix, Iterable<String> ignoreInInput,
+                                     LookupTrace trace) {
+        if (trace != null)
+            trace.enter();
+
         // String has been consumed?
         boolean sFin = strIdx >= s.length();
 
@@ -332,17 +706,17 @@ public class CompactFST implements FST {
         Set<String> res = new HashSet<>();
 
         // Return empty string if accepting
-        if (sFin && accepting[statIdx])
+        if (sFin && store.accepting(statIdx))
             res.add("");
 
         if (!sFin) {
             // Apply ignore transitions
             if (ignoreInInput != null) {
                 for (String ign : ignoreInInput) {
-                    TransitionIterator ignIter = new TransitionIterator(ign, statIdx);
+                    TransitionIterator ignIter = new TransitionIterator(ign, statIdx, false, trace);
                     while (ignIter.hasNext()) {
                         Transition trans = ignIter.next();
-                        Set<String> prev = prefixSearch(s, strIdx, trans.toState, maxSuffix, ignoreInInput);
+                        Set<String> prev = prefixSearch(s, strIdx, trans.toState, maxSuffix, ignoreInInput, trace);
                             for (String r : prev)
                                 res.add(ign + r);
                     }
@@ -350,20 +724,23 @@ public class CompactFST implements FST {
             }
 
             // Apply epsilon transitions
-            TransitionIterator epsIter = new TransitionIterator(Symbol.EPSILON_STRING, statIdx);
+            TransitionIterator epsIter = new TransitionIterator(Symbol.EPSILON_STRING, statIdx, false, trace);
             while (epsIter.hasNext()) {
                 Transition trans = epsIter.next();
-                Set<String> prev = prefixSearch(s, strIdx, trans.toState, maxSuffix, ignoreInInput);
+                if (trace != null)
+                    trace.epsilons++;
+                Set<String> prev = prefixSearch(s, strIdx, trans.toState, maxSuffix, ignoreInInput, trace);
                     res.addAll(prev);
             }
 
             // If there is a char left in the string...
             // ...apply matching literal transitions
             for (Symbol pref : alphabet.getPrefixes(s, strIdx)) {
-                TransitionIterator litIter = new TransitionIterator(pref.asString(), statIdx);
+                TransitionIterator litIter = new TransitionIterator(pref.asString(), statIdx, false, trace);
                 while (litIter.hasNext()) {
                     Transition trans = litIter.next();
-                    Set<String> prev = prefixSearch(s, strIdx + pref.length(), trans.toState, maxSuffix, ignoreInInput);
+                    Set<String> prev = prefixSearch(s, strIdx + pref.length(), trans.toState, maxSuffix, ignoreInInput,
+                            trace);
                     for (String r : prev)
                         res.add(pref + r);
                 }
@@ -372,26 +749,29 @@ public class CompactFST implements FST {
             // ...and identity transitions
             char c = s.charAt(strIdx);
             if (!alphabet.contains(c)) {
-                TransitionIterator idIter = new TransitionIterator(Symbol.IDENTITY_STRING, statIdx);
+                TransitionIterator idIter = new TransitionIterator(Symbol.IDENTITY_STRING, statIdx, false, trace);
                 while (idIter.hasNext()) {
                     Transition trans = idIter.next();
-                    Set<String> prev = prefixSearch(s, strIdx + 1, trans.toState, maxSuffix, ignoreInInput);
+                    Set<String> prev = prefixSearch(s, strIdx + 1, trans.toState, maxSuffix, ignoreInInput, trace);
                     for (String r : prev)
                         res.add(c + r);
                 }
             }
         }
         else if (maxSuffix >= 0) {
-            TransitionIterator allIter = new TransitionIterator(statIdx);
+            TransitionIterator allIter = new TransitionIterator(statIdx, trace);
             while (allIter.hasNext()) {
                 Transition trans = allIter.next();
                 String inSym = trans.inSym;
-                Set<String> prev = prefixSearch(s, strIdx + inSym.length(), trans.toState, maxSuffix, ignoreInInput);
+                Set<String> prev = prefixSearch(s, strIdx + inSym.length(), trans.toState, maxSuffix, ignoreInInput,
+                        trace);
                 for (String r : prev)
                     res.add(inSym + r);
             }
         }
 
+        if (trace != null)
+            trace.leave();
         return res;
     }
 
@@ -400,55 +780,132 @@ public class CompactFST implements FST {
     }
 
 
-    // Helper class to iterate over transitions with a specific input symbol
+    // Get the output symbol index, building it if this is the first lookup in inverse direction
+    int[] getOutputIndex() {
+        int[] index = outputIndex;
+        if (index == null) {
+            index = buildOutputIndex();
+            outputIndex = index;
+        }
+        return index;
+    }
+
+    private int[] buildOutputIndex() {
+        if (store.nOfTransitions() > Integer.MAX_VALUE - 8)
+            throw new UnsupportedOperationException("Inverse lookup is not supported for more than 2^31 transitions");
+        int[] index = new int[(int) store.nOfTransitions()];
+        // Sort keys of the form output symbol (upper 32 bit) + position within the state (lower 32 bit)
+        long[] keys = new long[0];
+        for (int s = 0; s < store.nOfStates(); s++) {
+            TransitionStore.Arcs arcs = store.arcs(s);
+            int first = (int) store.firstTransition(s);
+            int n = arcs.size();
+            if (keys.length < n)
+                keys = new long[n];
+            for (int k = 0; k < n; k++)
+                keys[k] = ((long) arcs.outId(k) << 32) | k;
+            Arrays.sort(keys, 0, n);
+            for (int k = 0; k < n; k++)
+                index[first + k] = (int) keys[k];
+        }
+        return index;
+    }
+
+    // Helper class to iterate over transitions with a specific input symbol (or output symbol, if inverse)
     private class TransitionIterator implements Iterator<Transition> {
 
         private final String inC;
-        private final long inSym;
+        private final int sym;
+        private final boolean inverse;
+        private final TransitionStore.Arcs arcs;
+        // Output symbol index and the position of the state's transitions in it, if inverse
+        private final int[] index;
+        private final int first;
+        // Counters of the lookup, or null
+        private final LookupTrace trace;
 
         private int i;
         private final int end;
 
-        public TransitionIterator(String s, int statIdx) {
+        public TransitionIterator(String s, int statIdx, boolean inverse, LookupTrace trace) {
             inC = s;
+            this.trace = trace;
+            this.inverse = inverse;
+            this.arcs = store.arcs(statIdx);
+            int[] order = (inverse) ? arcs.outputOrder() : null;
+            if (order != null) {
+                this.index = order;
+                this.first = arcs.outputOrderOffset();
+            }
+            else {
+                this.index = (inverse) ? getOutputIndex() : null;
+                this.first = (inverse) ? (int) store.firstTransition(statIdx) : 0;
+            }
             if (alphabet.contains(s)) {
-                long ci = alphabet.idOf(s);
-                inSym = ci << 48;
-                end = (statIdx == stateOffsets.length - 1) ? transitions.length : stateOffsets[statIdx + 1];
-                i = Arrays.binarySearch(transitions, stateOffsets[statIdx], end, inSym);
-                if (i < 0)
-                    i = -(i + 1);
-                else {
-                    while (i > 0 && transitions[i - 1] == inSym)
-                        i--;
+                sym = alphabet.idOf(s);
+                end = arcs.size();
+                if (trace != null)
+                    trace.binarySearches++;
+                // Find first transition with the symbol
+                if (inverse) {
+                    int lo = 0;
+                    int hi = end;
+                    while (lo < hi) {
+                        int mid = (lo + hi) >>> 1;
+                        if (symAt(mid) < sym)
+                            lo = mid + 1;
+                        else
+                            hi = mid;
+                    }
+                    i = lo;
                 }
+                else
+                    i = arcs.lowerBound(sym);
             }
             else {
-                inSym = 0;
+                sym = 0;
                 i = Integer.MAX_VALUE;
                 end = Integer.MIN_VALUE;
             }
         }
 
-        public TransitionIterator(int statIdx) {
+        public TransitionIterator(int statIdx, LookupTrace trace) {
             inC = "";
-            inSym = 1;
-            i = stateOffsets[statIdx];
-            end = (statIdx == stateOffsets.length - 1) ? transitions.length : stateOffsets[statIdx + 1];
+            this.trace = trace;
+            sym = -1;
+            inverse = false;
+            arcs = store.arcs(statIdx);
+            index = null;
+            first = 0;
+            i = 0;
+            end = arcs.size();
+        }
+
+        // Position of the j-th transition in the order of this iterator
+        private int arcAt(int j) {
+            return (index == null) ? j : index[first + j];
+        }
+
+        private int symAt(int j) {
+            int k = arcAt(j);
+            return (inverse) ? arcs.outId(k) : arcs.inId(k);
         }
 
         @Override
         public boolean hasNext() {
-            return i < end && (inSym == 1 || (transitions[i] & getInSym) == inSym);
+            return i < end && (sym == -1 || symAt(i) == sym);
         }
 
         @Override
         public Transition next() {
-            int toState = toIdFromTransition(transitions[i]);
-            int outIdx = outIdFromTransition(transitions[i]);
+            int k = arcAt(i);
+            int toState = arcs.toId(k);
+            int outIdx = (inverse) ? arcs.inId(k) : arcs.outId(k);
             String out = (outIdx == idIdx) ? inC : alphabet.getSymbol(outIdx).toString();
-            String in = (inSym == 1) ? alphabet.getSymbol(inIdFromTransition(transitions[i])).toString() : inC;
+            String in = (sym == -1) ? alphabet.getSymbol(arcs.inId(k)).toString() : inC;
             i++;
+            if (trace != null)
+                trace.arcs++;
             return new Transition(toState, in, out);
         }
     }
@@ -479,16 +936,16 @@ public class CompactFST implements FST {
         final Alphabet alphabet;
 
         int s;
+        TransitionStore.Arcs arcs;
         int t;
-        int tend;
 
         public CompactFSTStateIterator(CompactFST fst) {
             this.fst = fst;
-            this.alphabet = new Alphabet(fst.alphabet.getSymbols());
+            this.alphabet = new Alphabet(fst.alphabet);
 
             s = -1;
+            arcs = null;
             t = -1;
-            tend = -1;
         }
 
         @Override
@@ -501,6 +958,11 @@ public class CompactFST implements FST {
             return fst.nOfTransitions();
         }
 
+        @Override
+        public long nOfTransitionsLong() {
+            return fst.nOfTransitionsLong();
+        }
+
         @Override
         public Alphabet getAlphabet() {
             return alphabet;
@@ -518,24 +980,24 @@ public class CompactFST implements FST {
 
         @Override
         public boolean hasNextState() {
-            return s+1 < fst.stateOffsets.length;
+            return s+1 < fst.nOfStates();
         }
 
         @Override
         public void nextState() {
             s++;
-            t = fst.stateOffsets[s];
-            tend = (s == fst.stateOffsets.length-1) ? fst.transitions.length : fst.stateOffsets[s+1];
+            arcs = fst.store.arcs(s);
+            t = -1;
         }
 
         @Override
         public boolean accepting() {
-            return fst.accepting[s];
+            return fst.store.accepting(s);
         }
 
         @Override
         public boolean hasNextTransition() {
-            return t+1 < tend;
+            return t+1 < arcs.size();
         }
 
         @Override
@@ -545,7 +1007,7 @@ public class CompactFST implements FST {
 
         @Override
         public boolean identity() {
-            return fst.isIdentityTransition(fst.transitions[t]);
+            return arcs.inId(t) == fst.idIdx;
         }
 
         @Override
@@ -553,7 +1015,7 @@ public class CompactFST implements FST {
             if (identity())
                 return -1;
             else
-                return fst.inIdFromTransition(fst.transitions[t]);
+                return arcs.inId(t);
         }
 
         @Override
@@ -561,15 +1023,12 @@ public class CompactFST implements FST {
             if (identity())
                 return -1;
             else
-                return fst.outIdFromTransition(fst.transitions[t]);
+                return arcs.outId(t);
         }
 
         @Override
         public int toId() {
-            if (identity())
-                return -1;
-            else
-                return fst.toIdFromTransition(fst.transitions[t]);
+            return arcs.toId(t);
         }
     }
 }
@@ -0,0 +1,261 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.alphabet.Symbol;
+
+import java.util.Arrays;
+
+/**
+ * Builds a CompactFST from states and transitions that are added one after the other, e.g. by
+ * a file reader. States and transitions are collected in growable primitive arrays, so adding
+ * them does not create any objects.
+ *
+ * States get consecutive ids in the order in which they are added, starting with 0. Each
+ * transition belongs to the state that was added last, unless its from-state is given
+ * explicitly. The transitions of a state do not have to be sorted, and transitions with an
+ * explicit from-state may come in any order; they are put in place with one counting sort
+ * when building.
+ */
+public class CompactFSTBuilder {
+
+    // Identity symbol of builders that add it to the end of the alphabet when building
+    private static final int DEFERRED_IDENTITY = -1;
+
+    private final Alphabet alphabet;
+    private int idIdx;
+    private int start;
+
+    // Number of states and transitions added so far
+    private int nStates;
+    private int nTrans;
+    // The starting index of a state's transitions (index = state id)
+    private int[] stateOffsets;
+    // Whether a state with id index is accepting or not, as a bitset
+    private long[] accepting;
+    // Input symbols, output symbols and to-states of all transitions
+    private int[] inSyms;
+    private int[] outSyms;
+    private int[] toStates;
+    // From-states of all transitions, or null as long as all transitions belong to the state
+    // that was added last
+    private int[] fromStates;
+
+    /**
+     * Start building an FST whose alphabet may still grow while states and transitions are
+     * added. The identity symbol is added to the end of the alphabet when building.
+     * @param alphabet The alphabet of the FST
+     */
+    public CompactFSTBuilder(Alphabet alphabet) {
+        this(alphabet, DEFERRED_IDENTITY);
+    }
+
+    /**
+     * Start building an FST.
+     * @param alphabet The alphabet of the FST
+     * @param idIdx The id of the identity symbol; if it equals the size of the alphabet, the
+     *              identity symbol is added to the alphabet when building
+     */
+    public CompactFSTBuilder(Alphabet alphabet, int idIdx) {
+        this(alphabet, idIdx, 16, 16);
+    }
+
+    /**
+     * Start building an FST.
+     * @param alphabet The alphabet of the FST
+     * @param idIdx The id of the identity symbol; if it equals the size of the alphabet, the
+     *              identity symbol is added to the alphabet when building
+     * @param expectedStates The expected number of states
+     * @param expectedTransitions The expected number of transitions
+     */
+    public CompactFSTBuilder(Alphabet alphabet, int idIdx, int expectedStates, int expectedTransitions) {
+        this.alphabet = alphabet;
+        this.idIdx = idIdx;
+        this.start = 0;
+        this.nStates = 0;
+        this.nTrans = 0;
+        this.stateOffsets = new int[Math.max(1, expectedStates)];
+        this.accepting = new long[(stateOffsets.length + 63) / 64];
+        int t = Math.max(1, expectedTransitions);
+        this.inSyms = new int[t];
+        this.outSyms = new int[t];
+        this.toStates = new int[t];
+    }
+
+    /**
+     * @param start The id of the start state
+     */
+    public void setStartState(int start) {
+        this.start = start;
+    }
+
+    /**
+     * Add a new, non-accepting state. All following transitions start from this state.
+     * @return The id of the new state
+     */
+    public int addState() {
+        if (nStates == stateOffsets.length) {
+            stateOffsets = Arrays.copyOf(stateOffsets, grow(nStates));
+            accepting = Arrays.copyOf(accepting, (stateOffsets.length + 63) / 64);
+        }
+        stateOffsets[nStates] = nTrans;
+        return nStates++;
+    }
+
+    /**
+     * Add a new state. All following transitions start from this state.
+     * @param accepting True if the state is accepting
+     * @return The id of the new state
+     */
+    public int addState(boolean accepting) {
+        int s = addState();
+        setAccepting(s, accepting);
+        return s;
+    }
+
+    /**
+     * @param state The id of a state that has already been added
+     * @param accepting True if the state is accepting
+     */
+    public void setAccepting(int state, boolean accepting) {
+        if (accepting)
+            this.accepting[state >>> 6] |= 1L << state;
+        else
+            this.accepting[state >>> 6] &= ~(1L << state);
+    }
+
+    /**
+     * Add a literal transition to the state that was added last.
+     * @param inSym The id of the input symbol
+     * @param outSym The id of the output symbol
+     * @param toState The id of the to-state, which may not have been added yet
+     */
+    public void addTransition(int inSym, int outSym, int toState) {
+        if (nStates == 0)
+            throw new IllegalStateException("Cannot add a transition before the first state");
+        addTransition(nStates - 1, inSym, outSym, toState);
+    }
+
+    /**
+     * Add a literal transition to any state that has already been added.
+     * @param fromState The id of the from-state
+     * @param inSym The id of the input symbol
+     * @param outSym The id of the output symbol
+     * @param toState The id of the to-state, which may not have been added yet
+     */
+    public void addTransition(int fromState, int inSym, int outSym, int toState) {
+        if (fromState < 0 || fromState >= nStates)
+            throw new IllegalArgumentException("State " + fromState + " has not been added yet");
+        if (nTrans == toStates.length) {
+            int n = grow(nTrans);
+            inSyms = Arrays.copyOf(inSyms, n);
+            outSyms = Arrays.copyOf(outSyms, n);
+            toStates = Arrays.copyOf(toStates, n);
+            if (fromStates != null)
+                fromStates = Arrays.copyOf(fromStates, n);
+        }
+        if (fromStates == null && fromState != nStates - 1) {
+            // Out of order: remember the from-states of all transitions from now on
+            fromStates = new int[toStates.length];
+            for (int s = 0; s < nStates; s++) {
+                int end = (s + 1 < nStates) ? stateOffsets[s + 1] : nTrans;
+                Arrays.fill(fromStates, stateOffsets[s], end, s);
+            }
+        }
+        if (fromStates != null)
+            fromStates[nTrans] = fromState;
+        inSyms[nTrans] = inSym;
+        outSyms[nTrans] = outSym;
+        toStates[nTrans] = toState;
+        nTrans++;
+    }
+
+    /**
+     * Add an identity transition to the state that was added last.
+     * @param toState The id of the to-state, which may not have been added yet
+     */
+    public void addIdentityTransition(int toState) {
+        addTransition(idIdx, idIdx, toState);
+    }
+
+    /**
+     * Add an identity transition to any state that has already been added.
+     * @param fromState The id of the from-state
+     * @param toState The id of the to-state, which may not have been added yet
+     */
+    public void addIdentityTransition(int fromState, int toState) {
+        addTransition(fromState, idIdx, idIdx, toState);
+    }
+
+    private static int grow(int n) {
+        if (n == Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Too many states or transitions");
+        return (int) Math.min(Integer.MAX_VALUE - 8, n + (n >> 1) + 16L);
+    }
+
+    /**
+     * @return The number of states added so far
+     */
+    public int nOfStates() {
+        return nStates;
+    }
+
+    /**
+     * @return The number of transitions added so far
+     */
+    public int nOfTransitions() {
+        return nTrans;
+    }
+
+    /**
+     * Build the FST from all states and transitions added so far.
+     * @return The FST
+     */
+    public CompactFST build() {
+        // Add identity symbol
+        if (idIdx == DEFERRED_IDENTITY) {
+            idIdx = alphabet.size();
+            for (int t = 0; t < nTrans; t++) {
+                if (inSyms[t] == DEFERRED_IDENTITY) {
+                    inSyms[t] = idIdx;
+                    outSyms[t] = idIdx;
+                }
+            }
+        }
+        if (idIdx == alphabet.size())
+            alphabet.addSymbol(Symbol.IDENTITY_STRING);
+        if (fromStates != null)
+            sortByFromState();
+        ArrayStore store = ArrayStore.fromArrays(nStates, stateOffsets, accepting, nTrans,
+                inSyms, outSyms, toStates, alphabet.size());
+        return new CompactFST(alphabet, idIdx, start, store);
+    }
+
+    // Put transitions that were added out of order in place with a counting sort on their
+    // from-states, moving one array at a time
+    private void sortByFromState() {
+        if (stateOffsets.length < nStates + 1)
+            stateOffsets = Arrays.copyOf(stateOffsets, nStates + 1);
+        Arrays.fill(stateOffsets, 0);
+        for (int t = 0; t < nTrans; t++)
+            stateOffsets[fromStates[t] + 1]++;
+        for (int s = 0; s < nStates; s++)
+            stateOffsets[s + 1] += stateOffsets[s];
+        // Turn from-states into target positions
+        for (int t = 0; t < nTrans; t++)
+            fromStates[t] = stateOffsets[fromStates[t]]++;
+        for (int s = nStates; s > 0; s--)
+            stateOffsets[s] = stateOffsets[s - 1];
+        stateOffsets[0] = 0;
+        inSyms = permute(inSyms);
+        outSyms = permute(outSyms);
+        toStates = permute(toStates);
+        fromStates = null;
+    }
+
+    private int[] permute(int[] values) {
+        int[] sorted = new int[nTrans];
+        for (int t = 0; t < nTrans; t++)
+            sorted[fromStates[t]] = values[t];
+        return sorted;
+    }
+}
@@ -0,0 +1,139 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+/**
+ * An FST whose lookups run in Java bytecode generated for it.
+ *
+ * compile() translates a small CompactFST into a class with one method per state, which
+ * dispatches on the chars of the input with a switch and appends constant output strings, and
+ * loads it with its own class loader. This avoids the binary searches, iterator objects and
+ * alphabet lookups of CompactFST.apply() and lets the JIT inline along the paths of the FST.
+ * Lookups with ignored input symbols, prefix searches and all other methods are passed on to
+ * the CompactFST.
+ */
+public class CompiledFST implements FST {
+
+    private static final String PACKAGE = "de/tuebingen/sfs/jfst/fst/generated/";
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    // The compiled FST
+    private final CompactFST fst;
+    // Generated lookup code: Adds the outputs for an input to a set
+    private final BiPredicate<String, Set<String>> program;
+
+    private CompiledFST(CompactFST fst, BiPredicate<String, Set<String>> program) {
+        this.fst = fst;
+        this.program = program;
+    }
+
+    /**
+     * Compile an FST into Java bytecode. If a state has too many transitions for a method that
+     * the JIT compiles (about 8 KB of bytecode), if the FST is too large for a class file or if
+     * the class cannot be loaded, the FST itself is returned.
+     * @param fst The FST
+     * @return A CompiledFST with the same lookup results, or fst
+     */
+    public static FST compile(CompactFST fst) {
+        String name = PACKAGE + "FST" + COUNTER.incrementAndGet();
+        byte[] classFile = FSTClassWriter.write(fst, name);
+        if (classFile == null)
+            return fst;
+        try {
+            Class<?> cls = new Loader(CompiledFST.class.getClassLoader()).define(name.replace('/', '.'), classFile);
+            @SuppressWarnings("unchecked")
+            BiPredicate<String, Set<String>> program =
+                    (BiPredicate<String, Set<String>>) cls.getConstructor().newInstance();
+            return new CompiledFST(fst, program);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return fst;
+        }
+    }
+
+    /**
+     * @return The FST that was compiled
+     */
+    public CompactFST getFST() {
+        return fst;
+    }
+
+    @Override
+    public void writeToBinary(OutputStream out) throws IOException {
+        fst.writeToBinary(out);
+    }
+
+    @Override
+    public int nOfStates() {
+        return fst.nOfStates();
+    }
+
+    @Override
+    public int nOfTransitions() {
+        return fst.nOfTransitions();
+    }
+
+    @Override
+    public String[] getSymbols() {
+        return fst.getSymbols();
+    }
+
+    @Override
+    public FSTStateIterator iter() {
+        return fst.iter();
+    }
+
+    @Override
+    public Set<String> apply(String in) {
+        Set<String> res = new HashSet<>();
+        program.test(in, res);
+        return res;
+    }
+
+    @Override
+    public Set<String> apply(String in, Iterable<String> ignoreInInput) {
+        if (ignoreInInput == null)
+            return apply(in);
+        return fst.apply(in, ignoreInInput);
+    }
+
+    @Override
+    public Set<String> prefixSearch(String prefix) {
+        return fst.prefixSearch(prefix);
+    }
+
+    @Override
+    public Set<String> prefixSearch(String prefix, int maxSuffix) {
+        return fst.prefixSearch(prefix, maxSuffix);
+    }
+
+    @Override
+    public Set<String> prefixSearch(String prefix, Iterable<String> ignoreInInput) {
+        return fst.prefixSearch(prefix, ignoreInInput);
+    }
+
+    @Override
+    public Set<String> prefixSearch(String prefix, int maxSuffix, Iterable<String> ignoreInInput) {
+        return fst.prefixSearch(prefix, maxSuffix, ignoreInInput);
+    }
+
+
+    /**
+     * Defines a single generated class. Every class gets its own loader, so that it can be
+     * unloaded together with its CompiledFST.
+     */
+    private static class Loader extends ClassLoader {
+
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+}
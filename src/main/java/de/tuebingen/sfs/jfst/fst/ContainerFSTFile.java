@@ -0,0 +1,767 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.io.FSTProducer;
+import de.tuebingen.sfs.jfst.io.LoadObserver;
+import de.tuebingen.sfs.jfst.io.LoadStatistics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes CompactFSTs in the JFST container format, version 2 of the binary JFST format.
+ *
+ * The file starts with a fixed header and a table of sections, followed by the sections
+ * themselves. Each section can be located, verified and decoded independently of the others,
+ * so a file can be read with one thread per section. Every section has a CRC-32C checksum of
+ * its stored bytes and may be compressed with Deflate. Sections of unknown optional types are
+ * skipped. All numbers are little-endian and all sections start at a multiple of 8:
+ * <pre>
+ * magic       8 bytes   "JFST\r\n\032\n"
+ * version     int       2
+ * flags       int       0
+ * nStates     int       Number of states
+ * start       int       Id of the start state
+ * nTrans      long      Number of transitions
+ * identity    int       Id of the identity symbol
+ * nSymbols    int       Number of symbols in the alphabet
+ * nSections   int       Number of sections
+ * reserved    int       0
+ * sections    nSections x (int type, int flags, long offset, long length, long rawLength,
+ *                          int crc, int reserved)
+ * headerCRC   int       CRC-32C of all bytes before it
+ * </pre>
+ * Sections, with their content before compression:
+ * <pre>
+ * 1 alphabet     nSymbols x (int length, length x UTF-16 char)
+ * 2 offsets      (nStates+1) x int   Index of the first transition of each state, then nTrans
+ * 3 inputs       nTrans x int        Input symbol of each transition
+ * 4 outputs      nTrans x int        Output symbol of each transition
+ * 5 targets      nTrans x int        To-state of each transition
+ * 6 accepting    ceil(nStates/64) x long   Accepting states as a bitset
+ * </pre>
+ * Types from 256 on are reserved for optional sections such as lookup indexes. A section with
+ * flag 1 is stored Deflate-compressed; length is its size in the file and rawLength its size
+ * after decompression. Optional sections known so far:
+ * <pre>
+ * 256 output index   int version, int offsetsCRC, int outputsCRC, int reserved, then nTrans x int:
+ *                    For each state, the positions of its transitions ordered by output symbol
+ * </pre>
+ * An index section records the CRC-32C of the uncompressed offsets and outputs sections it was
+ * computed from. Index sections of another version, with other source checksums or with a
+ * checksum mismatch are ignored, and the index is built again when it is needed. An index
+ * whose checksums all match is trusted as is. read() decodes it into an array like all other
+ * sections; readPaged() reads the part of an uncompressed index for a block of transitions
+ * when that block is first used in inverse direction. The JFST mapped format has no index,
+ * since it would have to be mapped as a second copy of the transition order that a mapped FST
+ * needs only for inverse lookups; such FSTs build the index on their first inverse lookup.
+ *
+ * Since each section is decoded into a single buffer, the format holds at most
+ * Integer.MAX_VALUE / 4 transitions. Larger FSTs have to be written with
+ * CompactFST.writeToMapped().
+ *
+ * The three int columns of the transitions trade size for decoding speed: uncompressed, a
+ * container is about 2 times the size of a version 1 file with its byte-packed ids for the
+ * test FSTs (163 KB instead of 82 KB for mal-orth2asciiprnc) and up to 2.4 times for larger
+ * ones (24.8 MB instead of 10.4 MB). Compressed sections are much smaller than either
+ * (11 KB for mal-orth2asciiprnc), but cannot be loaded on demand by readPaged().
+ */
+class ContainerFSTFile {
+
+    private static final byte[] MAGIC = {'J', 'F', 'S', 'T', '\r', '\n', 0x1a, '\n'};
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 48;
+    private static final int ENTRY_SIZE = 40;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    // Name of this reader in load statistics
+    private static final String SOURCE = "ContainerFSTFile";
+
+    // Section types
+    static final int ALPHABET = 1;
+    static final int OFFSETS = 2;
+    static final int INPUTS = 3;
+    static final int OUTPUTS = 4;
+    static final int TARGETS = 5;
+    static final int ACCEPTING = 6;
+    // Sections from this type on may be skipped by readers that do not know them
+    static final int FIRST_OPTIONAL = 256;
+    static final int OUTPUT_INDEX = FIRST_OPTIONAL;
+
+    // Version of the output index section
+    private static final int OUTPUT_INDEX_VERSION = 1;
+
+    // Section flags
+    private static final int DEFLATE = 1;
+
+    private ContainerFSTFile() {
+    }
+
+    /**
+     * @param head The first bytes of a file, at least 8 of them
+     * @return True if the bytes start a file in JFST container format
+     */
+    static boolean isContainer(byte[] head) {
+        if (head.length < MAGIC.length)
+            return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (head[i] != MAGIC[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of bytes needed to recognize a file in JFST container format
+     */
+    static int magicLength() {
+        return MAGIC.length;
+    }
+
+    /**
+     * Read a file in JFST container format.
+     * @param file The file
+     * @param inverse If true, invert input and output symbols
+     * @param nThreads The number of threads to decode sections with
+     * @return The FST stored in the file
+     * @throws IOException
+     */
+    static CompactFST read(Path file, boolean inverse, int nThreads) throws IOException {
+        if (nThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive: " + nThreads);
+        LoadObserver loadObserver = LoadStatistics.getObserver();
+        Object context = (loadObserver == null) ? null : loadObserver.loadStarted(SOURCE);
+        long t0 = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer fixed = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+            readFully(ch, fixed, 0);
+            int nSections = fixed.getInt(40);
+            if (nSections < 0 || nSections > (1 << 16))
+                throw new IOException("Malformed JFST container header");
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + nSections * ENTRY_SIZE + 4).order(ORDER);
+            readFully(ch, header, 0);
+            Contents contents = new Contents(header.array());
+
+            if (nThreads == 1) {
+                for (Section section : contents.sections)
+                    contents.decode(section, readSection(ch, section));
+            }
+            else {
+                ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, contents.sections.size()));
+                try {
+                    List<Future<?>> tasks = new ArrayList<>();
+                    for (Section section : contents.sections)
+                        tasks.add(pool.submit(() -> {
+                            contents.decode(section, readSection(ch, section));
+                            return null;
+                        }));
+                    for (Future<?> task : tasks)
+                        get(task);
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+            // Bytes up to the end of the last section, as for streams
+            long bytes = header.capacity();
+            for (Section section : contents.sections)
+                bytes = Math.max(bytes, section.offset + section.length);
+            return finished(loadObserver, context, contents.build(inverse), bytes, t0);
+        }
+    }
+
+    /**
+     * Open a file in JFST container format whose transitions are loaded on demand. Alphabet,
+     * state offsets and accepting states are read right away; the inputs, outputs and targets
+     * sections have to be stored uncompressed. Their checksums are not verified, and neither is
+     * the checksum of an uncompressed output index, which is read block by block as well.
+     * @param file The file
+     * @param inverse If true, invert input and output symbols
+     * @param cacheBytes The maximum number of bytes of transitions to keep in memory
+     * @return The FST stored in the file, which has to be closed
+     * @throws IOException
+     */
+    static CompactFST readPaged(Path file, boolean inverse, long cacheBytes) throws IOException {
+        if (cacheBytes <= 0)
+            throw new IllegalArgumentException("Cache size must be positive: " + cacheBytes);
+        LoadObserver loadObserver = LoadStatistics.getObserver();
+        Object context = (loadObserver == null) ? null : loadObserver.loadStarted(SOURCE);
+        long t0 = System.nanoTime();
+        RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r");
+        try {
+            byte[] fixed = new byte[HEADER_SIZE];
+            raf.readFully(fixed);
+            int nSections = ByteBuffer.wrap(fixed).order(ORDER).getInt(40);
+            if (nSections < 0 || nSections > (1 << 16))
+                throw new IOException("Malformed JFST container header");
+            byte[] header = Arrays.copyOf(fixed, HEADER_SIZE + nSections * ENTRY_SIZE + 4);
+            raf.readFully(header, HEADER_SIZE, header.length - HEADER_SIZE);
+            Contents contents = new Contents(header);
+
+            // Only the sections that are decoded right away count as read
+            long bytes = header.length;
+            long[] columns = new long[TARGETS + 1];
+            int outputsCRC = 0;
+            Section index = null;
+            for (Section section : contents.sections) {
+                if (section.type == INPUTS || section.type == OUTPUTS || section.type == TARGETS) {
+                    if ((section.flags & DEFLATE) != 0)
+                        throw new IOException("Cannot load transitions of a compressed JFST container on demand");
+                    if (section.length != 4L * contents.nTrans || section.offset + section.length > raf.length())
+                        throw new IOException("Malformed section " + section.type + " of JFST container");
+                    columns[section.type] = section.offset;
+                    if (section.type == OUTPUTS)
+                        outputsCRC = section.crc;
+                }
+                else if (section.type == OUTPUT_INDEX)
+                    index = section;
+                else if (section.type < FIRST_OPTIONAL) {
+                    byte[] stored = new byte[(int) section.length];
+                    raf.seek(section.offset);
+                    raf.readFully(stored);
+                    contents.decode(section, stored);
+                    bytes += stored.length;
+                }
+            }
+            // An uncompressed index of the stored direction is read block by block along with the transitions
+            long indexPos = -1;
+            if (index != null && !inverse && (index.flags & DEFLATE) == 0 && index.length == 16 + 4L * contents.nTrans
+                    && index.offset + index.length <= raf.length()) {
+                byte[] indexHeader = new byte[16];
+                raf.seek(index.offset);
+                raf.readFully(indexHeader);
+                ByteBuffer buf = ByteBuffer.wrap(indexHeader).order(ORDER);
+                if (buf.getInt(0) == OUTPUT_INDEX_VERSION && buf.getInt(4) == contents.offsetsCRC
+                        && buf.getInt(8) == outputsCRC)
+                    indexPos = index.offset + 16;
+                bytes += indexHeader.length;
+            }
+            Alphabet alphabet = new Alphabet(contents.symbols);
+            PagedStore store = new PagedStore(raf, columns[INPUTS], columns[OUTPUTS], columns[TARGETS], indexPos,
+                    inverse, contents.nSymbols, contents.offsets, contents.accepting, cacheBytes);
+            return finished(loadObserver, context, new CompactFST(alphabet, contents.idIdx, contents.start, store),
+                    bytes, t0);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Read a file in JFST container format from a stream. The stream is not closed.
+     * @param in The stream, positioned at the start of the file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST stored in the file
+     * @throws IOException
+     */
+    static CompactFST read(InputStream in, boolean inverse) throws IOException {
+        LoadObserver loadObserver = LoadStatistics.getObserver();
+        Object context = (loadObserver == null) ? null : loadObserver.loadStarted(SOURCE);
+        long t0 = System.nanoTime();
+        byte[] fixed = new byte[HEADER_SIZE];
+        readFully(in, fixed, 0, HEADER_SIZE);
+        int nSections = ByteBuffer.wrap(fixed).order(ORDER).getInt(40);
+        if (nSections < 0 || nSections > (1 << 16))
+            throw new IOException("Malformed JFST container header");
+        byte[] header = Arrays.copyOf(fixed, HEADER_SIZE + nSections * ENTRY_SIZE + 4);
+        readFully(in, header, HEADER_SIZE, header.length - HEADER_SIZE);
+        Contents contents = new Contents(header);
+
+        // Sections are read in the order in which they are stored
+        long pos = header.length;
+        Section[] sections = contents.sections.toArray(new Section[0]);
+        Arrays.sort(sections, (s1, s2) -> Long.compare(s1.offset, s2.offset));
+        for (Section section : sections) {
+            if (section.offset < pos)
+                throw new IOException("Overlapping sections in JFST container");
+            skipFully(in, section.offset - pos);
+            byte[] stored = new byte[(int) section.length];
+            readFully(in, stored, 0, stored.length);
+            pos = section.offset + section.length;
+            contents.decode(section, stored);
+        }
+        return finished(loadObserver, context, contents.build(inverse), pos, t0);
+    }
+
+    // Tell the load observer, if any, that an FST has been read
+    private static CompactFST finished(LoadObserver loadObserver, Object context, CompactFST fst, long bytes,
+                                       long t0) {
+        if (loadObserver != null)
+            loadObserver.loadFinished(context, new LoadStatistics(SOURCE, FSTProducer.JFST, fst.nOfStates(),
+                    fst.nOfTransitionsLong(), fst.getAlphabet().size(), bytes, System.nanoTime() - t0));
+        return fst;
+    }
+
+    /**
+     * Write an FST in JFST container format. The stream is not closed.
+     * @param out The output stream
+     * @param fst The FST
+     * @param compress If true, compress sections with Deflate
+     * @param withIndex If true, add the output index of the FST, building it if necessary
+     * @throws IOException
+     */
+    static void write(OutputStream out, CompactFST fst, boolean compress, boolean withIndex) throws IOException {
+        TransitionStore store = fst.getStore();
+        int nStates = store.nOfStates();
+        long nTrans = store.nOfTransitions();
+        if (nTrans > Integer.MAX_VALUE / 4)
+            throw new IOException("Cannot write an FST with " + nTrans
+                    + " transitions in JFST container format, use CompactFST.writeToMapped() instead");
+        String[] symbols = fst.getSymbols();
+
+        // Encode sections
+        int chars = 0;
+        for (String sym : symbols)
+            chars += sym.length();
+        ByteBuffer alphabet = allocate(4L * symbols.length + 2L * chars);
+        for (String sym : symbols) {
+            alphabet.putInt(sym.length());
+            for (int i = 0; i < sym.length(); i++)
+                alphabet.putChar(sym.charAt(i));
+        }
+        ByteBuffer offsets = allocate(4L * (nStates + 1));
+        ByteBuffer inputs = allocate(4 * nTrans);
+        ByteBuffer outputs = allocate(4 * nTrans);
+        ByteBuffer targets = allocate(4 * nTrans);
+        for (int s = 0; s < nStates; s++) {
+            offsets.putInt((int) store.firstTransition(s));
+            TransitionStore.Arcs arcs = store.arcs(s);
+            for (int k = 0; k < arcs.size(); k++) {
+                inputs.putInt(arcs.inId(k));
+                outputs.putInt(arcs.outId(k));
+                targets.putInt(arcs.toId(k));
+            }
+        }
+        offsets.putInt((int) nTrans);
+        ByteBuffer accepting = allocate(8L * ((nStates + 63) / 64));
+        long acc = 0;
+        for (int s = 0; s < nStates; s++) {
+            if (store.accepting(s))
+                acc |= 1L << s;
+            if ((s & 63) == 63 || s == nStates - 1) {
+                accepting.putLong(acc);
+                acc = 0;
+            }
+        }
+
+        List<Section> sections = new ArrayList<>();
+        sections.add(pack(ALPHABET, alphabet.array(), compress));
+        sections.add(pack(OFFSETS, offsets.array(), compress));
+        sections.add(pack(INPUTS, inputs.array(), compress));
+        sections.add(pack(OUTPUTS, outputs.array(), compress));
+        sections.add(pack(TARGETS, targets.array(), compress));
+        sections.add(pack(ACCEPTING, accepting.array(), compress));
+        if (withIndex) {
+            int[] index = fst.getOutputIndex();
+            ByteBuffer outputIndex = allocate(16 + 4 * nTrans);
+            outputIndex.putInt(OUTPUT_INDEX_VERSION);
+            outputIndex.putInt(CRC32C.of(offsets.array(), 0, offsets.capacity()));
+            outputIndex.putInt(CRC32C.of(outputs.array(), 0, outputs.capacity()));
+            outputIndex.putInt(0);
+            outputIndex.asIntBuffer().put(index);
+            sections.add(pack(OUTPUT_INDEX, outputIndex.array(), compress));
+        }
+
+        // Lay out sections behind the header
+        long pos = pad(HEADER_SIZE + sections.size() * ENTRY_SIZE + 4);
+        for (Section section : sections) {
+            section.offset = pos;
+            pos = pad(pos + section.length);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + sections.size() * ENTRY_SIZE + 4).order(ORDER);
+        header.put(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(0);
+        header.putInt(nStates);
+        header.putInt(fst.getStartState());
+        header.putLong(nTrans);
+        header.putInt(fst.getIdentityId());
+        header.putInt(symbols.length);
+        header.putInt(sections.size());
+        header.putInt(0);
+        for (Section section : sections) {
+            header.putInt(section.type);
+            header.putInt(section.flags);
+            header.putLong(section.offset);
+            header.putLong(section.length);
+            header.putLong(section.rawLength);
+            header.putInt(section.crc);
+            header.putInt(0);
+        }
+        header.putInt(CRC32C.of(header.array(), 0, header.position()));
+        out.write(header.array());
+
+        pos = header.capacity();
+        byte[] padding = new byte[8];
+        for (Section section : sections) {
+            out.write(padding, 0, (int) (section.offset - pos));
+            out.write(section.data, 0, (int) section.length);
+            pos = section.offset + section.length;
+        }
+        out.write(padding, 0, (int) (pad(pos) - pos));
+    }
+
+    private static ByteBuffer allocate(long n) throws IOException {
+        if (n > Integer.MAX_VALUE)
+            throw new IOException("Section too large for the JFST container format: " + n + " bytes");
+        return ByteBuffer.allocate((int) n).order(ORDER);
+    }
+
+    // Compress a section if requested and if it gets smaller
+    private static Section pack(int type, byte[] raw, boolean compress) {
+        Section section = new Section();
+        section.type = type;
+        section.rawLength = raw.length;
+        section.data = raw;
+        section.length = raw.length;
+        if (compress && raw.length > 0) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] packed = new byte[raw.length];
+            int n = 0;
+            while (!deflater.finished() && n < packed.length)
+                n += deflater.deflate(packed, n, packed.length - n);
+            if (deflater.finished() && n < raw.length) {
+                section.flags = DEFLATE;
+                section.data = packed;
+                section.length = n;
+            }
+            deflater.end();
+        }
+        section.crc = CRC32C.of(section.data, 0, (int) section.length);
+        return section;
+    }
+
+    // Verify the checksum of a section and decompress it if necessary
+    private static ByteBuffer unpack(Section section, byte[] stored) throws IOException {
+        if (CRC32C.of(stored, 0, stored.length) != section.crc)
+            throw new IOException("Checksum mismatch in section " + section.type + " of JFST container");
+        if ((section.flags & DEFLATE) == 0)
+            return ByteBuffer.wrap(stored).order(ORDER);
+        byte[] raw = new byte[(int) section.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            int n = 0;
+            while (n < raw.length && !inflater.finished()) {
+                int k = inflater.inflate(raw, n, raw.length - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += k;
+            }
+            if (n != raw.length || !inflater.finished())
+                throw new IOException("Malformed compressed section " + section.type + " of JFST container");
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed section " + section.type + " of JFST container", e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(raw).order(ORDER);
+    }
+
+    private static byte[] readSection(FileChannel ch, Section section) throws IOException {
+        ByteBuffer stored = ByteBuffer.allocate((int) section.length);
+        readFully(ch, stored, section.offset);
+        return stored.array();
+    }
+
+    private static void get(Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading JFST container");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0)
+                throw new EOFException("Unexpected end of JFST container");
+            pos += n;
+        }
+        buf.flip();
+    }
+
+    private static void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n < 0)
+                throw new EOFException("Unexpected end of JFST container");
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long k = in.skip(n);
+            if (k <= 0) {
+                if (in.read() < 0)
+                    throw new EOFException("Unexpected end of JFST container");
+                k = 1;
+            }
+            n -= k;
+        }
+    }
+
+    private static long pad(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+
+    /**
+     * An entry of the section table, and the stored bytes of the section while writing.
+     */
+    private static class Section {
+        int type;
+        int flags;
+        long offset;
+        long length;
+        long rawLength;
+        int crc;
+        byte[] data;
+    }
+
+    /**
+     * The header of a container and the decoded sections. Each section is decoded into its own
+     * fields, so different sections can be decoded by different threads.
+     */
+    private static class Contents {
+
+        private final int nStates;
+        private final int start;
+        private final int nTrans;
+        private final int idIdx;
+        private final int nSymbols;
+        private final List<Section> sections;
+
+        private String[] symbols;
+        private int[] offsets;
+        private int[] inputs;
+        private int[] outputs;
+        private int[] targets;
+        private long[] accepting;
+        private int[] outputIndex;
+        // CRC-32C of the uncompressed offsets and outputs sections, and the ones the output index was built from
+        private int offsetsCRC;
+        private int outputsCRC;
+        private int indexOffsetsCRC;
+        private int indexOutputsCRC;
+
+        private Contents(byte[] header) throws IOException {
+            if (!isContainer(header))
+                throw new IOException("Not a JFST container");
+            ByteBuffer buf = ByteBuffer.wrap(header).order(ORDER);
+            int crcPos = header.length - 4;
+            if (CRC32C.of(header, 0, crcPos) != buf.getInt(crcPos))
+                throw new IOException("Checksum mismatch in header of JFST container");
+            buf.position(MAGIC.length);
+            int version = buf.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported JFST container version: " + version);
+            buf.getInt(); // Flags
+            nStates = buf.getInt();
+            start = buf.getInt();
+            long nTransLong = buf.getLong();
+            idIdx = buf.getInt();
+            nSymbols = buf.getInt();
+            int nSections = buf.getInt();
+            buf.getInt(); // Reserved
+            if (nStates <= 0 || start < 0 || start >= nStates || nTransLong < 0
+                    || nTransLong > Integer.MAX_VALUE || nSymbols < 0 || idIdx < 0 || idIdx >= nSymbols)
+                throw new IOException("Malformed JFST container header");
+            nTrans = (int) nTransLong;
+
+            sections = new ArrayList<>();
+            boolean[] found = new boolean[ACCEPTING + 1];
+            boolean foundIndex = false;
+            for (int i = 0; i < nSections; i++) {
+                Section section = new Section();
+                section.type = buf.getInt();
+                section.flags = buf.getInt();
+                section.offset = buf.getLong();
+                section.length = buf.getLong();
+                section.rawLength = buf.getLong();
+                section.crc = buf.getInt();
+                buf.getInt(); // Reserved
+                if (section.offset < header.length || section.length < 0 || section.length > Integer.MAX_VALUE
+                        || section.rawLength < 0 || section.rawLength > Integer.MAX_VALUE)
+                    throw new IOException("Malformed section table in JFST container");
+                if (section.type >= ALPHABET && section.type <= ACCEPTING) {
+                    if (found[section.type])
+                        throw new IOException("Duplicate section " + section.type + " in JFST container");
+                    found[section.type] = true;
+                    sections.add(section);
+                }
+                else if (section.type == OUTPUT_INDEX) {
+                    // Only the first output index is used
+                    if (!foundIndex)
+                        sections.add(section);
+                    foundIndex = true;
+                }
+                else if (section.type < FIRST_OPTIONAL)
+                    throw new IOException("Unknown section " + section.type + " in JFST container");
+            }
+            for (int type = ALPHABET; type <= ACCEPTING; type++) {
+                if (!found[type])
+                    throw new IOException("Missing section " + type + " in JFST container");
+            }
+        }
+
+        private void decode(Section section, byte[] stored) throws IOException {
+            ByteBuffer raw;
+            try {
+                raw = unpack(section, stored);
+            } catch (IOException e) {
+                // Damaged optional sections are ignored
+                if (section.type >= FIRST_OPTIONAL)
+                    return;
+                throw e;
+            }
+            switch (section.type) {
+                case ALPHABET:
+                    // Every symbol takes at least 4 bytes, so this also bounds the array
+                    if (nSymbols > raw.remaining() / 4)
+                        throw new IOException("Malformed alphabet in JFST container");
+                    String[] syms = new String[nSymbols];
+                    for (int i = 0; i < nSymbols; i++) {
+                        if (raw.remaining() < 4)
+                            throw new IOException("Malformed alphabet in JFST container");
+                        int n = raw.getInt();
+                        if (n < 0 || n > raw.remaining() / 2)
+                            throw new IOException("Malformed alphabet in JFST container");
+                        char[] sym = new char[n];
+                        raw.asCharBuffer().get(sym);
+                        raw.position(raw.position() + 2 * n);
+                        syms[i] = new String(sym);
+                    }
+                    symbols = syms;
+                    break;
+                case OFFSETS:
+                    int[] offs = ints(raw, nStates + 1, section);
+                    if (offs[0] != 0 || offs[nStates] != nTrans)
+                        throw new IOException("Malformed state offsets in JFST container");
+                    for (int s = 0; s < nStates; s++) {
+                        if (offs[s] > offs[s + 1])
+                            throw new IOException("Malformed state offsets in JFST container");
+                    }
+                    offsetsCRC = rawCRC(section, raw);
+                    offsets = offs;
+                    break;
+                case INPUTS:
+                    inputs = checkSymbols(ints(raw, nTrans, section));
+                    break;
+                case OUTPUTS:
+                    outputsCRC = rawCRC(section, raw);
+                    outputs = checkSymbols(ints(raw, nTrans, section));
+                    break;
+                case TARGETS:
+                    int[] to = ints(raw, nTrans, section);
+                    for (int t = 0; t < nTrans; t++) {
+                        if (to[t] < 0 || to[t] >= nStates)
+                            throw new IOException("Transition target " + to[t] + " out of range in JFST container");
+                    }
+                    targets = to;
+                    break;
+                case ACCEPTING:
+                    long[] acc = new long[(nStates + 63) / 64];
+                    if (raw.remaining() != 8 * acc.length)
+                        throw new IOException("Malformed section " + section.type + " of JFST container");
+                    raw.asLongBuffer().get(acc);
+                    accepting = acc;
+                    break;
+                case OUTPUT_INDEX:
+                    if (raw.remaining() != 16 + 4L * nTrans || raw.getInt() != OUTPUT_INDEX_VERSION)
+                        return;
+                    indexOffsetsCRC = raw.getInt();
+                    indexOutputsCRC = raw.getInt();
+                    raw.getInt(); // Reserved
+                    int[] index = new int[nTrans];
+                    raw.asIntBuffer().get(index);
+                    outputIndex = index;
+                    break;
+            }
+        }
+
+        // The checksum of the uncompressed content of a section
+        private int rawCRC(Section section, ByteBuffer raw) {
+            if ((section.flags & DEFLATE) == 0)
+                return section.crc;
+            return CRC32C.of(raw.array(), 0, raw.limit());
+        }
+
+        // The output index if it was built from the stored transitions, else null
+        private int[] outputIndex() {
+            if (outputIndex == null || indexOffsetsCRC != offsetsCRC || indexOutputsCRC != outputsCRC)
+                return null;
+            // The checksums of the index and of its sources match, so only check the index in debug mode
+            assert indexInRange();
+            return outputIndex;
+        }
+
+        private boolean indexInRange() {
+            for (int s = 0; s < nStates; s++) {
+                int n = offsets[s + 1] - offsets[s];
+                for (int t = offsets[s]; t < offsets[s + 1]; t++) {
+                    if (outputIndex[t] < 0 || outputIndex[t] >= n)
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        private int[] ints(ByteBuffer raw, int n, Section section) throws IOException {
+            if (raw.remaining() != 4L * n)
+                throw new IOException("Malformed section " + section.type + " of JFST container");
+            int[] values = new int[n];
+            raw.asIntBuffer().get(values);
+            return values;
+        }
+
+        private int[] checkSymbols(int[] syms) throws IOException {
+            for (int sym : syms) {
+                if (sym < 0 || sym >= nSymbols)
+                    throw new IOException("Symbol id " + sym + " out of range in JFST container");
+            }
+            return syms;
+        }
+
+        private CompactFST build(boolean inverse) {
+            Alphabet alphabet = new Alphabet(symbols);
+            int[] in = (inverse) ? outputs : inputs;
+            int[] out = (inverse) ? inputs : outputs;
+            ArrayStore store = ArrayStore.fromArrays(nStates, offsets, accepting, nTrans, in, out, targets,
+                    alphabet.size());
+            // The output index refers to the transitions in stored direction
+            return new CompactFST(alphabet, idIdx, start, store, (inverse) ? null : outputIndex());
+        }
+    }
+}
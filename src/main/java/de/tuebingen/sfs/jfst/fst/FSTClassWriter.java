@@ -0,0 +1,747 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.alphabet.Symbol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Translates a CompactFST into the class file of a java.util.function.BiPredicate whose test()
+ * method adds the outputs for an input string (first argument) to a set (second argument) and
+ * returns true if there are any.
+ *
+ * Every reachable state becomes a static method that dispatches on the next char of the input
+ * with a lookupswitch, matches multi-char symbols with String.startsWith() and appends output
+ * symbols as string constants. Transitions of states with many of them are spread over helper
+ * methods. The methods follow CompactFST.apply() step by step, including
+ * the limit on consecutive epsilon transitions and the rule that only the first identity
+ * transition with results is taken. Class files are written in version 49, which is verified
+ * without stack map frames.
+ */
+class FSTClassWriter {
+
+    // The largest method the JIT compiles by default (-XX:HugeMethodLimit)
+    static final int MAX_METHOD_SIZE = 8000;
+    // Maximum number of transitions taken in one method; more are split into helper methods
+    private static final int GROUP_ARCS = 128;
+    // Maximum number of consecutive epsilon transitions, as in CompactFST.apply()
+    private static final int MAX_INSERTIONS = 15;
+
+    private static final int CLASS_VERSION = 49;
+    private static final int MAX_CONSTANTS = 0xffff;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // Opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int ICONST_1 = 0x04;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int ALOAD = 0x19;
+    private static final int ISTORE = 0x36;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int IADD = 0x60;
+    private static final int IOR = 0x80;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IF_ICMPLT = 0xa1;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int GOTO = 0xa7;
+    private static final int LOOKUPSWITCH = 0xab;
+    private static final int IRETURN = 0xac;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int NEW = 0xbb;
+    private static final int CHECKCAST = 0xc0;
+
+    // Locals of a state method
+    private static final int STR = 0;
+    private static final int POS = 1;
+    private static final int INS = 2;
+    private static final int BUF = 3;
+    private static final int RES = 4;
+    private static final int FOUND = 5;
+    private static final int LEN = 6;
+    private static final int CHAR = 7;
+
+    private static final String STATE_DESC = "(Ljava/lang/String;IILjava/lang/StringBuilder;Ljava/util/Set;)Z";
+
+    private final CompactFST fst;
+    private final Alphabet alphabet;
+    private final TransitionStore store;
+    private final int idIdx;
+    private final String className;
+
+    private final ConstantPool pool;
+    // Method index of each reachable state, -1 for the others
+    private final int[] methodOf;
+    private final List<byte[]> methods;
+    private int nHelpers;
+    // Set if a method exceeds MAX_METHOD_SIZE
+    private boolean tooLarge;
+
+    private FSTClassWriter(CompactFST fst, String className) {
+        this.fst = fst;
+        this.alphabet = fst.getAlphabet();
+        this.store = fst.getStore();
+        this.idIdx = fst.getIdentityId();
+        this.className = className;
+        this.pool = new ConstantPool();
+        this.methodOf = new int[store.nOfStates()];
+        this.methods = new ArrayList<>();
+    }
+
+    /**
+     * Write the class file for an FST.
+     * @param fst The FST
+     * @param className The binary name of the class, with slashes
+     * @return The class file, or null if the FST is too large for the limits of a class file or of
+     * a method that the JIT compiles
+     */
+    static byte[] write(CompactFST fst, String className) {
+        return new FSTClassWriter(fst, className).write();
+    }
+
+    private byte[] write() {
+        // Number reachable states in order of discovery
+        Arrays.fill(methodOf, -1);
+        int[] queue = new int[store.nOfStates()];
+        int n = 0;
+        queue[n++] = fst.getStartState();
+        methodOf[fst.getStartState()] = 0;
+        for (int q = 0; q < n; q++) {
+            TransitionStore.Arcs arcs = store.arcs(queue[q]);
+            for (int k = 0; k < arcs.size(); k++) {
+                int to = arcs.toId(k);
+                if (methodOf[to] < 0) {
+                    methodOf[to] = n;
+                    queue[n++] = to;
+                }
+            }
+        }
+
+        constructor();
+        test();
+        known();
+        for (int q = 0; q < n && !tooLarge && pool.size() < MAX_CONSTANTS; q++)
+            state(queue[q]);
+        if (tooLarge)
+            return null;
+        return classFile();
+    }
+
+    private void constructor() {
+        Code code = new Code();
+        code.load(ALOAD, 0);
+        code.op(INVOKESPECIAL);
+        code.u2(pool.method("java/lang/Object", "<init>", "()V"));
+        code.op(RETURN);
+        addMethod(ACC_PUBLIC, "<init>", "()V", code, 1, 1);
+    }
+
+    // public boolean test(Object s, Object res)
+    private void test() {
+        Code code = new Code();
+        code.load(ALOAD, 1);
+        code.op(CHECKCAST);
+        code.u2(pool.classRef("java/lang/String"));
+        code.op(ICONST_0);
+        code.op(ICONST_0);
+        code.op(NEW);
+        code.u2(pool.classRef("java/lang/StringBuilder"));
+        code.op(DUP);
+        code.op(INVOKESPECIAL);
+        code.u2(pool.method("java/lang/StringBuilder", "<init>", "()V"));
+        code.load(ALOAD, 2);
+        code.op(CHECKCAST);
+        code.u2(pool.classRef("java/util/Set"));
+        code.op(INVOKESTATIC);
+        code.u2(pool.method(className, "s" + methodOf[fst.getStartState()], STATE_DESC));
+        code.op(IRETURN);
+        addMethod(ACC_PUBLIC, "test", "(Ljava/lang/Object;Ljava/lang/Object;)Z", code, 7, 3);
+    }
+
+    // private static boolean known(char c): Whether the alphabet contains c, as Alphabet.contains(char)
+    private void known() {
+        TreeMap<Integer, Integer> cases = new TreeMap<>();
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            if (alphabet.contains((char) c))
+                cases.put(c, 0);
+        }
+        Code code = new Code();
+        code.load(ILOAD, 0);
+        int sw = code.lookupSwitch(cases);
+        int no = code.size();
+        code.op(ICONST_0);
+        code.op(IRETURN);
+        int yes = code.size();
+        code.op(ICONST_1);
+        code.op(IRETURN);
+        code.patchSwitch(sw, cases, no, Collections.singletonMap(0, yes));
+        addMethod(ACC_PRIVATE | ACC_STATIC, "known", "(C)Z", code, 1, 1);
+    }
+
+    // Write the method of a state: private static boolean s<n>(String s, int i, int ins, StringBuilder b, Set res)
+    private void state(int state) {
+        TransitionStore.Arcs arcs = store.arcs(state);
+        int epsId = alphabet.idOf(Symbol.EPSILON_STRING);
+        // Literal transitions by input symbol: single chars are dispatched by a switch, longer symbols tested in turn
+        TreeMap<Integer, List<Integer>> charArcs = new TreeMap<>();
+        LinkedHashMap<String, List<Integer>> stringArcs = new LinkedHashMap<>();
+        List<Integer> epsArcs = new ArrayList<>();
+        List<Integer> idArcs = new ArrayList<>();
+        for (int k = 0; k < arcs.size(); k++) {
+            int in = arcs.inId(k);
+            if (in == epsId)
+                epsArcs.add(k);
+            if (in == idIdx)
+                idArcs.add(k);
+            String sym = alphabet.getSymbol(in).asString();
+            if (sym.length() == 1)
+                charArcs.computeIfAbsent((int) sym.charAt(0), c -> new ArrayList<>()).add(k);
+            else if (!sym.isEmpty())
+                stringArcs.computeIfAbsent(sym, c -> new ArrayList<>()).add(k);
+        }
+
+        Code code = new Code();
+        prologue(code);
+
+        // Accept if the input has been consumed
+        if (store.accepting(state)) {
+            code.load(ILOAD, POS);
+            code.load(ALOAD, STR);
+            code.op(INVOKEVIRTUAL);
+            code.u2(pool.method("java/lang/String", "length", "()I"));
+            int notFinal = code.jump(IF_ICMPLT);
+            code.load(ALOAD, RES);
+            code.load(ALOAD, BUF);
+            code.op(INVOKEVIRTUAL);
+            code.u2(pool.method("java/lang/StringBuilder", "toString", "()Ljava/lang/String;"));
+            code.op(INVOKEINTERFACE);
+            code.u2(pool.interfaceMethod("java/util/Set", "add", "(Ljava/lang/Object;)Z"));
+            code.u1(2);
+            code.u1(0);
+            code.op(POP);
+            code.op(ICONST_1);
+            code.store(FOUND);
+            code.patch(notFinal, code.size());
+        }
+
+        // Epsilon transitions
+        if (!epsArcs.isEmpty()) {
+            code.load(ILOAD, INS);
+            code.push(MAX_INSERTIONS);
+            int skip = code.jump(IF_ICMPGE);
+            take(code, arcs, epsArcs, Symbol.EPSILON_STRING, 0, true);
+            code.patch(skip, code.size());
+        }
+
+        // Return if the input has been consumed
+        code.load(ILOAD, POS);
+        code.load(ALOAD, STR);
+        code.op(INVOKEVIRTUAL);
+        code.u2(pool.method("java/lang/String", "length", "()I"));
+        int notFinal = code.jump(IF_ICMPLT);
+        code.load(ILOAD, FOUND);
+        code.op(IRETURN);
+        code.patch(notFinal, code.size());
+        loadChar(code);
+        code.store(CHAR);
+
+        // Literal transitions with single-char input symbols
+        if (!charArcs.isEmpty()) {
+            code.load(ILOAD, CHAR);
+            int weight = 0;
+            for (List<Integer> ks : charArcs.values())
+                weight += weight(ks);
+            if (weight <= GROUP_ARCS)
+                charSwitch(code, arcs, charArcs);
+            else
+                groupedCharSwitch(code, arcs, charArcs);
+        }
+
+        // Literal transitions with multi-char input symbols
+        for (Map.Entry<String, List<Integer>> e : stringArcs.entrySet()) {
+            code.load(ALOAD, STR);
+            code.ldc(pool.string(e.getKey()));
+            code.load(ILOAD, POS);
+            code.op(INVOKEVIRTUAL);
+            code.u2(pool.method("java/lang/String", "startsWith", "(Ljava/lang/String;I)Z"));
+            int skip = code.jump(IFEQ);
+            take(code, arcs, e.getValue(), e.getKey(), e.getKey().length(), false);
+            code.patch(skip, code.size());
+        }
+
+        // Identity transitions for chars outside of the alphabet; only the first one with results is taken
+        if (!idArcs.isEmpty()) {
+            code.load(ILOAD, CHAR);
+            code.op(INVOKESTATIC);
+            code.u2(pool.method(className, "known", "(C)Z"));
+            List<Integer> exits = new ArrayList<>();
+            exits.add(code.jump(IFNE));
+            for (int k : idArcs) {
+                code.load(ALOAD, BUF);
+                code.load(ILOAD, CHAR);
+                code.op(INVOKEVIRTUAL);
+                code.u2(pool.method("java/lang/StringBuilder", "append", "(C)Ljava/lang/StringBuilder;"));
+                code.op(POP);
+                call(code, arcs.toId(k), 1, false);
+                code.load(ALOAD, BUF);
+                code.load(ILOAD, LEN);
+                code.op(INVOKEVIRTUAL);
+                code.u2(pool.method("java/lang/StringBuilder", "setLength", "(I)V"));
+                int none = code.jump(IFEQ);
+                code.op(ICONST_1);
+                code.store(FOUND);
+                exits.add(code.jump(GOTO));
+                code.patch(none, code.size());
+            }
+            for (int exit : exits)
+                code.patch(exit, code.size());
+        }
+
+        code.load(ILOAD, FOUND);
+        code.op(IRETURN);
+        addMethod(ACC_PRIVATE | ACC_STATIC, "s" + methodOf[state], STATE_DESC, code, 7, 8);
+    }
+
+    // found = false; len = b.length()
+    private void prologue(Code code) {
+        code.op(ICONST_0);
+        code.store(FOUND);
+        code.load(ALOAD, BUF);
+        code.op(INVOKEVIRTUAL);
+        code.u2(pool.method("java/lang/StringBuilder", "length", "()I"));
+        code.store(LEN);
+    }
+
+    // Push the current char of the input
+    private void loadChar(Code code) {
+        code.load(ALOAD, STR);
+        code.load(ILOAD, POS);
+        code.op(INVOKEVIRTUAL);
+        code.u2(pool.method("java/lang/String", "charAt", "(I)C"));
+    }
+
+    // Switch on the char on the stack and take the matching transitions
+    private void charSwitch(Code code, TransitionStore.Arcs arcs, SortedMap<Integer, List<Integer>> charArcs) {
+        TreeMap<Integer, Integer> cases = new TreeMap<>();
+        for (int c : charArcs.keySet())
+            cases.put(c, c);
+        int sw = code.lookupSwitch(cases);
+        Map<Integer, Integer> targets = new HashMap<>();
+        List<Integer> exits = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> e : charArcs.entrySet()) {
+            targets.put(e.getKey(), code.size());
+            String sym = String.valueOf((char) (int) e.getKey());
+            // The epsilon symbol matches its char without consuming it, like in CompactFST
+            int n = alphabet.getSymbol(arcs.inId(e.getValue().get(0))).length();
+            take(code, arcs, e.getValue(), sym, n, false);
+            exits.add(code.jump(GOTO));
+        }
+        int end = code.size();
+        code.patchSwitch(sw, cases, end, targets);
+        for (int exit : exits)
+            code.patch(exit, end);
+    }
+
+    /*
+    Switch on the char on the stack for a state with many transitions: The chars are split into groups of about
+    GROUP_ARCS transitions, each of which gets a method with a switch of its own. The state method only calls the
+    method of the group of the char.
+     */
+    private void groupedCharSwitch(Code code, TransitionStore.Arcs arcs, SortedMap<Integer, List<Integer>> charArcs) {
+        List<TreeMap<Integer, List<Integer>>> groups = new ArrayList<>();
+        TreeMap<Integer, Integer> cases = new TreeMap<>();
+        int weight = GROUP_ARCS;
+        for (Map.Entry<Integer, List<Integer>> e : charArcs.entrySet()) {
+            int w = weight(e.getValue());
+            if (weight + w > GROUP_ARCS) {
+                groups.add(new TreeMap<>());
+                weight = 0;
+            }
+            groups.get(groups.size() - 1).put(e.getKey(), e.getValue());
+            cases.put(e.getKey(), groups.size() - 1);
+            weight += w;
+        }
+
+        int sw = code.lookupSwitch(cases);
+        Map<Integer, Integer> targets = new HashMap<>();
+        List<Integer> exits = new ArrayList<>();
+        for (int g = 0; g < groups.size(); g++) {
+            Code group = new Code();
+            prologue(group);
+            loadChar(group);
+            charSwitch(group, arcs, groups.get(g));
+            group.load(ILOAD, FOUND);
+            group.op(IRETURN);
+            targets.put(g, code.size());
+            callHelper(code, group);
+            exits.add(code.jump(GOTO));
+        }
+        int end = code.size();
+        code.patchSwitch(sw, cases, end, targets);
+        for (int exit : exits)
+            code.patch(exit, end);
+    }
+
+    // The share of a method that taking a list of transitions needs
+    private static int weight(List<Integer> ks) {
+        return (ks.size() <= GROUP_ARCS) ? ks.size() : 2 * ((ks.size() + GROUP_ARCS - 1) / GROUP_ARCS);
+    }
+
+    // Take a list of transitions, in helper methods of GROUP_ARCS transitions each if there are more
+    private void take(Code code, TransitionStore.Arcs arcs, List<Integer> ks, String inSym, int n, boolean epsilon) {
+        if (ks.size() <= GROUP_ARCS) {
+            for (int k : ks)
+                transition(code, arcs, k, inSym, n, epsilon);
+            return;
+        }
+        for (int from = 0; from < ks.size(); from += GROUP_ARCS) {
+            Code helper = new Code();
+            prologue(helper);
+            for (int k : ks.subList(from, Math.min(from + GROUP_ARCS, ks.size())))
+                transition(helper, arcs, k, inSym, n, epsilon);
+            helper.load(ILOAD, FOUND);
+            helper.op(IRETURN);
+            callHelper(code, helper);
+        }
+    }
+
+    // Add a helper method with the signature of a state method and call it with the same arguments
+    private void callHelper(Code code, Code helper) {
+        String name = "h" + (nHelpers++);
+        addMethod(ACC_PRIVATE | ACC_STATIC, name, STATE_DESC, helper, 7, 8);
+        code.load(ALOAD, STR);
+        code.load(ILOAD, POS);
+        code.load(ILOAD, INS);
+        code.load(ALOAD, BUF);
+        code.load(ALOAD, RES);
+        code.op(INVOKESTATIC);
+        code.u2(pool.method(className, name, STATE_DESC));
+        code.load(ILOAD, FOUND);
+        code.op(IOR);
+        code.store(FOUND);
+    }
+
+    /*
+    Take a transition: Append its output, continue in its to-state with the position advanced by n, collect whether
+    there were results and reset the output. The output is chosen like in CompactFST.TransitionIterator.
+     */
+    private void transition(Code code, TransitionStore.Arcs arcs, int k, String inSym, int n, boolean epsilon) {
+        int outId = arcs.outId(k);
+        String out = (outId == idIdx) ? inSym : alphabet.getSymbol(outId).toString();
+        if (out.equals(Symbol.EPSILON_STRING))
+            out = "";
+        if (!out.isEmpty()) {
+            code.load(ALOAD, BUF);
+            code.ldc(pool.string(out));
+            code.op(INVOKEVIRTUAL);
+            code.u2(pool.method("java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;"));
+            code.op(POP);
+        }
+        call(code, arcs.toId(k), n, epsilon);
+        code.load(ILOAD, FOUND);
+        code.op(IOR);
+        code.store(FOUND);
+        if (!out.isEmpty()) {
+            code.load(ALOAD, BUF);
+            code.load(ILOAD, LEN);
+            code.op(INVOKEVIRTUAL);
+            code.u2(pool.method("java/lang/StringBuilder", "setLength", "(I)V"));
+        }
+    }
+
+    // Call the method of a state, leaving its result on the stack
+    private void call(Code code, int to, int n, boolean epsilon) {
+        code.load(ALOAD, STR);
+        code.load(ILOAD, POS);
+        if (n > 0) {
+            code.push(n);
+            code.op(IADD);
+        }
+        if (epsilon) {
+            code.load(ILOAD, INS);
+            code.op(ICONST_1);
+            code.op(IADD);
+        }
+        else
+            code.op(ICONST_0);
+        code.load(ALOAD, BUF);
+        code.load(ALOAD, RES);
+        code.op(INVOKESTATIC);
+        code.u2(pool.method(className, "s" + methodOf[to], STATE_DESC));
+    }
+
+    // Add a method, or note that the FST cannot be compiled if it is too large
+    private void addMethod(int access, String name, String desc, Code code, int maxStack, int maxLocals) {
+        if (code.size() > MAX_METHOD_SIZE)
+            tooLarge = true;
+        else
+            methods.add(method(access, name, desc, code, maxStack, maxLocals));
+    }
+
+    private byte[] method(int access, String name, String desc, Code code, int maxStack, int maxLocals) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(pool.utf8(name));
+            out.writeShort(pool.utf8(desc));
+            out.writeShort(1);
+            out.writeShort(pool.utf8("Code"));
+            out.writeInt(12 + code.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.size());
+            out.write(code.bytes(), 0, code.size());
+            out.writeShort(0); // Exception table
+            out.writeShort(0); // Attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] classFile() {
+        int thisClass = pool.classRef(className);
+        int superClass = pool.classRef("java/lang/Object");
+        int predicate = pool.classRef("java/util/function/BiPredicate");
+        // The constant pool count, which is one more than the number of constants, must fit into 16 bit
+        if (pool.size() >= MAX_CONSTANTS)
+            return null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            out.writeShort(pool.size() + 1);
+            out.write(pool.bytes());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(predicate);
+            out.writeShort(0); // Fields
+            out.writeShort(methods.size());
+            for (byte[] method : methods)
+                out.write(method);
+            out.writeShort(0); // Attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * The constant pool of a class file. Equal constants are only added once.
+     */
+    private static class ConstantPool {
+
+        private final Map<String, Integer> index = new HashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        byte[] bytes() {
+            return bytes.toByteArray();
+        }
+
+        int utf8(String s) {
+            return add("U" + s, 1, () -> out.writeUTF(s));
+        }
+
+        int classRef(String name) {
+            int utf8 = utf8(name);
+            return add("C" + name, 7, () -> out.writeShort(utf8));
+        }
+
+        int string(String s) {
+            int utf8 = utf8(s);
+            return add("S" + s, 8, () -> out.writeShort(utf8));
+        }
+
+        int method(String owner, String name, String desc) {
+            return member(10, owner, name, desc);
+        }
+
+        int interfaceMethod(String owner, String name, String desc) {
+            return member(11, owner, name, desc);
+        }
+
+        private int member(int tag, String owner, String name, String desc) {
+            int cls = classRef(owner);
+            int nameIdx = utf8(name);
+            int descIdx = utf8(desc);
+            int nat = add("N" + name + " " + desc, 12, () -> {
+                out.writeShort(nameIdx);
+                out.writeShort(descIdx);
+            });
+            return add("M" + tag + owner + "." + name + desc, tag, () -> {
+                out.writeShort(cls);
+                out.writeShort(nat);
+            });
+        }
+
+        private int add(String key, int tag, Entry entry) {
+            Integer i = index.get(key);
+            if (i != null)
+                return i;
+            try {
+                out.writeByte(tag);
+                entry.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            index.put(key, ++size);
+            return size;
+        }
+
+        private interface Entry {
+            void write() throws IOException;
+        }
+    }
+
+    /**
+     * The bytecode of a method, with forward jumps that are patched once their target is known.
+     */
+    private static class Code {
+
+        private byte[] code = new byte[256];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        byte[] bytes() {
+            return code;
+        }
+
+        void u1(int b) {
+            if (size == code.length)
+                code = Arrays.copyOf(code, 2 * size);
+            code[size++] = (byte) b;
+        }
+
+        void u2(int i) {
+            u1(i >> 8);
+            u1(i);
+        }
+
+        void u4(int i) {
+            u2(i >> 16);
+            u2(i);
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        // Load a local with ILOAD or ALOAD, using the short forms for the first four locals
+        void load(int opcode, int local) {
+            if (local <= 3)
+                u1(((opcode == ILOAD) ? 0x1a : 0x2a) + local);
+            else {
+                u1(opcode);
+                u1(local);
+            }
+        }
+
+        // Push a constant between 0 and 32767
+        void push(int i) {
+            if (i <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(i);
+            }
+            else {
+                u1(SIPUSH);
+                u2(i);
+            }
+        }
+
+        void store(int local) {
+            u1(ISTORE);
+            u1(local);
+        }
+
+        void ldc(int constant) {
+            if (constant <= 0xff) {
+                u1(LDC);
+                u1(constant);
+            }
+            else {
+                u1(LDC_W);
+                u2(constant);
+            }
+        }
+
+        // Write a jump with a placeholder offset and return its position
+        int jump(int opcode) {
+            int pos = size;
+            u1(opcode);
+            u2(0);
+            return pos;
+        }
+
+        void patch(int jump, int target) {
+            int offset = target - jump;
+            if (offset > Short.MAX_VALUE)
+                offset = Short.MAX_VALUE; // Caught by the method size limit
+            code[jump + 1] = (byte) (offset >> 8);
+            code[jump + 2] = (byte) offset;
+        }
+
+        // Write a lookupswitch with placeholder offsets for the given keys and return its position
+        int lookupSwitch(SortedMap<Integer, Integer> cases) {
+            int pos = size;
+            u1(LOOKUPSWITCH);
+            while (size % 4 != 0)
+                u1(0);
+            u4(0);
+            u4(cases.size());
+            for (int key : cases.keySet()) {
+                u4(key);
+                u4(0);
+            }
+            return pos;
+        }
+
+        // Set the offsets of a lookupswitch; cases maps keys to labels, targets labels to code positions
+        void patchSwitch(int sw, SortedMap<Integer, Integer> cases, int dflt, Map<Integer, Integer> targets) {
+            int p = sw + 1;
+            while (p % 4 != 0)
+                p++;
+            int end = size;
+            size = p;
+            u4(dflt - sw);
+            u4(cases.size());
+            for (Map.Entry<Integer, Integer> e : cases.entrySet()) {
+                u4(e.getKey());
+                u4(targets.get(e.getValue()) - sw);
+            }
+            size = end;
+        }
+    }
+}
@@ -17,6 +17,15 @@ public interface FSTStateIterator {
      */
     int nOfTransitions();
 
+    /**
+     * Iterators over FSTs with more than Integer.MAX_VALUE transitions have to override this
+     * method, since nOfTransitions() cannot return their number of transitions.
+     * @return The total number of transitions in the underlying FST
+     */
+    default long nOfTransitionsLong() {
+        return nOfTransitions();
+    }
+
     /**
      * @return The alphabet of the FST
      */
@@ -0,0 +1,331 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.alphabet.Symbol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds a minimal acyclic FST from input/output pairs in one pass, e.g. from a lexicon of
+ * surface forms and analyses.
+ *
+ * The pairs have to be added grouped by input prefix, i.e. all inputs that share a prefix must
+ * come one after the other, as they do in any lexicographically sorted list; one input may
+ * have several outputs. Only the path of the last input is kept open. When the next input
+ * branches off that path, the states below the branching point are frozen: each one is looked
+ * up in a register of frozen states by its transitions and final outputs, and only added to
+ * the FST if there is no equivalent state yet. Outputs are pushed towards the start state as
+ * far as they are shared by all inputs below a transition, so the register also merges states
+ * whose inputs map to different outputs. The memory needed is the size of the finished FST
+ * plus the path of the longest input.
+ *
+ * Every char of an input becomes one input symbol, while the output of a transition becomes a
+ * single (possibly multichar) output symbol. The outputs that remain at the end of an input
+ * lead to an accepting state via one epsilon-input transition each. No output is split into
+ * epsilon chains, which lookups would only follow up to a limited length. Multichar outputs
+ * are added to the alphabet as output-only symbols, so input matching only ever sees the
+ * chars of the inputs, however many distinct outputs the lexicon has.
+ */
+public class LexiconFSTBuilder {
+
+    private final Alphabet alphabet;
+    private final CompactFSTBuilder builder;
+    private final int eps;
+    // Symbol ids of chars, or -1 if the char has not been seen yet
+    private final int[] charIds;
+
+    // States on the path of the last input; path[d] is reached by the first d chars
+    private PathState[] path;
+    private String lastInput;
+    private int nPairs;
+
+    // Frozen states by their content
+    private final Map<FrozenState, Integer> register;
+
+    private boolean built;
+
+    public LexiconFSTBuilder() {
+        this(new Alphabet());
+    }
+
+    /**
+     * Start building an FST.
+     * @param alphabet Alphabet to add the symbols of the pairs to
+     */
+    public LexiconFSTBuilder(Alphabet alphabet) {
+        this.alphabet = alphabet;
+        this.builder = new CompactFSTBuilder(alphabet);
+        this.eps = alphabet.getSymbol(Symbol.EPSILON_STRING).getId();
+        this.charIds = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(charIds, -1);
+        this.path = new PathState[16];
+        for (int d = 0; d < path.length; d++)
+            path[d] = new PathState();
+        this.lastInput = "";
+        this.nPairs = 0;
+        this.register = new HashMap<>();
+        this.built = false;
+    }
+
+    /**
+     * Add an input/output pair.
+     * @param input The input string
+     * @param output The output string
+     * @throws IllegalArgumentException If the input is out of order, i.e. its path branches off
+     *                                  at a transition that has already been frozen
+     */
+    public void add(String input, String output) {
+        if (built)
+            throw new IllegalStateException("FST has already been built");
+
+        // Length of the common prefix with the last input
+        int p = 0;
+        int max = Math.min(input.length(), lastInput.length());
+        while (p < max && input.charAt(p) == lastInput.charAt(p))
+            p++;
+        if (p < input.length() && path[p].indexOf(input.charAt(p)) >= 0)
+            throw new IllegalArgumentException("Input out of order: " + input);
+
+        freeze(p);
+
+        // Keep the common prefix of the outputs on the shared transitions and push the rest
+        // down to the next state
+        for (int d = 0; d < p; d++) {
+            PathState state = path[d];
+            String out = state.outs[state.nArcs - 1];
+            int c = 0;
+            int cmax = Math.min(out.length(), output.length());
+            while (c < cmax && out.charAt(c) == output.charAt(c))
+                c++;
+            if (c < out.length()) {
+                state.outs[state.nArcs - 1] = out.substring(0, c);
+                path[d + 1].prepend(out.substring(c));
+            }
+            output = output.substring(c);
+        }
+
+        // Add the rest of the input
+        if (input.length() >= path.length) {
+            int n = path.length;
+            path = Arrays.copyOf(path, Math.max(2 * n, input.length() + 1));
+            for (int d = n; d < path.length; d++)
+                path[d] = new PathState();
+        }
+        for (int d = p; d < input.length(); d++) {
+            path[d].addArc(input.charAt(d), (d == p) ? output : "");
+            output = "";
+        }
+        path[input.length()].addFinal(output);
+
+        lastInput = input;
+        nPairs++;
+    }
+
+    /**
+     * @return The number of pairs added so far
+     */
+    public int nOfPairs() {
+        return nPairs;
+    }
+
+    /**
+     * Freeze the remaining path and build the FST. No pairs can be added afterwards.
+     * @return The minimal FST for all pairs
+     */
+    public CompactFST build() {
+        if (built)
+            throw new IllegalStateException("FST has already been built");
+        freeze(0);
+        builder.setStartState(freeze(path[0]));
+        built = true;
+        return builder.build();
+    }
+
+    /**
+     * Build the FST and write it in binary JFST format.
+     * @param out The output stream
+     * @throws IOException
+     */
+    public void writeToBinary(OutputStream out) throws IOException {
+        build().writeToBinary(out);
+    }
+
+    // Freeze the states on the path below depth p
+    private void freeze(int p) {
+        for (int d = lastInput.length(); d > p; d--) {
+            PathState parent = path[d - 1];
+            parent.targets[parent.nArcs - 1] = freeze(path[d]);
+            path[d].clear();
+        }
+    }
+
+    // Get the id of the frozen state equivalent to this one, adding it to the FST if necessary
+    private int freeze(PathState state) {
+        FrozenState key = new FrozenState(state);
+        Integer id = register.get(key);
+        if (id == null) {
+            id = addState(key);
+            register.put(key, id);
+        }
+        return id;
+    }
+
+    private int addState(FrozenState state) {
+        // The accepting state comes first, since all transitions are added to the last state
+        int n = state.labels.length;
+        int[] outIds = new int[n + state.finals.length];
+        int[] toIds = new int[outIds.length];
+        for (int i = 0; i < n; i++) {
+            outIds[i] = outputId(state.outs[i]);
+            toIds[i] = state.targets[i];
+        }
+        boolean accepting = false;
+        int nFinals = 0;
+        for (String out : state.finals) {
+            if (out.isEmpty())
+                accepting = true;
+            else {
+                outIds[n + nFinals] = outputId(out);
+                toIds[n + nFinals] = accept();
+                nFinals++;
+            }
+        }
+
+        int id = builder.addState(accepting);
+        for (int i = 0; i < n; i++)
+            builder.addTransition(symbolId(state.labels[i]), outIds[i], toIds[i]);
+        for (int i = n; i < n + nFinals; i++)
+            builder.addTransition(eps, outIds[i], toIds[i]);
+        return id;
+    }
+
+    // The accepting state without transitions
+    private int accept() {
+        PathState end = new PathState();
+        end.addFinal("");
+        return freeze(end);
+    }
+
+    private int symbolId(char c) {
+        int id = charIds[c];
+        if (id < 0) {
+            id = alphabet.getSymbol(String.valueOf(c)).getId();
+            charIds[c] = id;
+        }
+        return id;
+    }
+
+    // Symbol id of a whole output; multichar outputs never occur in inputs
+    private int outputId(String out) {
+        if (out.isEmpty())
+            return eps;
+        else if (out.length() == 1)
+            return symbolId(out.charAt(0));
+        else
+            return alphabet.getOutputSymbol(out).getId();
+    }
+
+    /**
+     * A state on the path of the last input, which may still change.
+     */
+    private static class PathState {
+
+        private int nArcs;
+        private char[] labels = new char[2];
+        private String[] outs = new String[2];
+        private int[] targets = new int[2];
+
+        // Outputs that remain when the input ends here, empty if the state is not final
+        private int nFinals;
+        private String[] finals = new String[1];
+
+        private int indexOf(char c) {
+            for (int i = 0; i < nArcs; i++) {
+                if (labels[i] == c)
+                    return i;
+            }
+            return -1;
+        }
+
+        // The target of the new arc is set when the next state is frozen
+        private void addArc(char c, String out) {
+            if (nArcs == labels.length) {
+                labels = Arrays.copyOf(labels, 2 * nArcs);
+                outs = Arrays.copyOf(outs, 2 * nArcs);
+                targets = Arrays.copyOf(targets, 2 * nArcs);
+            }
+            labels[nArcs] = c;
+            outs[nArcs] = out;
+            targets[nArcs] = -1;
+            nArcs++;
+        }
+
+        private void addFinal(String out) {
+            for (int i = 0; i < nFinals; i++) {
+                if (finals[i].equals(out))
+                    return;
+            }
+            if (nFinals == finals.length)
+                finals = Arrays.copyOf(finals, 2 * nFinals);
+            finals[nFinals++] = out;
+        }
+
+        private void prepend(String prefix) {
+            for (int i = 0; i < nArcs; i++)
+                outs[i] = prefix + outs[i];
+            for (int i = 0; i < nFinals; i++)
+                finals[i] = prefix + finals[i];
+        }
+
+        private void clear() {
+            Arrays.fill(outs, 0, nArcs, null);
+            nArcs = 0;
+            Arrays.fill(finals, 0, nFinals, null);
+            nFinals = 0;
+        }
+    }
+
+    /**
+     * The content of a frozen state, used as key in the register.
+     */
+    private static class FrozenState {
+
+        private final char[] labels;
+        private final String[] outs;
+        private final int[] targets;
+        private final String[] finals;
+        private final int hash;
+
+        private FrozenState(PathState state) {
+            labels = Arrays.copyOf(state.labels, state.nArcs);
+            outs = Arrays.copyOf(state.outs, state.nArcs);
+            targets = Arrays.copyOf(state.targets, state.nArcs);
+            finals = Arrays.copyOf(state.finals, state.nFinals);
+            Arrays.sort(finals);
+            int h = Arrays.hashCode(labels);
+            h = 31 * h + Arrays.hashCode(outs);
+            h = 31 * h + Arrays.hashCode(targets);
+            hash = 31 * h + Arrays.hashCode(finals);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof FrozenState))
+                return false;
+            FrozenState s = (FrozenState) o;
+            return hash == s.hash && Arrays.equals(labels, s.labels) && Arrays.equals(targets, s.targets)
+                    && Arrays.equals(outs, s.outs) && Arrays.equals(finals, s.finals);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the counters of the lookups of instrumented CompactFSTs, see
+ * CompactFST.instrumented(), and exposes them through JMX.
+ *
+ * All counters are striped (LongAdder), so lookups on many threads do not contend on a single
+ * cache line. Latencies are counted in a histogram with eight buckets per power of two, so the
+ * reported percentiles are upper bounds that are at most 12.5% too high.
+ */
+public class LookupMetrics implements LookupObserver, LookupMetricsMBean {
+
+    private static final String DOMAIN = "de.tuebingen.sfs.jfst";
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Latencies of 2^MAX_EXP ns (18 minutes) and more go into the last bucket
+    private static final int MAX_EXP = 40;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder states = new LongAdder();
+    private final LongAdder arcs = new LongAdder();
+    private final LongAdder binarySearches = new LongAdder();
+    private final LongAdder epsilons = new LongAdder();
+    private final LongAdder results = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] latencies;
+
+    private ObjectName name = null;
+
+    public LookupMetrics() {
+        latencies = new LongAdder[(MAX_EXP - SUB_BITS + 2) << SUB_BITS];
+        for (int i = 0; i < latencies.length; i++)
+            latencies[i] = new LongAdder();
+    }
+
+    @Override
+    public void lookupFinished(LookupTrace trace) {
+        lookups.increment();
+        states.add(trace.states);
+        arcs.add(trace.arcs);
+        binarySearches.add(trace.binarySearches);
+        epsilons.add(trace.epsilons);
+        results.add(trace.results);
+        nanos.add(trace.elapsedNanos);
+        maxDepth.accumulate(trace.maxDepth);
+        maxNanos.accumulate(trace.elapsedNanos);
+        latencies[bucket(trace.elapsedNanos)].increment();
+    }
+
+    /**
+     * Register these metrics with the platform MBean server, under the object name
+     * de.tuebingen.sfs.jfst:type=LookupMetrics,name=[name].
+     * @param name The name of the metrics, e.g. the name of the FST
+     * @return The object name
+     * @throws JMException If the name is invalid or already taken
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        if (this.name != null)
+            throw new InstanceAlreadyExistsException("Metrics are already registered as " + this.name);
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=LookupMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.name = objectName;
+        return objectName;
+    }
+
+    /**
+     * Unregister these metrics from the platform MBean server, if they are registered.
+     */
+    public synchronized void unregister() {
+        if (name == null)
+            return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+            // Unregistered by someone else
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+        name = null;
+    }
+
+    @Override
+    public long getLookupCount() {
+        return lookups.sum();
+    }
+
+    @Override
+    public long getStatesVisited() {
+        return states.sum();
+    }
+
+    @Override
+    public long getArcsScanned() {
+        return arcs.sum();
+    }
+
+    @Override
+    public long getBinarySearches() {
+        return binarySearches.sum();
+    }
+
+    @Override
+    public long getEpsilonExpansions() {
+        return epsilons.sum();
+    }
+
+    @Override
+    public long getResultCount() {
+        return results.sum();
+    }
+
+    @Override
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        long n = lookups.sum();
+        return (n == 0) ? 0.0 : nanos.sum() / 1e3 / n;
+    }
+
+    @Override
+    public double getLatencyP50Micros() {
+        return latencyQuantile(0.5) / 1e3;
+    }
+
+    @Override
+    public double getLatencyP90Micros() {
+        return latencyQuantile(0.9) / 1e3;
+    }
+
+    @Override
+    public double getLatencyP99Micros() {
+        return latencyQuantile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getLatencyP999Micros() {
+        return latencyQuantile(0.999) / 1e3;
+    }
+
+    @Override
+    public double getMaxLatencyMicros() {
+        return maxNanos.get() / 1e3;
+    }
+
+    /**
+     * Reset all counters. Lookups that finish at the same time may be counted partially.
+     */
+    @Override
+    public void reset() {
+        lookups.reset();
+        states.reset();
+        arcs.reset();
+        binarySearches.reset();
+        epsilons.reset();
+        results.reset();
+        nanos.reset();
+        maxDepth.reset();
+        maxNanos.reset();
+        for (LongAdder bucket : latencies)
+            bucket.reset();
+    }
+
+    /**
+     * @param q A quantile between 0 and 1
+     * @return An upper bound of the latency quantile in nanoseconds
+     */
+    public long latencyQuantile(double q) {
+        long[] counts = new long[latencies.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = latencies[i].sum();
+            total += counts[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), maxNanos.get());
+        }
+        return maxNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d lookups, %d states, %d arcs, %d binary searches, %d epsilons, max depth %d, "
+                        + "%d results, latency mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us",
+                getLookupCount(), getStatesVisited(), getArcsScanned(), getBinarySearches(), getEpsilonExpansions(),
+                getMaxDepth(), getResultCount(), getMeanLatencyMicros(), getLatencyP50Micros(),
+                getLatencyP99Micros(), getMaxLatencyMicros());
+    }
+
+    // Values below SUB_COUNT get a bucket each, larger ones SUB_COUNT buckets per power of two
+    private static int bucket(long nanos) {
+        if (nanos < SUB_COUNT)
+            return (int) Math.max(0, nanos);
+        int exp = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAX_EXP);
+        int shift = exp - SUB_BITS;
+        int sub = (exp == MAX_EXP) ? SUB_COUNT - 1 : (int) (nanos >>> shift) - SUB_COUNT;
+        return ((shift + 1) << SUB_BITS) + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT)
+            return bucket;
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long sub = bucket & (SUB_COUNT - 1);
+        return ((SUB_COUNT + sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,35 @@
+package de.tuebingen.sfs.jfst.fst;
+
+/**
+ * The JMX interface of LookupMetrics. Latencies are in microseconds.
+ */
+public interface LookupMetricsMBean {
+
+    long getLookupCount();
+
+    long getStatesVisited();
+
+    long getArcsScanned();
+
+    long getBinarySearches();
+
+    long getEpsilonExpansions();
+
+    long getResultCount();
+
+    long getMaxDepth();
+
+    double getMeanLatencyMicros();
+
+    double getLatencyP50Micros();
+
+    double getLatencyP90Micros();
+
+    double getLatencyP99Micros();
+
+    double getLatencyP999Micros();
+
+    double getMaxLatencyMicros();
+
+    void reset();
+}
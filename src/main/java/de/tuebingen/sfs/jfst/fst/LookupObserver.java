@@ -0,0 +1,14 @@
+package de.tuebingen.sfs.jfst.fst;
+
+/**
+ * Receives the counters of every lookup in an instrumented CompactFST, see
+ * CompactFST.instrumented(). Observers are called on the thread of the lookup, after it has
+ * finished, so they should be fast and thread-safe.
+ */
+public interface LookupObserver {
+
+    /**
+     * @param trace The counters of a finished lookup
+     */
+    void lookupFinished(LookupTrace trace);
+}
@@ -0,0 +1,122 @@
+package de.tuebingen.sfs.jfst.fst;
+
+/**
+ * The counters of a single lookup in an instrumented CompactFST, see CompactFST.instrumented().
+ */
+public class LookupTrace {
+
+    /**
+     * The kinds of lookups.
+     */
+    public enum Kind {
+        APPLY, APPLY_INVERSE, PREFIX_SEARCH
+    }
+
+    private final Kind kind;
+    private final int inputLength;
+    private final long startNanos;
+
+    // Counters, updated by the lookup
+    int states = 0;
+    long arcs = 0;
+    int binarySearches = 0;
+    int epsilons = 0;
+    int depth = 0;
+    int maxDepth = 0;
+    int results = 0;
+    long elapsedNanos = 0;
+
+    LookupTrace(Kind kind, int inputLength) {
+        this.kind = kind;
+        this.inputLength = inputLength;
+        this.startNanos = System.nanoTime();
+    }
+
+    // Enter a state
+    void enter() {
+        states++;
+        if (++depth > maxDepth)
+            maxDepth = depth;
+    }
+
+    // Leave a state
+    void leave() {
+        depth--;
+    }
+
+    // Finish the lookup
+    void finish(int results) {
+        this.results = results;
+        this.elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return The kind of lookup
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return The length of the input string
+     */
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    /**
+     * @return The number of states visited; a state reached on several paths counts several times
+     */
+    public int nOfStatesVisited() {
+        return states;
+    }
+
+    /**
+     * @return The number of transitions followed
+     */
+    public long nOfArcsScanned() {
+        return arcs;
+    }
+
+    /**
+     * @return The number of searches for the transitions of a state with a given symbol
+     */
+    public int nOfBinarySearches() {
+        return binarySearches;
+    }
+
+    /**
+     * @return The number of epsilon transitions followed
+     */
+    public int nOfEpsilonExpansions() {
+        return epsilons;
+    }
+
+    /**
+     * @return The maximum number of states on the path of the search at the same time
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return The number of results
+     */
+    public int nOfResults() {
+        return results;
+    }
+
+    /**
+     * @return The duration of the lookup in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " of " + inputLength + " chars: " + states + " states, " + arcs + " arcs, " + binarySearches
+                + " binary searches, " + epsilons + " epsilons, depth " + maxDepth + ", " + results + " results in "
+                + elapsedNanos + " ns";
+    }
+}
@@ -0,0 +1,245 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.io.FSTProducer;
+import de.tuebingen.sfs.jfst.io.LoadObserver;
+import de.tuebingen.sfs.jfst.io.LoadStatistics;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes CompactFSTs in the JFST mapped format.
+ *
+ * The format mirrors the layout of a BufferStore, so that a file can be mapped into memory and
+ * used as is. Sections of more than 1 GB are mapped in several chunks. All numbers are
+ * little-endian and all sections start at a multiple of 8:
+ * <pre>
+ * magic       8 bytes   "JFSTMAP" followed by a zero byte
+ * version     int       3
+ * nStates     int       Number of states
+ * nTrans      long      Number of transitions
+ * start       int       Id of the start state
+ * identity    int       Id of the identity symbol
+ * nSymbols    int       Number of symbols in the alphabet
+ * bits        int       Bits of a symbol id (lowest byte) and of a state id (second byte)
+ * alphabet    nSymbols x (int length, length x UTF-16 char), padded
+ * offsets     (nStates+1) x long  Index of the first transition of each state, then nTrans
+ * transitions nTrans x long       Transitions as packed by BufferStore.pack()
+ * accepting   ceil(nStates/64) x long   Accepting states as a bitset
+ * </pre>
+ * Version 2 files, whose transitions always have 16 bit symbol ids and 32 bit state ids and
+ * which have 0 instead of the number of bits, can still be read.
+ */
+class MappedFSTFile {
+
+    private static final byte[] MAGIC = {'J', 'F', 'S', 'T', 'M', 'A', 'P', 0};
+    private static final int VERSION = 3;
+    // Last version with fixed 16 bit symbol ids and 32 bit state ids
+    private static final int VERSION_FIXED_BITS = 2;
+    private static final int HEADER_SIZE = 40;
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    // Name of this reader in load statistics
+    private static final String SOURCE = "MappedFSTFile";
+
+    private MappedFSTFile() {
+    }
+
+    /**
+     * Map a file into memory and open the FST in it.
+     * @param file A file in JFST mapped format
+     * @return The FST stored in the file
+     * @throws IOException
+     */
+    static CompactFST read(Path file) throws IOException {
+        LoadObserver loadObserver = LoadStatistics.getObserver();
+        Object context = (loadObserver == null) ? null : loadObserver.loadStarted(SOURCE);
+        long t0 = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+            readFully(ch, header, 0);
+            header.flip();
+            for (byte b : MAGIC) {
+                if (header.get() != b)
+                    throw new IOException("Not a file in JFST mapped format: " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION && version != VERSION_FIXED_BITS)
+                throw new IOException("Unsupported JFST mapped format version: " + version);
+            int nStates = header.getInt();
+            long nTrans = header.getLong();
+            int start = header.getInt();
+            int idIdx = header.getInt();
+            int nSymbols = header.getInt();
+            int bits = header.getInt();
+            int symBits = (version == VERSION_FIXED_BITS) ? 16 : bits & 0xff;
+            int stateBits = (version == VERSION_FIXED_BITS) ? 32 : (bits >>> 8) & 0xff;
+            // Version 2 used the sign bit for symbol ids from 2^15 on, so only check version 3
+            if (version == VERSION) {
+                try {
+                    BufferStore.checkBits(symBits, stateBits);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Malformed JFST mapped file: " + e.getMessage());
+                }
+            }
+
+            // Read alphabet
+            long pos = HEADER_SIZE;
+            String[] symbols = new String[nSymbols];
+            ByteBuffer len = ByteBuffer.allocate(4).order(ORDER);
+            for (int i = 0; i < nSymbols; i++) {
+                len.clear();
+                readFully(ch, len, pos);
+                int n = len.getInt(0);
+                ByteBuffer chars = ByteBuffer.allocate(2 * n).order(ORDER);
+                readFully(ch, chars, pos + 4);
+                chars.flip();
+                char[] sym = new char[n];
+                chars.asCharBuffer().get(sym);
+                symbols[i] = new String(sym);
+                pos += 4 + 2 * n;
+            }
+            // Mapped sections are not read here, so only header and alphabet count as read
+            long bytes = pos;
+            pos = pad(pos);
+            Alphabet alphabet = new Alphabet(symbols);
+
+            // Map sections
+            LongBuffer[] stateOffsets = map(ch, pos, nStates + 1L);
+            pos += 8L * (nStates + 1L);
+            LongBuffer[] transitions = map(ch, pos, nTrans);
+            pos += 8L * nTrans;
+            LongBuffer accepting = map(ch, pos, (nStates + 63L) / 64)[0];
+
+            BufferStore store = new BufferStore(nStates, nTrans, symBits, stateBits, transitions, stateOffsets,
+                    accepting);
+            CompactFST fst = new CompactFST(alphabet, idIdx, start, store);
+            if (loadObserver != null)
+                loadObserver.loadFinished(context, new LoadStatistics(SOURCE, FSTProducer.JFST, nStates, nTrans,
+                        alphabet.size(), bytes, System.nanoTime() - t0));
+            return fst;
+        }
+    }
+
+    /**
+     * Write an FST to a file in JFST mapped format.
+     * @param file The output file
+     * @param fst The FST
+     * @throws IOException
+     */
+    static void write(Path file, CompactFST fst) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ORDER);
+            String[] symbols = fst.getSymbols();
+            int symBits = ArrayStore.bitsFor(symbols.length);
+            int stateBits = ArrayStore.bitsFor(fst.nOfStates());
+            try {
+                BufferStore.checkBits(symBits, stateBits);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("FST is too large for the JFST mapped format: " + e.getMessage());
+            }
+            buf.put(MAGIC);
+            buf.putInt(VERSION);
+            buf.putInt(fst.nOfStates());
+            buf.putLong(fst.nOfTransitionsLong());
+            buf.putInt(fst.getStartState());
+            buf.putInt(fst.getIdentityId());
+            buf.putInt(symbols.length);
+            buf.putInt(stateBits << 8 | symBits);
+            long pos = HEADER_SIZE;
+
+            // Write alphabet
+            for (String sym : symbols) {
+                ensure(ch, buf, 4);
+                buf.putInt(sym.length());
+                for (int i = 0; i < sym.length(); i++) {
+                    ensure(ch, buf, 2);
+                    buf.putChar(sym.charAt(i));
+                }
+                pos += 4 + 2 * sym.length();
+            }
+            pos = writePadding(ch, buf, pos);
+
+            // Write state offsets
+            TransitionStore store = fst.getStore();
+            for (int s = 0; s < store.nOfStates(); s++) {
+                ensure(ch, buf, 8);
+                buf.putLong(store.firstTransition(s));
+            }
+            ensure(ch, buf, 8);
+            buf.putLong(store.nOfTransitions());
+
+            // Write transitions
+            for (int s = 0; s < store.nOfStates(); s++) {
+                TransitionStore.Arcs arcs = store.arcs(s);
+                for (int k = 0; k < arcs.size(); k++) {
+                    ensure(ch, buf, 8);
+                    buf.putLong(BufferStore.pack(arcs.inId(k), arcs.outId(k), arcs.toId(k), symBits, stateBits));
+                }
+            }
+
+            // Write accepting states
+            long acc = 0;
+            for (int s = 0; s < store.nOfStates(); s++) {
+                if (store.accepting(s))
+                    acc |= 1L << s;
+                if ((s & 63) == 63 || s == store.nOfStates() - 1) {
+                    ensure(ch, buf, 8);
+                    buf.putLong(acc);
+                    acc = 0;
+                }
+            }
+            flush(ch, buf);
+        }
+    }
+
+    // Map a section of n longs in chunks
+    private static LongBuffer[] map(FileChannel ch, long pos, long n) throws IOException {
+        int nChunks = (int) Math.max(1, (n + BufferStore.CHUNK_SIZE - 1) >>> BufferStore.CHUNK_BITS);
+        LongBuffer[] chunks = new LongBuffer[nChunks];
+        for (int i = 0; i < nChunks; i++) {
+            long size = Math.min(BufferStore.CHUNK_SIZE, n - ((long) i << BufferStore.CHUNK_BITS));
+            chunks[i] = ch.map(FileChannel.MapMode.READ_ONLY, pos, 8 * size).order(ORDER).asLongBuffer();
+            pos += 8 * size;
+        }
+        return chunks;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0)
+                throw new IOException("Unexpected end of JFST mapped file");
+            pos += n;
+        }
+    }
+
+    private static long pad(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+    private static long writePadding(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        long padded = pad(pos);
+        ensure(ch, buf, 8);
+        for (; pos < padded; pos++)
+            buf.put((byte) 0);
+        return padded;
+    }
+
+    // Make sure that at least n bytes can be put into the buffer
+    private static void ensure(FileChannel ch, ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() < n)
+            flush(ch, buf);
+    }
+
+    private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            ch.write(buf);
+        buf.clear();
+    }
+}
@@ -21,6 +21,11 @@ public class MutableFST implements FST {
 
     private static final int MAX_SUFFIX = 100;
 
+    // Transition arrays of states without transitions
+    private static final int[] NO_ARCS = new int[0];
+    // Capacity of the transition arrays once the first transition is added
+    private static final int MIN_ARCS = 4;
+
     // Start state
     private MutableState start;
     // Literal symbols used by the transliterator
@@ -104,12 +109,12 @@ public class MutableFST implements FST {
                             MutableState toState = states.get(toId);
                             // Create identity transition
                             if (inSym.equals(identity) && outSym.equals(identity))
-                                state.addIdentityArc(toState);
+                                state.addIdentityArc(toState.id);
                             // Create literal transition
                             else
-                                state.addLiteralArc(alphabet.getSymbol(producer.convert(inSym)),
-                                        alphabet.getSymbol(producer.convert(outSym)),
-                                        toState);
+                                state.addLiteralArc(alphabet.getSymbol(producer.convert(inSym)).getId(),
+                                        alphabet.getSymbol(producer.convert(outSym)).getId(),
+                                        toState.id);
                             nTrans++;
                         }
                     }
@@ -125,6 +130,7 @@ public class MutableFST implements FST {
                     z++;
                 this.states.add(s);
             }
+            sortStates();
         }
         catch (IOException e) {
             e.printStackTrace();
@@ -212,9 +218,7 @@ public class MutableFST implements FST {
                         inSym = outSym;
                         outSym = tmp;
                     }
-                    current.addLiteralArc(alphabet.getSymbol(inSym),
-                            alphabet.getSymbol(outSym),
-                            states.get(toId));
+                    current.addLiteralArc(inSym, outSym, toId);
                 }
                 // If there are non enough bytes for a literal transition and the end of literals is not marked,
                 // the end of a valid binary file is reached.
@@ -243,7 +247,7 @@ public class MutableFST implements FST {
                 // Add identity transition
                 else if (reader.hasNext(s)) {
                     int toId = reader.popToInt(s);
-                    current.addIdentityArc(states.get(toId));
+                    current.addIdentityArc(toId);
                 }
                 // If there are non enough bytes for an identity transition and the end of identities is not marked,
                 // the end of a valid binary file is reached.
@@ -251,6 +255,15 @@ public class MutableFST implements FST {
                     eof = true;
             }
         }
+        sortStates();
+    }
+
+    // Sort the literal transitions of all states once the FST is complete, so that lookups only read states
+    private void sortStates() {
+        for (MutableState state : states) {
+            if (state != null)
+                state.sort();
+        }
     }
 
     @Override
@@ -262,6 +275,7 @@ public class MutableFST implements FST {
         for (MutableState state : states) {
             state.invert();
         }
+        sortStates();
         return this;
     }
 
@@ -325,15 +339,21 @@ public class MutableFST implements FST {
 
     private class MutableState {
 
-        // Input symbols of literal transitions, ordered
-        private final List<Symbol> inSyms;
-        // Output symbols corresponding to the input symbols
-        private final List<Symbol> outSyms;
-        // To-states corresponding to the input symbols
-        private final List<MutableState> toStates;
-
-        // To-states of identity transitions
-        private final List<MutableState> idToStates;
+        // Input symbol ids of literal transitions, sorted when the FST is complete
+        private int[] inIds;
+        // Output symbol ids corresponding to the input symbols
+        private int[] outIds;
+        // To-state ids corresponding to the input symbols
+        private int[] toIds;
+        // Number of literal transitions
+        private int nLiteral;
+        // Literal transitions ordered by input symbol id?
+        private boolean sorted;
+
+        // To-state ids of identity transitions
+        private int[] idToIds;
+        // Number of identity transitions
+        private int nIdentity;
 
         // State accepting?
         private boolean accepting;
@@ -343,10 +363,13 @@ public class MutableFST implements FST {
 
 
         public MutableState(boolean accepting, int id) {
-            this.inSyms = new ArrayList<>();
-            this.outSyms = new ArrayList<>();
-            this.toStates = new ArrayList<>();
-            this.idToStates = new ArrayList<>();
+            this.inIds = NO_ARCS;
+            this.outIds = NO_ARCS;
+            this.toIds = NO_ARCS;
+            this.nLiteral = 0;
+            this.sorted = true;
+            this.idToIds = NO_ARCS;
+            this.nIdentity = 0;
             this.accepting = accepting;
             this.id = id;
         }
@@ -360,37 +383,68 @@ public class MutableFST implements FST {
         }
 
         /**
-         * Add a literal transition to another state.
-         * @param in Input symbol
-         * @param out Output symbol
-         * @param to To-state
+         * Add a literal transition to another state. The transition is appended, the transitions
+         * are sorted by sort() once all of them have been added.
+         * @param in Input symbol id
+         * @param out Output symbol id
+         * @param to To-state id
          */
-        public void addLiteralArc(Symbol in, Symbol out, MutableState to) {
-            int i = Collections.binarySearch(inSyms, in);
-            if (i < 0)
-                i = -i - 1;
-            inSyms.add(i, in);
-            outSyms.add(i, out);
-            toStates.add(i, to);
+        public void addLiteralArc(int in, int out, int to) {
+            if (nLiteral == inIds.length) {
+                int capacity = Math.max(MIN_ARCS, 2 * nLiteral);
+                inIds = Arrays.copyOf(inIds, capacity);
+                outIds = Arrays.copyOf(outIds, capacity);
+                toIds = Arrays.copyOf(toIds, capacity);
+            }
+            if (nLiteral > 0 && in < inIds[nLiteral-1])
+                sorted = false;
+            inIds[nLiteral] = in;
+            outIds[nLiteral] = out;
+            toIds[nLiteral] = to;
+            nLiteral++;
         }
 
         /**
          * Add an identity transition to another state.
-         * @param to To-state
+         * @param to To-state id
          */
-        public void addIdentityArc(MutableState to) {
-            idToStates.add(to);
+        public void addIdentityArc(int to) {
+            if (nIdentity == idToIds.length)
+                idToIds = Arrays.copyOf(idToIds, Math.max(MIN_ARCS, 2 * nIdentity));
+            idToIds[nIdentity++] = to;
         }
 
         public void invert() {
-            List<Symbol> inSymsOld = new ArrayList<>(inSyms);
-            List<Symbol> outSymsOld = new ArrayList<>(outSyms);
-            List<MutableState> toStatesOld = new ArrayList<>(toStates);
-            inSyms.clear();
-            outSyms.clear();
-            toStates.clear();
-            for (int i = 0; i < inSymsOld.size(); i++)
-                addLiteralArc(outSymsOld.get(i), inSymsOld.get(i), toStatesOld.get(i));
+            int[] tmp = inIds;
+            inIds = outIds;
+            outIds = tmp;
+            sorted = nLiteral <= 1;
+        }
+
+        /**
+         * Sort the literal transitions by input symbol id, keeping transitions with the same
+         * input symbol in the order they were added.
+         */
+        private void sort() {
+            if (sorted)
+                return;
+            long[] keys = new long[nLiteral];
+            for (int j = 0; j < nLiteral; j++)
+                keys[j] = ((long) inIds[j] << 32) | j;
+            Arrays.sort(keys);
+            int[] in = new int[nLiteral];
+            int[] out = new int[nLiteral];
+            int[] to = new int[nLiteral];
+            for (int j = 0; j < nLiteral; j++) {
+                int k = (int) keys[j];
+                in[j] = inIds[k];
+                out[j] = outIds[k];
+                to[j] = toIds[k];
+            }
+            inIds = in;
+            outIds = out;
+            toIds = to;
+            sorted = true;
         }
 
         /**
@@ -411,6 +465,7 @@ public class MutableFST implements FST {
          * @return The output strings matched to the input string by this transducer
          */
         public Set<String> apply(String s, int i, Iterable<String> ignoreInInput) {
+
             // String has been consumed?
             boolean sFin = i >= s.length();
 
@@ -424,11 +479,12 @@ public class MutableFST implements FST {
             // Apply ignore transitions
             if (ignoreInInput != null) {
                 for (String ign : ignoreInInput) {
-                    int start = firstIndexOf(inSyms, ign);
+                    int ignId = alphabet.idOf(ign);
+                    int start = firstIndexOf(ignId);
                     if (start >= 0) {
-                        for (int j = start; j < inSyms.size() && inSyms.get(j).equivalentTo(ign); j++) {
-                            Symbol out = outSyms.get(j);
-                            Set<String> prev = toStates.get(j).apply(s, i, ignoreInInput);
+                        for (int j = start; j < nLiteral && inIds[j] == ignId; j++) {
+                            Symbol out = alphabet.getSymbol(outIds[j]);
+                            Set<String> prev = states.get(toIds[j]).apply(s, i, ignoreInInput);
                             for (String r : prev)
                                 res.add(out + r);
                         }
@@ -437,11 +493,12 @@ public class MutableFST implements FST {
             }
 
             // Apply epsilon transitions
-            int start = firstIndexOf(inSyms, Symbol.EPSILON_CHAR);
+            int epsId = alphabet.idOf(Symbol.EPSILON_STRING);
+            int start = firstIndexOf(epsId);
             if (start >= 0) {
-                for (int j = start; j < inSyms.size() && inSyms.get(j).isEpsilon(); j++) {
-                    Symbol out = outSyms.get(j);
-                    Set<String> prev = toStates.get(j).apply(s, i, ignoreInInput);
+                for (int j = start; j < nLiteral && inIds[j] == epsId; j++) {
+                    Symbol out = alphabet.getSymbol(outIds[j]);
+                    Set<String> prev = states.get(toIds[j]).apply(s, i, ignoreInInput);
                     for (String r : prev)
                         res.add(out + r);
                 }
@@ -451,11 +508,12 @@ public class MutableFST implements FST {
             if (!sFin) {
                 // ...apply matching literal transitions
                 for (Symbol pref : alphabet.getPrefixes(s, i)) {
-                    start = firstIndexOf(inSyms, pref);
+                    int prefId = pref.getId();
+                    start = firstIndexOf(prefId);
                     if (start >= 0) {
-                        for (int j = start; j < inSyms.size() && inSyms.get(j).equals(pref); j++) {
-                            Symbol out = outSyms.get(j);
-                            Set<String> prev = toStates.get(j).apply(s, i + inSyms.get(j).length(), ignoreInInput);
+                        for (int j = start; j < nLiteral && inIds[j] == prefId; j++) {
+                            Symbol out = alphabet.getSymbol(outIds[j]);
+                            Set<String> prev = states.get(toIds[j]).apply(s, i + pref.length(), ignoreInInput);
                             for (String r : prev)
                                 res.add(out + r);
                         }
@@ -464,8 +522,8 @@ public class MutableFST implements FST {
                 char c = s.charAt(i);
                 // ...and identity transitions
                 if (!alphabet.contains(c)) {
-                    for (MutableState to : idToStates) {
-                        Set<String> prev = to.apply(s, i + 1, ignoreInInput);
+                    for (int j = 0; j < nIdentity; j++) {
+                        Set<String> prev = states.get(idToIds[j]).apply(s, i + 1, ignoreInInput);
                         for (String r : prev)
                             res.add(c + r);
                     }
@@ -476,6 +534,7 @@ public class MutableFST implements FST {
         }
 
         public Set<String> prefixSearch(String prefix, int i, Iterable<String> ignoreInInput, int maxSuffix) {
+
             // String has been consumed?
             boolean sFin = i >= prefix.length();
 
@@ -493,10 +552,11 @@ public class MutableFST implements FST {
                 // Apply ignore transitions
                 if (ignoreInInput != null) {
                     for (String ign : ignoreInInput) {
-                        int start = firstIndexOf(inSyms, ign);
+                        int ignId = alphabet.idOf(ign);
+                        int start = firstIndexOf(ignId);
                         if (start >= 0) {
-                            for (int j = start; j < inSyms.size() && inSyms.get(j).equivalentTo(ign); j++) {
-                                Set<String> prev = toStates.get(j).prefixSearch(prefix, i, ignoreInInput, maxSuffix);
+                            for (int j = start; j < nLiteral && inIds[j] == ignId; j++) {
+                                Set<String> prev = states.get(toIds[j]).prefixSearch(prefix, i, ignoreInInput, maxSuffix);
                                 for (String r : prev)
                                     res.add(ign + r);
                             }
@@ -505,20 +565,22 @@ public class MutableFST implements FST {
                 }
 
                 // Apply epsilon transitions
-                int start = firstIndexOf(inSyms, Symbol.EPSILON_CHAR);
+                int epsId = alphabet.idOf(Symbol.EPSILON_STRING);
+                int start = firstIndexOf(epsId);
                 if (start >= 0) {
-                    for (int j = start; j < inSyms.size() && inSyms.get(j).isEpsilon(); j++) {
-                        Set<String> prev = toStates.get(j).prefixSearch(prefix, i, ignoreInInput, maxSuffix);
+                    for (int j = start; j < nLiteral && inIds[j] == epsId; j++) {
+                        Set<String> prev = states.get(toIds[j]).prefixSearch(prefix, i, ignoreInInput, maxSuffix);
                         res.addAll(prev);
                     }
                 }
 
                 // ...apply matching literal transitions
                 for (Symbol pref : alphabet.getPrefixes(prefix, i)) {
-                    start = firstIndexOf(inSyms, pref);
+                    int prefId = pref.getId();
+                    start = firstIndexOf(prefId);
                     if (start >= 0) {
-                        for (int j = start; j < inSyms.size() && inSyms.get(j).equals(pref); j++) {
-                            Set<String> prev = toStates.get(j).prefixSearch(prefix, i + inSyms.get(j).length(), ignoreInInput, maxSuffix);
+                        for (int j = start; j < nLiteral && inIds[j] == prefId; j++) {
+                            Set<String> prev = states.get(toIds[j]).prefixSearch(prefix, i + pref.length(), ignoreInInput, maxSuffix);
                             for (String r : prev)
                                 res.add(pref + r);
                         }
@@ -527,17 +589,17 @@ public class MutableFST implements FST {
                 char c = prefix.charAt(i);
                 // ...and identity transitions
                 if (!alphabet.contains(c)) {
-                    for (MutableState to : idToStates) {
-                        Set<String> prev = to.prefixSearch(prefix, i + 1, ignoreInInput, maxSuffix);
+                    for (int j = 0; j < nIdentity; j++) {
+                        Set<String> prev = states.get(idToIds[j]).prefixSearch(prefix, i + 1, ignoreInInput, maxSuffix);
                         for (String r : prev)
                             res.add(c + r);
                     }
                 }
             }
             else if (maxSuffix >= 0) {
-                for (int s = 0; s < toStates.size(); s++) {
-                    Symbol inSym = inSyms.get(s);
-                    Set<String> prev = toStates.get(s).prefixSearch(prefix, i + inSym.length(), ignoreInInput, maxSuffix);
+                for (int j = 0; j < nLiteral; j++) {
+                    Symbol inSym = alphabet.getSymbol(inIds[j]);
+                    Set<String> prev = states.get(toIds[j]).prefixSearch(prefix, i + inSym.length(), ignoreInInput, maxSuffix);
                     for (String r : prev)
                         res.add(inSym + r);
                 }
@@ -546,34 +608,20 @@ public class MutableFST implements FST {
             return res;
         }
 
-        private int firstIndexOf(List<Symbol> l, char c) {
-            int i = Collections.binarySearch(l, c);
-            if (i < 0)
-                return -1;
-            for (int j = i; j >= 0; j--)
-                if (!l.get(j).equivalentTo(c))
-                    return j+1;
-            return 0;
-        }
-
-        private int firstIndexOf(List<Symbol> l, String s) {
-            int i = Collections.binarySearch(l, s);
-            if (i < 0)
+        // Index of the first literal transition with this input symbol id, or -1 if there is none
+        private int firstIndexOf(int symId) {
+            if (symId < 0)
                 return -1;
-            for (int j = i; j >= 0; j--)
-                if (!l.get(j).equivalentTo(s))
-                    return j+1;
-            return 0;
-        }
-
-        private int firstIndexOf(List<Symbol> l, Symbol c) {
-            int i = Collections.binarySearch(l, c);
-            if (i < 0)
-                return -1;
-            for (int j = i; j >= 0; j--)
-                if (!l.get(j).equals(c))
-                    return j+1;
-            return 0;
+            int lo = 0;
+            int hi = nLiteral;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (inIds[mid] < symId)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return (lo < nLiteral && inIds[lo] == symId) ? lo : -1;
         }
 
     }
@@ -647,12 +695,12 @@ public class MutableFST implements FST {
 
         @Override
         public boolean hasNextTransition() {
-            return t+1 < state.toStates.size() || i+1 < state.idToStates.size();
+            return t+1 < state.nLiteral || i+1 < state.nIdentity;
         }
 
         @Override
         public void nextTransition() {
-            if (t+1 < state.toStates.size())
+            if (t+1 < state.nLiteral)
                 t++;
             else
                 i++;
@@ -668,7 +716,7 @@ public class MutableFST implements FST {
             if (identity())
                 return -1;
             else
-                return state.inSyms.get(t).getId();
+                return state.inIds[t];
         }
 
         @Override
@@ -676,15 +724,15 @@ public class MutableFST implements FST {
             if (identity())
                 return -1;
             else
-                return state.outSyms.get(t).getId();
+                return state.outIds[t];
         }
 
         @Override
         public int toId() {
             if (identity())
-                return state.idToStates.get(i).id;
+                return state.idToIds[i];
             else
-                return state.toStates.get(t).id;
+                return state.toIds[t];
         }
     }
 
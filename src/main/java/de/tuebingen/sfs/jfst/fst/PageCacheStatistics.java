@@ -0,0 +1,82 @@
+package de.tuebingen.sfs.jfst.fst;
+
+/**
+ * A snapshot of the block cache of an FST that is loaded from its file on demand, see
+ * CompactFST.readFromPaged().
+ */
+public class PageCacheStatistics {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long loadedBytes;
+    private final int blocks;
+    private final long cachedBytes;
+    private final long capacity;
+
+    PageCacheStatistics(long hits, long misses, long evictions, long loadedBytes, int blocks, long cachedBytes,
+                        long capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.loadedBytes = loadedBytes;
+        this.blocks = blocks;
+        this.cachedBytes = cachedBytes;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return The number of state lookups answered from the cache
+     */
+    public long hitCount() {
+        return hits;
+    }
+
+    /**
+     * @return The number of state lookups that had to load a block from the file
+     */
+    public long missCount() {
+        return misses;
+    }
+
+    /**
+     * @return The number of blocks evicted from the cache
+     */
+    public long evictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return The number of transition bytes read from the file
+     */
+    public long getLoadedBytes() {
+        return loadedBytes;
+    }
+
+    /**
+     * @return The number of blocks currently in the cache
+     */
+    public int nOfBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return The number of bytes currently used by the cache
+     */
+    public long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * @return The maximum number of bytes used by the cache
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return hits + " hits, " + misses + " misses, " + evictions + " evictions, " + loadedBytes
+                + " bytes loaded, " + blocks + " blocks with " + cachedBytes + " of " + capacity + " bytes cached";
+    }
+}
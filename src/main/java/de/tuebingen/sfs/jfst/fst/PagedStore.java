@@ -0,0 +1,397 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads the transitions of an FST in JFST container format on demand.
+ *
+ * The states are grouped into blocks of consecutive states with about BLOCK_TRANSITIONS
+ * transitions. State offsets, accepting states and block boundaries stay in memory; the
+ * transitions of a block are read from the file when one of its states is first visited and
+ * kept in a cache that evicts the least recently used blocks once its size exceeds a given
+ * number of bytes. Hits take no lock: a cached block only records the number of the last miss
+ * before it was used, so blocks used between two misses count as equally recent and the
+ * eviction order is approximate. Misses, evictions and reads from the file are serialized.
+ *
+ * For lookups in inverse direction, a block also orders the transitions of each of its
+ * states by output symbol when it is first used that way. The order is read from the output
+ * index of the file if it has one, and sorted otherwise. It is counted towards the size of
+ * the block in the cache.
+ */
+class PagedStore extends TransitionStore {
+
+    // Targeted number of transitions per block
+    static final int BLOCK_TRANSITIONS = 4096;
+    // Bytes of a cached block apart from its transitions
+    private static final int BLOCK_OVERHEAD = 64;
+
+    private final RandomAccessFile file;
+    // Positions of the inputs, outputs and targets sections in the file
+    private final long inPos;
+    private final long outPos;
+    private final long toPos;
+    // Position of the output index in the file, or -1 if there is none
+    private final long indexPos;
+    private final int nSymbols;
+
+    // The starting index of a state's transitions (index = state id), plus the total number of transitions
+    private final int[] stateOffsets;
+    // Whether a state with id index is accepting or not, as a bitset
+    private final long[] accepting;
+    // The first state of each block, plus the number of states
+    private final int[] blockStarts;
+
+    // Cached blocks; changed only while holding the lock
+    private final ConcurrentHashMap<Integer, Block> cache;
+    private final Object lock;
+    private final long capacity;
+    private final LongAdder hits;
+    // Statistics of the cache apart from hits; guarded by the lock
+    private long cachedBytes;
+    // Also read without the lock by hits, to record when a block was used
+    private volatile long misses;
+    private long evictions;
+    private long loadedBytes;
+
+    PagedStore(RandomAccessFile file, long inPos, long outPos, long toPos, long indexPos, boolean inverse,
+               int nSymbols, int[] stateOffsets, long[] accepting, long capacity) {
+        this.file = file;
+        this.inPos = (inverse) ? outPos : inPos;
+        this.outPos = (inverse) ? inPos : outPos;
+        this.toPos = toPos;
+        this.indexPos = indexPos;
+        this.nSymbols = nSymbols;
+        this.stateOffsets = stateOffsets;
+        this.accepting = accepting;
+        this.capacity = capacity;
+        this.cache = new ConcurrentHashMap<>();
+        this.lock = new Object();
+        this.hits = new LongAdder();
+
+        int nStates = stateOffsets.length - 1;
+        int[] starts = new int[16];
+        int n = 0;
+        for (int s = 0; s < nStates; ) {
+            if (n == starts.length)
+                starts = Arrays.copyOf(starts, 2 * n);
+            starts[n++] = s;
+            int first = stateOffsets[s];
+            do
+                s++;
+            while (s < nStates && stateOffsets[s] - first < BLOCK_TRANSITIONS);
+        }
+        starts = Arrays.copyOf(starts, n + 1);
+        starts[n] = nStates;
+        this.blockStarts = starts;
+    }
+
+    /**
+     * @return The number of blocks the states are grouped into
+     */
+    int nOfBlocks() {
+        return blockStarts.length - 1;
+    }
+
+    /**
+     * @return A snapshot of the statistics of the block cache
+     */
+    PageCacheStatistics statistics() {
+        synchronized (lock) {
+            return new PageCacheStatistics(hits.sum(), misses, evictions, loadedBytes, cache.size(), cachedBytes,
+                    capacity);
+        }
+    }
+
+    /**
+     * Close the file. Blocks that are not cached cannot be loaded afterwards.
+     */
+    @Override
+    void close() throws IOException {
+        synchronized (file) {
+            file.close();
+        }
+    }
+
+    @Override
+    int nOfStates() {
+        return stateOffsets.length - 1;
+    }
+
+    @Override
+    long nOfTransitions() {
+        return stateOffsets[stateOffsets.length - 1];
+    }
+
+    @Override
+    long sizeInBytes() {
+        synchronized (lock) {
+            return 4L * stateOffsets.length + 8L * accepting.length + 4L * blockStarts.length + cachedBytes;
+        }
+    }
+
+    @Override
+    boolean accepting(int state) {
+        return (accepting[state >>> 6] & (1L << state)) != 0;
+    }
+
+    @Override
+    long firstTransition(int state) {
+        return stateOffsets[state];
+    }
+
+    @Override
+    Arcs arcs(int state) {
+        int b = Arrays.binarySearch(blockStarts, state);
+        if (b < 0)
+            b = -b - 2;
+        Block block = block(b);
+        int first = stateOffsets[state] - block.first;
+        return new PagedArcs(block, first, stateOffsets[state + 1] - block.first);
+    }
+
+    // Get a block from the cache or load it
+    private Block block(int b) {
+        Block block = cache.get(b);
+        if (block != null) {
+            hits.increment();
+            block.touch(misses);
+            return block;
+        }
+        synchronized (lock) {
+            // Another thread may have loaded the block in the meantime
+            block = cache.get(b);
+            if (block != null) {
+                hits.increment();
+                block.touch(misses);
+                return block;
+            }
+            misses++;
+            block = load(b);
+            block.touch(misses);
+            cache.put(b, block);
+            cachedBytes += block.bytes();
+            loadedBytes += 12L * block.in.length;
+            while (cachedBytes > capacity && cache.size() > 1)
+                evict(b);
+        }
+        return block;
+    }
+
+    // Get the order of the transitions of a block by output symbol, building it on first use
+    private int[] outputOrder(Block block) {
+        int[] order = block.byOutput;
+        if (order != null)
+            return order;
+        synchronized (lock) {
+            if (block.byOutput != null)
+                return block.byOutput;
+            order = (indexPos >= 0 && !block.reordered) ? readOutputOrder(block) : sortByOutput(block);
+            block.byOutput = order;
+            // A block that was evicted in the meantime is no longer counted
+            if (cache.get(block.index) == block) {
+                cachedBytes += 4L * order.length;
+                while (cachedBytes > capacity && cache.size() > 1)
+                    evict(block.index);
+            }
+        }
+        return order;
+    }
+
+    // Read the output index of a block from the file
+    private int[] readOutputOrder(Block block) {
+        int[] order = readInts(indexPos, block.first, new byte[4 * block.out.length]);
+        for (int s = blockStarts[block.index]; s < blockStarts[block.index + 1]; s++) {
+            int n = stateOffsets[s + 1] - stateOffsets[s];
+            for (int t = stateOffsets[s] - block.first; t < stateOffsets[s + 1] - block.first; t++) {
+                if (order[t] < 0 || order[t] >= n)
+                    throw new UncheckedIOException(new IOException("Output index out of range in JFST container"));
+            }
+        }
+        return order;
+    }
+
+    // For each state of a block, the positions of its transitions ordered by output symbol
+    private int[] sortByOutput(Block block) {
+        int[] order = new int[block.out.length];
+        long[] keys = new long[0];
+        for (int s = blockStarts[block.index]; s < blockStarts[block.index + 1]; s++) {
+            int from = stateOffsets[s] - block.first;
+            int n = stateOffsets[s + 1] - stateOffsets[s];
+            if (keys.length < n)
+                keys = new long[n];
+            for (int k = 0; k < n; k++)
+                keys[k] = ((long) block.out[from + k] << 32) | k;
+            Arrays.sort(keys, 0, n);
+            for (int k = 0; k < n; k++)
+                order[from + k] = (int) keys[k];
+        }
+        return order;
+    }
+
+    // Remove the least recently used block apart from block b; holds the lock
+    private void evict(int b) {
+        Map.Entry<Integer, Block> lru = null;
+        for (Map.Entry<Integer, Block> e : cache.entrySet()) {
+            if (e.getKey() != b && (lru == null || e.getValue().lastUse < lru.getValue().lastUse))
+                lru = e;
+        }
+        cache.remove(lru.getKey());
+        cachedBytes -= lru.getValue().bytes();
+        evictions++;
+    }
+
+    private Block load(int b) {
+        int firstState = blockStarts[b];
+        int endState = blockStarts[b + 1];
+        int first = stateOffsets[firstState];
+        int n = stateOffsets[endState] - first;
+        byte[] buf = new byte[4 * n];
+        int[] in = readInts(inPos, first, buf);
+        int[] out = readInts(outPos, first, buf);
+        int[] to = readInts(toPos, first, buf);
+        int nStates = stateOffsets.length - 1;
+        for (int t = 0; t < n; t++) {
+            if (in[t] < 0 || in[t] >= nSymbols || out[t] < 0 || out[t] >= nSymbols)
+                throw new UncheckedIOException(new IOException("Symbol id out of range in JFST container"));
+            if (to[t] < 0 || to[t] >= nStates)
+                throw new UncheckedIOException(new IOException("Transition target " + to[t]
+                        + " out of range in JFST container"));
+        }
+        boolean reordered = false;
+        for (int s = firstState; s < endState; s++)
+            reordered |= sort(in, out, to, stateOffsets[s] - first, stateOffsets[s + 1] - first);
+        return new Block(b, first, in, out, to, reordered);
+    }
+
+    private int[] readInts(long sectionPos, int first, byte[] buf) {
+        try {
+            synchronized (file) {
+                file.seek(sectionPos + 4L * first);
+                file.readFully(buf);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int[] values = new int[buf.length / 4];
+        ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values);
+        return values;
+    }
+
+    /*
+    Order the transitions of a state by input symbol. The transitions of a file are ordered by input, output and
+    target already, so a stable sort by input also orders the transitions of an inverted FST completely. Returns
+    true if the transitions had to be reordered.
+     */
+    private boolean sort(int[] in, int[] out, int[] to, int from, int end) {
+        boolean sorted = true;
+        for (int t = from + 1; t < end && sorted; t++)
+            sorted = in[t - 1] <= in[t];
+        if (sorted)
+            return false;
+        long[] keys = new long[end - from];
+        for (int k = 0; k < keys.length; k++)
+            keys[k] = ((long) in[from + k] << 32) | k;
+        Arrays.sort(keys);
+        int[] oldOut = Arrays.copyOfRange(out, from, end);
+        int[] oldTo = Arrays.copyOfRange(to, from, end);
+        for (int k = 0; k < keys.length; k++) {
+            int j = (int) keys[k];
+            in[from + k] = (int) (keys[k] >>> 32);
+            out[from + k] = oldOut[j];
+            to[from + k] = oldTo[j];
+        }
+        return true;
+    }
+
+
+    /**
+     * The transitions of a range of states.
+     */
+    private static final class Block {
+
+        // Number of the block
+        final int index;
+        // Index of the first transition of the block among all transitions
+        final int first;
+        final int[] in;
+        final int[] out;
+        final int[] to;
+        // Whether the transitions are in another order than in the file
+        final boolean reordered;
+        // Positions of the transitions ordered by output symbol, once built; set while holding the lock
+        volatile int[] byOutput;
+        // Number of the last miss before the block was used
+        volatile long lastUse;
+
+        Block(int index, int first, int[] in, int[] out, int[] to, boolean reordered) {
+            this.index = index;
+            this.first = first;
+            this.reordered = reordered;
+            this.in = in;
+            this.out = out;
+            this.to = to;
+        }
+
+        long bytes() {
+            int[] order = byOutput;
+            return ((order == null) ? 12L : 16L) * in.length + BLOCK_OVERHEAD;
+        }
+
+        // Only write if the use is newer, so that hits between two misses do not contend
+        void touch(long use) {
+            if (lastUse != use)
+                lastUse = use;
+        }
+    }
+
+    private final class PagedArcs extends Arcs {
+
+        private final Block block;
+        private final int first;
+        private final int size;
+
+        PagedArcs(Block block, int first, int end) {
+            this.block = block;
+            this.first = first;
+            this.size = end - first;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        @Override
+        int inId(int k) {
+            return block.in[first + k];
+        }
+
+        @Override
+        int outId(int k) {
+            return block.out[first + k];
+        }
+
+        @Override
+        int toId(int k) {
+            return block.to[first + k];
+        }
+
+        @Override
+        int[] outputOrder() {
+            return PagedStore.this.outputOrder(block);
+        }
+
+        @Override
+        int outputOrderOffset() {
+            return first;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import java.io.IOException;
+
+/**
+ * Storage backend for the states and transitions of a CompactFST.
+ *
+ * The lookup code of CompactFST only accesses its transitions through this class, so that
+ * transitions may be kept in arrays on the heap, in memory-mapped files or off-heap without
+ * any changes to it. Implementations must be immutable.
+ */
+abstract class TransitionStore {
+
+    /**
+     * @return The number of states
+     */
+    abstract int nOfStates();
+
+    /**
+     * @return The number of transitions
+     */
+    abstract long nOfTransitions();
+
+    /**
+     * @return The number of bytes used to store states and transitions
+     */
+    abstract long sizeInBytes();
+
+    /**
+     * @param state A state id
+     * @return True if the state is accepting
+     */
+    abstract boolean accepting(int state);
+
+    /**
+     * @param state A state id
+     * @return The index of the first transition of the state among all transitions
+     */
+    abstract long firstTransition(int state);
+
+    /**
+     * @param state A state id
+     * @return The outgoing transitions of the state
+     */
+    abstract Arcs arcs(int state);
+
+    /**
+     * Release the resources held by the store, such as open files. Does nothing by default.
+     * @throws IOException
+     */
+    void close() throws IOException {
+    }
+
+
+    /**
+     * The outgoing transitions of a single state, ordered by input symbol.
+     */
+    abstract static class Arcs {
+
+        /**
+         * @return The number of transitions
+         */
+        abstract int size();
+
+        /**
+         * @param k Position of a transition
+         * @return The id of the input symbol of the transition
+         */
+        abstract int inId(int k);
+
+        /**
+         * @param k Position of a transition
+         * @return The id of the output symbol of the transition
+         */
+        abstract int outId(int k);
+
+        /**
+         * @param k Position of a transition
+         * @return The id of the to-state of the transition
+         */
+        abstract int toId(int k);
+
+        /**
+         * Get the order of the transitions by output symbol if the store keeps one, so that
+         * inverse lookups do not need an output index over all transitions. None by default.
+         * @return An array with the position of the j-th transition by output symbol at
+         *         outputOrderOffset() + j, or null
+         */
+        int[] outputOrder() {
+            return null;
+        }
+
+        /**
+         * @return The position of the transitions of this state in outputOrder()
+         */
+        int outputOrderOffset() {
+            return 0;
+        }
+
+        /**
+         * @param sym A symbol id
+         * @return The position of the first transition whose input symbol is not smaller than sym
+         */
+        int lowerBound(int sym) {
+            int lo = 0;
+            int hi = size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (inId(mid) < sym)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package de.tuebingen.sfs.jfst.fst;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores transitions compressed in a byte array on the heap.
+ *
+ * The transitions of each state form a block of variable-length integers: The number of
+ * transitions, followed by the difference between the input symbol of each transition and that
+ * of the one before, its output symbol and the difference between its to-state and the state
+ * itself, in zigzag encoding. Only the offset of every 4th block is stored; other blocks are
+ * found by skipping over the blocks in between. The transitions of a state are decoded when
+ * they are accessed, so lookups never need to decompress more than the states they pass through.
+ *
+ * Transliterators contain many states with (almost) the same transitions. The block of such a
+ * state may instead refer to a similar state whose block lists all of its transitions, and only
+ * store the positions of the transitions of that state that it lacks and the transitions that
+ * it has in addition. Visiting the state then decodes both blocks.
+ */
+class VarintStore extends TransitionStore {
+
+    // Every (1 << SAMPLE_BITS)th state has its offset stored
+    private static final int SAMPLE_BITS = 2;
+    private static final int SAMPLE_MASK = (1 << SAMPLE_BITS) - 1;
+
+    // States with fewer transitions never refer to other states
+    private static final int MIN_REF_SIZE = 4;
+    // Number of recent states of each size class that are compared to a state to find one to refer to
+    private static final int N_CANDIDATES = 16;
+
+    private final int nStates;
+    private final long nTrans;
+
+    // Blocks of transitions for all states
+    private final byte[] data;
+    // Byte offset of the block of every sampled state
+    private final int[] byteOffsets;
+    // Index of the first transition of every sampled state among all transitions
+    private final long[] transOffsets;
+    // Whether a state with id index is accepting or not, as a bitset
+    private final long[] accepting;
+
+    private VarintStore(int nStates, long nTrans, byte[] data, int[] byteOffsets, long[] transOffsets,
+                        long[] accepting) {
+        this.nStates = nStates;
+        this.nTrans = nTrans;
+        this.data = data;
+        this.byteOffsets = byteOffsets;
+        this.transOffsets = transOffsets;
+        this.accepting = accepting;
+    }
+
+    /**
+     * Compress any store.
+     * @param store A store
+     * @return The compressed copy
+     */
+    static VarintStore copyOf(TransitionStore store) {
+        int nStates = store.nOfStates();
+        int nSamples = (nStates + SAMPLE_MASK) >>> SAMPLE_BITS;
+        int[] byteOffsets = new int[nSamples];
+        long[] transOffsets = new long[nSamples];
+        long[] accepting = new long[(nStates + 63) / 64];
+        // Recent states without reference of each size class, as candidates to refer to
+        List<ArrayDeque<Block>> candidates = new ArrayList<>();
+        for (int c = 0; c <= 32; c++)
+            candidates.add(new ArrayDeque<>());
+
+        byte[] data = new byte[Math.max(16, nStates)];
+        int pos = 0;
+        for (int s = 0; s < nStates; s++) {
+            if ((s & SAMPLE_MASK) == 0) {
+                byteOffsets[s >>> SAMPLE_BITS] = pos;
+                transOffsets[s >>> SAMPLE_BITS] = store.firstTransition(s);
+            }
+            if (store.accepting(s))
+                accepting[s >>> 6] |= 1L << s;
+            Block block = new Block(s, store.arcs(s));
+            int n = block.in.length;
+
+            // Find the state that saves most bytes when referred to
+            Block ref = null;
+            int size = 1 + block.size();
+            int sizeClass = 32 - Integer.numberOfLeadingZeros(n);
+            if (n >= MIN_REF_SIZE && block.sorted) {
+                for (int c = sizeClass - 1; c <= sizeClass + 1 && c <= 32; c++) {
+                    for (Block other : candidates.get(c)) {
+                        int refSize = block.diff(other, false);
+                        if (refSize < size) {
+                            size = refSize;
+                            ref = other;
+                        }
+                    }
+                }
+            }
+            if (ref == null && block.sorted) {
+                ArrayDeque<Block> recent = candidates.get(sizeClass);
+                if (recent.size() == N_CANDIDATES)
+                    recent.removeFirst();
+                recent.addLast(block);
+            }
+
+            if (data.length - pos < 5 + size) {
+                long newSize = Math.max(2L * data.length, (long) pos + 5 + size);
+                if (newSize > Integer.MAX_VALUE - 8)
+                    throw new IllegalArgumentException("FST is too large to be compressed into a single array");
+                data = Arrays.copyOf(data, (int) newSize);
+            }
+            pos = writeVarint(data, pos, n);
+            if (ref == null) {
+                pos = writeVarint(data, pos, 0);
+                pos = block.write(data, pos);
+            }
+            else {
+                pos = writeVarint(data, pos, s - ref.state);
+                pos = block.writeDiff(ref, data, pos);
+            }
+        }
+        return new VarintStore(nStates, store.nOfTransitions(), Arrays.copyOf(data, pos), byteOffsets,
+                transOffsets, accepting);
+    }
+
+    // Write 7 bits per byte, setting the highest bit of all bytes but the last
+    private static int writeVarint(byte[] data, int pos, int i) {
+        while ((i & ~0x7f) != 0) {
+            data[pos++] = (byte) ((i & 0x7f) | 0x80);
+            i >>>= 7;
+        }
+        data[pos++] = (byte) i;
+        return pos;
+    }
+
+    // Number of bytes of a variable-length integer
+    private static int varintSize(int i) {
+        return (38 - Integer.numberOfLeadingZeros(i | 1)) / 7;
+    }
+
+    private static int zigzag(int i) {
+        return (i << 1) ^ (i >> 31);
+    }
+
+    private static int unzigzag(int i) {
+        return (i >>> 1) ^ -(i & 1);
+    }
+
+    // Read the variable-length integer at pos
+    private int readVarint(int pos) {
+        int i = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos++];
+            i |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return i;
+    }
+
+    // Skip over n variable-length integers
+    private int skipVarints(int pos, int n) {
+        while (n > 0) {
+            if (data[pos++] >= 0)
+                n--;
+        }
+        return pos;
+    }
+
+    // Byte position of the block after the one at pos
+    private int skipBlock(int pos) {
+        int n = readVarint(pos);
+        pos = skipVarints(pos, 1);
+        boolean ref = readVarint(pos) != 0;
+        pos = skipVarints(pos, 1);
+        if (!ref)
+            return skipVarints(pos, 3 * n);
+        int nRemoved = readVarint(pos);
+        pos = skipVarints(pos, 1 + nRemoved);
+        int nAdded = readVarint(pos);
+        return skipVarints(pos, 1 + 3 * nAdded);
+    }
+
+    // Byte position of the block of a state, found by skipping over the blocks since the last sampled state
+    private int seek(int state) {
+        int pos = byteOffsets[state >>> SAMPLE_BITS];
+        for (int s = state & ~SAMPLE_MASK; s < state; s++)
+            pos = skipBlock(pos);
+        return pos;
+    }
+
+    @Override
+    long sizeInBytes() {
+        return data.length + 4L * byteOffsets.length + 8L * transOffsets.length + 8L * accepting.length;
+    }
+
+    @Override
+    int nOfStates() {
+        return nStates;
+    }
+
+    @Override
+    long nOfTransitions() {
+        return nTrans;
+    }
+
+    @Override
+    boolean accepting(int state) {
+        return (accepting[state >>> 6] & (1L << state)) != 0;
+    }
+
+    @Override
+    long firstTransition(int state) {
+        int pos = byteOffsets[state >>> SAMPLE_BITS];
+        long first = transOffsets[state >>> SAMPLE_BITS];
+        for (int s = state & ~SAMPLE_MASK; s < state; s++) {
+            first += readVarint(pos);
+            pos = skipBlock(pos);
+        }
+        return first;
+    }
+
+    @Override
+    Arcs arcs(int state) {
+        int pos = seek(state);
+        VarintArcs arcs = new VarintArcs(readVarint(pos));
+        pos = skipVarints(pos, 1);
+        int dist = readVarint(pos);
+        pos = skipVarints(pos, 1);
+        if (dist == 0) {
+            read(pos, state, arcs.in, arcs.out, arcs.to, 0, arcs.in.length);
+            return arcs;
+        }
+
+        // Decode the block of the state referred to
+        int ref = state - dist;
+        int refPos = seek(ref);
+        int nRef = readVarint(refPos);
+        refPos = skipVarints(refPos, 2);
+        int[] refIn = new int[nRef];
+        int[] refOut = new int[nRef];
+        int[] refTo = new int[nRef];
+        read(refPos, ref, refIn, refOut, refTo, 0, nRef);
+
+        // Mark the transitions that are removed, then merge the rest with the added ones
+        int nRemoved = readVarint(pos);
+        pos = skipVarints(pos, 1);
+        int j = -1;
+        for (int r = 0; r < nRemoved; r++) {
+            j += readVarint(pos) + 1;
+            pos = skipVarints(pos, 1);
+            refTo[j] = -1;
+        }
+        int nAdded = readVarint(pos);
+        pos = skipVarints(pos, 1);
+        // Decode the added transitions to the end and merge the remaining ones in from the front
+        int n = arcs.in.length;
+        int k = n - nAdded;
+        read(pos, state, arcs.in, arcs.out, arcs.to, k, n);
+        int m = 0;
+        for (j = 0; j < nRef; j++) {
+            if (refTo[j] < 0)
+                continue;
+            while (k < n && compare(arcs.in[k], arcs.out[k], arcs.to[k], refIn[j], refOut[j], refTo[j]) < 0) {
+                arcs.in[m] = arcs.in[k];
+                arcs.out[m] = arcs.out[k];
+                arcs.to[m] = arcs.to[k];
+                m++;
+                k++;
+            }
+            arcs.in[m] = refIn[j];
+            arcs.out[m] = refOut[j];
+            arcs.to[m] = refTo[j];
+            m++;
+        }
+        return arcs;
+    }
+
+    // Decode transitions of a state from pos into positions from..end of the arrays
+    private void read(int pos, int state, int[] in, int[] out, int[] to, int from, int end) {
+        int sym = 0;
+        int[] fields = new int[3];
+        for (int k = from; k < end; k++) {
+            for (int f = 0; f < 3; f++) {
+                // Inlined readVarint(), which cannot return the new position
+                int i = data[pos++];
+                if (i < 0) {
+                    i &= 0x7f;
+                    int shift = 7;
+                    byte b;
+                    do {
+                        b = data[pos++];
+                        i |= (b & 0x7f) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                }
+                fields[f] = i;
+            }
+            sym += fields[0];
+            in[k] = sym;
+            out[k] = fields[1];
+            to[k] = state + unzigzag(fields[2]);
+        }
+    }
+
+    // Compare two transitions by input symbol, output symbol and to-state
+    private static int compare(int in1, int out1, int to1, int in2, int out2, int to2) {
+        if (in1 != in2)
+            return Integer.compare(in1, in2);
+        if (out1 != out2)
+            return Integer.compare(out1, out2);
+        return Integer.compare(to1, to2);
+    }
+
+
+    // The transitions of a state while it is compressed
+    private static class Block {
+
+        private final int state;
+        private final int[] in;
+        private final int[] out;
+        private final int[] to;
+        // Whether the transitions are ordered by input symbol, output symbol and to-state
+        private final boolean sorted;
+
+        // Positions of the transitions of a referred state that this state lacks, and of those it has in addition
+        private int[] removed;
+        private int nRemoved;
+        private int[] added;
+        private int nAdded;
+
+        private Block(int state, Arcs arcs) {
+            this.state = state;
+            int n = arcs.size();
+            this.in = new int[n];
+            this.out = new int[n];
+            this.to = new int[n];
+            boolean sorted = true;
+            for (int k = 0; k < n; k++) {
+                in[k] = arcs.inId(k);
+                out[k] = arcs.outId(k);
+                to[k] = arcs.toId(k);
+                if (k > 0 && compare(in[k - 1], out[k - 1], to[k - 1], in[k], out[k], to[k]) > 0)
+                    sorted = false;
+            }
+            this.sorted = sorted;
+        }
+
+        // Number of bytes of the transitions
+        private int size() {
+            int size = 0;
+            int sym = 0;
+            for (int k = 0; k < in.length; k++) {
+                size += varintSize(in[k] - sym) + varintSize(out[k]) + varintSize(zigzag(to[k] - state));
+                sym = in[k];
+            }
+            return size;
+        }
+
+        // Compare the transitions with those of another state and return the number of bytes needed to
+        // store them relative to it, without their number; also remember the differences if keep is true
+        private int diff(Block ref, boolean keep) {
+            int n = in.length;
+            int nRef = ref.in.length;
+            if (keep) {
+                removed = new int[nRef];
+                added = new int[n];
+            }
+            nRemoved = 0;
+            nAdded = 0;
+            int size = 0;
+            int sym = 0;
+            int prevRemoved = -1;
+            int k = 0;
+            int j = 0;
+            while (k < n || j < nRef) {
+                int c = (k == n) ? 1 : (j == nRef) ? -1
+                        : compare(in[k], out[k], to[k], ref.in[j], ref.out[j], ref.to[j]);
+                if (c < 0) {
+                    size += varintSize(in[k] - sym) + varintSize(out[k]) + varintSize(zigzag(to[k] - state));
+                    sym = in[k];
+                    if (keep)
+                        added[nAdded] = k;
+                    nAdded++;
+                    k++;
+                }
+                else if (c > 0) {
+                    size += varintSize(j - prevRemoved - 1);
+                    prevRemoved = j;
+                    if (keep)
+                        removed[nRemoved] = j;
+                    nRemoved++;
+                    j++;
+                }
+                else {
+                    k++;
+                    j++;
+                }
+            }
+            return size + varintSize(state - ref.state) + varintSize(nRemoved) + varintSize(nAdded);
+        }
+
+        // Write the transitions
+        private int write(byte[] data, int pos) {
+            int sym = 0;
+            for (int k = 0; k < in.length; k++) {
+                pos = writeVarint(data, pos, in[k] - sym);
+                pos = writeVarint(data, pos, out[k]);
+                pos = writeVarint(data, pos, zigzag(to[k] - state));
+                sym = in[k];
+            }
+            return pos;
+        }
+
+        // Write the differences to the transitions of another state
+        private int writeDiff(Block ref, byte[] data, int pos) {
+            diff(ref, true);
+            pos = writeVarint(data, pos, nRemoved);
+            int prev = -1;
+            for (int r = 0; r < nRemoved; r++) {
+                pos = writeVarint(data, pos, removed[r] - prev - 1);
+                prev = removed[r];
+            }
+            pos = writeVarint(data, pos, nAdded);
+            int sym = 0;
+            for (int a = 0; a < nAdded; a++) {
+                int k = added[a];
+                pos = writeVarint(data, pos, in[k] - sym);
+                pos = writeVarint(data, pos, out[k]);
+                pos = writeVarint(data, pos, zigzag(to[k] - state));
+                sym = in[k];
+            }
+            removed = null;
+            added = null;
+            return pos;
+        }
+    }
+
+
+    // The decoded transitions of a state
+    private static class VarintArcs extends Arcs {
+
+        private final int[] in;
+        private final int[] out;
+        private final int[] to;
+
+        VarintArcs(int n) {
+            this.in = new int[n];
+            this.out = new int[n];
+            this.to = new int[n];
+        }
+
+        @Override
+        int size() {
+            return in.length;
+        }
+
+        @Override
+        int inId(int k) {
+            return in[k];
+        }
+
+        @Override
+        int outId(int k) {
+            return out[k];
+        }
+
+        @Override
+        int toId(int k) {
+            return to[k];
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package de.tuebingen.sfs.jfst.io;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.CompactFSTBuilder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads files in AT&amp;T format directly into a CompactFST.
+ *
+ * Lines are parsed from a byte buffer straight into the growable primitive arrays of a
+ * CompactFSTBuilder, without building a MutableFST first, so the memory needed while reading
+ * is close to the size of the final FST. Transitions may come in any order; if they are
+ * not grouped by from-state, they are sorted once when building. State 0 is the start state.
+ * Malformed lines cause an IOException. Large files can be parsed with several threads.
+ */
+public class ATTReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final long MAX_CHUNK_SIZE = 1 << 30;
+
+    private ATTReader() {
+    }
+
+    /**
+     * Read an AT&amp;T file.
+     * @param file The AT&amp;T file
+     * @param producer Original producer of the file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, FSTProducer producer) throws IOException {
+        return read(file, producer, false);
+    }
+
+    /**
+     * Read an AT&amp;T file.
+     * @param file The AT&amp;T file
+     * @param producer Original producer of the file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, FSTProducer producer, boolean inverse) throws IOException {
+        return read(file, producer, inverse, null);
+    }
+
+    /**
+     * Read an AT&amp;T file.
+     * @param file The AT&amp;T file
+     * @param producer Original producer of the file
+     * @param inverse If true, invert input and output symbols
+     * @param stats Statistics to fill in, or null
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, FSTProducer producer, boolean inverse, LoadStatistics stats)
+            throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in, producer, inverse, stats);
+        }
+    }
+
+    /**
+     * Read an AT&amp;T file from a stream. The stream is not closed.
+     * @param in The AT&amp;T file
+     * @param producer Original producer of the file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in, FSTProducer producer) throws IOException {
+        return read(in, producer, false);
+    }
+
+    /**
+     * Read an AT&amp;T file from a stream. The stream is not closed.
+     * @param in The AT&amp;T file
+     * @param producer Original producer of the file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in, FSTProducer producer, boolean inverse) throws IOException {
+        return read(in, producer, inverse, null);
+    }
+
+    /**
+     * Read an AT&amp;T file from a stream. The stream is not closed.
+     * @param in The AT&amp;T file
+     * @param producer Original producer of the file
+     * @param inverse If true, invert input and output symbols
+     * @param stats Statistics to fill in, or null
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in, FSTProducer producer, boolean inverse, LoadStatistics stats)
+            throws IOException {
+        long t0 = System.nanoTime();
+        stats = LoadStatistics.start(stats, "ATTReader");
+        LoadStatistics parse = LoadStatistics.startParse("ATTReader");
+        BuilderParser parser = new BuilderParser(producer, inverse);
+        byte[] buf = new byte[BUFFER_SIZE];
+        int len = 0;
+        long bytes = 0;
+        int n;
+        while ((n = in.read(buf, len, buf.length - len)) >= 0) {
+            len += n;
+            bytes += n;
+            // Parse all complete lines and keep the rest for the next round
+            int end = len;
+            while (end > 0 && buf[end - 1] != '\n')
+                end--;
+            parser.parse(buf, 0, end);
+            len -= end;
+            System.arraycopy(buf, end, buf, 0, len);
+            if (len == buf.length)
+                buf = Arrays.copyOf(buf, 2 * buf.length);
+        }
+        parser.parse(buf, 0, len);
+        CompactFST fst = parser.build(parse, bytes, t0);
+
+        if (stats != null)
+            stats.set(producer, fst.nOfStates(), fst.nOfTransitionsLong(), parser.alphabet.size(), bytes,
+                    System.nanoTime() - t0);
+        return fst;
+    }
+
+    /**
+     * Read an AT&amp;T file with several threads. The file is split into line-aligned chunks,
+     * which are parsed in parallel with their own symbol tables. The symbol tables are then
+     * merged in file order and the transitions of all chunks are assembled, so the result is
+     * identical to that of the sequential reader.
+     * @param file The AT&amp;T file
+     * @param producer Original producer of the file
+     * @param inverse If true, invert input and output symbols
+     * @param nThreads The number of threads to use; the file is read sequentially if it is 1
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, FSTProducer producer, boolean inverse, int nThreads)
+            throws IOException {
+        return read(file, producer, inverse, null, nThreads);
+    }
+
+    /**
+     * Read an AT&amp;T file with several threads. The file is split into line-aligned chunks,
+     * which are parsed in parallel with their own symbol tables. The symbol tables are then
+     * merged in file order and the transitions of all chunks are assembled, so the result is
+     * identical to that of the sequential reader.
+     * @param file The AT&amp;T file
+     * @param producer Original producer of the file
+     * @param inverse If true, invert input and output symbols
+     * @param stats Statistics to fill in, or null
+     * @param nThreads The number of threads to use; the file is read sequentially if it is 1
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, FSTProducer producer, boolean inverse, LoadStatistics stats,
+                                  int nThreads) throws IOException {
+        if (nThreads < 1)
+            throw new IllegalArgumentException("Number of threads must be positive: " + nThreads);
+        if (nThreads == 1)
+            return read(file, producer, inverse, stats);
+
+        long t0 = System.nanoTime();
+        stats = LoadStatistics.start(stats, "ATTReader");
+        LoadStatistics parse = LoadStatistics.startParse("ATTReader");
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Split file into line-aligned chunks, a few per thread to balance the load
+            long size = ch.size();
+            int nChunks = (int) Math.max(CHUNKS_PER_THREAD * nThreads, size / MAX_CHUNK_SIZE + 1);
+            List<Future<ChunkParser>> chunks = new ArrayList<>(nChunks);
+            long start = 0;
+            for (int k = 1; k <= nChunks && start < size; k++) {
+                long end = (k == nChunks) ? size : Math.max(start, nextLine(ch, k * (size / nChunks)));
+                if (end > start)
+                    chunks.add(pool.submit(new ChunkParser(producer, inverse, ch, start, end)));
+                start = end;
+            }
+
+            // Merge symbol tables and assemble transitions in file order
+            BuilderParser parser = new BuilderParser(producer, inverse);
+            long lines = 0;
+            for (int k = 0; k < chunks.size(); k++) {
+                ChunkParser chunk = get(chunks.get(k));
+                chunks.set(k, null);
+                if (chunk.failedLine > 0)
+                    throw new IOException("Malformed AT&T line " + (lines + chunk.failedLine));
+                lines += chunk.line;
+                chunk.replay(parser);
+            }
+            CompactFST fst = parser.build(parse, size, t0);
+
+            if (stats != null)
+                stats.set(producer, fst.nOfStates(), fst.nOfTransitionsLong(), parser.alphabet.size(), size,
+                        System.nanoTime() - t0);
+            return fst;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Position after the first line break at or after pos, or the end of the file
+    private static long nextLine(FileChannel ch, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (true) {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n < 0)
+                return ch.size();
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n')
+                    return pos + i + 1;
+            }
+            pos += n;
+        }
+    }
+
+    private static ChunkParser get(Future<ChunkParser> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading AT&T file");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Parses lines of an AT&amp;T file and passes accepting states and transitions on.
+     */
+    private static abstract class LineParser {
+
+        // Symbol id of both sides of identity transitions
+        static final int IDENTITY = -1;
+
+        final FSTProducer producer;
+        private final byte[] identity;
+        private final boolean inverse;
+
+        // Symbol ids of single ASCII characters and of all other symbols
+        private final int[] asciiIds;
+        private final Map<String, Integer> symbolIds;
+        int maxState;
+        long line;
+
+        // Start and end of the fields of the current line
+        private final int[] fieldStart = new int[5];
+        private final int[] fieldEnd = new int[5];
+
+        LineParser(FSTProducer producer, boolean inverse) {
+            this.producer = producer;
+            this.identity = producer.identity().getBytes(StandardCharsets.UTF_8);
+            this.inverse = inverse;
+            this.asciiIds = new int[128];
+            Arrays.fill(asciiIds, -1);
+            this.symbolIds = new HashMap<>();
+            this.maxState = 0;
+            this.line = 0;
+        }
+
+        /**
+         * @param symbol A symbol as it appears in the file, converted by the producer
+         * @return The id of a symbol that has not occurred in this parser before
+         */
+        abstract int newSymbol(String symbol);
+
+        abstract void accepting(int state);
+
+        /**
+         * @param inSym The id of the input symbol, or IDENTITY
+         * @param outSym The id of the output symbol, or IDENTITY
+         */
+        abstract void transition(int from, int inSym, int outSym, int to);
+
+        /**
+         * Parse the lines between from (inclusive) and to (exclusive).
+         */
+        void parse(byte[] buf, int from, int to) throws IOException {
+            int start = from;
+            while (start < to) {
+                int end = start;
+                while (end < to && buf[end] != '\n')
+                    end++;
+                line++;
+                parseLine(buf, start, (end > start && buf[end - 1] == '\r') ? end - 1 : end);
+                start = end + 1;
+            }
+        }
+
+        private void parseLine(byte[] buf, int start, int end) throws IOException {
+            if (start == end)
+                return;
+            int nFields = 0;
+            fieldStart[0] = start;
+            for (int i = start; ; i++) {
+                if (i == end || buf[i] == '\t') {
+                    fieldEnd[nFields++] = i;
+                    if (i == end)
+                        break;
+                    if (nFields == fieldStart.length)
+                        throw malformed();
+                    fieldStart[nFields] = i + 1;
+                }
+            }
+
+            int from = parseState(buf, 0);
+            maxState = Math.max(maxState, from);
+            // Accepting state, possibly with weight
+            if (nFields <= 2)
+                accepting(from);
+            // Transition, possibly with weight
+            else if (nFields >= 4) {
+                int to = parseState(buf, 1);
+                maxState = Math.max(maxState, to);
+                int in = (inverse) ? 3 : 2;
+                int out = (inverse) ? 2 : 3;
+                if (isIdentity(buf, in) && isIdentity(buf, out))
+                    transition(from, IDENTITY, IDENTITY, to);
+                else {
+                    int inSym = symbolId(buf, in);
+                    int outSym = symbolId(buf, out);
+                    transition(from, inSym, outSym, to);
+                }
+            }
+            else
+                throw malformed();
+        }
+
+        private int parseState(byte[] buf, int field) throws IOException {
+            int start = fieldStart[field];
+            int end = fieldEnd[field];
+            if (start == end || end - start > 10)
+                throw malformed();
+            long id = 0;
+            for (int i = start; i < end; i++) {
+                int d = buf[i] - '0';
+                if (d < 0 || d > 9)
+                    throw malformed();
+                id = 10 * id + d;
+            }
+            if (id > Integer.MAX_VALUE - 1)
+                throw malformed();
+            return (int) id;
+        }
+
+        private boolean isIdentity(byte[] buf, int field) {
+            int start = fieldStart[field];
+            if (fieldEnd[field] - start != identity.length)
+                return false;
+            for (int i = 0; i < identity.length; i++) {
+                if (buf[start + i] != identity[i])
+                    return false;
+            }
+            return true;
+        }
+
+        private int symbolId(byte[] buf, int field) {
+            int start = fieldStart[field];
+            int end = fieldEnd[field];
+            int c = (end - start == 1) ? buf[start] : -1;
+            if (c >= 0 && asciiIds[c] >= 0)
+                return asciiIds[c];
+            String symbol = new String(buf, start, end - start, StandardCharsets.UTF_8);
+            Integer id = symbolIds.get(symbol);
+            if (id == null) {
+                id = newSymbol(producer.convert(symbol));
+                symbolIds.put(symbol, id);
+                if (c >= 0)
+                    asciiIds[c] = id;
+            }
+            return id;
+        }
+
+        IOException malformed() {
+            return new IOException("Malformed AT&T line " + line);
+        }
+    }
+
+    /**
+     * Parses lines of an AT&amp;T file into a CompactFSTBuilder.
+     */
+    private static class BuilderParser extends LineParser {
+
+        private final Alphabet alphabet;
+        private final CompactFSTBuilder builder;
+
+        private BuilderParser(FSTProducer producer, boolean inverse) {
+            super(producer, inverse);
+            this.alphabet = new Alphabet();
+            this.builder = new CompactFSTBuilder(alphabet);
+        }
+
+        @Override
+        int newSymbol(String symbol) {
+            return alphabet.getSymbol(symbol).getId();
+        }
+
+        @Override
+        void accepting(int state) {
+            addStates(state);
+            builder.setAccepting(state, true);
+        }
+
+        @Override
+        void transition(int from, int inSym, int outSym, int to) {
+            addStates(from);
+            if (inSym == IDENTITY)
+                builder.addIdentityTransition(from, to);
+            else
+                builder.addTransition(from, inSym, outSym, to);
+        }
+
+        private void addStates(int state) {
+            while (builder.nOfStates() <= state)
+                builder.addState();
+        }
+
+        // Report the end of parsing to the observer, if any, and build the FST
+        private CompactFST build(LoadStatistics parse, long bytes, long t0) {
+            addStates(maxState);
+            if (parse != null)
+                parse.set(producer, builder.nOfStates(), builder.nOfTransitions(), alphabet.size(), bytes,
+                        System.nanoTime() - t0);
+            return builder.build();
+        }
+    }
+
+    /**
+     * Parses one chunk of an AT&amp;T file into primitive arrays, with its own symbol table.
+     */
+    private static class ChunkParser extends LineParser implements Callable<ChunkParser> {
+
+        private final FileChannel ch;
+        private final long start;
+        private final long end;
+
+        // Symbols in order of their first occurrence in the chunk (index = local id)
+        private final List<String> symbols;
+        // From-state, input symbol, output symbol and to-state of each transition
+        private int[] transitions;
+        private int nTrans;
+        private int[] accepting;
+        private int nAccepting;
+        // Line of the chunk that could not be parsed, or 0
+        private long failedLine;
+
+        private ChunkParser(FSTProducer producer, boolean inverse, FileChannel ch, long start, long end) {
+            super(producer, inverse);
+            this.ch = ch;
+            this.start = start;
+            this.end = end;
+            this.symbols = new ArrayList<>();
+            this.transitions = new int[64];
+            this.nTrans = 0;
+            this.accepting = new int[16];
+            this.nAccepting = 0;
+            this.failedLine = 0;
+        }
+
+        @Override
+        public ChunkParser call() throws IOException {
+            byte[] buf = new byte[(int) (end - start)];
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, start + bb.position()) < 0)
+                    throw new EOFException("AT&T file was truncated while reading");
+            }
+            try {
+                parse(buf, 0, buf.length);
+            } catch (IOException e) {
+                failedLine = line;
+            }
+            return this;
+        }
+
+        @Override
+        int newSymbol(String symbol) {
+            symbols.add(symbol);
+            return symbols.size() - 1;
+        }
+
+        @Override
+        void accepting(int state) {
+            if (nAccepting == accepting.length)
+                accepting = Arrays.copyOf(accepting, 2 * nAccepting);
+            accepting[nAccepting++] = state;
+        }
+
+        @Override
+        void transition(int from, int inSym, int outSym, int to) {
+            if (4 * nTrans == transitions.length)
+                transitions = Arrays.copyOf(transitions, 2 * transitions.length);
+            int i = 4 * nTrans++;
+            transitions[i] = from;
+            transitions[i + 1] = inSym;
+            transitions[i + 2] = outSym;
+            transitions[i + 3] = to;
+        }
+
+        /**
+         * Pass the symbols, accepting states and transitions of this chunk on to a parser
+         * for the whole file.
+         */
+        private void replay(LineParser parser) {
+            int[] ids = new int[symbols.size()];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = parser.newSymbol(symbols.get(i));
+            for (int i = 0; i < nAccepting; i++)
+                parser.accepting(accepting[i]);
+            for (int i = 0; i < 4 * nTrans; i += 4) {
+                int inSym = transitions[i + 1];
+                int outSym = transitions[i + 2];
+                if (inSym == IDENTITY)
+                    parser.transition(transitions[i], IDENTITY, IDENTITY, transitions[i + 3]);
+                else
+                    parser.transition(transitions[i], ids[inSym], ids[outSym], transitions[i + 3]);
+            }
+            parser.maxState = Math.max(parser.maxState, maxState);
+        }
+    }
+}
@@ -3,14 +3,23 @@ package de.tuebingen.sfs.jfst.io;
 import de.tuebingen.sfs.jfst.fst.FST;
 import de.tuebingen.sfs.jfst.fst.FSTStateIterator;
 import de.tuebingen.sfs.util.bin.IOUtils;
-import gnu.trove.list.TIntList;
-import gnu.trove.list.array.TIntArrayList;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
 /**
  * A class for writing a JFST object to a binary file.
+ *
+ * States and transitions are encoded into a reusable buffer that is written to the stream or
+ * channel in large blocks, so callers do not need to buffer the output themselves.
+ *
+ * The format stores the number of transitions as an int, so it cannot hold FSTs with more
+ * than Integer.MAX_VALUE transitions. Such FSTs have to be written with CompactFST.writeToMapped().
  */
 public class BinaryFSTWriter {
 
@@ -45,6 +54,49 @@ public class BinaryFSTWriter {
      * @throws IOException
      */
     public static void writeFST(OutputStream out, FSTStateIterator states, String[] alphabet) throws IOException {
+        ByteOutput bytes = new ByteOutput(out);
+        writeFST(bytes, states, alphabet);
+        bytes.flush();
+    }
+
+    /**
+     * Write an FST to a binary file. An existing file is overwritten.
+     * @param file Output file
+     * @param fst The FST
+     * @throws IOException
+     */
+    public static void writeFST(Path file, FST fst) throws IOException {
+        FSTStateIterator states = fst.iter();
+        // Fail before an existing file is truncated
+        checkSize(states);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFST(ch, states, fst.getSymbols());
+        }
+    }
+
+    /**
+     * Write an FST to a channel in binary format. The channel is not closed.
+     * @param ch Output channel
+     * @param states Ierator over states and transitions of an FST
+     * @param alphabet Symbols used by that FST
+     * @throws IOException
+     */
+    public static void writeFST(WritableByteChannel ch, FSTStateIterator states, String[] alphabet) throws IOException {
+        ByteOutput bytes = new ByteOutput(ch);
+        writeFST(bytes, states, alphabet);
+        bytes.flush();
+    }
+
+    // Check that the number of transitions fits into the int of the format
+    private static void checkSize(FSTStateIterator states) throws IOException {
+        if (states.nOfTransitionsLong() > Integer.MAX_VALUE)
+            throw new IOException("Cannot write an FST with " + states.nOfTransitionsLong()
+                    + " transitions in binary JFST format, use CompactFST.writeToMapped() instead");
+    }
+
+    private static void writeFST(ByteOutput out, FSTStateIterator states, String[] alphabet) throws IOException {
+        checkSize(states);
         int startID = states.getStartState();
         int nStates = states.nOfStates();
         int nTrans = states.nOfTransitions();
@@ -52,69 +104,55 @@ public class BinaryFSTWriter {
         int a = IOUtils.bytesNeededFor(nSyms-1); // Symbol id size
         int s = IOUtils.bytesNeededFor(nStates-1); // State id size
 
-        // Write alphabet to file
+        // Write alphabet, one symbol per line
         for (String sym : alphabet) {
-            IOUtils.writeAsBytes(sym, out);
+            for (int i = 0; i < sym.length(); i++)
+                out.putChar(sym.charAt(i));
+            out.putChar('\n');
         }
         // Write extra newline to mark end of alphabet
-        IOUtils.writeNewline(out);
+        out.putChar('\n');
 
         // Write number of states
-        IOUtils.writeInt(nStates, out);
+        out.putInt(nStates);
 
         // Write start id
-        IOUtils.writeIntTruncated(startID, s, out);
+        out.putInt(startID, s);
 
         // Write number of transitions
-        IOUtils.writeInt(nTrans, out);
+        out.putInt(nTrans);
+
+        // Identity transitions of the current state, to write them after the literal ones
+        int[] identityTransitions = new int[16];
 
         // Write transitions
         while (states.hasNextState()) {
             states.nextState();
-            // Store identity transitions to write them later
-            TIntList identityTransitions = new TIntArrayList();
+            int nIdentity = 0;
 
             while (states.hasNextTransition()) {
                 states.nextTransition();
                 // Save identity transitions for later
-                if (states.identity())
-                    identityTransitions.add(states.toId());
+                if (states.identity()) {
+                    if (nIdentity == identityTransitions.length)
+                        identityTransitions = Arrays.copyOf(identityTransitions, 2 * nIdentity);
+                    identityTransitions[nIdentity++] = states.toId();
+                }
                 // Write literal transition
                 else {
-                    int toId = states.toId();
-                    int inSym = states.inId();
-                    int outSym = states.outId();
-                    int k = s + a + a - 1;
-                    // Convert transition into byte array
-                    byte[] transBytes = new byte[k + 1];
-                    while (k >= s + a) {
-                        transBytes[k] = (byte) outSym;
-                        outSym = outSym >> 8;
-                        k--;
-                    }
-                    while (k >= s) {
-                        transBytes[k] = (byte) inSym;
-                        inSym = inSym >> 8;
-                        k--;
-                    }
-                    while (k >= 0) {
-                        transBytes[k] = (byte) toId;
-                        toId = toId >> 8;
-                        k--;
-                    }
-                    out.write(transBytes);
+                    out.putInt(states.toId(), s);
+                    out.putInt(states.inId(), a);
+                    out.putInt(states.outId(), a);
                 }
             }
             // Write accepting/non-accepting
-            out.write((states.accepting()) ? ACCEPTING : NONACCEPTING);
+            out.put((states.accepting()) ? ACCEPTING : NONACCEPTING);
 
             // Write identity transitions
-            for (int i = 0; i < identityTransitions.size(); i++) {
-                int toId = identityTransitions.get(i);
-                IOUtils.writeIntTruncated(toId, s, out);
-            }
+            for (int i = 0; i < nIdentity; i++)
+                out.putInt(identityTransitions[i], s);
             // Write end of state
-            out.write(STATEEND);
+            out.put(STATEEND);
         }
     }
 
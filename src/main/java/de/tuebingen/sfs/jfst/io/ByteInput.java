@@ -0,0 +1,149 @@
+package de.tuebingen.sfs.jfst.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads binary data from a channel through a large buffer, or from a buffer that holds all data.
+ * Numbers are big-endian unless noted otherwise.
+ */
+class ByteInput {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final ByteBuffer buf;
+    // The channel to refill the buffer from, or null if the buffer holds all data
+    private final ReadableByteChannel ch;
+    private boolean eof;
+    // Number of bytes consumed before the current content of the buffer
+    private long consumed;
+
+    ByteInput(ReadableByteChannel ch) {
+        this.buf = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        this.buf.flip();
+        this.ch = ch;
+        this.eof = false;
+        this.consumed = 0;
+    }
+
+    ByteInput(ByteBuffer buf) {
+        this.buf = buf.slice().order(ByteOrder.BIG_ENDIAN);
+        this.ch = null;
+        this.eof = true;
+        this.consumed = 0;
+    }
+
+    /**
+     * @return The number of bytes read so far
+     */
+    long position() {
+        return consumed + buf.position();
+    }
+
+    // Make sure that at least n bytes are left in the buffer
+    private void require(int n) throws IOException {
+        while (buf.remaining() < n) {
+            if (eof)
+                throw new EOFException("Unexpected end of file after " + position() + " bytes");
+            consumed += buf.position();
+            buf.compact();
+            if (ch.read(buf) < 0)
+                eof = true;
+            buf.flip();
+        }
+    }
+
+    /**
+     * @return The next byte, without consuming it
+     */
+    byte peek() throws IOException {
+        require(1);
+        return buf.get(buf.position());
+    }
+
+    byte get() throws IOException {
+        require(1);
+        return buf.get();
+    }
+
+    byte[] get(int n) throws IOException {
+        byte[] bytes = new byte[n];
+        int off = 0;
+        while (off < n) {
+            require(1);
+            int k = Math.min(n - off, buf.remaining());
+            buf.get(bytes, off, k);
+            off += k;
+        }
+        return bytes;
+    }
+
+    char getChar() throws IOException {
+        require(2);
+        return buf.getChar();
+    }
+
+    int getInt() throws IOException {
+        require(4);
+        return buf.getInt();
+    }
+
+    /**
+     * Read an unsigned integer of n bytes.
+     */
+    int getInt(int n) throws IOException {
+        require(n);
+        int i = 0;
+        for (int k = 0; k < n; k++)
+            i = (i << 8) | (buf.get() & 0xff);
+        return i;
+    }
+
+    /**
+     * Read a little-endian integer.
+     */
+    int getIntLE() throws IOException {
+        require(4);
+        return Integer.reverseBytes(buf.getInt());
+    }
+
+    /**
+     * Read an unsigned little-endian integer of n bytes.
+     */
+    int getIntLE(int n) throws IOException {
+        require(n);
+        int i = 0;
+        for (int k = 0; k < n; k++)
+            i |= (buf.get() & 0xff) << (8 * k);
+        return i;
+    }
+
+    /**
+     * Read a zero-terminated UTF-8 string.
+     */
+    String getString() throws IOException {
+        byte[] bytes = new byte[16];
+        int len = 0;
+        byte b;
+        while ((b = get()) != 0) {
+            if (len == bytes.length)
+                bytes = Arrays.copyOf(bytes, 2 * len);
+            bytes[len++] = b;
+        }
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+
+    void skip(long n) throws IOException {
+        while (n > 0) {
+            require(1);
+            int k = (int) Math.min(n, buf.remaining());
+            buf.position(buf.position() + k);
+            n -= k;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.tuebingen.sfs.jfst.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes binary data to a stream or a channel through a large reusable buffer, so that the
+ * underlying output is only written to in large blocks. Numbers are big-endian.
+ */
+class ByteOutput {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final byte[] buf;
+    private int pos;
+    // The stream or channel to write to; exactly one of them is set
+    private final OutputStream out;
+    private final WritableByteChannel ch;
+    private final ByteBuffer chBuf;
+    // Number of bytes flushed so far
+    private long flushed;
+
+    ByteOutput(OutputStream out) {
+        this.buf = new byte[BUFFER_SIZE];
+        this.pos = 0;
+        this.out = out;
+        this.ch = null;
+        this.chBuf = null;
+        this.flushed = 0;
+    }
+
+    ByteOutput(WritableByteChannel ch) {
+        this.buf = new byte[BUFFER_SIZE];
+        this.pos = 0;
+        this.out = null;
+        this.ch = ch;
+        this.chBuf = ByteBuffer.wrap(buf);
+        this.flushed = 0;
+    }
+
+    /**
+     * @return The number of bytes written so far
+     */
+    long position() {
+        return flushed + pos;
+    }
+
+    // Make sure that there is space for at least n bytes in the buffer
+    private void require(int n) throws IOException {
+        if (buf.length - pos < n)
+            flush();
+    }
+
+    void put(byte b) throws IOException {
+        require(1);
+        buf[pos++] = b;
+    }
+
+    void putChar(char c) throws IOException {
+        require(2);
+        buf[pos++] = (byte) (c >> 8);
+        buf[pos++] = (byte) c;
+    }
+
+    void putInt(int i) throws IOException {
+        putInt(i, 4);
+    }
+
+    /**
+     * Write the n lowest bytes of an integer.
+     */
+    void putInt(int i, int n) throws IOException {
+        require(n);
+        for (int k = n - 1; k >= 0; k--)
+            buf[pos++] = (byte) (i >> (8 * k));
+    }
+
+    /**
+     * Write the buffer to the underlying stream or channel. The stream or channel itself is
+     * not flushed.
+     */
+    void flush() throws IOException {
+        if (out != null)
+            out.write(buf, 0, pos);
+        else {
+            chBuf.clear().limit(pos);
+            while (chBuf.hasRemaining())
+                ch.write(chBuf);
+        }
+        flushed += pos;
+        pos = 0;
+    }
+}
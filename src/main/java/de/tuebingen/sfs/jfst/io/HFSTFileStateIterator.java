@@ -6,6 +6,7 @@ import de.tuebingen.sfs.util.bin.BufferedByteReader;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
@@ -14,7 +15,7 @@ import java.util.Map;
 
 public class HFSTFileStateIterator implements FSTFileStateIterator {
 
-    private static final boolean VERBOSE = true;
+    private static final boolean VERBOSE = false;
 
     private static final int UNKNOWN_1 = 0x7EB2FDD6;
     private static final int UNKNOWN_2 = 0x7EB2FB74;
@@ -43,6 +44,12 @@ public class HFSTFileStateIterator implements FSTFileStateIterator {
     private int inSym;
     private int outSym;
 
+    // Statistics of the parse for the load observer, until all transitions are read
+    private LoadStatistics parse;
+    private long t0;
+    private long nRead;
+    private long bytes;
+
     public HFSTFileStateIterator(String fileName) {
         this(fileName, false);
     }
@@ -51,6 +58,8 @@ public class HFSTFileStateIterator implements FSTFileStateIterator {
         props = new HashMap<>();
         decoder = Charset.forName("UTF-8").newDecoder();
         this.inverse = inverse;
+        this.t0 = System.nanoTime();
+        this.parse = LoadStatistics.startParse("HFSTFileStateIterator");
         int skip = 0;
 
         try (InputStream inStream = getClass().getResourceAsStream(fileName)) {
@@ -59,11 +68,11 @@ public class HFSTFileStateIterator implements FSTFileStateIterator {
             skip += readAlphabet(in);
 
             int remaining = in.skipRemaining();
+            bytes = skip + remaining;
             int transBytes = remaining - nOfStates * 12;
             nOfTrans = transBytes / 16;
         } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new UncheckedIOException(e);
         }
 
         if (VERBOSE) {
@@ -77,8 +86,7 @@ public class HFSTFileStateIterator implements FSTFileStateIterator {
             this.in.skip(skip);
             s = -1;
         } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -220,6 +228,8 @@ public class HFSTFileStateIterator implements FSTFileStateIterator {
                 e.printStackTrace();
             }
             t = -1;
+            if (!hasNextState() && !hasNextTransition())
+                parsed();
         }
     }
 
@@ -246,6 +256,18 @@ public class HFSTFileStateIterator implements FSTFileStateIterator {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            nRead++;
+            if (!hasNextState() && !hasNextTransition())
+                parsed();
+        }
+    }
+
+    // Report the parse to the load observer, if it has not been reported yet
+    private void parsed() {
+        if (parse != null) {
+            LoadStatistics stats = parse;
+            parse = null;
+            stats.set(FSTProducer.HFST, s + 1, nRead, alphabet.size(), bytes, System.nanoTime() - t0);
         }
     }
 
@@ -271,6 +293,7 @@ public class HFSTFileStateIterator implements FSTFileStateIterator {
 
     @Override
     public void close() {
+        parsed();
         try {
             in.close();
         } catch (IOException e) {
@@ -0,0 +1,261 @@
+package de.tuebingen.sfs.jfst.io;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.alphabet.Symbol;
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.CompactFSTBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads HFST transducers in optimized-lookup format (.hfstol) into a CompactFST.
+ *
+ * Optimized-lookup transducers consist of a transition index table and a transition table.
+ * A state either has a block in the index table, with one slot per input symbol pointing into
+ * the transition table, or it is addressed directly by its position in the transition table.
+ * The reader loads both tables, walks the states reachable from the start state and streams
+ * them into a CompactFSTBuilder. Weighted and unweighted transducers are supported, with or
+ * without the HFST3 header; weights are dropped since JFST transducers are unweighted.
+ */
+public class HFSTOLReader {
+
+    // Type prefix of optimized-lookup transducers in the HFST3 header
+    static final String TYPE = "HFST_OL";
+
+    private static final String HFST_IDENTITY = "@_IDENTITY_SYMBOL_@";
+
+    private static final int NO_SYMBOL = 0xffff;
+    private static final int NO_TABLE_INDEX = 0xffffffff;
+    // Addresses from this value on point into the transition table
+    private static final int TRANSITION_TABLE_START = 0x80000000;
+
+    private HFSTOLReader() {
+    }
+
+    /**
+     * Read an HFST optimized-lookup file.
+     * @param file The HFST optimized-lookup file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file) throws IOException {
+        return read(file, false);
+    }
+
+    /**
+     * Read an HFST optimized-lookup file.
+     * @param file The HFST optimized-lookup file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, boolean inverse) throws IOException {
+        return read(file, inverse, null);
+    }
+
+    /**
+     * Read an HFST optimized-lookup file.
+     * @param file The HFST optimized-lookup file
+     * @param inverse If true, invert input and output symbols
+     * @param stats Statistics to fill in, or null
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, boolean inverse, LoadStatistics stats) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(new ByteInput(ch), inverse, stats);
+        }
+    }
+
+    /**
+     * Read an HFST optimized-lookup file from a stream. The stream is not closed.
+     * @param in The HFST optimized-lookup file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in) throws IOException {
+        return read(in, false);
+    }
+
+    /**
+     * Read an HFST optimized-lookup file from a stream. The stream is not closed.
+     * @param in The HFST optimized-lookup file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in, boolean inverse) throws IOException {
+        return read(in, inverse, null);
+    }
+
+    /**
+     * Read an HFST optimized-lookup file from a stream. The stream is not closed.
+     * @param in The HFST optimized-lookup file
+     * @param inverse If true, invert input and output symbols
+     * @param stats Statistics to fill in, or null
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in, boolean inverse, LoadStatistics stats) throws IOException {
+        return read(new ByteInput(Channels.newChannel(in)), inverse, stats);
+    }
+
+    private static CompactFST read(ByteInput in, boolean inverse, LoadStatistics stats) throws IOException {
+        long t0 = System.nanoTime();
+        stats = LoadStatistics.start(stats, "HFSTOLReader");
+        byte[] start = in.get(4);
+        if (new String(start, StandardCharsets.UTF_8).equals("HFST")) {
+            String type = HFSTReader.readProperties(in).get("type");
+            if (type == null || !type.startsWith(TYPE))
+                throw new IOException("Not an optimized-lookup transducer: " + type);
+            return read(in, in.getIntLE(2), in.getIntLE(2), inverse, stats, t0);
+        }
+        // Without HFST3 header, the file starts with the two symbol counts
+        int nInputSymbols = (start[0] & 0xff) | (start[1] & 0xff) << 8;
+        int nSymbols = (start[2] & 0xff) | (start[3] & 0xff) << 8;
+        return read(in, nInputSymbols, nSymbols, inverse, stats, t0);
+    }
+
+    /**
+     * Read an optimized-lookup transducer whose symbol counts have already been read.
+     */
+    static CompactFST read(ByteInput in, int nInputSymbols, int nSymbols, boolean inverse,
+                           LoadStatistics stats, long t0) throws IOException {
+        // Read rest of transducer header
+        int indexSize = in.getIntLE();
+        int tableSize = in.getIntLE();
+        int nStates = in.getIntLE();
+        int nTrans = in.getIntLE();
+        if (indexSize < 0 || tableSize < 0 || nStates < 0 || nTrans < 0 || nInputSymbols > nSymbols)
+            throw new IOException("Malformed optimized-lookup header");
+        boolean weighted = in.getIntLE() != 0;
+        in.skip(8 * 4); // Other properties
+
+        // Read alphabet
+        String[] symbols = new String[nSymbols];
+        int identId = -1;
+        for (int i = 0; i < nSymbols; i++) {
+            String symbol = in.getString();
+            if (i == 0)
+                symbol = Symbol.EPSILON_STRING;
+            else if (symbol.equals(HFST_IDENTITY)) {
+                symbol = Symbol.IDENTITY_STRING;
+                identId = i;
+            }
+            symbols[i] = symbol;
+        }
+        Alphabet alphabet = new Alphabet(symbols);
+        // Without identity symbol in the file, add one that is not used by any transition
+        if (identId < 0)
+            identId = alphabet.size();
+
+        // Read transition index table
+        char[] indexIn = new char[indexSize];
+        int[] indexTarget = new int[indexSize];
+        for (int i = 0; i < indexSize; i++) {
+            indexIn[i] = (char) in.getIntLE(2);
+            indexTarget[i] = in.getIntLE();
+        }
+
+        // Read transition table
+        char[] tableIn = new char[tableSize];
+        char[] tableOut = new char[tableSize];
+        int[] tableTarget = new int[tableSize];
+        for (int i = 0; i < tableSize; i++) {
+            tableIn[i] = (char) in.getIntLE(2);
+            tableOut[i] = (char) in.getIntLE(2);
+            tableTarget[i] = in.getIntLE();
+            if (weighted)
+                in.skip(4);
+        }
+
+        // Number the states in the order they are reached from the start state, which is
+        // always the first state in the index table if there is one
+        int[] indexStates = new int[indexSize];
+        int[] tableStates = new int[tableSize];
+        Arrays.fill(indexStates, -1);
+        Arrays.fill(tableStates, -1);
+        int[] queue = new int[Math.max(16, nStates)];
+        int n = 0;
+        queue[n++] = (indexSize > 0) ? 0 : TRANSITION_TABLE_START;
+        if (indexSize > 0)
+            indexStates[0] = 0;
+        else if (tableSize > 0)
+            tableStates[0] = 0;
+        else
+            throw new IOException("Optimized-lookup transducer without states");
+
+        CompactFSTBuilder builder = new CompactFSTBuilder(alphabet, identId, nStates, nTrans);
+        builder.setStartState(0);
+        for (int s = 0; s < n; s++) {
+            int addr = queue[s];
+            boolean accepting;
+            int first;
+            if (addr >= 0) {
+                // Finality is stored in the first slot, the transitions of the state form one
+                // block in the transition table, starting at the lowest slot target
+                accepting = indexIn[addr] == NO_SYMBOL && indexTarget[addr] != NO_TABLE_INDEX;
+                first = tableSize;
+                int end = Math.min(indexSize, addr + 1 + nInputSymbols);
+                for (int i = addr + 1; i < end; i++) {
+                    if (indexIn[i] == i - addr - 1)
+                        first = Math.min(first, tableIndex(indexTarget[i], tableSize));
+                }
+            }
+            else {
+                // Finality is stored in the first entry, followed by the transitions
+                int t = tableIndex(addr, tableSize);
+                accepting = tableIn[t] == NO_SYMBOL && tableOut[t] == NO_SYMBOL && tableTarget[t] == 1;
+                first = t + 1;
+            }
+            builder.addState(accepting);
+
+            for (int t = first; t < tableSize && tableIn[t] != NO_SYMBOL; t++) {
+                int inSym = tableIn[t];
+                int outSym = tableOut[t];
+                if (inSym >= nSymbols || outSym >= nSymbols)
+                    throw new IOException("Symbol id out of range in transition " + t);
+                int target = tableTarget[t];
+                int[] states = indexStates;
+                int pos = target;
+                if (target < 0) {
+                    states = tableStates;
+                    pos = tableIndex(target, tableSize);
+                }
+                else if (target >= indexSize)
+                    throw new IOException("Transition target " + target + " out of range");
+                if (states[pos] < 0) {
+                    if (n == queue.length)
+                        queue = Arrays.copyOf(queue, 2 * n);
+                    states[pos] = n;
+                    queue[n++] = target;
+                }
+                if (inverse)
+                    builder.addTransition(outSym, inSym, states[pos]);
+                else
+                    builder.addTransition(inSym, outSym, states[pos]);
+            }
+        }
+        CompactFST fst = builder.build();
+
+        if (stats != null)
+            stats.set(FSTProducer.HFST, n, builder.nOfTransitions(), nSymbols, in.position(),
+                    System.nanoTime() - t0);
+        return fst;
+    }
+
+    // Position in the transition table of an address pointing into it
+    private static int tableIndex(int addr, int tableSize) throws IOException {
+        int t = addr - TRANSITION_TABLE_START;
+        if (addr >= 0 || t >= tableSize)
+            throw new IOException("Transition table index " + Integer.toUnsignedString(addr) + " out of range");
+        return t;
+    }
+}
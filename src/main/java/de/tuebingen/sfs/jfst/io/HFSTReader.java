@@ -0,0 +1,190 @@
+package de.tuebingen.sfs.jfst.io;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.alphabet.Symbol;
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.CompactFSTBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads binary HFST files directly into a CompactFST.
+ *
+ * The file is read once, front to back, and its states and transitions are streamed into the
+ * arrays of a CompactFSTBuilder. Malformed files cause an IOException; statistics about the
+ * file can be collected in a LoadStatistics object. Files in optimized-lookup format are
+ * passed on to the HFSTOLReader.
+ */
+public class HFSTReader {
+
+    private static final String HFST_IDENTITY = "@_IDENTITY_SYMBOL_@";
+    private static final String HFST_EPSILON = "@_EPSILON_SYMBOL_@";
+
+    private HFSTReader() {
+    }
+
+    /**
+     * Read a binary HFST file.
+     * @param file The HFST file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file) throws IOException {
+        return read(file, false);
+    }
+
+    /**
+     * Read a binary HFST file.
+     * @param file The HFST file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, boolean inverse) throws IOException {
+        return read(file, inverse, null);
+    }
+
+    /**
+     * Read a binary HFST file.
+     * @param file The HFST file
+     * @param inverse If true, invert input and output symbols
+     * @param stats Statistics to fill in, or null
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, boolean inverse, LoadStatistics stats) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(new ByteInput(ch), inverse, stats);
+        }
+    }
+
+    /**
+     * Read a binary HFST file from a stream. The stream is not closed.
+     * @param in The HFST file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in) throws IOException {
+        return read(in, false);
+    }
+
+    /**
+     * Read a binary HFST file from a stream. The stream is not closed.
+     * @param in The HFST file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in, boolean inverse) throws IOException {
+        return read(in, inverse, null);
+    }
+
+    /**
+     * Read a binary HFST file from a stream. The stream is not closed.
+     * @param in The HFST file
+     * @param inverse If true, invert input and output symbols
+     * @param stats Statistics to fill in, or null
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in, boolean inverse, LoadStatistics stats) throws IOException {
+        return read(new ByteInput(Channels.newChannel(in)), inverse, stats);
+    }
+
+    private static CompactFST read(ByteInput in, boolean inverse, LoadStatistics stats) throws IOException {
+        long t0 = System.nanoTime();
+        stats = LoadStatistics.start(stats, "HFSTReader");
+
+        // Read header
+        String magic = new String(in.get(4), StandardCharsets.UTF_8);
+        if (!magic.equals("HFST"))
+            throw new IOException("Not an HFST file! Begins with '" + magic + "'.");
+        Map<String, String> properties = readProperties(in);
+        String type = properties.get("type");
+        if (type != null && type.startsWith(HFSTOLReader.TYPE))
+            return HFSTOLReader.read(in, in.getIntLE(2), in.getIntLE(2), inverse, stats, t0);
+        in.skip(4);
+        in.skip(in.getIntLE()); // Vector
+        in.skip(in.getIntLE()); // Standard
+        in.skip(16);
+        int startState = in.getIntLE();
+        in.skip(4);
+        int nStates = in.getIntLE();
+        in.skip(20);
+        int maxId = in.getIntLE();
+        in.skip(4);
+        int alphSize = in.getIntLE();
+        in.skip(4);
+
+        // Read alphabet
+        String[] symbols = new String[maxId];
+        int identId = -1;
+        for (int i = 0; i < alphSize; i++) {
+            String symbol = new String(in.get(in.getIntLE()), StandardCharsets.UTF_8);
+            int id = in.getIntLE();
+            in.skip(4);
+            if (id < 0 || id >= maxId)
+                throw new IOException("Symbol id " + id + " of '" + symbol + "' is out of range");
+            if (symbol.equals(HFST_IDENTITY)) {
+                symbol = Symbol.IDENTITY_STRING;
+                identId = id;
+            }
+            else if (symbol.equals(HFST_EPSILON))
+                symbol = Symbol.EPSILON_STRING;
+            symbols[id] = symbol;
+        }
+        Alphabet alphabet = new Alphabet(symbols);
+        // Without identity symbol in the file, add one that is not used by any transition
+        if (identId < 0)
+            identId = alphabet.size();
+
+        // Read states with their transitions
+        CompactFSTBuilder builder = new CompactFSTBuilder(alphabet, identId, nStates, 4 * nStates);
+        builder.setStartState(startState);
+        for (int s = 0; s < nStates; s++) {
+            builder.addState(in.getInt() == 0);
+            int stateTrans = in.getIntLE();
+            in.skip(4);
+            for (int t = 0; t < stateTrans; t++) {
+                int inSym = in.getIntLE();
+                int outSym = in.getIntLE();
+                in.skip(4);
+                int toState = in.getIntLE();
+                if (inverse)
+                    builder.addTransition(outSym, inSym, toState);
+                else
+                    builder.addTransition(inSym, outSym, toState);
+            }
+        }
+        CompactFST fst = builder.build();
+
+        if (stats != null)
+            stats.set(FSTProducer.HFST, nStates, builder.nOfTransitions(), alphSize, in.position(),
+                    System.nanoTime() - t0);
+        return fst;
+    }
+
+    /**
+     * Read the properties in the header of an HFST file, right after the magic bytes.
+     */
+    static Map<String, String> readProperties(ByteInput in) throws IOException {
+        in.skip(1);
+        int headerLength = in.getIntLE(2);
+        in.skip(1);
+        long end = in.position() + headerLength;
+        Map<String, String> properties = new HashMap<>();
+        while (in.position() < end)
+            properties.put(in.getString(), in.getString());
+        if (in.position() != end)
+            throw new IOException("Malformed HFST header");
+        return properties;
+    }
+}
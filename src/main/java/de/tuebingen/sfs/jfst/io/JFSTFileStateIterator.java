@@ -7,6 +7,7 @@ import de.tuebingen.sfs.util.bin.IOUtils;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -38,15 +39,25 @@ public class JFSTFileStateIterator implements FSTFileStateIterator {
     private TIntList outSyms;
     private TIntList toStates;
 
+    // Statistics of the parse for the load observer, until all states are read, and the bytes read
+    private LoadStatistics parse;
+    private long t0;
+    private long nRead;
+    private CountingInputStream counter;
+
     public JFSTFileStateIterator(String fileName) {
         this(fileName, false);
     }
 
     public JFSTFileStateIterator(String fileName, boolean inverse) {
         this.inverse = inverse;
+        this.t0 = System.nanoTime();
+        this.parse = LoadStatistics.startParse("JFSTFileStateIterator");
 
         try {
             InputStream inStream = getClass().getResourceAsStream(fileName);
+            if (parse != null)
+                inStream = counter = new CountingInputStream(inStream);
             int bufferSize = 8192;
             in = new BufferedByteReader(inStream, bufferSize);
 
@@ -178,9 +189,21 @@ public class JFSTFileStateIterator implements FSTFileStateIterator {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        nRead += toStates.size();
+        if (!hasNextState())
+            parsed();
 //        System.out.println(s + " " + acc + " " + toStates.size());
     }
 
+    // Report the parse to the load observer, if it has not been reported yet
+    private void parsed() {
+        if (parse != null) {
+            LoadStatistics stats = parse;
+            parse = null;
+            stats.set(FSTProducer.JFST, s + 1, nRead, alphabet.size(), counter.count, System.nanoTime() - t0);
+        }
+    }
+
     @Override
     public boolean accepting() {
         return acc;
@@ -219,6 +242,7 @@ public class JFSTFileStateIterator implements FSTFileStateIterator {
 
     @Override
     public void close() {
+        parsed();
         try {
             in.close();
         } catch (IOException e) {
@@ -227,4 +251,37 @@ public class JFSTFileStateIterator implements FSTFileStateIterator {
         s = nStates;
         t = nTrans;
     }
+
+    // Counts the bytes read from the file
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
 }
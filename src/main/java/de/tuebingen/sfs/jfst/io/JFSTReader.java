@@ -0,0 +1,189 @@
+package de.tuebingen.sfs.jfst.io;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.alphabet.Symbol;
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.CompactFSTBuilder;
+import de.tuebingen.sfs.util.bin.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads binary JFST files directly into a CompactFST.
+ *
+ * Files are read in large blocks through a channel and decoded from the buffer into the arrays
+ * of a CompactFSTBuilder, without creating any objects per state or transition. The result is
+ * the same as reading the file with a JFSTFileStateIterator. Truncated files cause an
+ * EOFException.
+ */
+public class JFSTReader {
+
+    // Control bytes
+    private static final byte ACC_BYTE = BinaryFSTWriter.ACCEPTING;
+    private static final byte N_ACC_BYTE = BinaryFSTWriter.NONACCEPTING;
+    private static final byte END_BYTE = BinaryFSTWriter.STATEEND;
+
+    private JFSTReader() {
+    }
+
+    /**
+     * Read a binary JFST file.
+     * @param file The JFST file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file) throws IOException {
+        return read(file, false);
+    }
+
+    /**
+     * Read a binary JFST file.
+     * @param file The JFST file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, boolean inverse) throws IOException {
+        return read(file, inverse, null);
+    }
+
+    /**
+     * Read a binary JFST file.
+     * @param file The JFST file
+     * @param inverse If true, invert input and output symbols
+     * @param stats Statistics to fill in, or null
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(Path file, boolean inverse, LoadStatistics stats) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(new ByteInput(ch), inverse, stats);
+        }
+    }
+
+    /**
+     * Read a binary JFST file from a stream. The stream is not closed.
+     * @param in The JFST file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in) throws IOException {
+        return read(in, false);
+    }
+
+    /**
+     * Read a binary JFST file from a stream. The stream is not closed.
+     * @param in The JFST file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in, boolean inverse) throws IOException {
+        return read(in, inverse, null);
+    }
+
+    /**
+     * Read a binary JFST file from a stream. The stream is not closed.
+     * @param in The JFST file
+     * @param inverse If true, invert input and output symbols
+     * @param stats Statistics to fill in, or null
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in, boolean inverse, LoadStatistics stats) throws IOException {
+        return read(new ByteInput(Channels.newChannel(in)), inverse, stats);
+    }
+
+    /**
+     * Read a binary JFST file from the remaining bytes of a buffer, e.g. a memory-mapped file.
+     * The position of the buffer is not changed.
+     * @param buf The JFST file
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(ByteBuffer buf) throws IOException {
+        return read(buf, false);
+    }
+
+    /**
+     * Read a binary JFST file from the remaining bytes of a buffer, e.g. a memory-mapped file.
+     * The position of the buffer is not changed.
+     * @param buf The JFST file
+     * @param inverse If true, invert input and output symbols
+     * @return The FST specified by the file
+     * @throws IOException
+     */
+    public static CompactFST read(ByteBuffer buf, boolean inverse) throws IOException {
+        return read(new ByteInput(buf), inverse, null);
+    }
+
+    private static CompactFST read(ByteInput in, boolean inverse, LoadStatistics stats) throws IOException {
+        long t0 = System.nanoTime();
+        stats = LoadStatistics.start(stats, "JFSTReader");
+
+        // Create alphabet
+        Alphabet alphabet = new Alphabet();
+        StringBuilder sym = new StringBuilder();
+        while (true) {
+            char c = in.getChar();
+            if (c == '\n') {
+                // Double newline => end of alphabet
+                if (sym.length() == 0)
+                    break;
+                alphabet.addSymbol(sym.toString());
+                sym.setLength(0);
+            }
+            else
+                sym.append(c);
+        }
+
+        // Add identity symbol
+        int idIdx = alphabet.size();
+        alphabet.addSymbol(Symbol.IDENTITY_STRING);
+
+        // Get number of states and transitions
+        int nStates = in.getInt();
+        int sBytes = IOUtils.bytesNeededFor(nStates - 1); // State id size
+        int startID = in.getInt(sBytes);
+        int nTrans = in.getInt();
+        int aBytes = IOUtils.bytesNeededFor(alphabet.size() - 1); // Symbol id size
+
+        CompactFSTBuilder builder = new CompactFSTBuilder(alphabet, idIdx, nStates, nTrans);
+        builder.setStartState(startID);
+        for (int s = 0; s < nStates; s++) {
+            builder.addState();
+            // Literal transitions, terminated by accepting/non-accepting byte
+            while (true) {
+                byte b = in.peek();
+                if (b == ACC_BYTE || b == N_ACC_BYTE) {
+                    builder.setAccepting(s, b == ACC_BYTE);
+                    in.skip(1);
+                    break;
+                }
+                int toId = in.getInt(sBytes);
+                int inSym = in.getInt(aBytes);
+                int outSym = in.getInt(aBytes);
+                if (inverse)
+                    builder.addTransition(outSym, inSym, toId);
+                else
+                    builder.addTransition(inSym, outSym, toId);
+            }
+            // Identity transitions, terminated by end of state byte
+            while (in.peek() != END_BYTE)
+                builder.addIdentityTransition(in.getInt(sBytes));
+            in.skip(1);
+        }
+        CompactFST fst = builder.build();
+
+        if (stats != null)
+            stats.set(FSTProducer.JFST, nStates, builder.nOfTransitions(), alphabet.size(), in.position(),
+                    System.nanoTime() - t0);
+        return fst;
+    }
+}
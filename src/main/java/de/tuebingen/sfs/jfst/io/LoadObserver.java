@@ -0,0 +1,50 @@
+package de.tuebingen.sfs.jfst.io;
+
+/**
+ * Receives the statistics of every FST loaded by the readers in this package or built by
+ * CompactFST from a state iterator, e.g. to pass them on to a profiler. Register an observer
+ * with LoadStatistics.setObserver().
+ *
+ * Parsing is reported separately for the JFST and HFST state iterators and the AT&amp;T reader,
+ * so that reading a file can be told apart from building the FST. A parse lies within the load
+ * of the AT&amp;T reader. A state iterator parses while its states are read, which is usually
+ * while a CompactFST is built from it, so its parse overlaps the load reported by CompactFST.
+ *
+ * All methods are called on the loading thread, so they should return quickly. An FST that
+ * fails to load is not reported to loadFinished(), and a file that fails to parse is not
+ * reported to parseFinished().
+ */
+public interface LoadObserver {
+
+    /**
+     * Called before an FST is loaded.
+     * @param source The reader or class that loads the FST, e.g. "JFSTReader" or "CompactFST"
+     * @return Any object, which is passed on to loadFinished()
+     */
+    Object loadStarted(String source);
+
+    /**
+     * Called after an FST has been loaded.
+     * @param context The object returned by loadStarted()
+     * @param stats The statistics of the load
+     */
+    void loadFinished(Object context, LoadStatistics stats);
+
+    /**
+     * Called before a file is parsed. Does nothing by default.
+     * @param source The class that parses the file, e.g. "JFSTFileStateIterator" or "ATTReader"
+     * @return Any object, which is passed on to parseFinished()
+     */
+    default Object parseStarted(String source) {
+        return null;
+    }
+
+    /**
+     * Called after a file has been parsed. Does nothing by default.
+     * @param context The object returned by parseStarted()
+     * @param stats The statistics of the parse, with the states and transitions read
+     */
+    default void parseFinished(Object context, LoadStatistics stats) {
+    }
+
+}
@@ -0,0 +1,186 @@
+package de.tuebingen.sfs.jfst.io;
+
+/**
+ * Statistics about loading an FST from a file, filled in by the readers in this package, or
+ * about parsing a file, filled in by the state iterators and the AT&amp;T reader.
+ */
+public class LoadStatistics {
+
+    /**
+     * The phase of a load that statistics are about.
+     */
+    public enum Phase {
+        /** Reading a file into states and transitions, before or while the FST is built */
+        PARSE,
+        /** Loading an FST, from reading the file to building the FST */
+        LOAD
+    }
+
+    // Notified of every load, or null
+    private static volatile LoadObserver observer = null;
+
+    private String source;
+    private Phase phase = Phase.LOAD;
+    private FSTProducer format;
+    private int nStates;
+    private long nTrans;
+    private int nSymbols;
+    private long bytes;
+    private long nanos;
+    // The observer notified of the current load and the object it returned, if any
+    private LoadObserver loadObserver;
+    private Object context;
+
+    public LoadStatistics() {
+    }
+
+    /**
+     * Create statistics of a load that did not go through one of the readers in this package.
+     * @param source The class that loaded the FST
+     * @param format The format of the file, or null if unknown
+     * @param nStates The number of states read
+     * @param nTrans The number of transitions read
+     * @param nSymbols The number of symbols in the alphabet
+     * @param bytes The number of bytes read, or 0 if unknown
+     * @param nanos The time spent on reading and building the FST in nanoseconds
+     */
+    public LoadStatistics(String source, FSTProducer format, int nStates, long nTrans, int nSymbols, long bytes,
+                          long nanos) {
+        this.source = source;
+        set(format, nStates, nTrans, nSymbols, bytes, nanos);
+    }
+
+    /**
+     * Set the observer that is notified of every FST loaded from now on.
+     * @param observer The observer, or null to remove the current one
+     */
+    public static void setObserver(LoadObserver observer) {
+        LoadStatistics.observer = observer;
+    }
+
+    /**
+     * @return The observer that is notified of every FST loaded, or null
+     */
+    public static LoadObserver getObserver() {
+        return observer;
+    }
+
+    /**
+     * Tell the observer, if any, that a reader starts loading an FST.
+     * @param stats Statistics passed to the reader, or null
+     * @param source The name of the reader
+     * @return The statistics to fill in, which are only null if stats is null and there is no observer
+     */
+    static LoadStatistics start(LoadStatistics stats, String source) {
+        LoadObserver obs = observer;
+        if (obs == null) {
+            if (stats != null)
+                stats.source = source;
+            return stats;
+        }
+        if (stats == null)
+            stats = new LoadStatistics();
+        stats.source = source;
+        stats.loadObserver = obs;
+        stats.context = obs.loadStarted(source);
+        return stats;
+    }
+
+    /**
+     * Tell the observer, if any, that a state iterator or the AT&amp;T reader starts parsing a file.
+     * @param source The name of the parser
+     * @return The statistics to fill in, or null if there is no observer
+     */
+    static LoadStatistics startParse(String source) {
+        LoadObserver obs = observer;
+        if (obs == null)
+            return null;
+        LoadStatistics stats = new LoadStatistics();
+        stats.source = source;
+        stats.phase = Phase.PARSE;
+        stats.loadObserver = obs;
+        stats.context = obs.parseStarted(source);
+        return stats;
+    }
+
+    /**
+     * @return The reader or class that loaded the FST
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return Whether these statistics are about parsing a file or loading an FST
+     */
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return The format of the file
+     */
+    public FSTProducer getFormat() {
+        return format;
+    }
+
+    /**
+     * @return The number of states read
+     */
+    public int nOfStates() {
+        return nStates;
+    }
+
+    /**
+     * @return The number of transitions read
+     */
+    public long nOfTransitions() {
+        return nTrans;
+    }
+
+    /**
+     * @return The number of symbols in the alphabet of the file
+     */
+    public int nOfSymbols() {
+        return nSymbols;
+    }
+
+    /**
+     * @return The number of bytes read
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The time spent on reading and building the FST, or on parsing the file, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    void set(FSTProducer format, int nStates, long nTrans, int nSymbols, long bytes, long nanos) {
+        this.format = format;
+        this.nStates = nStates;
+        this.nTrans = nTrans;
+        this.nSymbols = nSymbols;
+        this.bytes = bytes;
+        this.nanos = nanos;
+        LoadObserver obs = loadObserver;
+        if (obs != null) {
+            Object ctx = context;
+            loadObserver = null;
+            context = null;
+            if (phase == Phase.PARSE)
+                obs.parseFinished(ctx, this);
+            else
+                obs.loadFinished(ctx, this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return format + ": " + nStates + " states, " + nTrans + " transitions, " + nSymbols
+                + " symbols in alphabet, " + bytes + " bytes read in " + (nanos / 1000000) + " ms";
+    }
+}
@@ -0,0 +1,284 @@
+package de.tuebingen.sfs.jfst.io;
+
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.alphabet.Symbol;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+/**
+ * Iterates over a transducer in the compact binary format of SFST, as written by fst-compact.
+ *
+ * The file starts with the byte 'c' and the SFST alphabet: a UTF-8 flag byte, the symbol
+ * table (code and zero-terminated name of each symbol) and the table of symbol pairs
+ * (lower and upper code of each pair), with 16-bit little-endian numbers. It is followed by
+ * the number of states and arcs as 32-bit little-endian numbers and four bit-packed sections:
+ * one finality bit per state, the index of the first arc of each state (plus the total number
+ * of arcs), the pair index of each arc and the target state of each arc. The finality bits are
+ * packed into bytes, most significant bit first. The numbers of the other sections use the
+ * fewest bits that hold their largest possible value and are packed into 32-bit words, most
+ * significant bit first, which SFST writes in native (on all common platforms little-endian)
+ * byte order. Every section is padded to a full byte or word. The start state is always 0.
+ *
+ * The lower symbol of a pair is used as input and the upper symbol as output, as in the AT&amp;T
+ * files printed by SFST. Epsilon and identity symbols are mapped through FSTProducer.SFST.
+ * Since the format is not ordered by state, the whole file is read on construction.
+ */
+public class SFSTFileStateIterator implements FSTFileStateIterator {
+
+    private static final FSTProducer PRODUCER = FSTProducer.SFST;
+
+    private Alphabet alphabet;
+    private int idIdx;
+
+    private int nStates;
+    private int nTrans;
+    private boolean[] accepting;
+    private int[] firstArc;
+    private int[] inSyms;
+    private int[] outSyms;
+    private int[] toStates;
+
+    private int s;
+    private int t;
+
+    public SFSTFileStateIterator(String fileName) {
+        this(fileName, false);
+    }
+
+    public SFSTFileStateIterator(String fileName, boolean inverse) {
+        try (InputStream in = getClass().getResourceAsStream(fileName)) {
+            if (in == null)
+                throw new FileNotFoundException("Resource not found: " + fileName);
+            read(new ByteInput(Channels.newChannel(in)), inverse);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read an SFST compact transducer from a stream. The stream is not closed.
+     * @param in The SFST compact transducer
+     * @param inverse If true, invert input and output symbols
+     * @throws IOException
+     */
+    public SFSTFileStateIterator(InputStream in, boolean inverse) throws IOException {
+        read(new ByteInput(Channels.newChannel(in)), inverse);
+    }
+
+    private void read(ByteInput in, boolean inverse) throws IOException {
+        if (in.get() != 'c')
+            throw new IOException("Not an SFST compact transducer");
+
+        // Read symbols
+        in.skip(1); // UTF-8 flag
+        alphabet = new Alphabet();
+        int[] codeToId = new int[1 << 16];
+        Arrays.fill(codeToId, -1);
+        String[] names = new String[1 << 16];
+        int nSymbols = in.getIntLE(2);
+        for (int i = 0; i < nSymbols; i++) {
+            int code = in.getIntLE(2);
+            names[code] = in.getString();
+            codeToId[code] = alphabet.getSymbol(PRODUCER.convert(names[code])).getId();
+        }
+        // Add identity symbol
+        idIdx = alphabet.size();
+        alphabet.addSymbol(Symbol.IDENTITY_STRING);
+
+        // Read symbol pairs
+        String identity = PRODUCER.identity();
+        int nPairs = in.getIntLE(2);
+        int[] lower = new int[nPairs];
+        int[] upper = new int[nPairs];
+        for (int i = 0; i < nPairs; i++) {
+            int lc = in.getIntLE(2);
+            int uc = in.getIntLE(2);
+            if (codeToId[lc] < 0 || codeToId[uc] < 0)
+                throw new IOException("Malformed SFST compact transducer: unknown symbol in pair " + i);
+            if (names[lc].equals(identity) && names[uc].equals(identity)) {
+                lower[i] = idIdx;
+                upper[i] = idIdx;
+            }
+            else {
+                lower[i] = codeToId[lc];
+                upper[i] = codeToId[uc];
+            }
+        }
+
+        nStates = in.getIntLE();
+        nTrans = in.getIntLE();
+        if (nStates <= 0 || nTrans < 0)
+            throw new IOException("Malformed SFST compact transducer with " + nStates + " states");
+
+        // Finality
+        accepting = new boolean[nStates];
+        int b = 0;
+        for (int i = 0; i < nStates; i++) {
+            if ((i & 7) == 0)
+                b = in.get();
+            accepting[i] = (b & (0x80 >>> (i & 7))) != 0;
+        }
+
+        // First arc of each state
+        WordReader words = new WordReader(in, bitsFor(nTrans + 1));
+        firstArc = new int[nStates + 1];
+        for (int i = 0; i <= nStates; i++) {
+            firstArc[i] = words.next();
+            if (firstArc[i] > nTrans || (i > 0 && firstArc[i] < firstArc[i - 1]))
+                throw new IOException("Malformed SFST compact transducer: bad arc index " + firstArc[i]);
+        }
+
+        // Arc labels
+        words = new WordReader(in, bitsFor(nPairs));
+        inSyms = new int[nTrans];
+        outSyms = new int[nTrans];
+        for (int i = 0; i < nTrans; i++) {
+            int p = words.next();
+            if (p >= nPairs)
+                throw new IOException("Malformed SFST compact transducer: bad symbol pair " + p);
+            inSyms[i] = (inverse) ? upper[p] : lower[p];
+            outSyms[i] = (inverse) ? lower[p] : upper[p];
+        }
+
+        // Arc targets
+        words = new WordReader(in, bitsFor(nStates));
+        toStates = new int[nTrans];
+        for (int i = 0; i < nTrans; i++) {
+            toStates[i] = words.next();
+            if (toStates[i] >= nStates)
+                throw new IOException("Malformed SFST compact transducer: bad target state " + toStates[i]);
+        }
+
+        s = -1;
+    }
+
+    // Number of bits needed for the numbers 0 to n-1, like ceil(log2(n)) in SFST
+    private static int bitsFor(int n) {
+        return (n <= 1) ? 0 : 32 - Integer.numberOfLeadingZeros(n - 1);
+    }
+
+    /**
+     * Reads the numbers of one section, which have a fixed bit width and are packed into 32-bit
+     * little-endian words, most significant bit first. This follows read_first_arcs() and its
+     * siblings in SFST's compact.C, which may split a number across two words.
+     */
+    private static class WordReader {
+
+        private final ByteInput in;
+        private final int bits;
+        // The bits of the current word that have not been read yet, left-aligned
+        private int word;
+        private int k;
+
+        private WordReader(ByteInput in, int bits) {
+            this.in = in;
+            this.bits = bits;
+        }
+
+        private int next() throws IOException {
+            // SFST writes no words for a section of zero-width numbers
+            if (bits == 0)
+                return 0;
+            if (k == 0) {
+                word = in.getIntLE();
+                k = 32;
+            }
+            if (k >= bits) {
+                int i = word >>> (32 - bits);
+                word <<= bits;
+                k -= bits;
+                return i;
+            }
+            // The number continues in the next word
+            int rest = bits - k;
+            int i = (word >>> (32 - k)) << rest;
+            word = in.getIntLE();
+            i |= word >>> (32 - rest);
+            word <<= rest;
+            k = 32 - rest;
+            return i;
+        }
+    }
+
+    @Override
+    public int nOfStates() {
+        return nStates;
+    }
+
+    @Override
+    public int nOfTransitions() {
+        return nTrans;
+    }
+
+    @Override
+    public Alphabet getAlphabet() {
+        return alphabet;
+    }
+
+    @Override
+    public int getStartState() {
+        return 0;
+    }
+
+    @Override
+    public int getIdentityId() {
+        return idIdx;
+    }
+
+    @Override
+    public boolean hasNextState() {
+        return s+1 < nStates;
+    }
+
+    @Override
+    public void nextState() {
+        s++;
+        t = firstArc[s] - 1;
+    }
+
+    @Override
+    public boolean accepting() {
+        return accepting[s];
+    }
+
+    @Override
+    public boolean hasNextTransition() {
+        return t+1 < firstArc[s+1];
+    }
+
+    @Override
+    public void nextTransition() {
+        if (hasNextTransition())
+            t++;
+    }
+
+    @Override
+    public boolean identity() {
+        return inSyms[t] == idIdx && outSyms[t] == idIdx;
+    }
+
+    @Override
+    public int inId() {
+        return inSyms[t];
+    }
+
+    @Override
+    public int outId() {
+        return outSyms[t];
+    }
+
+    @Override
+    public int toId() {
+        return toStates[t];
+    }
+
+    @Override
+    public void close() {
+        s = nStates;
+    }
+}
@@ -0,0 +1,84 @@
+package de.tuebingen.sfs.jfst.io;
+
+import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.LexiconFSTBuilder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads lexicons of input/output pairs in tab-separated format into a minimal CompactFST.
+ *
+ * Each non-empty line holds an input (e.g. a surface form) and an output (e.g. an analysis),
+ * separated by a tab; further fields are ignored. The lines have to be sorted by input, as
+ * e.g. by sort(1), and the FST is built in one pass by a LexiconFSTBuilder. Malformed and
+ * unsorted lines cause an IOException.
+ */
+public class TSVReader {
+
+    private TSVReader() {
+    }
+
+    /**
+     * Read a sorted TSV lexicon.
+     * @param file The TSV file
+     * @return The minimal FST mapping the inputs to their outputs
+     * @throws IOException
+     */
+    public static CompactFST read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Read a sorted TSV lexicon from a stream. The stream is not closed.
+     * @param in The TSV lexicon
+     * @return The minimal FST mapping the inputs to their outputs
+     * @throws IOException
+     */
+    public static CompactFST read(InputStream in) throws IOException {
+        return parse(in).build();
+    }
+
+    /**
+     * Compile a sorted TSV lexicon to a binary JFST file.
+     * @param file The TSV file
+     * @param out Stream to write the JFST file to
+     * @throws IOException
+     */
+    public static void compile(Path file, OutputStream out) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            parse(in).writeToBinary(out);
+        }
+    }
+
+    private static LexiconFSTBuilder parse(InputStream in) throws IOException {
+        LexiconFSTBuilder builder = new LexiconFSTBuilder();
+        BufferedReader read = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        int n = 0;
+        for (String line = read.readLine(); line != null; line = read.readLine()) {
+            n++;
+            if (line.isEmpty())
+                continue;
+            int tab = line.indexOf('\t');
+            if (tab < 0)
+                throw new IOException("Malformed TSV line " + n);
+            int end = line.indexOf('\t', tab + 1);
+            if (end < 0)
+                end = (line.endsWith("\r")) ? line.length() - 1 : line.length();
+            try {
+                builder.add(line.substring(0, tab), line.substring(tab + 1, end));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unsorted TSV line " + n, e);
+            }
+        }
+        return builder;
+    }
+}
@@ -1,17 +1,44 @@
 package de.tuebingen.sfs.jfst;
 
+import de.tuebingen.sfs.jfst.alphabet.Alphabet;
+import de.tuebingen.sfs.jfst.alphabet.Symbol;
+import de.tuebingen.sfs.jfst.fst.CachedFST;
 import de.tuebingen.sfs.jfst.fst.CompactFST;
+import de.tuebingen.sfs.jfst.fst.CompiledFST;
 import de.tuebingen.sfs.jfst.fst.FST;
+import de.tuebingen.sfs.jfst.fst.FSTStateIterator;
+import de.tuebingen.sfs.jfst.fst.LexiconFSTBuilder;
+import de.tuebingen.sfs.jfst.fst.LookupMetrics;
+import de.tuebingen.sfs.jfst.fst.LookupTrace;
 import de.tuebingen.sfs.jfst.fst.MutableFST;
+import de.tuebingen.sfs.jfst.fst.PageCacheStatistics;
+import de.tuebingen.sfs.jfst.io.ATTReader;
+import de.tuebingen.sfs.jfst.io.BinaryFSTWriter;
 import de.tuebingen.sfs.jfst.io.FSTProducer;
+import de.tuebingen.sfs.jfst.io.HFSTFileStateIterator;
+import de.tuebingen.sfs.jfst.io.HFSTOLReader;
+import de.tuebingen.sfs.jfst.io.HFSTReader;
+import de.tuebingen.sfs.jfst.io.JFSTFileStateIterator;
+import de.tuebingen.sfs.jfst.io.JFSTReader;
+import de.tuebingen.sfs.jfst.io.LoadObserver;
+import de.tuebingen.sfs.jfst.io.LoadStatistics;
+import de.tuebingen.sfs.jfst.io.SFSTFileStateIterator;
+import de.tuebingen.sfs.jfst.io.TSVReader;
 import de.tuebingen.sfs.util.bin.IOUtils;
 import junit.framework.TestCase;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.*;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class FSTTest extends TestCase {
 
@@ -176,6 +203,609 @@ public class FSTTest extends TestCase {
         compare(hfst, hfst2, hfstTestSet);
     }
 
+    public void testBulkReader() throws IOException {
+        File file = File.createTempFile("testHFST", ".jfst");
+        file.deleteOnExit();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            hfst.writeToBinary(out);
+        }
+        CompactFST hfst2 = CompactFST.readFromBinary(file.toPath());
+        compare(hfst, hfst2, hfstTestSet);
+        try (InputStream in = new FileInputStream(file)) {
+            CompactFST hfst3 = CompactFST.readFromBinary(in);
+            compare(hfst, hfst3, hfstTestSet);
+        }
+        CompactFST hfst4 = JFSTReader.read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+        compare(hfst, hfst4, hfstTestSet);
+
+        CompactFST mal = CompactFST.readFromBinary("/mal-orth2asciiprnc.hfst", FSTProducer.HFST);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            mal.writeToBinary(out);
+        }
+        CompactFST mal2 = CompactFST.readFromBinary(file.toPath());
+        assertEquals(mal.nOfStates(), mal2.nOfStates());
+        assertEquals(mal.nOfTransitions(), mal2.nOfTransitions());
+        assertEquals(mal.apply("വാങ്ങിക്കുക"), mal2.apply("വാങ്ങിക്കുക"));
+
+        CompactFST malInv = CompactFST.readFromBinary(file.toPath(), true);
+        assertEquals(mal.applyInverse("vaaka", 1), malInv.apply("vaaka", 1));
+    }
+
+    public void testBinaryWriter() throws IOException {
+        CompactFST mal = CompactFST.readFromBinary("/mal-orth2asciiprnc.hfst", FSTProducer.HFST);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        mal.writeToBinary(bytes);
+        byte[] expected = bytes.toByteArray();
+
+        File file = File.createTempFile("mal", ".jfst");
+        file.deleteOnExit();
+        mal.writeToBinary(file.toPath());
+        assertTrue(Arrays.equals(expected, Files.readAllBytes(file.toPath())));
+
+        bytes.reset();
+        BinaryFSTWriter.writeFST(Channels.newChannel(bytes), mal.iter(), mal.getSymbols());
+        assertTrue(Arrays.equals(expected, bytes.toByteArray()));
+
+        CompactFST mal2 = JFSTReader.read(file.toPath());
+        assertEquals(mal.nOfStates(), mal2.nOfStates());
+        assertEquals(mal.nOfTransitions(), mal2.nOfTransitions());
+        assertEquals(mal.apply("വാങ്ങിക്കുക"), mal2.apply("വാങ്ങിക്കുക"));
+    }
+
+    public void testContainerFormat() throws IOException {
+        CompactFST mal = CompactFST.readFromBinary("/mal-orth2asciiprnc.hfst", FSTProducer.HFST);
+        ByteArrayOutputStream v1 = new ByteArrayOutputStream();
+        mal.writeToBinary(v1);
+        String[] words = {"വാങ്ങിക്കുക", "വാക", "മലയാളം"};
+
+        for (boolean compress : new boolean[]{false, true}) {
+            File file = File.createTempFile("mal", ".jfst");
+            file.deleteOnExit();
+            mal.writeToContainer(file.toPath(), compress);
+            CompactFST[] copies = {
+                    CompactFST.readFromBinary(file.toPath()),
+                    CompactFST.readFromContainer(file.toPath(), false, 4),
+                    CompactFST.readFromBinary(new FileInputStream(file))
+            };
+            for (CompactFST copy : copies) {
+                assertEquals(mal.nOfStates(), copy.nOfStates());
+                assertEquals(mal.nOfTransitions(), copy.nOfTransitions());
+                assertTrue(Arrays.equals(mal.getSymbols(), copy.getSymbols()));
+                for (String word : words)
+                    assertEquals(mal.apply(word), copy.apply(word));
+                // Same content as in version 1
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                copy.writeToBinary(bytes);
+                assertTrue(Arrays.equals(v1.toByteArray(), bytes.toByteArray()));
+            }
+            CompactFST inv = CompactFST.readFromContainer(file.toPath(), true, 2);
+            CompactFST inv1 = CompactFST.readFromBinary(new ByteArrayInputStream(v1.toByteArray()), true);
+            ByteArrayOutputStream invBytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream inv1Bytes = new ByteArrayOutputStream();
+            inv.writeToBinary(invBytes);
+            inv1.writeToBinary(inv1Bytes);
+            assertTrue(Arrays.equals(inv1Bytes.toByteArray(), invBytes.toByteArray()));
+
+            // Flip one bit in the last section
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            bytes[bytes.length - 9] ^= 1;
+            try {
+                CompactFST.readFromBinary(new ByteArrayInputStream(bytes));
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Checksum mismatch"));
+            }
+        }
+
+        // A symbol length beyond the end of the alphabet, with valid checksums
+        ByteArrayOutputStream container = new ByteArrayOutputStream();
+        mal.writeToContainer(container, false);
+        ByteBuffer bytes = ByteBuffer.wrap(container.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        int nSections = bytes.getInt(40);
+        for (int entry = 48; entry < 48 + 40 * nSections; entry += 40) {
+            if (bytes.getInt(entry) == 1) {
+                int offset = (int) bytes.getLong(entry + 8);
+                bytes.putInt(offset, Integer.MAX_VALUE);
+                bytes.putInt(entry + 32, crc32c(bytes.array(), offset, (int) bytes.getLong(entry + 16)));
+            }
+        }
+        bytes.putInt(48 + 40 * nSections, crc32c(bytes.array(), 0, 48 + 40 * nSections));
+        try {
+            CompactFST.readFromBinary(new ByteArrayInputStream(bytes.array()));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Malformed alphabet in JFST container", e.getMessage());
+        }
+
+        // Version 1 files are still read
+        File file = File.createTempFile("mal", ".jfst");
+        file.deleteOnExit();
+        Files.write(file.toPath(), v1.toByteArray());
+        assertEquals(mal.nOfTransitions(), CompactFST.readFromContainer(file.toPath(), false, 4).nOfTransitions());
+        assertEquals(mal.nOfTransitions(), CompactFST.readFromBinary(new ByteArrayInputStream(v1.toByteArray())).nOfTransitions());
+    }
+
+    // CRC-32C as used by JFST containers
+    private static int crc32c(byte[] b, int off, int len) {
+        int crc = 0xffffffff;
+        for (int i = off; i < off + len; i++) {
+            crc ^= b[i] & 0xff;
+            for (int k = 0; k < 8; k++)
+                crc = (crc >>> 1) ^ (0x82f63b78 & -(crc & 1));
+        }
+        return ~crc;
+    }
+
+    public void testContainerIndex() throws IOException {
+        CompactFST fst = CompactFST.readFromBinary("/mal-small.hfst", FSTProducer.HFST);
+        Set<String> results = fst.apply("വാക");
+        for (boolean compress : new boolean[]{false, true}) {
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            ByteArrayOutputStream indexed = new ByteArrayOutputStream();
+            fst.writeToContainer(plain, compress);
+            fst.writeToContainer(indexed, compress, true);
+            assertTrue(indexed.size() > plain.size());
+
+            // The index is loaded and written again unchanged
+            CompactFST copy = CompactFST.readFromBinary(new ByteArrayInputStream(indexed.toByteArray()));
+            for (String res : results)
+                assertEquals(fst.applyInverse(res, 1), copy.applyInverse(res, 1));
+            ByteArrayOutputStream again = new ByteArrayOutputStream();
+            copy.writeToContainer(again, compress, true);
+            assertTrue(Arrays.equals(indexed.toByteArray(), again.toByteArray()));
+
+            // A damaged index is built again
+            byte[] bytes = indexed.toByteArray();
+            bytes[bytes.length - 12] ^= 1;
+            CompactFST damaged = CompactFST.readFromBinary(new ByteArrayInputStream(bytes));
+            for (String res : results)
+                assertEquals(fst.applyInverse(res, 1), damaged.applyInverse(res, 1));
+        }
+    }
+
+    public void testCompiledFST() {
+        CompactFST[] fsts = {
+                hfst.makeCompact(),
+                sfst.makeCompact(),
+                CompactFST.readFromBinary("/mal-small.hfst", FSTProducer.HFST),
+                CompactFST.readFromBinary("/eus.hfst", FSTProducer.HFST)
+        };
+        Random rand = new Random(42);
+        for (CompactFST fst : fsts) {
+            FST compiled = CompiledFST.compile(fst);
+            assertTrue(compiled instanceof CompiledFST);
+            for (String test : hfstTestSet.keySet())
+                assertEquals(fst.apply(test), compiled.apply(test));
+            for (String test : sfstTestSet.keySet())
+                assertEquals(fst.apply(test), compiled.apply(test));
+            // Random inputs over the alphabet and some chars outside of it
+            List<String> chars = new ArrayList<>(Arrays.asList(fst.getSymbols()));
+            chars.addAll(Arrays.asList("x", "7", "é", " "));
+            for (int i = 0; i < 2000; i++) {
+                StringBuilder in = new StringBuilder();
+                for (int n = rand.nextInt(8); n > 0; n--)
+                    in.append(chars.get(rand.nextInt(chars.size())));
+                assertEquals(fst.apply(in.toString()), compiled.apply(in.toString()));
+            }
+        }
+        assertEquals(fsts[3].apply("etxe"), CompiledFST.compile(fsts[3]).apply("etxe"));
+
+        // A state with too many transitions for one method is not compiled
+        LexiconFSTBuilder builder = new LexiconFSTBuilder();
+        for (char c = 'A'; c < 'A' + 2000; c++)
+            builder.add(String.valueOf(c), "out" + c);
+        CompactFST wide = builder.build();
+        assertSame(wide, CompiledFST.compile(wide));
+    }
+
+    public void testPagedFST() throws IOException, InterruptedException, ExecutionException {
+        CompactFST mal = CompactFST.readFromBinary("/mal-orth2asciiprnc.hfst", FSTProducer.HFST);
+        File file = File.createTempFile("mal", ".jfst");
+        file.deleteOnExit();
+        mal.writeToContainer(file.toPath(), false);
+        String[] words = {"വാങ്ങിക്കുക", "വാക", "മലയാളം", "വാങ്ങിക്കുക"};
+
+        // Room for a single block only
+        try (CompactFST paged = CompactFST.readFromPaged(file.toPath(), false, 64 * 1024)) {
+            assertNull(mal.pageCacheStatistics());
+            assertEquals(mal.nOfStates(), paged.nOfStates());
+            assertEquals(mal.nOfTransitions(), paged.nOfTransitions());
+            for (String word : words)
+                assertEquals(mal.apply(word), paged.apply(word));
+            PageCacheStatistics stats = paged.pageCacheStatistics();
+            assertTrue(stats.hitCount() > 0);
+            assertTrue(stats.missCount() > 0);
+            assertTrue(stats.getCachedBytes() <= stats.getCapacity());
+
+            // Visiting all states evicts blocks
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            mal.writeToBinary(expected);
+            paged.writeToBinary(bytes);
+            assertTrue(Arrays.equals(expected.toByteArray(), bytes.toByteArray()));
+            stats = paged.pageCacheStatistics();
+            assertTrue(stats.evictionCount() > 0);
+            assertTrue(stats.getCachedBytes() <= stats.getCapacity());
+
+            // Inverse lookups order the visited blocks by output symbol; mal has so many epsilon
+            // outputs that only lookups with few insertions are fast
+            assertEquals(mal.applyInverse("vaaka", 1), paged.applyInverse("vaaka", 1));
+            stats = paged.pageCacheStatistics();
+            assertTrue(stats.getCachedBytes() <= stats.getCapacity());
+        }
+        try (CompactFST paged = CompactFST.readFromPaged(file.toPath(), false, 1 << 20)) {
+            for (String word : new String[]{"vaaka", "malayaalam", "kuka"})
+                assertEquals(mal.applyInverse(word, 1), paged.applyInverse(word, 1));
+            assertEquals(mal.apply("വാക"), paged.apply("വാക"));
+        }
+
+        // The stored output index is read block by block instead of sorting the blocks
+        File indexed = File.createTempFile("mal", ".jfst");
+        indexed.deleteOnExit();
+        mal.writeToContainer(indexed.toPath(), false, true);
+        try (CompactFST paged = CompactFST.readFromPaged(indexed.toPath(), false, 64 * 1024)) {
+            for (String word : new String[]{"vaaka", "malayaalam", "kuka"})
+                assertEquals(mal.applyInverse(word, 1), paged.applyInverse(word, 1));
+        }
+
+        // Room for three of the four blocks, so blocks are evicted while other threads use them
+        // Every miss evicts a block here, so only a few short lookups
+        try (CompactFST paged = CompactFST.readFromPaged(file.toPath(), false, 128 * 1024)) {
+            assertConcurrentLookups(mal, paged, new String[]{"ക", "കുക"}, 10);
+            PageCacheStatistics stats = paged.pageCacheStatistics();
+            assertTrue(stats.evictionCount() > 0);
+            assertTrue(stats.getCachedBytes() <= stats.getCapacity());
+        }
+
+        // Inverted transitions are ordered per block
+        try (CompactFST paged = CompactFST.readFromPaged(file.toPath(), true, 1 << 20)) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CompactFST.readFromBinary(file.toPath(), true).writeToBinary(expected);
+            paged.writeToBinary(bytes);
+            assertTrue(Arrays.equals(expected.toByteArray(), bytes.toByteArray()));
+        }
+
+        mal.writeToContainer(file.toPath(), true);
+        try {
+            CompactFST.readFromPaged(file.toPath(), false, 1 << 20);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("compressed"));
+        }
+    }
+
+    public void testHFSTReader() throws IOException {
+        CompactFST eus = CompactFST.readFromBinary("/eus.hfst", FSTProducer.HFST);
+        FSTStateIterator iter = new HFSTFileStateIterator("/eus.hfst");
+        CompactFST eus2 = new CompactFST(iter);
+        ((HFSTFileStateIterator) iter).close();
+        assertEquals(eus2.nOfStates(), eus.nOfStates());
+        assertEquals(eus2.nOfTransitions(), eus.nOfTransitions());
+        assertEquals(eus2.apply("etxe"), eus.apply("etxe"));
+
+        LoadStatistics stats = new LoadStatistics();
+        try (InputStream in = new FileInputStream(TEST_DIR + "mal-orth2asciiprnc.hfst")) {
+            CompactFST mal = HFSTReader.read(in, false, stats);
+            assertEquals(Collections.singleton("vaa;n;nikkuka"), mal.apply("വാങ്ങിക്കുക"));
+        }
+        assertEquals(FSTProducer.HFST, stats.getFormat());
+        assertEquals(750, stats.nOfStates());
+        assertEquals(12992, stats.nOfTransitions());
+        assertEquals(new File(TEST_DIR + "mal-orth2asciiprnc.hfst").length(), stats.getBytes());
+
+        try {
+            HFSTReader.read(new ByteArrayInputStream("JFST".getBytes(StandardCharsets.UTF_8)));
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testHFSTOLReader() throws IOException {
+        CompactFST mal = CompactFST.readFromBinary("/mal-orth2asciiprnc.hfst", FSTProducer.HFST);
+        CompactFST malOL = CompactFST.readFromBinary("/mal-orth2asciiprnc.hfstol");
+        CompactFST malOL2 = HFSTOLReader.read(Paths.get(TEST_DIR + "mal-orth2asciiprnc.hfstol"));
+        assertEquals(malOL.nOfStates(), malOL2.nOfStates());
+        assertEquals(malOL.nOfTransitions(), malOL2.nOfTransitions());
+        for (String word : new String[]{"വാങ്ങിക്കുക", "വാക", "കുക", "മലയാളം", "abc"}) {
+            assertEquals(mal.apply(word), malOL.apply(word));
+            assertEquals(mal.apply(word), malOL2.apply(word));
+        }
+
+        LoadStatistics stats = new LoadStatistics();
+        CompactFST small = HFSTOLReader.read(Paths.get(TEST_DIR + "mal-small-weighted.hfstol"), false, stats);
+        assertEquals(Collections.singleton("vaaka"), small.apply("വാക"));
+        assertEquals(small.nOfStates(), stats.nOfStates());
+        assertEquals(new File(TEST_DIR + "mal-small-weighted.hfstol").length(), stats.getBytes());
+
+        try (InputStream in = new FileInputStream(TEST_DIR + "mal-small.hfst")) {
+            HFSTOLReader.read(in);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testLoadObserver() throws IOException {
+        List<String> started = new ArrayList<>();
+        List<LoadStatistics> finished = new ArrayList<>();
+        List<LoadStatistics> parsed = new ArrayList<>();
+        LoadStatistics.setObserver(new LoadObserver() {
+            @Override
+            public Object loadStarted(String source) {
+                started.add(source);
+                return source;
+            }
+
+            @Override
+            public void loadFinished(Object context, LoadStatistics stats) {
+                assertEquals(context, stats.getSource());
+                finished.add(stats);
+            }
+
+            @Override
+            public Object parseStarted(String source) {
+                started.add("parse " + source);
+                return source;
+            }
+
+            @Override
+            public void parseFinished(Object context, LoadStatistics stats) {
+                assertEquals(context, stats.getSource());
+                parsed.add(stats);
+            }
+        });
+        try {
+            CompactFST mal = HFSTReader.read(Paths.get(TEST_DIR + "mal-orth2asciiprnc.hfst"));
+            LoadStatistics stats = new LoadStatistics();
+            ATTReader.read(Paths.get(TEST_DIR + "mal-orth2asciiprnc.att"), FSTProducer.HFST, false, stats, 2);
+            HFSTFileStateIterator iter = new HFSTFileStateIterator("/eus.hfst");
+            CompactFST eus = new CompactFST(iter);
+            iter.close();
+
+            assertEquals(Arrays.asList("HFSTReader", "ATTReader", "parse ATTReader", "parse HFSTFileStateIterator",
+                    "CompactFST"), started);
+            assertEquals(3, finished.size());
+            for (LoadStatistics load : finished)
+                assertEquals(LoadStatistics.Phase.LOAD, load.getPhase());
+            assertEquals(mal.nOfTransitionsLong(), finished.get(0).nOfTransitions());
+            assertEquals(new File(TEST_DIR + "mal-orth2asciiprnc.hfst").length(), finished.get(0).getBytes());
+            assertSame(stats, finished.get(1));
+            assertEquals("ATTReader", stats.getSource());
+            assertNull(finished.get(2).getFormat());
+            assertEquals(eus.nOfStates(), finished.get(2).nOfStates());
+            assertTrue(finished.get(2).getNanos() > 0);
+
+            // Parsing is reported apart from building the FST
+            assertEquals(2, parsed.size());
+            assertEquals(LoadStatistics.Phase.PARSE, parsed.get(0).getPhase());
+            assertEquals(stats.nOfStates(), parsed.get(0).nOfStates());
+            assertEquals(stats.nOfTransitions(), parsed.get(0).nOfTransitions());
+            assertEquals(stats.getBytes(), parsed.get(0).getBytes());
+            assertTrue(parsed.get(0).getNanos() <= stats.getNanos());
+            assertEquals("HFSTFileStateIterator", parsed.get(1).getSource());
+            assertEquals(FSTProducer.HFST, parsed.get(1).getFormat());
+            assertEquals(eus.nOfStates(), parsed.get(1).nOfStates());
+            assertEquals(eus.nOfTransitionsLong(), parsed.get(1).nOfTransitions());
+            assertEquals(new File(TEST_DIR + "eus.hfst").length(), parsed.get(1).getBytes());
+
+            // Container, paged and mapped files
+            File file = File.createTempFile("mal", ".jfst");
+            file.deleteOnExit();
+            mal.writeToContainer(file.toPath(), false);
+            CompactFST.readFromContainer(file.toPath(), false, 2);
+            try (InputStream in = new FileInputStream(file)) {
+                CompactFST.readFromBinary(in, false);
+            }
+            CompactFST.readFromPaged(file.toPath(), false, 1 << 20).close();
+            File mapped = File.createTempFile("mal", ".jfstmap");
+            mapped.deleteOnExit();
+            mal.writeToMapped(mapped.toPath());
+            CompactFST.readFromMapped(mapped.toPath());
+
+            assertEquals(Arrays.asList("HFSTReader", "ATTReader", "parse ATTReader", "parse HFSTFileStateIterator",
+                    "CompactFST", "ContainerFSTFile", "ContainerFSTFile", "ContainerFSTFile", "MappedFSTFile"),
+                    started);
+            assertEquals(7, finished.size());
+            for (LoadStatistics load : finished.subList(3, 7)) {
+                assertEquals(FSTProducer.JFST, load.getFormat());
+                assertEquals(mal.nOfStates(), load.nOfStates());
+                assertEquals(mal.nOfTransitionsLong(), load.nOfTransitions());
+                assertEquals(mal.getSymbols().length, load.nOfSymbols());
+            }
+            assertEquals(file.length(), finished.get(3).getBytes());
+            assertEquals(file.length(), finished.get(4).getBytes());
+            // The transitions of paged and mapped files are not read while loading
+            assertTrue(finished.get(5).getBytes() < file.length() - 12 * mal.nOfTransitionsLong());
+            assertTrue(finished.get(6).getBytes() < mapped.length() - 8 * mal.nOfTransitionsLong());
+
+            // JFST files read with a state iterator
+            JFSTFileStateIterator jIter = new JFSTFileStateIterator("/testHFST.jfst");
+            CompactFST test = new CompactFST(jIter);
+            jIter.close();
+            assertEquals(Arrays.asList("parse JFSTFileStateIterator", "CompactFST"),
+                    started.subList(9, started.size()));
+            assertEquals(3, parsed.size());
+            assertEquals(FSTProducer.JFST, parsed.get(2).getFormat());
+            assertEquals(test.nOfStates(), parsed.get(2).nOfStates());
+            assertEquals(test.nOfTransitionsLong(), parsed.get(2).nOfTransitions());
+            assertEquals(new File(getClass().getResource("/testHFST.jfst").getPath()).length(),
+                    parsed.get(2).getBytes());
+        } finally {
+            LoadStatistics.setObserver(null);
+        }
+        CompactFST.readFromBinary("/mal-small.hfst", FSTProducer.HFST);
+        assertEquals(11, started.size());
+    }
+
+    public void testSFSTCompact() throws IOException {
+        CompactFST sfst2 = CompactFST.readFromBinary("/testSFST.a", FSTProducer.SFST);
+        compare(sfst, sfst2, sfstTestSet);
+        CompactFST sfst3 = CompactFST.readFromBinary(Paths.get(TEST_DIR + "testSFST.a"), FSTProducer.SFST, false);
+        compare(sfst, sfst3, sfstTestSet);
+
+        MutableFST sfstInv = MutableFST.readFromATT(new FileInputStream(new File(TEST_DIR + "testSFST.att")), FSTProducer.SFST, true);
+        CompactFST sfstInv2 = new CompactFST(new SFSTFileStateIterator("/testSFST.a", true));
+        assertEquals(sfstInv.apply("<+A><+A>y<OMEGA>"), sfstInv2.apply("<+A><+A>y<OMEGA>"));
+        assertEquals(Collections.singleton("aacxo"), sfstInv2.apply("bby<OMEGA>"));
+
+        // Numbers of this file are split across words. SFST has no identity symbol, so only
+        // words made of symbols of the alphabet are analysed the same way.
+        CompactFST mal = CompactFST.readFromBinary("/mal-small.hfst", FSTProducer.HFST);
+        CompactFST mal2 = CompactFST.readFromBinary("/mal-small.a", FSTProducer.SFST);
+        assertEquals(mal.nOfStates(), mal2.nOfStates());
+        assertEquals(mal.nOfTransitions(), mal2.nOfTransitions());
+        for (String word : new String[]{"വാക", "കുക", "വാകക", "ക"})
+            assertEquals(mal.apply(word), mal2.apply(word));
+        assertEquals(Collections.singleton("vaaka"), mal2.apply("വാക"));
+
+        try (InputStream in = new FileInputStream(TEST_DIR + "testSFST.jfst")) {
+            new SFSTFileStateIterator(in, false);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testATTReader() throws IOException {
+        File malFile = new File(TEST_DIR + "mal-orth2asciiprnc.att");
+        CompactFST mal = MutableFST.readFromATT(new FileInputStream(malFile), FSTProducer.HFST).makeCompact();
+        LoadStatistics stats = new LoadStatistics();
+        CompactFST mal2 = ATTReader.read(malFile.toPath(), FSTProducer.HFST, false, stats);
+        assertEquals(mal.nOfStates(), mal2.nOfStates());
+        assertEquals(mal.nOfTransitions(), mal2.nOfTransitions());
+        assertEquals(mal.nOfStates(), stats.nOfStates());
+        assertEquals(malFile.length(), stats.getBytes());
+        for (String word : new String[]{"വാങ്ങിക്കുക", "വാക", "മലയാളം", "abc"})
+            assertEquals(mal.apply(word), mal2.apply(word));
+
+        // Lines in reverse order, so no transition belongs to the last state added
+        List<String> lines = Files.readAllLines(new File(TEST_DIR + "testSFST.att").toPath(), StandardCharsets.UTF_8);
+        Collections.reverse(lines);
+        byte[] reversed = String.join("\r\n", lines).getBytes(StandardCharsets.UTF_8);
+        compare(sfst, ATTReader.read(new ByteArrayInputStream(reversed), FSTProducer.SFST), sfstTestSet);
+
+        try {
+            ATTReader.read(new ByteArrayInputStream("0\t1\ta\n".getBytes(StandardCharsets.UTF_8)), FSTProducer.HFST);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testParallelATTReader() throws IOException {
+        File malFile = new File(TEST_DIR + "mal-orth2asciiprnc.att");
+        CompactFST mal = ATTReader.read(malFile.toPath(), FSTProducer.HFST);
+        LoadStatistics stats = new LoadStatistics();
+        CompactFST mal2 = ATTReader.read(malFile.toPath(), FSTProducer.HFST, false, stats, 4);
+        assertTrue(Arrays.equals(mal.getSymbols(), mal2.getSymbols()));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream bytes2 = new ByteArrayOutputStream();
+        mal.writeToBinary(bytes);
+        mal2.writeToBinary(bytes2);
+        assertTrue(Arrays.equals(bytes.toByteArray(), bytes2.toByteArray()));
+        assertEquals(malFile.length(), stats.getBytes());
+
+        CompactFST malInv = ATTReader.read(malFile.toPath(), FSTProducer.HFST, true);
+        CompactFST malInv2 = ATTReader.read(malFile.toPath(), FSTProducer.HFST, true, 3);
+        bytes.reset();
+        bytes2.reset();
+        malInv.writeToBinary(bytes);
+        malInv2.writeToBinary(bytes2);
+        assertTrue(Arrays.equals(bytes.toByteArray(), bytes2.toByteArray()));
+
+        // Malformed line in a later chunk
+        File file = File.createTempFile("malformed", ".att");
+        file.deleteOnExit();
+        List<String> lines = Files.readAllLines(malFile.toPath(), StandardCharsets.UTF_8);
+        lines.set(10000, "10\t11\ta");
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        try {
+            ATTReader.read(file.toPath(), FSTProducer.HFST, false, 4);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Malformed AT&T line 10001", e.getMessage());
+        }
+    }
+
+    public void testLexiconBuilder() throws IOException {
+        String tsv = "cat\tcat+N+Sg\n" +
+                "cats\tcat+N+Pl\n" +
+                "dog\tdog+N+Sg\n" +
+                "dogs\tdog+N+Pl\n" +
+                "dogs\tdog+V+3Sg\n" +
+                "mat\tmat+N+Sg\n" +
+                "mats\tmat+N+Pl\n";
+        CompactFST lex = TSVReader.read(new ByteArrayInputStream(tsv.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Collections.singleton("cat+N+Sg"), lex.apply("cat"));
+        assertEquals(Collections.singleton("mat+N+Pl"), lex.apply("mats"));
+        assertEquals(new HashSet<>(Arrays.asList("dog+N+Pl", "dog+V+3Sg")), lex.apply("dogs"));
+        assertTrue(lex.apply("ca").isEmpty());
+        assertTrue(lex.apply("catss").isEmpty());
+
+        // "mat" only differs in the first transition, everything else is shared with "cat"
+        LexiconFSTBuilder builder = new LexiconFSTBuilder();
+        builder.add("cat", "cat+N+Sg");
+        builder.add("cats", "cat+N+Pl");
+        CompactFST cat = builder.build();
+        builder = new LexiconFSTBuilder();
+        builder.add("cat", "cat+N+Sg");
+        builder.add("cats", "cat+N+Pl");
+        builder.add("mat", "mat+N+Sg");
+        builder.add("mats", "mat+N+Pl");
+        assertEquals(4, builder.nOfPairs());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        builder.writeToBinary(bytes);
+        CompactFST catMat = CompactFST.readFromBinary(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(cat.nOfStates(), catMat.nOfStates());
+        assertEquals(cat.nOfTransitions() + 1, catMat.nOfTransitions());
+        assertEquals(Collections.singleton("mat+N+Sg"), catMat.apply("mat"));
+
+        // Outputs longer than the epsilons a lookup follows, on a transition and at the end
+        builder = new LexiconFSTBuilder();
+        builder.add("x", "0123456789abcdefghij");
+        builder.add("xy", "0123456789abcdefghij+klmnopqrstuvwxyz");
+        builder.add("xz", "ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        CompactFST longOut = builder.build();
+        assertEquals(Collections.singleton("0123456789abcdefghij"), longOut.apply("x"));
+        assertEquals(Collections.singleton("0123456789abcdefghij+klmnopqrstuvwxyz"), longOut.apply("xy"));
+        assertEquals(Collections.singleton("ABCDEFGHIJKLMNOPQRSTUVWXYZ"), longOut.apply("xz"));
+        assertTrue(longOut.apply("0").isEmpty());
+
+        // Unrelated outputs push a distinct output symbol to almost every accepting path, but
+        // inputs are only matched against epsilon, identity, "w" and the ten digits
+        Alphabet alphabet = new Alphabet();
+        builder = new LexiconFSTBuilder(alphabet);
+        String[] words = new String[20000];
+        for (int i = 0; i < words.length; i++)
+            words[i] = "w" + i;
+        Arrays.sort(words);
+        for (String word : words)
+            builder.add(word, lemma(Integer.parseInt(word.substring(1))));
+        CompactFST large = builder.build();
+        assertTrue(alphabet.size() > words.length);
+        assertEquals(13, alphabet.nOfInputSymbols());
+        for (Symbol prefix : alphabet.getPrefixes(lemma(123), 0))
+            assertEquals(1, prefix.length());
+        assertEquals(Collections.singleton(lemma(123)), large.apply("w123"));
+        assertEquals(Collections.singleton(lemma(19999)), large.apply("w19999"));
+        assertEquals(Collections.singleton("w4567"), large.applyInverse(lemma(4567)));
+        assertTrue(large.apply("w20000").isEmpty());
+
+        try {
+            TSVReader.read(new ByteArrayInputStream("ab\tx\nb\ty\nac\tz\n".getBytes(StandardCharsets.UTF_8)));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Unsorted TSV line 3", e.getMessage());
+        }
+    }
+
+    // An output that shares no structure with the input i
+    private static String lemma(int i) {
+        return "lemma" + Integer.toHexString(i * 0x9E3779B1) + "+N";
+    }
+
     public void testMutableToCompact() {
         CompactFST sfst2 = sfst.makeCompact();
         compare(sfst, sfst2, sfstTestSet);
@@ -184,6 +814,171 @@ public class FSTTest extends TestCase {
         compare(hfst, hfst2, hfstTestSet);
     }
 
+    public void testHighFanout() throws IOException {
+        // One state with a transition for every symbol pair, added in descending order
+        int n = 100;
+        StringBuilder att = new StringBuilder();
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = 0; j < 20; j++)
+                att.append("0\t1\tx").append(i).append("\ty").append(i).append('_').append(j).append('\n');
+        }
+        att.append("1\n");
+        MutableFST fst = MutableFST.readFromATT(new ByteArrayInputStream(att.toString().getBytes(StandardCharsets.UTF_8)),
+                FSTProducer.HFST);
+        assertEquals(20 * n, fst.nOfTransitions());
+        Set<String> expected = new HashSet<>();
+        for (int j = 0; j < 20; j++)
+            expected.add("y42_" + j);
+        assertEquals(expected, fst.apply("x42"));
+        CompactFST compact = fst.makeCompact();
+        assertEquals(expected, compact.apply("x42"));
+
+        fst.invert();
+        assertEquals(Collections.singleton("x42"), fst.apply("y42_7"));
+        assertEquals(compact.applyInverse("y42_7"), fst.apply("y42_7"));
+        assertEquals(Collections.singleton("x42"), fst.makeCompact().apply("y42_7"));
+    }
+
+    public void testMappedFormat() throws IOException {
+        File file = File.createTempFile("testHFST", ".jfstm");
+        file.deleteOnExit();
+        CompactFST hfst2 = hfst.makeCompact();
+        hfst2.writeToMapped(file.toPath());
+        CompactFST hfst3 = CompactFST.readFromMapped(file.toPath());
+        compare(hfst2, hfst3, hfstTestSet);
+        compare(hfst, hfst3, hfstTestSet);
+
+        CompactFST mal = CompactFST.readFromBinary("/mal-orth2asciiprnc.hfst", FSTProducer.HFST);
+        mal.writeToMapped(file.toPath());
+        CompactFST mal2 = CompactFST.readFromMapped(file.toPath());
+        assertEquals(mal.nOfStates(), mal2.nOfStates());
+        assertEquals(mal.nOfTransitions(), mal2.nOfTransitions());
+        assertEquals(Arrays.asList(mal.getSymbols()), Arrays.asList(mal2.getSymbols()));
+        assertEquals(mal.apply("വാങ്ങിക്കുക"), mal2.apply("വാങ്ങിക്കുക"));
+    }
+
+    public void testOffHeap() {
+        CompactFST sfst2 = new CompactFST(sfst.iter(), true);
+        compare(sfst, sfst2, sfstTestSet);
+
+        CompactFST hfst2 = hfst.makeCompact();
+        CompactFST hfst3 = hfst2.offHeap();
+        compare(hfst2, hfst3, hfstTestSet);
+        assertEquals(hfst2.nOfTransitionsLong(), hfst3.nOfTransitionsLong());
+        assertEquals(hfst2.applyInverse("abc"), hfst3.applyInverse("abc"));
+
+        // Iterating over a compact FST yields the same FST again
+        CompactFST hfst4 = new CompactFST(hfst3.iter());
+        compare(hfst, hfst4, hfstTestSet);
+        assertEquals(hfst.nOfTransitions(), hfst4.nOfTransitions());
+    }
+
+    public void testCompressed() {
+        CompactFST sfst2 = sfst.makeCompact().compress();
+        compare(sfst, sfst2, sfstTestSet);
+        CompactFST hfst2 = hfst.makeCompact();
+        CompactFST hfst3 = hfst2.compress();
+        compare(hfst, hfst3, hfstTestSet);
+        assertEquals(hfst2.applyInverse("bbiyo"), hfst3.applyInverse("bbiyo"));
+
+        // Compared to the default packed store: 55068 -> 13116 bytes (4.2x) and 47352 -> 7064 bytes (6.7x)
+        CompactFST mal = CompactFST.readFromBinary("/mal-orth2asciiprnc.hfst", FSTProducer.HFST);
+        CompactFST mal2 = mal.compress();
+        assertEquals(mal.apply("വാങ്ങിക്കുക"), mal2.apply("വാങ്ങിക്കുക"));
+        assertEquals(mal.applyInverse("kala", 1), mal2.applyInverse("kala", 1));
+        assertTrue(3 * mal2.storageSize() <= mal.storageSize());
+        CompactFST eus = CompactFST.readFromBinary("/eus.hfst", FSTProducer.HFST);
+        CompactFST eus2 = eus.compress();
+        Set<String> out = eus.apply("etxe");
+        assertEquals(out, eus2.apply("etxe"));
+        assertEquals(eus.applyInverse(out.iterator().next(), 1), eus2.applyInverse(out.iterator().next(), 1));
+        assertTrue(3 * eus2.storageSize() <= eus.storageSize());
+    }
+
+    public void testLargeAlphabet() throws IOException {
+        StringBuilder att = new StringBuilder();
+        for (int i = 0; i < 70000; i++)
+            att.append("0\t1\t<i").append(i).append(">\t<o").append(i).append(">\n");
+        att.append("1\n");
+        CompactFST fst = CompactFST.readFromATT(
+                new ByteArrayInputStream(att.toString().getBytes(StandardCharsets.UTF_8)), FSTProducer.HFST);
+        assertTrue(fst.getSymbols().length > 0x10000);
+        assertEquals(Collections.singleton("<o0>"), fst.apply("<i0>"));
+        assertEquals(Collections.singleton("<o69999>"), fst.apply("<i69999>"));
+        assertEquals(Collections.singleton("<i12345>"), fst.applyInverse("<o12345>"));
+
+        // Off-heap and mapped transitions take as many bits per symbol as the alphabet needs
+        CompactFST offHeap = fst.offHeap();
+        assertEquals(Collections.singleton("<o69999>"), offHeap.apply("<i69999>"));
+        assertEquals(Collections.singleton("<i12345>"), offHeap.applyInverse("<o12345>"));
+        File file = File.createTempFile("large", ".jfstm");
+        file.deleteOnExit();
+        fst.writeToMapped(file.toPath());
+        CompactFST mapped = CompactFST.readFromMapped(file.toPath());
+        assertEquals(Collections.singleton("<o69999>"), mapped.apply("<i69999>"));
+        assertEquals(Collections.singleton("<o0>"), mapped.apply("<i0>"));
+    }
+
+    public void testMoreThanIntTransitions() throws IOException {
+        // A sparse mapped file with 2^31 + 2 transitions: State 0 has all but three of them, the
+        // start state 1 has the others, with indices 2^31 - 1 to 2^31 + 1 across a chunk border
+        long nTrans = (1L << 31) + 2;
+        File file = File.createTempFile("huge", ".jfstm");
+        file.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            ByteBuffer buf = ByteBuffer.allocate(96).order(ByteOrder.LITTLE_ENDIAN);
+            buf.put(new byte[]{'J', 'F', 'S', 'T', 'M', 'A', 'P', 0});
+            buf.putInt(3).putInt(3).putLong(nTrans).putInt(1).putInt(3).putInt(3);
+            // 2 bits per symbol id and state id
+            buf.putInt(2 << 8 | 2);
+            for (char c = 'a'; c <= 'c'; c++)
+                buf.putInt(1).putChar(c);
+            buf.position(64);
+            buf.putLong(0).putLong(nTrans - 3).putLong(nTrans).putLong(nTrans);
+            raf.write(buf.array());
+            // a:b -> 2, b:c -> 2, c:a -> 2
+            long transitions = 96 + 8 * (nTrans - 3);
+            raf.seek(transitions);
+            ByteBuffer arcs = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+            arcs.putLong(0b00_01_10).putLong(0b01_10_10).putLong(0b10_00_10);
+            // Only state 2 is accepting
+            arcs.putLong(0b100);
+            raf.write(arcs.array());
+        }
+
+        try (CompactFST fst = CompactFST.readFromMapped(file.toPath())) {
+            assertEquals(nTrans, fst.nOfTransitionsLong());
+            FSTStateIterator states = fst.iter();
+            assertEquals(nTrans, states.nOfTransitionsLong());
+            try {
+                fst.nOfTransitions();
+                fail();
+            } catch (ArithmeticException e) {
+                // expected
+            }
+            assertEquals(Collections.singleton("b"), fst.apply("a"));
+            assertEquals(Collections.singleton("c"), fst.apply("b"));
+            assertEquals(Collections.singleton("a"), fst.apply("c"));
+            assertEquals(Collections.emptySet(), fst.apply("aa"));
+
+            // Formats that count transitions in ints refuse the FST before writing anything
+            File out = File.createTempFile("huge", ".jfst");
+            out.deleteOnExit();
+            try {
+                fst.writeToBinary(out.toPath());
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("writeToMapped"));
+            }
+            try {
+                fst.writeToContainer(new ByteArrayOutputStream(), false);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("writeToMapped"));
+            }
+        }
+    }
+
     public void testInverse() {
         try {
             MutableFST sfst2 = MutableFST.readFromATT(new FileInputStream(new File(TEST_DIR + "testSFSTinv.att")), FSTProducer.SFST);
@@ -192,12 +987,15 @@ public class FSTTest extends TestCase {
             MutableFST hfst3 = MutableFST.readFromBinary(new FileInputStream(new File(TEST_DIR + "testHFST.jfst")), true);
             CompactFST sfst4 = CompactFST.readFromBinary("/testSFST.jfst", true);
             CompactFST hfst4 = CompactFST.readFromBinary("/testHFST.jfst", true);
+            CompactFST sfst5 = sfst.makeCompact();
+            CompactFST hfst5 = hfst.makeCompact();
 
             for (String test : hfstTestSet.keySet()) {
                 for (String res : hfst.apply(test)) {
                     assertTrue(hfst2.apply(res).contains(test));
                     assertTrue(hfst3.apply(res).contains(test));
                     assertTrue(hfst4.apply(res).contains(test));
+                    assertEquals(hfst4.apply(res), hfst5.applyInverse(res));
                 }
             }
             for (String test : sfstTestSet.keySet()) {
@@ -205,6 +1003,7 @@ public class FSTTest extends TestCase {
                     assertTrue(sfst2.apply(res).contains(test));
                     assertTrue(sfst3.apply(res).contains(test));
                     assertTrue(sfst4.apply(res).contains(test));
+                    assertEquals(sfst4.apply(res), sfst5.applyInverse(res));
                 }
             }
         } catch (IOException e) {
@@ -212,6 +1011,135 @@ public class FSTTest extends TestCase {
         }
     }
 
+    public void testLookupMetrics() throws Exception {
+        CompactFST fst = hfst.makeCompact();
+        List<LookupTrace> traces = new ArrayList<>();
+        CompactFST traced = fst.instrumented(traces::add);
+        assertNull(fst.getObserver());
+        for (String test : hfstTestSet.keySet())
+            assertEquals(hfstTestSet.get(test), traced.apply(test));
+        assertEquals(hfstTestSet.size(), traces.size());
+        int nResults = 0;
+        for (Set<String> expected : hfstTestSet.values())
+            nResults += expected.size();
+        for (LookupTrace trace : traces) {
+            assertEquals(LookupTrace.Kind.APPLY, trace.getKind());
+            nResults -= trace.nOfResults();
+            assertTrue(trace.nOfStatesVisited() >= trace.getInputLength());
+            assertTrue(trace.getMaxDepth() > trace.getInputLength());
+            assertTrue(trace.nOfArcsScanned() >= trace.nOfStatesVisited() - 1);
+            assertTrue(trace.nOfBinarySearches() > 0);
+        }
+        assertEquals(0, nResults);
+        assertEquals(fst.prefixSearch("aa", 5), traced.prefixSearch("aa", 5));
+        assertEquals(LookupTrace.Kind.PREFIX_SEARCH, traces.get(traces.size() - 1).getKind());
+
+        LookupMetrics metrics = new LookupMetrics();
+        CompactFST measured = fst.instrumented(metrics);
+        for (String test : hfstTestSet.keySet())
+            measured.apply(test);
+        measured.apply("zzz");
+        assertEquals(hfstTestSet.size() + 1, metrics.getLookupCount());
+        for (Set<String> expected : hfstTestSet.values())
+            nResults += expected.size();
+        assertEquals(nResults, metrics.getResultCount());
+        assertTrue(metrics.getStatesVisited() > 0);
+        assertTrue(metrics.getLatencyP50Micros() <= metrics.getLatencyP99Micros());
+        assertTrue(metrics.getLatencyP99Micros() <= metrics.getMaxLatencyMicros());
+
+        ObjectName name = metrics.register("testHFST");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(hfstTestSet.size() + 1L, server.getAttribute(name, "LookupCount"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, metrics.getLookupCount());
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    public void testInverseIndex() {
+        CompactFST fst = CompactFST.readFromBinary("/mal-small.hfst", FSTProducer.HFST);
+        CompactFST inv = CompactFST.readFromBinary("/mal-small.hfst", FSTProducer.HFST, true);
+        for (String res : fst.apply("വാക")) {
+            assertEquals(inv.apply(res, 1), fst.applyInverse(res, 1));
+            assertTrue(fst.applyInverse(res, 1).contains("വാക"));
+        }
+    }
+
+    public void testCachedFST() {
+        CompactFST hfst2 = hfst.makeCompact();
+        CachedFST cached = new CachedFST(hfst2, 2, 1);
+        for (int i = 0; i < 3; i++) {
+            for (String test : hfstTestSet.keySet())
+                assertEquals(hfstTestSet.get(test), cached.apply(test));
+        }
+        assertEquals(2, cached.size());
+        assertTrue(cached.evictionCount() > 0);
+        assertEquals(9, cached.hitCount() + cached.missCount());
+
+        cached = new CachedFST(hfst2);
+        for (int i = 0; i < 3; i++) {
+            for (String test : hfstTestSet.keySet())
+                assertEquals(hfstTestSet.get(test), cached.apply(test));
+        }
+        assertEquals(3, cached.missCount());
+        assertEquals(6, cached.hitCount());
+        assertEquals(0, cached.evictionCount());
+        assertEquals(hfst2.prefixSearch("aa"), cached.prefixSearch("aa"));
+        assertEquals(hfst2.prefixSearch("aa", 1), cached.prefixSearch("aa", 1));
+        assertEquals(5, cached.missCount());
+        try {
+            cached.apply("aaxo").add("x");
+            fail("Cached results should be immutable");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    public void testConcurrentLookup() throws IOException, InterruptedException, ExecutionException {
+        CompactFST fst = CompactFST.readFromBinary("/eus.hfst", FSTProducer.HFST);
+        String[] words = {"etxe", "kaixo", "euskara", "mendia", "gizona", "txakurra", "zuhaitza",
+                "hitza", "baietz", "egun", "gaur", "bihar", "atzo", "ikastola", "ur", "etxeko"};
+        assertConcurrentLookups(fst, fst, words, 200);
+
+        // The first lookups in a MutableFST read from AT&T happen concurrently as well
+        CompactFST mal = CompactFST.readFromBinary("/mal-small.hfst", FSTProducer.HFST);
+        String[] malWords = {"വാക", "കുക", "വാകക", "ക", "കക", "വാ"};
+        for (int i = 0; i < 10; i++) {
+            try (InputStream in = new FileInputStream(TEST_DIR + "mal-small.att")) {
+                assertConcurrentLookups(mal, MutableFST.readFromATT(in, FSTProducer.HFST), malWords, 200);
+            }
+        }
+    }
+
+    // Look up random words in an FST from 8 threads and compare the results to those of another FST
+    private static void assertConcurrentLookups(FST expectedFST, FST fst, String[] words, int nLookups)
+            throws InterruptedException, ExecutionException {
+        Map<String, Set<String>> expected = new HashMap<>();
+        for (String word : words)
+            expected.put(word, expectedFST.apply(word));
+
+        int nThreads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            final long seed = t;
+            results.add(pool.submit(() -> {
+                Random rand = new Random(seed);
+                for (int i = 0; i < nLookups; i++) {
+                    String word = words[rand.nextInt(words.length)];
+                    if (!expected.get(word).equals(fst.apply(word)))
+                        return false;
+                }
+                return true;
+            }));
+        }
+        pool.shutdown();
+        for (Future<Boolean> res : results)
+            assertTrue(res.get());
+    }
+
     public void testPrefixSearch() {
         try {
             MutableFST mfst = MutableFST.readFromATT(new FileInputStream(new File(TEST_DIR + "testPrefix.att")), FSTProducer.SFST);
@@ -0,0 +1,118 @@
+#!/usr/bin/env python3
+"""Convert an HFST AT&T file into HFST's optimized-lookup format.
+
+Usage: att2hfstol.py in.att out.hfstol u|w
+
+Writes the test fixtures mal-orth2asciiprnc.hfstol (unweighted, 'u') and
+mal-small-weighted.hfstol (weighted, 'w') from the AT&T files of the same FSTs.
+The layout follows hfst-optimized-lookup: the HFST3 header, the transducer
+header, the symbol table (epsilon, input symbols, output-only symbols), the
+transition index table and the transition table. Targets in the transition
+table are offset by 2^31. Only the start state and states with at least 4
+distinct input symbols get an index block, which is placed at the first free
+position like a simple version of HFST's packing. This is not hfst-fst2fst
+output; HFST packs and orders the tables differently.
+"""
+import struct
+import sys
+
+NO_SYMBOL = 0xffff
+NO_INDEX = 0xffffffff
+TRANSITION_TABLE_START = 0x80000000
+EPSILON = '@_EPSILON_SYMBOL_@'
+
+
+def convert(sym):
+    return {'@0@': EPSILON, '@_SPACE_@': ' '}.get(sym, sym)
+
+
+def main(att, out, weighted):
+    weighted = weighted == 'w'
+    trans = {}
+    final = {}
+    states = {0}
+    for line in open(att, encoding='utf-8'):
+        f = line.rstrip('\n').split('\t')
+        if len(f) >= 4:
+            s, t = int(f[0]), int(f[1])
+            states |= {s, t}
+            w = float(f[4]) if len(f) > 4 else 0.0
+            trans.setdefault(s, []).append((convert(f[2]), convert(f[3]), t, w))
+        elif f[0] != '':
+            s = int(f[0])
+            states.add(s)
+            final[s] = float(f[1]) if len(f) > 1 else 0.0
+
+    # Epsilon first, then input symbols, then symbols only used as output
+    ins = sorted({i for ts in trans.values() for (i, o, t, w) in ts} - {EPSILON})
+    outs = sorted({o for ts in trans.values() for (i, o, t, w) in ts} - set(ins) - {EPSILON})
+    syms = [EPSILON] + ins + outs
+    sid = {s: k for k, s in enumerate(syms)}
+    n_input = 1 + len(ins)
+    order = sorted(states)
+    for s in order:
+        trans[s] = sorted(trans.get(s, []), key=lambda x: (sid[x[0]], sid[x[1]], x[2]))
+
+    # Transition table: a finality entry followed by the transitions of each state
+    table_pos = {}
+    table = []
+    for s in order:
+        table_pos[s] = len(table)
+        table.append((NO_SYMBOL, NO_SYMBOL, 1 if s in final else NO_INDEX, final.get(s, float('inf'))))
+        for (i, o, t, w) in trans[s]:
+            table.append([sid[i], sid[o], t, w])
+
+    # Index table: the finality entry of a block is followed by one entry per input symbol
+    indexed = [s for s in order if s == 0 or len({x[0] for x in trans[s]}) >= 4]
+    used = set()
+    index_pos = {}
+    index = {}
+    for s in indexed:
+        symbols = sorted({sid[x[0]] for x in trans[s]})
+        p = 0
+        while p in used or any(p + 1 + k in used for k in symbols):
+            p += 1
+        index_pos[s] = p
+        used.add(p)
+        if s in final:
+            index[p] = (NO_SYMBOL, struct.unpack('<I', struct.pack('<f', final[s]))[0] if weighted else 1)
+        else:
+            index[p] = (NO_SYMBOL, NO_INDEX)
+        first = {}
+        for j in range(table_pos[s] + 1, table_pos[s] + 1 + len(trans[s])):
+            first.setdefault(table[j][0], j)
+        for k in symbols:
+            used.add(p + 1 + k)
+            index[p + 1 + k] = (k, TRANSITION_TABLE_START + first[k])
+    index_size = max(used) + 1 + n_input
+
+    def address(t):
+        return index_pos[t] if t in index_pos else TRANSITION_TABLE_START + table_pos[t]
+
+    for e in table:
+        if e[0] != NO_SYMBOL:
+            e[2] = address(e[2])
+
+    # weighted, deterministic, input_deterministic, minimized, cyclic, has_epsilon_epsilon_transitions,
+    # has_input_epsilon_transitions, has_input_epsilon_cycles, has_unweighted_input_epsilon_cycles
+    properties = [weighted, False, False, False, True, False, True, False, False]
+    body = struct.pack('<HHIIII', n_input, len(syms), index_size, len(table), len(order),
+                       sum(len(v) for v in trans.values()))
+    body += b''.join(struct.pack('<I', int(p)) for p in properties)
+    body += b''.join(s.encode('utf-8') + b'\0' for s in syms)
+    for p in range(index_size):
+        body += struct.pack('<HI', *index.get(p, (NO_SYMBOL, NO_INDEX)))
+    for e in table:
+        body += struct.pack('<HHI', e[0], e[1], e[2])
+        if weighted:
+            body += struct.pack('<f', e[3])
+    header = b'version\x003.3\x00type\x00' + (b'HFST_OLW' if weighted else b'HFST_OL') + b'\x00name\x00\x00'
+    data = b'HFST\x00' + struct.pack('<H', len(header)) + b'\x00' + header + body
+
+    with open(out, 'wb') as f:
+        f.write(data)
+    print(out, len(data), 'bytes', len(order), 'states', len(table), 'table entries', index_size, 'index entries')
+
+
+if __name__ == '__main__':
+    main(*sys.argv[1:])
@@ -0,0 +1,101 @@
+#!/usr/bin/env python3
+"""Convert an SFST AT&T file into SFST's compact format.
+
+Usage: att2sfst-compact.py in.att out.a [epsilon]
+
+Writes the test fixtures testSFST.a from testSFST.att and mal-small.a from
+mal-small.att (with epsilon @0@, which is renamed to SFST's <>). SFST has no
+identity symbol, so HFST's @_IDENTITY_SYMBOL_@ stays an ordinary symbol. The packing of the
+sections follows the store_* functions of MakeCompactTransducer in SFST's
+compact.C: finality bits in bytes, all other numbers in 32-bit words in native
+(little-endian) order, most significant bit first, with every section padded to
+a full byte or word. Arcs of a state are sorted by label pair. This is not
+fst-compact output; SFST orders its symbol pairs and arcs differently.
+"""
+import struct
+import sys
+
+
+def bits_for(n):
+    """ceil(log2(n)) as computed by SFST"""
+    return 0 if n <= 1 else (n - 1).bit_length()
+
+
+def pack_bytes(flags):
+    out = bytearray()
+    for i in range(0, len(flags), 8):
+        n = 0
+        for k, f in enumerate(flags[i:i + 8]):
+            n |= (1 << (7 - k)) if f else 0
+        out.append(n)
+    return bytes(out)
+
+
+def pack_words(numbers, bits):
+    out = bytearray()
+    n, k = 0, 0
+    for x in numbers:
+        for b in range(bits - 1, -1, -1):
+            n = (n << 1) | ((x >> b) & 1)
+            k += 1
+            if k == 32:
+                out += struct.pack('<I', n)
+                n, k = 0, 0
+    if k > 0:
+        out += struct.pack('<I', n << (32 - k))
+    return bytes(out)
+
+
+def main(att, out, eps='<>'):
+    def convert(sym):
+        return '<>' if sym == eps else sym
+
+    arcs = {}
+    final = set()
+    states = {0}
+    for line in open(att, encoding='utf-8'):
+        f = line.rstrip('\n').split('\t')
+        if len(f) >= 4:
+            s, t = int(f[0]), int(f[1])
+            states |= {s, t}
+            arcs.setdefault(s, []).append((convert(f[2]), convert(f[3]), t))
+        elif f[0] != '':
+            final.add(int(f[0]))
+            states.add(int(f[0]))
+
+    # Symbol 0 is always epsilon
+    code = {'<>': 0}
+    for sym in sorted({x for v in arcs.values() for a in v for x in a[:2]} - {'<>'}):
+        code[sym] = len(code)
+    pairs = sorted({(code[a[0]], code[a[1]]) for v in arcs.values() for a in v})
+    pair_index = {p: i for i, p in enumerate(pairs)}
+    n_states = max(states) + 1
+    n_arcs = sum(len(v) for v in arcs.values())
+
+    # Alphabet: UTF-8 flag, symbol table, pair table
+    data = b'c' + b'\x01' + struct.pack('<H', len(code))
+    for sym, c in sorted(code.items(), key=lambda x: x[1]):
+        data += struct.pack('<H', c) + sym.encode('utf-8') + b'\0'
+    data += struct.pack('<H', len(pairs)) + b''.join(struct.pack('<HH', *p) for p in pairs)
+    data += struct.pack('<II', n_states, n_arcs)
+
+    first = [0]
+    labels = []
+    targets = []
+    for s in range(n_states):
+        for a in sorted(arcs.get(s, []), key=lambda a: (pair_index[(code[a[0]], code[a[1]])], a[2])):
+            labels.append(pair_index[(code[a[0]], code[a[1]])])
+            targets.append(a[2])
+        first.append(len(labels))
+    data += pack_bytes([s in final for s in range(n_states)])
+    data += pack_words(first, bits_for(n_arcs + 1))
+    data += pack_words(labels, bits_for(len(pairs)))
+    data += pack_words(targets, bits_for(n_states))
+
+    with open(out, 'wb') as f:
+        f.write(data)
+    print(out, len(data), 'bytes', n_states, 'states', n_arcs, 'arcs', len(pairs), 'pairs')
+
+
+if __name__ == '__main__':
+    main(*sys.argv[1:])